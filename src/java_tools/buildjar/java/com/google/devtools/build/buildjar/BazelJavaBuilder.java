@@ -20,6 +20,8 @@ import com.google.devtools.build.buildjar.javac.plugins.BlazeJavaCompilerPlugin;
 import com.google.devtools.build.buildjar.javac.plugins.classloader.ClassLoaderMaskingPlugin;
 import com.google.devtools.build.buildjar.javac.plugins.dependency.DependencyModule;
 import com.google.devtools.build.buildjar.javac.plugins.errorprone.ErrorPronePlugin;
+import com.google.devtools.build.buildjar.javac.plugins.jarindex.JarIndexCache;
+import com.google.devtools.build.buildjar.javac.plugins.jarindex.JarIndexCachePlugin;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 
@@ -28,6 +30,11 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
 
 /**
  * The JavaBuilder main called by bazel.
@@ -36,6 +43,10 @@ public abstract class BazelJavaBuilder {
 
   private static final String CMDNAME = "BazelJavaBuilder";
 
+  // The indexes of the open jars take much less memory than the jars themselves, so this leaves
+  // plenty of room for the compilations.
+  private static final long MAX_INDEXED_JAR_BYTES = Runtime.getRuntime().maxMemory() / 2;
+
   /**
    * The main method of the BazelJavaBuilder.
    */
@@ -44,69 +55,133 @@ public abstract class BazelJavaBuilder {
       System.exit(runPersistentWorker());
     } else {
       // This is a single invocation of JavaBuilder that exits after it processed the request.
-      System.exit(processRequest(Arrays.asList(args)));
+      System.exit(processRequest(Arrays.asList(args), null, System.err));
     }
   }
 
   private static int runPersistentWorker() {
-    PrintStream originalStdOut = System.out;
-    PrintStream originalStdErr = System.err;
+    // The responses are written to the original stdout, which nothing else may write to.
+    final PrintStream protocolOut = System.out;
+    System.setOut(System.err);
+    final JarIndexCache jarIndexCache = new JarIndexCache(MAX_INDEXED_JAR_BYTES);
+    // Compiles the requests that carry a request id, which multiplexed workers get without
+    // waiting for the responses to the previous ones.
+    ExecutorService multiplexExecutor = Executors.newCachedThreadPool();
 
-    while (true) {
-      try {
-        WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
+    try {
+      while (true) {
+        final WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
 
         if (request == null) {
           break;
         }
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        PrintStream ps = new PrintStream(baos, true);
-        // Make sure that we exit nonzero in case an exception occurs during processRequest.
-        int exitCode = 1;
-        // TODO(philwo) - change this so that a PrintWriter can be passed in and will be used
-        // instead of redirect stdout / stderr.
-        System.setOut(ps);
-        System.setErr(ps);
-        try {
-          exitCode = processRequest(request.getArgumentsList());
-        } finally {
-          System.setOut(originalStdOut);
-          System.setErr(originalStdErr);
+        if (request.getRequestId() != 0) {
+          multiplexExecutor.execute(
+              new Runnable() {
+                @Override
+                public void run() {
+                  try {
+                    // The jar index cache serves one compilation at a time.
+                    respond(request, null, protocolOut);
+                  } catch (IOException e) {
+                    e.printStackTrace();
+                    System.exit(1);
+                  }
+                }
+              });
+        } else {
+          respond(request, jarIndexCache, protocolOut);
         }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      return 1;
+    } finally {
+      // Lets the compilations in flight send their responses before the worker exits.
+      multiplexExecutor.shutdown();
+      awaitTermination(multiplexExecutor);
+    }
 
+    return 0;
+  }
+
+  /**
+   * Runs the compilation of a work request and writes the response.
+   *
+   * @param jarIndexCache if not null, the cache is updated with the inputs of the request and
+   *     keeps the indexes of its jars for later compilations
+   */
+  private static void respond(
+      WorkRequest request, @Nullable JarIndexCache jarIndexCache, PrintStream protocolOut)
+      throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    // Make sure that we exit nonzero in case an exception occurs during processRequest.
+    int exitCode = 1;
+    try (PrintStream ps = new PrintStream(baos, true)) {
+      // Jar indexes can only be reused if Blaze tells us which jars changed.
+      if (jarIndexCache != null && request.getInputsCount() > 0) {
+        jarIndexCache.update(request.getInputsList());
+        exitCode = processRequest(request.getArgumentsList(), jarIndexCache, ps);
+      } else {
+        exitCode = processRequest(request.getArgumentsList(), null, ps);
+      }
+    } finally {
+      // JavaBuilder doesn't close certain file handles. We have to migrate to using the real
+      // Jsr199 API instead of just calling the Main method of Javac in order to fix this, for
+      // now let's just invoke GC.
+      System.gc();
+    }
+
+    WorkResponse response =
         WorkResponse.newBuilder()
             .setOutput(baos.toString())
             .setExitCode(exitCode)
-            .build()
-            .writeDelimitedTo(System.out);
-        System.out.flush();
-      } catch (IOException e) {
-        e.printStackTrace();
-        return 1;
-      } finally {
-        // JavaBuilder doesn't close certain file handles. We have to migrate to using the real
-        // Jsr199 API instead of just calling the Main method of Javac in order to fix this, for
-        // now let's just invoke GC.
-        System.gc();
-      }
+            .setRequestId(request.getRequestId())
+            .build();
+    synchronized (protocolOut) {
+      response.writeDelimitedTo(protocolOut);
+      protocolOut.flush();
     }
+  }
 
-    return 0;
+  private static void awaitTermination(ExecutorService executor) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+          break;
+        }
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
   }
 
-  private static int processRequest(List<String> args) {
+  /**
+   * Runs a compilation.
+   *
+   * @param jarIndexCache if not null, the indexes of the jars read by the compilation are kept in
+   *     memory for later compilations. The cache must have been updated with the inputs of this
+   *     compilation.
+   * @param err the stream that the diagnostics of the compilation are written to
+   */
+  private static int processRequest(
+      List<String> args, @Nullable JarIndexCache jarIndexCache, PrintStream err) {
     try {
-      JavaLibraryBuildRequest build = parse(args);
+      JavaLibraryBuildRequest build = parse(args, jarIndexCache);
       AbstractJavaBuilder builder = build.getDependencyModule().reduceClasspath()
           ? new ReducedClasspathJavaLibraryBuilder()
           : new SimpleJavaLibraryBuilder();
-      builder.run(build, System.err);
+      builder.run(build, err);
     } catch (JavacException | InvalidCommandLineException e) {
-      System.err.println(CMDNAME + " threw exception: " + e.getMessage());
+      err.println(CMDNAME + " threw exception: " + e.getMessage());
       return 1;
     } catch (Exception e) {
-      e.printStackTrace();
+      e.printStackTrace(err);
       return 1;
     }
     return 0;
@@ -120,12 +195,17 @@ public abstract class BazelJavaBuilder {
    *         file failed
    * @throws InvalidCommandLineException on any command line error
    */
-  private static JavaLibraryBuildRequest parse(List<String> args) throws IOException,
-      InvalidCommandLineException {
-    ImmutableList<BlazeJavaCompilerPlugin> plugins =
-        ImmutableList.<BlazeJavaCompilerPlugin>of(
-            new ClassLoaderMaskingPlugin(),
-            new ErrorPronePlugin());
+  private static JavaLibraryBuildRequest parse(
+      List<String> args, @Nullable JarIndexCache jarIndexCache)
+      throws IOException, InvalidCommandLineException {
+    ImmutableList.Builder<BlazeJavaCompilerPlugin> pluginsBuilder =
+        ImmutableList.<BlazeJavaCompilerPlugin>builder()
+            .add(new ClassLoaderMaskingPlugin())
+            .add(new ErrorPronePlugin());
+    if (jarIndexCache != null) {
+      pluginsBuilder.add(new JarIndexCachePlugin(jarIndexCache));
+    }
+    ImmutableList<BlazeJavaCompilerPlugin> plugins = pluginsBuilder.build();
     JavaLibraryBuildRequest build =
         new JavaLibraryBuildRequest(args, plugins, new DependencyModule.Builder());
     build.setJavacOpts(JavacOptions.normalizeOptions(build.getJavacOpts()));
@@ -77,7 +77,8 @@ public final class StrictJavaDepsPlugin extends BlazeJavaCompilerPlugin {
   /** Computed missing dependencies */
   private final Set<String> missingTargets;
 
-  private static Properties targetMap;
+  // Replaced as a whole by each compilation, as the worker may run several of them concurrently.
+  private static volatile Properties targetMap = new Properties();
 
   private JavaFileManager fileManager;
 
@@ -99,7 +100,6 @@ public final class StrictJavaDepsPlugin extends BlazeJavaCompilerPlugin {
     this.dependencyModule = dependencyModule;
     toplevels = new HashSet<>();
     trees = new HashSet<>();
-    targetMap = new Properties();
     missingTargets = new TreeSet<>();
   }
 
@@ -122,10 +122,12 @@ public final class StrictJavaDepsPlugin extends BlazeJavaCompilerPlugin {
   }
 
   private void initTargetMap() {
+    Properties map = new Properties();
     try (InputStream is = getClass().getClassLoader().getResourceAsStream(targetMapping)) {
       if (is != null) {
-        targetMap.load(is);
+        map.load(is);
       }
+      targetMap = map;
     } catch (IOException ex) {
       log.warning("Error loading Strict Java Deps mapping file: " + targetMapping, ex);
     }
@@ -0,0 +1,55 @@
+// Copyright 2016 The Bazel Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.buildjar.javac.plugins.jarindex;
+
+import com.sun.tools.javac.file.JavacFileManager;
+import com.sun.tools.javac.util.Context;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import javax.tools.JavaFileManager;
+
+/**
+ * A {@link JavacFileManager} that reads the jar inputs of a compilation from a {@link
+ * JarIndexCache}, and all other files like javac does.
+ *
+ * <p>The file manager never caches the archives it gets from the cache itself, so closing it at
+ * the end of the compilation leaves them open for the next one.
+ */
+public final class CachingJavacFileManager extends JavacFileManager {
+
+  /** Registers a factory for a caching file manager in the given context. */
+  public static void preRegister(Context context, final JarIndexCache jarIndexCache) {
+    context.put(JavaFileManager.class, new Context.Factory<JavaFileManager>() {
+      @Override
+      public JavaFileManager make(Context c) {
+        return new CachingJavacFileManager(c, jarIndexCache);
+      }
+    });
+  }
+
+  private final JarIndexCache jarIndexCache;
+
+  private CachingJavacFileManager(Context context, JarIndexCache jarIndexCache) {
+    super(context, true, null);
+    this.jarIndexCache = jarIndexCache;
+  }
+
+  @Override
+  protected Archive openArchive(Path path) throws IOException {
+    Archive archive = jarIndexCache.getArchive(path, this);
+    return (archive != null) ? archive : super.openArchive(path);
+  }
+}
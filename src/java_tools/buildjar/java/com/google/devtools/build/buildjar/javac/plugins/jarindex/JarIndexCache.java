@@ -0,0 +1,201 @@
+// Copyright 2016 The Bazel Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.buildjar.javac.plugins.jarindex;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.worker.WorkerProtocol.Input;
+import com.google.protobuf.ByteString;
+
+import com.sun.tools.javac.file.JavacFileManager;
+import com.sun.tools.javac.file.ZipArchive;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipFile;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the jars read by javac open and indexed across the compilations of a persistent worker.
+ *
+ * <p>The jars are opened like javac does when its optimized zip support is disabled, i.e. as a
+ * {@link ZipArchive} over a {@link ZipFile}, but by this cache instead of the file manager of a
+ * single compilation (see {@link CachingJavacFileManager}). Only the jars that are inputs of the
+ * current compilation, with known digests, are served from the cache. Before each compilation,
+ * {@link #update} closes the jars whose digests changed since they were opened. It also closes the
+ * least recently used jars while the open jars are larger than the limit in total.
+ */
+public final class JarIndexCache {
+
+  /** The digest and size of a jar input, and the archive of the jar if it is open. */
+  private static final class JarInput {
+    private final ByteString digest;
+    private final long size;
+    @Nullable private CachedZipArchive archive;
+
+    private JarInput(ByteString digest, long size) {
+      this.digest = digest;
+      this.size = size;
+    }
+
+    private void close() {
+      if (archive != null) {
+        archive.reallyClose();
+        archive = null;
+      }
+    }
+  }
+
+  /**
+   * A {@link ZipArchive} that outlives the file manager that opened it. The file objects of the
+   * archive refer to the file manager of the archive, so it is set to the file manager of the
+   * current compilation whenever the archive is used.
+   */
+  private static final class CachedZipArchive extends ZipArchive {
+    private CachedZipArchive(JavacFileManager fileManager, ZipFile zipFile) throws IOException {
+      super(fileManager, zipFile);
+    }
+
+    private void setFileManager(JavacFileManager fileManager) {
+      this.fileManager = fileManager;
+    }
+
+    @Override
+    public void close() {
+      // The archive is closed by the cache.
+    }
+
+    private void reallyClose() {
+      try {
+        super.close();
+      } catch (IOException e) {
+        // Nothing reads from the archive anymore.
+      }
+    }
+  }
+
+  private final long maxIndexedBytes;
+  // The jar inputs of the compilations, by absolute path, least recently used first.
+  private final LinkedHashMap<Path, JarInput> jarInputs = new LinkedHashMap<>();
+  // The jar inputs of the current compilation.
+  private final Set<Path> currentJars = new HashSet<>();
+
+  /**
+   * @param maxIndexedBytes the maximum total size of the jars that are kept open
+   */
+  public JarIndexCache(long maxIndexedBytes) {
+    this.maxIndexedBytes = maxIndexedBytes;
+  }
+
+  /**
+   * Prepares the cache for a compilation with the given inputs, whose paths are relative to the
+   * working directory.
+   */
+  public synchronized void update(List<Input> inputs) {
+    Map<Path, ByteString> jarDigests = new LinkedHashMap<>();
+    for (Input input : inputs) {
+      if (input.getPath().endsWith(".jar")) {
+        jarDigests.put(normalize(Paths.get(input.getPath())), input.getDigest());
+      }
+    }
+    currentJars.clear();
+    currentJars.addAll(jarDigests.keySet());
+
+    // Move the jars of this compilation to the end, as the most recently used ones.
+    for (Map.Entry<Path, ByteString> entry : jarDigests.entrySet()) {
+      JarInput jarInput = jarInputs.remove(entry.getKey());
+      if (jarInput != null && !jarInput.digest.equals(entry.getValue())) {
+        jarInput.close();
+        jarInput = null;
+      }
+      if (jarInput == null) {
+        jarInput = new JarInput(entry.getValue(), sizeOf(entry.getKey()));
+      }
+      jarInputs.put(entry.getKey(), jarInput);
+    }
+
+    long indexedBytes = 0;
+    for (JarInput jarInput : jarInputs.values()) {
+      if (jarInput.archive != null) {
+        indexedBytes += jarInput.size;
+      }
+    }
+    // Close the least recently used jars while the open jars are too large, and forget the jars
+    // that are neither open nor inputs of this compilation.
+    Iterator<Map.Entry<Path, JarInput>> it = jarInputs.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Path, JarInput> entry = it.next();
+      JarInput jarInput = entry.getValue();
+      if (jarInput.archive != null && indexedBytes > maxIndexedBytes) {
+        jarInput.close();
+        indexedBytes -= jarInput.size;
+      }
+      if (jarInput.archive == null && !jarDigests.containsKey(entry.getKey())) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Returns the archive of a jar input of the current compilation, opening it if needed, or null
+   * if the jar is not one.
+   */
+  @Nullable
+  synchronized ZipArchive getArchive(Path path, JavacFileManager fileManager) throws IOException {
+    path = normalize(path);
+    if (!currentJars.contains(path)) {
+      return null;
+    }
+    JarInput jarInput = jarInputs.get(path);
+    if (jarInput.archive == null) {
+      jarInput.archive = new CachedZipArchive(fileManager, new ZipFile(path.toFile()));
+    } else {
+      jarInput.archive.setFileManager(fileManager);
+    }
+    return jarInput.archive;
+  }
+
+  /** Returns the jars that are open. */
+  @VisibleForTesting
+  synchronized Set<Path> getIndexedJars() {
+    Set<Path> jars = new HashSet<>();
+    for (Map.Entry<Path, JarInput> entry : jarInputs.entrySet()) {
+      if (entry.getValue().archive != null) {
+        jars.add(entry.getKey());
+      }
+    }
+    return jars;
+  }
+
+  private static long sizeOf(Path jar) {
+    try {
+      return Files.size(jar);
+    } catch (IOException e) {
+      // javac cannot open it either.
+      return 0;
+    }
+  }
+
+  private static Path normalize(Path path) {
+    return path.toAbsolutePath().normalize();
+  }
+}
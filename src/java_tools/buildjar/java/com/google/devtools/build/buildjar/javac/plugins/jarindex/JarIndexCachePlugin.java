@@ -0,0 +1,38 @@
+// Copyright 2016 The Bazel Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.buildjar.javac.plugins.jarindex;
+
+import com.google.devtools.build.buildjar.javac.plugins.BlazeJavaCompilerPlugin;
+
+import com.sun.tools.javac.util.Context;
+
+/**
+ * A plugin that makes javac read the jars of a compilation through a {@link JarIndexCache}, so
+ * that later compilations in the same process do not have to open and index them again. The cache
+ * must have been updated with the inputs of the compilation.
+ */
+public final class JarIndexCachePlugin extends BlazeJavaCompilerPlugin {
+
+  private final JarIndexCache jarIndexCache;
+
+  public JarIndexCachePlugin(JarIndexCache jarIndexCache) {
+    this.jarIndexCache = jarIndexCache;
+  }
+
+  @Override
+  public void initializeContext(Context context) {
+    CachingJavacFileManager.preRegister(context, jarIndexCache);
+    super.initializeContext(context);
+  }
+}
@@ -0,0 +1,248 @@
+// Copyright 2016 The Bazel Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.buildjar.javac.plugins.jarindex;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.worker.WorkerProtocol.Input;
+import com.google.protobuf.ByteString;
+
+import com.sun.tools.javac.file.JavacFileManager;
+import com.sun.tools.javac.main.Main;
+import com.sun.tools.javac.main.Main.Result;
+import com.sun.tools.javac.util.Context;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import javax.annotation.Nullable;
+
+/** Tests for {@link JarIndexCache}. */
+@RunWith(JUnit4.class)
+public class JarIndexCacheTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final JavacFileManager fileManager = new JavacFileManager(new Context(), true, null);
+
+  private Path a;
+  private Path b;
+  private Path c;
+  private long jarSize;
+  // The class output directory and the diagnostics of the last javac invocation.
+  private Path lastClasses;
+  private String lastOutput;
+
+  @Before
+  public void setUp() throws IOException {
+    a = createJar("a.jar");
+    b = createJar("b.jar");
+    c = createJar("c.jar");
+    jarSize = Files.size(a);
+    assertThat(Files.size(b)).isEqualTo(jarSize);
+    assertThat(Files.size(c)).isEqualTo(jarSize);
+  }
+
+  private Path createJar(String name) throws IOException {
+    Path jar = tmp.getRoot().toPath().resolve(name);
+    try (OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = new JarOutputStream(out)) {
+      jarOut.putNextEntry(new ZipEntry("p/C.class"));
+      jarOut.write(new byte[100]);
+      jarOut.closeEntry();
+    }
+    return jar;
+  }
+
+  private static Input input(Path jar, String digest) {
+    return Input.newBuilder()
+        .setPath(jar.toString())
+        .setDigest(ByteString.copyFromUtf8(digest))
+        .build();
+  }
+
+  /** Updates the cache for a compilation, then opens its jars as javac would. */
+  private void compile(JarIndexCache cache, Input... inputs) throws IOException {
+    cache.update(ImmutableList.copyOf(inputs));
+    for (Input input : inputs) {
+      cache.getArchive(Paths.get(input.getPath()), fileManager);
+    }
+  }
+
+  @Test
+  public void keepsIndexesOfUnchangedJars() throws IOException {
+    JarIndexCache cache = new JarIndexCache(Long.MAX_VALUE);
+    compile(cache, input(a, "a1"), input(b, "b1"));
+    Object archive = cache.getArchive(a, fileManager);
+
+    cache.update(ImmutableList.of(input(a, "a1"), input(b, "b1")));
+    assertThat(cache.getIndexedJars()).containsExactly(a, b);
+    assertThat(cache.getArchive(a, fileManager)).isSameAs(archive);
+  }
+
+  @Test
+  public void keepsIndexesOfJarsThatAreNotInputs() throws IOException {
+    JarIndexCache cache = new JarIndexCache(Long.MAX_VALUE);
+    compile(cache, input(a, "a1"));
+    cache.update(ImmutableList.of(input(b, "b1")));
+    assertThat(cache.getIndexedJars()).containsExactly(a);
+  }
+
+  @Test
+  public void onlyServesJarsOfTheCurrentCompilation() throws IOException {
+    JarIndexCache cache = new JarIndexCache(Long.MAX_VALUE);
+    compile(cache, input(a, "a1"));
+    cache.update(ImmutableList.of(input(b, "b1")));
+    assertThat(cache.getArchive(a, fileManager)).isNull();
+    assertThat(cache.getArchive(c, fileManager)).isNull();
+    assertThat(cache.getArchive(b, fileManager)).isNotNull();
+  }
+
+  @Test
+  public void dropsIndexWhenDigestChanges() throws IOException {
+    JarIndexCache cache = new JarIndexCache(Long.MAX_VALUE);
+    compile(cache, input(a, "a1"), input(b, "b1"));
+    Object archive = cache.getArchive(a, fileManager);
+
+    cache.update(ImmutableList.of(input(a, "a2"), input(b, "b1")));
+    assertThat(cache.getIndexedJars()).containsExactly(b);
+    assertThat(cache.getArchive(a, fileManager)).isNotSameAs(archive);
+
+    // The new index of the jar is kept as long as its digest stays the same.
+    cache.update(ImmutableList.of(input(a, "a2"), input(b, "b1")));
+    assertThat(cache.getIndexedJars()).containsExactly(a, b);
+  }
+
+  @Test
+  public void dropsLeastRecentlyUsedIndexesBeyondMaxIndexedBytes() throws IOException {
+    JarIndexCache cache = new JarIndexCache(2 * jarSize);
+    compile(cache, input(a, "a1"));
+    compile(cache, input(b, "b1"));
+    // Using a again makes b the least recently used jar.
+    compile(cache, input(a, "a1"));
+    compile(cache, input(c, "c1"));
+    assertThat(cache.getIndexedJars()).containsExactly(a, b, c);
+
+    cache.update(ImmutableList.of(input(c, "c1")));
+    assertThat(cache.getIndexedJars()).containsExactly(a, c);
+
+    compile(cache, input(b, "b1"));
+    cache.update(ImmutableList.of(input(b, "b1")));
+    assertThat(cache.getIndexedJars()).containsExactly(c, b);
+  }
+
+  @Test
+  public void keepsIndexesWithinMaxIndexedBytes() throws IOException {
+    JarIndexCache cache = new JarIndexCache(3 * jarSize);
+    compile(cache, input(a, "a1"), input(b, "b1"), input(c, "c1"));
+    cache.update(ImmutableList.of(input(a, "a1"), input(b, "b1"), input(c, "c1")));
+    assertThat(cache.getIndexedJars()).containsExactly(a, b, c);
+  }
+
+  @Test
+  public void dropsIndexesInInputOrderWithinOneCompilation() throws IOException {
+    JarIndexCache cache = new JarIndexCache(2 * jarSize);
+    compile(cache, input(a, "a1"), input(b, "b1"), input(c, "c1"));
+    cache.update(ImmutableList.of(input(a, "a1"), input(b, "b1"), input(c, "c1")));
+    assertThat(cache.getIndexedJars()).containsExactly(b, c);
+  }
+
+  /** Compiles a source file with javac, optionally reading the jars through the cache. */
+  private Result javac(@Nullable JarIndexCache cache, Path classpath, String name, String source)
+      throws IOException {
+    Path sourceFile = tmp.newFolder().toPath().resolve(name + ".java");
+    Files.write(sourceFile, source.getBytes(UTF_8));
+    Path out = tmp.newFolder().toPath();
+    Context context = new Context();
+    if (cache != null) {
+      CachingJavacFileManager.preRegister(context, cache);
+    } else {
+      JavacFileManager.preRegister(context);
+    }
+    StringWriter output = new StringWriter();
+    Result result = new Main("javac", new PrintWriter(output, true)).compile(new String[] {
+        "-cp", classpath.toString(), "-d", out.toString(), sourceFile.toString()}, context);
+    lastClasses = out;
+    lastOutput = output.toString();
+    return result;
+  }
+
+  /** Compiles a library class into a jar, without the cache. */
+  private void createLibraryJar(Path jar, String source) throws IOException {
+    assertThat(javac(null, tmp.getRoot().toPath(), "Lib", source)).isEqualTo(Result.OK);
+    try (OutputStream out = Files.newOutputStream(jar);
+        JarOutputStream jarOut = new JarOutputStream(out)) {
+      jarOut.putNextEntry(new ZipEntry("lib/Lib.class"));
+      jarOut.write(Files.readAllBytes(lastClasses.resolve("lib/Lib.class")));
+      jarOut.closeEntry();
+    }
+  }
+
+  @Test
+  public void compilesAgainstCachedJars() throws IOException {
+    Path lib = tmp.getRoot().toPath().resolve("lib.jar");
+    createLibraryJar(lib, "package lib; public class Lib { public static int f() { return 1; } }");
+    JarIndexCache cache = new JarIndexCache(Long.MAX_VALUE);
+
+    cache.update(ImmutableList.of(input(lib, "lib1")));
+    assertThat(javac(cache, lib, "A", "class A { int a = lib.Lib.f(); }"))
+        .isEqualTo(Result.OK);
+    assertThat(cache.getIndexedJars()).containsExactly(lib);
+    Object archive = cache.getArchive(lib, fileManager);
+
+    // The second compilation reads the jar that the first one opened.
+    cache.update(ImmutableList.of(input(lib, "lib1")));
+    assertThat(javac(cache, lib, "B", "class B { int b = lib.Lib.f(); }"))
+        .isEqualTo(Result.OK);
+    assertThat(cache.getArchive(lib, fileManager)).isSameAs(archive);
+  }
+
+  @Test
+  public void compilesAgainstRewrittenJar() throws IOException {
+    Path lib = tmp.getRoot().toPath().resolve("lib.jar");
+    createLibraryJar(lib, "package lib; public class Lib { public static int f() { return 1; } }");
+    JarIndexCache cache = new JarIndexCache(Long.MAX_VALUE);
+    cache.update(ImmutableList.of(input(lib, "lib1")));
+    assertThat(javac(cache, lib, "A", "class A { int a = lib.Lib.f(); }"))
+        .isEqualTo(Result.OK);
+
+    // The new class file has a different size, so reading it through the old index would fail.
+    createLibraryJar(lib, "package lib; public class Lib {"
+        + " public static int g() { return 2; } public static int h() { return 3; } }");
+    cache.update(ImmutableList.of(input(lib, "lib2")));
+    assertThat(javac(cache, lib, "B", "class B { int b = lib.Lib.g() + lib.Lib.h(); }"))
+        .isEqualTo(Result.OK);
+
+    cache.update(ImmutableList.of(input(lib, "lib2")));
+    assertThat(javac(cache, lib, "C", "class C { int c = lib.Lib.f(); }"))
+        .isEqualTo(Result.ERROR);
+    assertThat(lastOutput).contains("cannot find symbol");
+  }
+}
@@ -52,6 +52,10 @@ BlazeStartupOptions::BlazeStartupOptions(const BlazeStartupOptions &rhs)
       skyframe(rhs.skyframe),
       blaze_cpu(rhs.blaze_cpu),
       watchfs(rhs.watchfs),
+      experimental_skyframe_graph_snapshot(
+          rhs.experimental_skyframe_graph_snapshot),
+      experimental_mapped_action_cache(rhs.experimental_mapped_action_cache),
+      digest_function(rhs.digest_function),
       allow_configurable_attributes(rhs.allow_configurable_attributes),
       option_sources(rhs.option_sources),
       webstatus_port(rhs.webstatus_port),
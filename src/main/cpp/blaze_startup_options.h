@@ -149,6 +149,17 @@ class BlazeStartupOptions {
   // If true, Blaze will listen to OS-level file change notifications.
   bool watchfs;
 
+  // If true, the server restores the Skyframe graph saved by its predecessor
+  // on startup and saves it again on shutdown.
+  bool experimental_skyframe_graph_snapshot;
+
+  // If true, the server uses the memory-mapped action cache.
+  bool experimental_mapped_action_cache;
+
+  // The hash function used to digest files and action keys. Empty means the
+  // server's default.
+  string digest_function;
+
   // Temporary experimental flag that permits configurable attribute syntax
   // in BUILD files. This will be removed when configurable attributes is
   // a more stable feature.
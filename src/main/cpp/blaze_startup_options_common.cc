@@ -51,6 +51,9 @@ void BlazeStartupOptions::Init() {
   max_idle_secs = testing ? 5 : (3 * 3600);
   webstatus_port = 0;
   watchfs = false;
+  experimental_skyframe_graph_snapshot = false;
+  experimental_mapped_action_cache = false;
+  digest_function = "";
   invocation_policy = NULL;
 }
 
@@ -82,6 +85,10 @@ void BlazeStartupOptions::Copy(
   lhs->blaze_cpu = rhs.blaze_cpu;
   lhs->webstatus_port = rhs.webstatus_port;
   lhs->watchfs = rhs.watchfs;
+  lhs->experimental_skyframe_graph_snapshot =
+      rhs.experimental_skyframe_graph_snapshot;
+  lhs->experimental_mapped_action_cache = rhs.experimental_mapped_action_cache;
+  lhs->digest_function = rhs.digest_function;
   lhs->allow_configurable_attributes = rhs.allow_configurable_attributes;
   lhs->fatal_event_bus_exceptions = rhs.fatal_event_bus_exceptions;
   lhs->option_sources = rhs.option_sources;
@@ -219,6 +226,23 @@ blaze_exit_code::ExitCode BlazeStartupOptions::ProcessArg(
   } else if (GetNullaryOption(arg, "--nowatchfs")) {
     watchfs = false;
     option_sources["watchfs"] = rcfile;
+  } else if (GetNullaryOption(arg, "--experimental_skyframe_graph_snapshot")) {
+    experimental_skyframe_graph_snapshot = true;
+    option_sources["experimental_skyframe_graph_snapshot"] = rcfile;
+  } else if (GetNullaryOption(arg,
+                              "--noexperimental_skyframe_graph_snapshot")) {
+    experimental_skyframe_graph_snapshot = false;
+    option_sources["experimental_skyframe_graph_snapshot"] = rcfile;
+  } else if (GetNullaryOption(arg, "--experimental_mapped_action_cache")) {
+    experimental_mapped_action_cache = true;
+    option_sources["experimental_mapped_action_cache"] = rcfile;
+  } else if (GetNullaryOption(arg, "--noexperimental_mapped_action_cache")) {
+    experimental_mapped_action_cache = false;
+    option_sources["experimental_mapped_action_cache"] = rcfile;
+  } else if ((value = GetUnaryOption(arg, next_arg,
+                                     "--digest_function")) != NULL) {
+    digest_function = value;
+    option_sources["digest_function"] = rcfile;
   } else if ((value = GetUnaryOption(
       arg, next_arg, "--use_webstatusserver")) != NULL) {
     if (!blaze_util::safe_strto32(value, &webstatus_port) ||
@@ -0,0 +1,112 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.ProcMeminfoParser;
+import com.google.devtools.build.lib.util.ProcStatParser;
+import com.google.devtools.build.lib.util.ResourceUsage;
+
+import java.io.IOException;
+
+/**
+ * A measurement of the actual load of the local host, as opposed to the estimates of
+ * {@link LocalHostCapacity}. The units are those of {@link ResourceSet}.
+ */
+@Immutable
+public final class LocalHostLoad {
+
+  /** Takes measurements of the load of the local host. */
+  @ThreadCompatible
+  public interface Sampler {
+    /**
+     * Returns the current load. CPU usage is averaged since the previous call.
+     *
+     * @throws IOException if the load cannot be measured
+     */
+    LocalHostLoad sample() throws IOException;
+  }
+
+  private final double busyCpu;
+  private final double freeMemoryMb;
+
+  public LocalHostLoad(double busyCpu, double freeMemoryMb) {
+    this.busyCpu = busyCpu;
+    this.freeMemoryMb = freeMemoryMb;
+  }
+
+  /** Returns the number of CPU cores that were busy. */
+  public double getBusyCpu() {
+    return busyCpu;
+  }
+
+  /** Returns the amount of memory that could be used without swapping, in MB. */
+  public double getFreeMemoryMb() {
+    return freeMemoryMb;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%.2f CPUs busy, %.0f MB free", busyCpu, freeMemoryMb);
+  }
+
+  private static ProcSampler procSampler;
+
+  /**
+   * Returns the sampler reading /proc/stat and /proc/meminfo. It is shared by all the builds of the
+   * server, so that the first sample of a build averages the CPU usage since the last sample of the
+   * previous build.
+   *
+   * @throws IOException if /proc/stat cannot be read
+   */
+  public static synchronized Sampler getProcSampler() throws IOException {
+    if (procSampler == null) {
+      procSampler = new ProcSampler();
+    }
+    return procSampler;
+  }
+
+  @ThreadSafe
+  private static final class ProcSampler implements Sampler {
+    private long lastTotalJiffies;
+    private long lastIdleJiffies;
+
+    /** Reads /proc/stat once, so that the first sample does not average CPU usage since boot. */
+    private ProcSampler() throws IOException {
+      ProcStatParser stat = new ProcStatParser();
+      lastTotalJiffies = stat.getTotalJiffies();
+      lastIdleJiffies = stat.getIdleJiffies();
+    }
+
+    @Override
+    public synchronized LocalHostLoad sample() throws IOException {
+      ProcStatParser stat = new ProcStatParser();
+      long total = stat.getTotalJiffies() - lastTotalJiffies;
+      long idle = stat.getIdleJiffies() - lastIdleJiffies;
+      lastTotalJiffies = stat.getTotalJiffies();
+      lastIdleJiffies = stat.getIdleJiffies();
+      double busyFraction = total > 0 ? Math.max(0.0, 1.0 - (double) idle / total) : 0.0;
+      long freeRamKb;
+      try {
+        freeRamKb = new ProcMeminfoParser().getFreeRamKb();
+      } catch (IllegalArgumentException e) {
+        throw new IOException(e);
+      }
+      return new LocalHostLoad(busyFraction * ResourceUsage.getAvailableProcessors(),
+          ProcMeminfoParser.kbToMb(freeRamKb));
+    }
+  }
+}
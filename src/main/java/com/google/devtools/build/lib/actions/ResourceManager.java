@@ -21,13 +21,24 @@ import com.google.common.base.Preconditions;
 import com.google.common.eventbus.EventBus;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
+import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.Clock;
 import com.google.devtools.build.lib.util.Pair;
 
+import java.io.IOException;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
 
 /**
  * Used to keep track of resources consumed by the Blaze action execution threads and throttle them
@@ -56,6 +67,13 @@ import java.util.concurrent.CountDownLatch;
  * guarantees that at least one thread will always be able to acquire any amount of requested
  * resources (even if it is greater than amount of available resources). Therefore, assuming that
  * threads correctly release acquired resources, Blaze will never be fully blocked.
+ *
+ * <p>In adaptive mode, enabled with {@link #setAdaptiveMode}, the resource manager also samples
+ * the actual load of the host. Actions are not started if the host does not have enough free
+ * memory for them, and actions may be started beyond the CPU estimates if the host has idle CPUs.
+ * The load of the host is attributed to the running actions in proportion to their estimates, and
+ * the ratio of the observed usage to the estimates of each mnemonic is used to correct later
+ * estimates. Samples and observed usages are logged to the profiler.
  */
 @ThreadSafe
 public class ResourceManager {
@@ -94,9 +112,21 @@ public class ResourceManager {
   private static final double MIN_NECESSARY_RAM_RATIO = 1.0;
   private static final double MIN_NECESSARY_IO_RATIO = 1.0;
 
+  // In adaptive mode, actions may use up to this much more CPU than available in total, as long as
+  // the host has idle CPUs.
+  private static final double MAX_CPU_OVERCOMMIT_RATIO = 2.0;
+  // Minimum time between two samples of the load of the host.
+  private static final long SAMPLE_INTERVAL_MILLIS = 500;
+  // Weight of the newest observation in the correction factors of a mnemonic.
+  private static final double OBSERVATION_WEIGHT = 0.3;
+  private static final double MIN_CORRECTION_FACTOR = 0.1;
+  private static final double MAX_CORRECTION_FACTOR = 4.0;
+
+  private static final Logger LOG = Logger.getLogger(ResourceManager.class.getName());
+
   // List of blocked threads. Associated CountDownLatch object will always
   // be initialized to 1 during creation in the acquire() method.
-  private final List<Pair<ResourceSet, CountDownLatch>> requestList;
+  private final List<Pair<ResourceRequest, CountDownLatch>> requestList;
 
   // The total amount of resources on the local host. Must be set by
   // an explicit call to setAvailableResources(), often using
@@ -125,14 +155,75 @@ public class ResourceManager {
   public static final int DEFAULT_RAM_UTILIZATION_PERCENTAGE = 67;
   private int ramUtilizationPercentage = DEFAULT_RAM_UTILIZATION_PERCENTAGE;
 
-  private ResourceManager() {
+  private final Clock clock;
+
+  // The rest of the fields are used only in adaptive mode.
+  @Nullable private LocalHostLoad.Sampler loadSampler;
+  @Nullable private LocalHostLoad lastLoad;
+  private long lastSampleMillis;
+  // Load of the host when no action was running.
+  private double baselineBusyCpu;
+  private double baselineFreeMemoryMb;
+  // Expected usage of the actions started since the last sample, which it may not reflect yet.
+  private double cpuAdmittedSinceSample;
+  private double ramAdmittedSinceSample;
+  private final List<RunningAction> runningActions = new LinkedList<>();
+  // Ratios of observed usage to estimates, by mnemonic. Kept across builds.
+  private final Map<String, CorrectionFactors> correctionFactors = new HashMap<>();
+
+  /** A request for resources by an action. */
+  private static final class ResourceRequest {
+    private final ActionMetadata owner;
+    private final ResourceSet resources;
+
+    private ResourceRequest(ActionMetadata owner, ResourceSet resources) {
+      this.owner = owner;
+      this.resources = resources;
+    }
+  }
+
+  /** The estimated and observed usage of an action that holds resources in adaptive mode. */
+  private static final class RunningAction {
+    private final ActionMetadata owner;
+    private final String mnemonic;
+    private final ResourceSet resources;
+    private double observedCpuSum;
+    private int samples;
+    private double peakObservedRam;
+
+    private RunningAction(ActionMetadata owner, ResourceSet resources) {
+      this.owner = owner;
+      this.mnemonic = owner.getMnemonic();
+      this.resources = resources;
+    }
+  }
+
+  /** The ratios of observed usage to estimates of the actions of a mnemonic. */
+  private static final class CorrectionFactors {
+    private double cpu = 1.0;
+    private double ram = 1.0;
+  }
+
+  private static final CorrectionFactors NO_CORRECTION = new CorrectionFactors();
+
+  private ResourceManager(Clock clock) {
     requestList = new LinkedList<>();
+    this.clock = clock;
+  }
+
+  private ResourceManager() {
+    this(BlazeClock.instance());
   }
 
   @VisibleForTesting public static ResourceManager instanceForTestingOnly() {
     return new ResourceManager();
   }
 
+  @VisibleForTesting
+  static ResourceManager instanceForTestingOnly(Clock clock) {
+    return new ResourceManager(clock);
+  }
+
   /**
    * Resets resource manager state and releases all thread locks.
    * Note - it does not reset available resources. Use
@@ -143,7 +234,10 @@ public class ResourceManager {
     usedRam = 0;
     usedIo = 0;
     usedLocalTestCount = 0;
-    for (Pair<ResourceSet, CountDownLatch> request : requestList) {
+    runningActions.clear();
+    cpuAdmittedSinceSample = 0;
+    ramAdmittedSinceSample = 0;
+    for (Pair<ResourceRequest, CountDownLatch> request : requestList) {
       // CountDownLatch can be set only to 0 or 1.
       request.second.countDown();
     }
@@ -165,6 +259,19 @@ public class ResourceManager {
     processWaitingThreads();
   }
 
+  /**
+   * Enables adaptive mode, in which admission also depends on the load of the host measured by
+   * {@code sampler}, or disables it if {@code sampler} is null.
+   */
+  public synchronized void setAdaptiveMode(@Nullable LocalHostLoad.Sampler sampler) {
+    loadSampler = sampler;
+    lastLoad = null;
+    runningActions.clear();
+    cpuAdmittedSinceSample = 0;
+    ramAdmittedSinceSample = 0;
+    maybeSampleLoad();
+  }
+
   /**
    * Specify how much of the available RAM we should allow to be used.
    * This has no effect if autosensing is enabled.
@@ -184,9 +291,9 @@ public class ResourceManager {
     CountDownLatch latch = null;
     try {
       waiting(owner);
-      latch = acquire(resources);
+      latch = acquire(owner, resources);
       if (latch != null) {
-        latch.await();
+        waitForResources(latch);
       }
     } finally {
       threadLocked.set(resources.getCpuUsage() != 0 || resources.getMemoryMb() != 0
@@ -200,6 +307,18 @@ public class ResourceManager {
     }
   }
 
+  private void waitForResources(CountDownLatch latch) throws InterruptedException {
+    // In adaptive mode, resources may also become available when the load of the host drops.
+    while (!latch.await(SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+      synchronized (this) {
+        if (loadSampler != null) {
+          maybeSampleLoad();
+          processWaitingThreads();
+        }
+      }
+    }
+  }
+
   /**
    * Acquires the given resources if available immediately. Does not block.
    * @return true iff the given resources were locked (all or nothing).
@@ -207,8 +326,9 @@ public class ResourceManager {
   public boolean tryAcquire(ActionMetadata owner, ResourceSet resources) {
     boolean acquired = false;
     synchronized (this) {
-      if (areResourcesAvailable(resources)) {
-        incrementResources(resources);
+      maybeSampleLoad();
+      if (areResourcesAvailable(owner, resources)) {
+        incrementResources(owner, resources);
         acquired = true;
       }
     }
@@ -222,11 +342,17 @@ public class ResourceManager {
     return acquired;
   }
 
-  private void incrementResources(ResourceSet resources) {
+  private void incrementResources(@Nullable ActionMetadata owner, ResourceSet resources) {
     usedCpu += resources.getCpuUsage();
     usedRam += resources.getMemoryMb();
     usedIo += resources.getIoUsage();
     usedLocalTestCount += resources.getLocalTestCount();
+    if (loadSampler != null && owner != null) {
+      CorrectionFactors factors = getCorrectionFactors(owner);
+      cpuAdmittedSinceSample += resources.getCpuUsage() * factors.cpu;
+      ramAdmittedSinceSample += resources.getMemoryMb() * factors.ram;
+      runningActions.add(new RunningAction(owner, resources));
+    }
   }
 
   /**
@@ -278,7 +404,7 @@ public class ResourceManager {
     boolean isConflict = false;
     AutoProfiler p = profiled(owner, ProfilerTask.ACTION_RELEASE);
     try {
-      isConflict = release(resources);
+      isConflict = release(owner, resources);
     } finally {
       threadLocked.set(false);
 
@@ -289,18 +415,21 @@ public class ResourceManager {
     }
   }
 
-  private synchronized CountDownLatch acquire(ResourceSet resources) {
-    if (areResourcesAvailable(resources)) {
-      incrementResources(resources);
+  private synchronized CountDownLatch acquire(ActionMetadata owner, ResourceSet resources) {
+    maybeSampleLoad();
+    if (areResourcesAvailable(owner, resources)) {
+      incrementResources(owner, resources);
       return null;
     }
-    Pair<ResourceSet, CountDownLatch> request =
-      new Pair<>(resources, new CountDownLatch(1));
+    Pair<ResourceRequest, CountDownLatch> request =
+      new Pair<>(new ResourceRequest(owner, resources), new CountDownLatch(1));
     requestList.add(request);
     return request.second;
   }
 
-  private synchronized boolean release(ResourceSet resources) {
+  private synchronized boolean release(ActionMetadata owner, ResourceSet resources) {
+    maybeSampleLoad();
+    recordObservedUsage(owner, resources);
     usedCpu -= resources.getCpuUsage();
     usedRam -= resources.getMemoryMb();
     usedIo -= resources.getIoUsage();
@@ -330,11 +459,11 @@ public class ResourceManager {
    * Tries to unblock one or more waiting threads if there are sufficient resources available.
    */
   private synchronized void processWaitingThreads() {
-    Iterator<Pair<ResourceSet, CountDownLatch>> iterator = requestList.iterator();
+    Iterator<Pair<ResourceRequest, CountDownLatch>> iterator = requestList.iterator();
     while (iterator.hasNext()) {
-      Pair<ResourceSet, CountDownLatch> request = iterator.next();
-      if (areResourcesAvailable(request.first)) {
-        incrementResources(request.first);
+      Pair<ResourceRequest, CountDownLatch> request = iterator.next();
+      if (areResourcesAvailable(request.first.owner, request.first.resources)) {
+        incrementResources(request.first.owner, request.first.resources);
         request.second.countDown();
         iterator.remove();
       }
@@ -342,7 +471,7 @@ public class ResourceManager {
   }
 
   // Method will return true if all requested resources are considered to be available.
-  private boolean areResourcesAvailable(ResourceSet resources) {
+  private boolean areResourcesAvailable(@Nullable ActionMetadata owner, ResourceSet resources) {
     Preconditions.checkNotNull(availableResources);
     // Comparison below is robust, since any calculation errors will be fixed
     // by the release() method.
@@ -376,9 +505,126 @@ public class ResourceManager {
     boolean ioIsAvailable = io == 0.0 || usedIo == 0.0 || usedIo + io <= availableIo;
     boolean localTestCountIsAvailable = localTestCount == 0 || usedLocalTestCount == 0
         || usedLocalTestCount + localTestCount <= availableLocalTestCount;
+
+    if (loadSampler != null && lastLoad != null && owner != null) {
+      CorrectionFactors factors = getCorrectionFactors(owner);
+      // The host must have room for the memory the action is expected to use, in addition to
+      // that of the actions started since the last sample.
+      double expectedRam = resources.getMemoryMb() * factors.ram;
+      ramIsAvailable = ramIsAvailable && (expectedRam == 0.0 || usedRam == 0.0
+          || ramAdmittedSinceSample + expectedRam <= lastLoad.getFreeMemoryMb());
+      // Actions that use less CPU than estimated, e.g. because they wait for I/O, leave CPUs idle.
+      double expectedCpu = resources.getCpuUsage() * factors.cpu;
+      double idleCpu = staticResources.getCpuUsage() - lastLoad.getBusyCpu()
+          - cpuAdmittedSinceSample;
+      cpuIsAvailable = cpuIsAvailable
+          || (usedCpu + cpu <= availableCpu * MAX_CPU_OVERCOMMIT_RATIO && expectedCpu <= idleCpu);
+    }
     return cpuIsAvailable && ramIsAvailable && ioIsAvailable && localTestCountIsAvailable;
   }
 
+  private CorrectionFactors getCorrectionFactors(ActionMetadata owner) {
+    CorrectionFactors factors = correctionFactors.get(owner.getMnemonic());
+    return factors != null ? factors : NO_CORRECTION;
+  }
+
+  /**
+   * Samples the load of the host in adaptive mode, unless it was sampled recently, and attributes
+   * it to the running actions.
+   */
+  private void maybeSampleLoad() {
+    if (loadSampler == null) {
+      return;
+    }
+    long now = clock.currentTimeMillis();
+    if (lastLoad != null && now - lastSampleMillis < SAMPLE_INTERVAL_MILLIS) {
+      return;
+    }
+    LocalHostLoad load;
+    try {
+      load = loadSampler.sample();
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Disabling adaptive resource management: " + e.getMessage(), e);
+      loadSampler = null;
+      lastLoad = null;
+      runningActions.clear();
+      return;
+    }
+    lastLoad = load;
+    lastSampleMillis = now;
+    cpuAdmittedSinceSample = 0;
+    ramAdmittedSinceSample = 0;
+    Profiler.instance().logEvent(ProfilerTask.HOST_LOAD, load);
+
+    if (runningActions.isEmpty()) {
+      baselineBusyCpu = load.getBusyCpu();
+      baselineFreeMemoryMb = load.getFreeMemoryMb();
+      return;
+    }
+    double observedCpu = Math.max(0.0, load.getBusyCpu() - baselineBusyCpu);
+    double observedRam = Math.max(0.0, baselineFreeMemoryMb - load.getFreeMemoryMb());
+    double estimatedCpu = 0.0;
+    double estimatedRam = 0.0;
+    for (RunningAction action : runningActions) {
+      estimatedCpu += action.resources.getCpuUsage();
+      estimatedRam += action.resources.getMemoryMb();
+    }
+    for (RunningAction action : runningActions) {
+      action.samples++;
+      if (estimatedCpu > 0.0) {
+        action.observedCpuSum += observedCpu * action.resources.getCpuUsage() / estimatedCpu;
+      }
+      if (estimatedRam > 0.0) {
+        action.peakObservedRam = Math.max(action.peakObservedRam,
+            observedRam * action.resources.getMemoryMb() / estimatedRam);
+      }
+    }
+  }
+
+  /**
+   * Updates the correction factors of the mnemonic of an action that releases its resources, if
+   * its usage was observed.
+   */
+  private void recordObservedUsage(ActionMetadata owner, ResourceSet resources) {
+    if (loadSampler == null) {
+      return;
+    }
+    RunningAction action = null;
+    for (Iterator<RunningAction> it = runningActions.iterator(); it.hasNext(); ) {
+      RunningAction candidate = it.next();
+      if (candidate.owner == owner
+          && candidate.resources.getCpuUsage() == resources.getCpuUsage()
+          && candidate.resources.getMemoryMb() == resources.getMemoryMb()) {
+        action = candidate;
+        it.remove();
+        break;
+      }
+    }
+    if (action == null || action.samples == 0) {
+      return;
+    }
+    CorrectionFactors factors = correctionFactors.get(action.mnemonic);
+    if (factors == null) {
+      factors = new CorrectionFactors();
+      correctionFactors.put(action.mnemonic, factors);
+    }
+    double averageCpu = action.observedCpuSum / action.samples;
+    if (resources.getCpuUsage() > 0.0) {
+      factors.cpu = updateFactor(factors.cpu, averageCpu / resources.getCpuUsage());
+    }
+    if (resources.getMemoryMb() > 0.0) {
+      factors.ram = updateFactor(factors.ram, action.peakObservedRam / resources.getMemoryMb());
+    }
+    Profiler.instance().logEvent(ProfilerTask.ACTION_RESOURCE_USAGE, String.format(
+        "%s: %.2f CPUs, %.0f MB observed; %.2f CPUs, %.0f MB estimated", action.mnemonic,
+        averageCpu, action.peakObservedRam, resources.getCpuUsage(), resources.getMemoryMb()));
+  }
+
+  private static double updateFactor(double factor, double observedRatio) {
+    double updated = (1 - OBSERVATION_WEIGHT) * factor + OBSERVATION_WEIGHT * observedRatio;
+    return Math.max(MIN_CORRECTION_FACTOR, Math.min(MAX_CORRECTION_FACTOR, updated));
+  }
+
 
   @VisibleForTesting
   synchronized int getWaitCount() {
@@ -387,6 +633,12 @@ public class ResourceManager {
 
   @VisibleForTesting
   synchronized boolean isAvailable(double ram, double cpu, double io, int localTestCount) {
-    return areResourcesAvailable(ResourceSet.create(ram, cpu, io, localTestCount));
+    return areResourcesAvailable(null, ResourceSet.create(ram, cpu, io, localTestCount));
+  }
+
+  @VisibleForTesting
+  synchronized boolean isAvailable(ActionMetadata owner, ResourceSet resources) {
+    maybeSampleLoad();
+    return areResourcesAvailable(owner, resources);
   }
 }
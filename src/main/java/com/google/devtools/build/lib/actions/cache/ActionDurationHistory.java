@@ -0,0 +1,147 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.PersistentMap;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The durations of the actions of previous builds, kept across server restarts so that the
+ * actions that were on the critical path can be started first.
+ *
+ * <p>For each action, identified by the exec path of its primary output, the history records the
+ * time from the start of the action to the end of the longest chain of actions that depended on
+ * it in the last build that executed it. The least recently used entries are evicted once the
+ * history holds {@code maxEntries} actions.
+ */
+@ThreadSafe
+public final class ActionDurationHistory {
+  private static final int VERSION = 1;
+
+  /** The default number of actions whose durations are kept. */
+  public static final int DEFAULT_MAX_ENTRIES = 200000;
+
+  private static final class DurationMap extends PersistentMap<String, Long> {
+    private DurationMap(Map<String, Long> map, Path mapFile, Path journalFile)
+        throws IOException {
+      super(VERSION, map, mapFile, journalFile);
+      load();
+    }
+
+    @Override
+    protected boolean updateJournal() {
+      // The history is only a hint: entries are written when the history is saved.
+      return false;
+    }
+
+    @Override
+    protected String readKey(DataInputStream in) throws IOException {
+      return in.readUTF();
+    }
+
+    @Override
+    protected Long readValue(DataInputStream in) throws IOException {
+      return in.readLong();
+    }
+
+    @Override
+    protected void writeKey(String key, DataOutputStream out) throws IOException {
+      out.writeUTF(key);
+    }
+
+    @Override
+    protected void writeValue(Long value, DataOutputStream out) throws IOException {
+      out.writeLong(value);
+    }
+  }
+
+  // Guarded by itself: the backing map is kept in access order, so even reads modify it.
+  private final PersistentMap<String, Long> map;
+
+  public ActionDurationHistory(Path cacheRoot) throws IOException {
+    this(cacheRoot, DEFAULT_MAX_ENTRIES);
+  }
+
+  @VisibleForTesting
+  ActionDurationHistory(Path cacheRoot, final int maxEntries) throws IOException {
+    Map<String, Long> lruMap = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    Path historyFile = historyFile(cacheRoot);
+    try {
+      map = new DurationMap(lruMap, historyFile, journalFile(cacheRoot));
+    } catch (IOException e) {
+      historyFile.renameTo(
+          historyFile.getParentDirectory().getChild(historyFile.getBaseName() + ".bad"));
+      throw new IOException("Failed to load action duration history", e);
+    }
+  }
+
+  public static Path historyFile(Path cacheRoot) {
+    return cacheRoot.getChild("action_durations_v" + VERSION + ".blaze");
+  }
+
+  private static Path journalFile(Path cacheRoot) {
+    return cacheRoot.getChild("action_durations_journal_v" + VERSION + ".blaze");
+  }
+
+  private static String key(Action action) {
+    return action.getPrimaryOutput().getExecPathString();
+  }
+
+  /**
+   * Returns the time, in milliseconds, from the start of {@code action} to the end of the longest
+   * chain of actions that depended on it when it was last executed, or -1 if it is not known.
+   */
+  public long getCriticalPathMillis(Action action) {
+    Long millis;
+    synchronized (map) {
+      millis = map.get(key(action));
+    }
+    return millis != null ? millis : -1;
+  }
+
+  /** Records the value to be returned by {@link #getCriticalPathMillis} for {@code action}. */
+  public void put(Action action, long criticalPathMillis) {
+    String key = key(action);
+    synchronized (map) {
+      map.put(key, criticalPathMillis);
+    }
+  }
+
+  /** Writes the history to disk, and returns its size in bytes. */
+  public long save() throws IOException {
+    synchronized (map) {
+      return map.save();
+    }
+  }
+
+  public int size() {
+    synchronized (map) {
+      return map.size();
+    }
+  }
+}
@@ -18,8 +18,10 @@ import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ConditionallyThreadSafe;
+import com.google.devtools.build.lib.profiler.MemoryProfiler;
 import com.google.devtools.build.lib.util.Clock;
 import com.google.devtools.build.lib.util.CompactStringIndexer;
+import com.google.devtools.build.lib.util.IntKeyMap;
 import com.google.devtools.build.lib.util.PersistentMap;
 import com.google.devtools.build.lib.util.StringIndexer;
 import com.google.devtools.build.lib.util.VarInt;
@@ -34,7 +36,6 @@ import java.io.PrintStream;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -47,7 +48,8 @@ import java.util.Map;
  */
 @ConditionallyThreadSafe // condition: each instance must instantiated with
                          // different cache root
-public class CompactPersistentActionCache implements ActionCache {
+public class CompactPersistentActionCache
+    implements ActionCache, MemoryProfiler.HeapSizeEstimator {
   private static final int SAVE_INTERVAL_SECONDS = 3;
   private static final long NANOS_PER_SECOND = 1000 * 1000 * 1000;
 
@@ -134,18 +136,19 @@ public class CompactPersistentActionCache implements ActionCache {
     }
   }
 
+  // No weak or expiring map is needed, since dependency checker will manually purge records from
+  // the action cache. Keys and values are stored unboxed, without an entry object per record.
+  private final IntKeyMap<byte[]> backingMap = new IntKeyMap<>();
   private final PersistentMap<Integer, byte[]> map;
   private final PersistentStringIndexer indexer;
+  // The approximate heap size of the records in backingMap, kept up to date by put() and remove().
+  private long recordsHeapSize;
   static final ActionCache.Entry CORRUPTED = new ActionCache.Entry(null);
 
   public CompactPersistentActionCache(Path cacheRoot, Clock clock) throws IOException {
     Path cacheFile = cacheFile(cacheRoot);
     Path journalFile = journalFile(cacheRoot);
     Path indexFile = cacheRoot.getChild("filename_index_v" + VERSION + ".blaze");
-    // we can now use normal hash map as backing map, since dependency checker
-    // will manually purge records from the action cache.
-    Map<Integer, byte[]> backingMap = new HashMap<>();
-
     try {
       indexer = PersistentStringIndexer.newPersistentStringIndexer(indexFile, clock);
     } catch (IOException e) {
@@ -168,6 +171,10 @@ public class CompactPersistentActionCache implements ActionCache {
         throw new IOException("Failed action cache referential integrity check: " + integrityError);
       }
     }
+    for (byte[] value : backingMap.values()) {
+      recordsHeapSize += heapSizeOf(value);
+    }
+    MemoryProfiler.instance().registerHeapSizeEstimator("action_cache", this);
   }
 
   /**
@@ -260,15 +267,17 @@ public class CompactPersistentActionCache implements ActionCache {
     // a value lower than the indexer size will remain in the validation record.
     // This will still pass the integrity check.
     synchronized (this) {
-      map.put(VALIDATION_KEY, buffer.array());
+      byte[] validationRecord = buffer.array();
+      recordsHeapSize +=
+          heapSizeOf(validationRecord) - heapSizeOf(map.put(VALIDATION_KEY, validationRecord));
       // Now update record itself.
-      map.put(index, content);
+      recordsHeapSize += heapSizeOf(content) - heapSizeOf(map.put(index, content));
     }
   }
 
   @Override
   public synchronized void remove(String key) {
-    map.remove(indexer.getIndex(key));
+    recordsHeapSize -= heapSizeOf(map.remove(indexer.getIndex(key)));
   }
 
   @Override
@@ -278,6 +287,23 @@ public class CompactPersistentActionCache implements ActionCache {
     return indexSize + mapSize;
   }
 
+  /**
+   * Returns the approximate number of heap bytes used by the cache records and the string index,
+   * counting each record as a 16 byte array header plus its packed content.
+   */
+  @Override
+  public long estimateHeapSize() {
+    long size;
+    synchronized (this) {
+      size = backingMap.getTableHeapSize() + recordsHeapSize;
+    }
+    return size + indexer.estimateHeapSize();
+  }
+
+  private static long heapSizeOf(byte[] record) {
+    return record == null ? 0 : 16 + record.length;
+  }
+
   @Override
   public synchronized String toString() {
     StringBuilder builder = new StringBuilder();
@@ -327,7 +353,7 @@ public class CompactPersistentActionCache implements ActionCache {
   /**
    * @return action data encoded as a byte[] array.
    */
-  private static byte[] encode(StringIndexer indexer, ActionCache.Entry entry) {
+  static byte[] encode(StringIndexer indexer, ActionCache.Entry entry) {
     Preconditions.checkState(!entry.isCorrupted());
 
     try {
@@ -337,10 +363,10 @@ public class CompactPersistentActionCache implements ActionCache {
       // Estimate the size of the buffer:
       //   5 bytes max for the actionKey length
       // + the actionKey itself
-      // + 16 bytes for the digest
+      // + the digest, e.g. 16 bytes for MD5
       // + 5 bytes max for the file list length
       // + 5 bytes max for each file id
-      int maxSize = VarInt.MAX_VARINT_SIZE + actionKeyBytes.length + Digest.MD5_SIZE
+      int maxSize = VarInt.MAX_VARINT_SIZE + actionKeyBytes.length + Digest.size()
           + VarInt.MAX_VARINT_SIZE + files.size() * VarInt.MAX_VARINT_SIZE;
       ByteArrayOutputStream sink = new ByteArrayOutputStream(maxSize);
 
@@ -365,7 +391,7 @@ public class CompactPersistentActionCache implements ActionCache {
    * will stay in the compressed format until entry is actually used by the
    * dependency checker.
    */
-  private static ActionCache.Entry decode(StringIndexer indexer, byte[] data) throws IOException {
+  static ActionCache.Entry decode(StringIndexer indexer, byte[] data) throws IOException {
     try {
       ByteBuffer source = ByteBuffer.wrap(data);
 
@@ -17,6 +17,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.VarInt;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -25,7 +26,8 @@ import java.util.Arrays;
 import java.util.Map;
 
 /**
- * A value class for capturing and comparing MD5-based digests.
+ * A value class for capturing and comparing digests computed with the
+ * {@linkplain DigestHashFunction#getDefault default digest function}.
  *
  * <p>Note that this class is responsible for digesting file metadata in an
  * order-independent manner. Care must be taken to do this properly. The
@@ -38,31 +40,34 @@ import java.util.Map;
  */
 public class Digest {
 
-  static final int MD5_SIZE = 16;
-
   private final byte[] digest;
 
   /**
    * Construct the digest from the given bytes.
-   * @param digest an MD5 digest. Must be sized properly.
+   * @param digest a digest. Must be sized properly.
    */
   @VisibleForTesting
   Digest(byte[] digest) {
-    Preconditions.checkState(digest.length == MD5_SIZE);
+    Preconditions.checkState(digest.length == size());
     this.digest = digest.clone();
   }
 
+  /** Returns the size of digests in bytes. */
+  static int size() {
+    return DigestHashFunction.getDefault().getDigestLength();
+  }
+
   /**
    * @param source the byte buffer source.
    * @return the digest from the given buffer.
    * @throws IOException if the byte buffer is incorrectly formatted.
    */
   public static Digest read(ByteBuffer source) throws IOException {
-    int size = VarInt.getVarInt(source);
-    if (size != MD5_SIZE) {
-      throw new IOException("Unexpected digest length: " + size);
+    int length = VarInt.getVarInt(source);
+    if (length != size()) {
+      throw new IOException("Unexpected digest length: " + length);
     }
-    byte[] bytes = new byte[size];
+    byte[] bytes = new byte[length];
     source.get(bytes);
     return new Digest(bytes);
   }
@@ -82,8 +87,8 @@ public class Digest {
    *         (path, metadata) pairs.
    */
   public static Digest fromMetadata(Map<String, Metadata> mdMap) {
-    byte[] result = new byte[MD5_SIZE];
-    // Profiling showed that MD5 engine instantiation was a hotspot, so create one instance for
+    byte[] result = new byte[size()];
+    // Profiling showed that digest engine instantiation was a hotspot, so create one instance for
     // this computation to amortize its cost.
     Fingerprint fp = new Fingerprint();
     for (Map.Entry<String, Metadata> entry : mdMap.entrySet()) {
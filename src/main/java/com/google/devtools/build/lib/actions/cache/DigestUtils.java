@@ -14,31 +14,119 @@
 package com.google.devtools.build.lib.actions.cache;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.LoggingUtil;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.Path;
 
 import java.io.IOException;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 
 import javax.annotation.Nullable;
 
 /**
- * Utility class for getting md5 digests of files.
+ * Utility class for getting digests of files, under the server's
+ * {@linkplain DigestHashFunction#getDefault default digest function}.
+ *
+ * <p>Files larger than {@link #MULTI_THREADED_DIGEST_MAX_FILE_SIZE} are read on a small, dedicated
+ * pool of threads, which bounds the number of concurrent large reads. Concurrent requests for the
+ * digest of the same file share a single computation, and {@link #prefetchDigest} allows starting
+ * that computation before the digest is needed. The digests of large files are also kept in the
+ * {@linkplain #setDigestCache persistent digest cache}, if there is one.
  */
 public class DigestUtils {
-  // Object to synchronize on when serializing large file reads.
-  private static final Object MD5_LOCK = new Object();
+  // Files up to this size are digested on the calling thread: they will not likely introduce
+  // significant delays (at worst they will result in two extra disk seeks by interrupting other
+  // reads).
+  private static final long MULTI_THREADED_DIGEST_MAX_FILE_SIZE = 4096;
+
+  // Large reads used to be serialized to avoid excessive disk seeks. A few threads keep the seeks
+  // in check, while still hashing the outputs of one action, or of concurrent actions, in parallel.
+  private static final int DIGEST_THREADS =
+      Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors() / 2));
+
+  // Bounds the number of prefetched digests that are never requested, e.g. because the action
+  // failed after its outputs were prefetched.
+  private static final int MAX_PENDING_DIGESTS = 10000;
+
+  private static final ExecutorService DIGEST_EXECUTOR = Executors.newFixedThreadPool(
+      DIGEST_THREADS,
+      new ThreadFactoryBuilder().setNameFormat("digest-%d").setDaemon(true).build());
+
+  // Digests that are being computed, or were prefetched and not yet requested.
+  private static final ConcurrentMap<DigestKey, FutureTask<byte[]>> pendingDigests =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAX_PENDING_DIGESTS)
+          .<DigestKey, FutureTask<byte[]>>build()
+          .asMap();
+
+  // Remembers the digests of large files across server restarts.
+  @Nullable private static volatile PersistentDigestCache digestCache;
+
+  /**
+   * Identifies a version of a file's contents: a file that is replaced or modified is expected to
+   * change its node id, modification time or size.
+   */
+  private static final class DigestKey {
+    private final Path path;
+    private final long nodeId;
+    private final long mtime;
+    private final long size;
+    // Not part of the key: the status the digest is recorded with in the persistent cache.
+    private final FileStatus stat;
+
+    private DigestKey(Path path, FileStatus stat) throws IOException {
+      this.path = path;
+      this.stat = stat;
+      this.nodeId = stat.getNodeId();
+      this.mtime = stat.getLastModifiedTime();
+      this.size = stat.getSize();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof DigestKey)) {
+        return false;
+      }
+      DigestKey that = (DigestKey) obj;
+      return path.equals(that.path) && nodeId == that.nodeId && mtime == that.mtime
+          && size == that.size;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, nodeId, mtime, size);
+    }
+  }
 
   /** Private constructor to prevent instantiation of utility class. */
   private DigestUtils() {}
 
   /**
-   * Returns true iff using MD5 digests is appropriate for an artifact.
+   * Sets the cache consulted before reading the contents of large files, or removes it if
+   * {@code cache} is null.
+   */
+  public static void setDigestCache(@Nullable PersistentDigestCache cache) {
+    digestCache = cache;
+  }
+
+  /**
+   * Returns true iff using digests is appropriate for an artifact.
    *
    * @param isFile whether or not Artifact is a file versus a directory, isFile() on its stat.
    * @param size size of Artifact on filesystem in bytes, getSize() on its stat.
@@ -49,80 +137,155 @@ public class DigestUtils {
   }
 
   /**
-   * Obtain file's MD5 metadata using synchronized method, ensuring that system
-   * is not overloaded in case when multiple threads are requesting MD5
-   * calculations and underlying file system cannot provide it via extended
-   * attribute.
+   * Starts computing the digest of {@code path} in the background, if it is a large file, so that a
+   * later call to {@link #getDigestOrFail} does not have to read it. Errors are ignored: they are
+   * reported when the digest is requested.
+   */
+  public static void prefetchDigest(Path path) {
+    try {
+      FileStatus stat = path.statIfFound();
+      if (stat != null && stat.isFile() && stat.getSize() > MULTI_THREADED_DIGEST_MAX_FILE_SIZE) {
+        PersistentDigestCache cache = digestCache;
+        if (cache == null || !cache.contains(path, stat)) {
+          submitDigest(new DigestKey(path, stat));
+        }
+      }
+    } catch (IOException | UnsupportedOperationException e) {
+      // Ignored, see above.
+    }
+  }
+
+  /**
+   * Returns the computation of the digest of the given version of a file, starting it if there is
+   * none.
+   */
+  private static FutureTask<byte[]> submitDigest(DigestKey key) {
+    final Path path = key.path;
+    final FileStatus stat = key.stat;
+    FutureTask<byte[]> digest = pendingDigests.get(key);
+    if (digest == null) {
+      FutureTask<byte[]> newDigest = new FutureTask<>(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws IOException {
+          byte[] digest = getWellFormedFastDigest(path);
+          return digest != null ? digest : getDigestInternal(path, stat);
+        }
+      });
+      digest = pendingDigests.putIfAbsent(key, newDigest);
+      if (digest == null) {
+        digest = newDigest;
+        DIGEST_EXECUTOR.execute(newDigest);
+      }
+    }
+    return digest;
+  }
+
+  /**
+   * Obtains the file's digest on the digest threads, ensuring that the system is not
+   * overloaded in case multiple threads are requesting digest calculations and the underlying file
+   * system cannot provide them via extended attributes.
    */
-  private static byte[] getDigestInExclusiveMode(Path path) throws IOException {
+  private static byte[] getDigestInBackground(Path path) throws IOException {
+    DigestKey key;
+    try {
+      key = new DigestKey(path, path.stat());
+    } catch (UnsupportedOperationException e) {
+      // The file system does not provide node ids.
+      return getDigestInternal(path, null);
+    }
+    PersistentDigestCache cache = digestCache;
+    if (cache != null) {
+      byte[] cachedDigest = cache.get(path, key.stat);
+      if (cachedDigest != null) {
+        return cachedDigest;
+      }
+    }
+    FutureTask<byte[]> digest = submitDigest(key);
     long startTime = BlazeClock.nanoTime();
-    synchronized (MD5_LOCK) {
+    try {
+      return Uninterruptibles.getUninterruptibly(digest);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IllegalStateException(e.getCause());
+    } finally {
       Profiler.instance().logSimpleTask(startTime, ProfilerTask.WAIT, path.getPathString());
-      return getDigestInternal(path);
+      // The digest has been handed out; later requests are rare, and will read the file again.
+      pendingDigests.remove(key, digest);
     }
   }
 
-  private static byte[] getDigestInternal(Path path) throws IOException {
+  /**
+   * Reads the file to compute its digest. If {@code stat} is not null, it must describe the file as
+   * it was before the read, and the digest is added to the persistent digest cache.
+   */
+  private static byte[] getDigestInternal(Path path, @Nullable FileStatus stat)
+      throws IOException {
     long startTime = BlazeClock.nanoTime();
-    byte[] md5bin = path.getMD5Digest();
+    byte[] digest = path.getDigest();
+    PersistentDigestCache cache = digestCache;
+    if (cache != null && stat != null) {
+      cache.put(path, stat, digest);
+    }
 
+    Profiler.instance().logSimpleTask(startTime, ProfilerTask.DIGEST, path.getPathString());
     long millis = (BlazeClock.nanoTime() - startTime) / 1000000;
     if (millis > 5000L) {
       System.err.println("Slow read: a " + path.getFileSize() + "-byte read from " + path
           + " took " +  millis + "ms.");
     }
-    return md5bin;
+    return digest;
   }
 
   private static boolean binaryDigestWellFormed(byte[] digest) {
     Preconditions.checkNotNull(digest);
-    return digest.length == 16;
+    return digest.length == DigestHashFunction.getDefault().getDigestLength();
   }
 
   /**
-   * Returns the the fast md5 digest of the file, or null if not available.
+   * Returns the the fast digest of the file, or null if not available or computed with a function
+   * other than the default one.
    */
   @Nullable
   public static byte[] getFastDigest(Path path) throws IOException {
-    return path.getFastDigestFunctionType().equals("MD5") ? path.getFastDigest() : null;
+    return DigestHashFunction.getDefault().name().equals(path.getFastDigestFunctionType())
+        ? path.getFastDigest()
+        : null;
   }
 
   /**
-   * Get the md5 digest of {@code path}, using a constant-time xattr call if the filesystem supports
+   * Get the digest of {@code path}, using a constant-time xattr call if the filesystem supports
    * it, and calculating the digest manually otherwise.
    *
    * @param path Path of the file.
    * @param fileSize size of the file. Used to determine if digest calculation should be done
-   * serially or in parallel. Files larger than a certain threshold will be read serially, in order
-   * to avoid excessive disk seeks.
+   * on the calling thread. Files larger than a certain threshold are read on the digest threads,
+   * in order to avoid excessive disk seeks.
    */
   public static byte[] getDigestOrFail(Path path, long fileSize) throws IOException {
-    // TODO(bazel-team): the action cache currently only works with md5 digests but it ought to
-    // work with any opaque digest.
-    byte[] md5bin = null;
-    if (Objects.equals(path.getFastDigestFunctionType(), "MD5")) {
-      md5bin = getFastDigest(path);
+    byte[] digest = getWellFormedFastDigest(path);
+    if (digest != null) {
+      return digest;
+    } else if (fileSize > MULTI_THREADED_DIGEST_MAX_FILE_SIZE) {
+      // We'll have to read file content in order to calculate the digest. In that case it is
+      // beneficial to bound the number of concurrent calculations, since there is a high
+      // probability that digests will be requested for multiple output files simultaneously.
+      return getDigestInBackground(path);
+    } else {
+      return getDigestInternal(path, null);
     }
-    if (md5bin != null && !binaryDigestWellFormed(md5bin)) {
-      // Fail-soft in cases where md5bin is non-null, but not a valid digest.
+  }
+
+  @Nullable
+  private static byte[] getWellFormedFastDigest(Path path) throws IOException {
+    byte[] digest = getFastDigest(path);
+    if (digest != null && !binaryDigestWellFormed(digest)) {
+      // Fail-soft in cases where digest is non-null, but not a valid digest.
       String msg = String.format("Malformed digest '%s' for file %s",
-                                 BaseEncoding.base16().lowerCase().encode(md5bin),
+                                 BaseEncoding.base16().lowerCase().encode(digest),
                                  path);
       LoggingUtil.logToRemote(Level.SEVERE, msg, new IllegalStateException(msg));
-      md5bin = null;
-    }
-    if (md5bin != null) {
-      return md5bin;
-    } else if (fileSize > 4096) {
-      // We'll have to read file content in order to calculate the digest. In that case
-      // it would be beneficial to serialize those calculations since there is a high
-      // probability that MD5 will be requested for multiple output files simultaneously.
-      // Exception is made for small (<=4K) files since they will not likely to introduce
-      // significant delays (at worst they will result in two extra disk seeks by
-      // interrupting other reads).
-      return getDigestInExclusiveMode(path);
-    } else {
-      return getDigestInternal(path);
+      digest = null;
     }
+    return digest;
   }
 }
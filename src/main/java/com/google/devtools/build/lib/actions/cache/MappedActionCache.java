@@ -0,0 +1,698 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ConditionallyThreadSafe;
+import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.UnixGlob;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An implementation of the ActionCache interface that keeps the cache entries on disk instead of
+ * in memory, so that neither loading nor saving it is proportional to the size of the cache.
+ *
+ * <p>Entries are stored in two files:
+ *
+ * <ul>
+ *   <li>An append-only log of records. Every {@link #put} and {@link #remove} appends a record;
+ *       earlier records for the same key become garbage.
+ *   <li>A memory-mapped, open-addressed hash table (linear probing) from the hash of a key to the
+ *       offset of the latest record for that key in the log.
+ * </ul>
+ *
+ * <p>A lookup only touches the table slots it probes and the log records it compares keys with, so
+ * the operating system pages in only what a build actually uses. {@link #save} only has to force
+ * the records appended since the last save and the dirty table pages to disk. The log is compacted
+ * during {@link #save} once most of it is garbage.
+ *
+ * <p>The table records the length of the log at the last save and whether it has been modified
+ * since. If the server dies between two saves, the log is truncated to that length and the table
+ * is rebuilt from it, which is the only case in which the whole log is read. The same happens if
+ * the server dies while compacting the log.
+ *
+ * <p>If writing to the log or the table fails, the entry is dropped, the cache behaves as if it
+ * were empty, and the table is rebuilt from the log on the next {@link #save}.
+ *
+ * <p>Entries are encoded like in {@link CompactPersistentActionCache}. In particular, file names
+ * are replaced by indices of a {@link PersistentStringIndexer}, which is still loaded in memory.
+ *
+ * <p>Lookups only read the table and the log, so they run concurrently with each other. Writes and
+ * saves exclude them, since they may grow the table or replace the log.
+ *
+ * <p>Since its files are mapped, the cache root must be on a file system backed by the local disk.
+ */
+@ConditionallyThreadSafe // condition: each instance must instantiated with
+                         // different cache root
+public class MappedActionCache implements ActionCache {
+
+  private static final Logger LOG = Logger.getLogger(MappedActionCache.class.getName());
+
+  private static final int VERSION = 1;
+  private static final int TABLE_MAGIC = 0x41435431; // "ACT1"
+  private static final int LOG_MAGIC = 0x41434c31; // "ACL1"
+
+  private static final int INITIAL_CAPACITY = 1 << 14;
+
+  // Table header layout.
+  private static final int MAGIC_OFFSET = 0;
+  private static final int VERSION_OFFSET = 4;
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int CLEAN_OFFSET = 12;
+  private static final int LOG_LENGTH_OFFSET = 16;
+  private static final int LIVE_BYTES_OFFSET = 24;
+  private static final int SIZE_OFFSET = 32;
+  private static final int DELETED_SLOTS_OFFSET = 36;
+  private static final int INDEXER_SIZE_OFFSET = 40;
+  private static final int LOG_GENERATION_OFFSET = 48;
+  private static final int TABLE_HEADER_SIZE = 64;
+
+  // Every slot holds the 64 bit hash of the key and the offset of its record in the log.
+  private static final int SLOT_SIZE = 16;
+  private static final long EMPTY = 0;
+  private static final long DELETED = -1;
+
+  // The log header holds a generation number, which changes whenever the log is compacted. Every
+  // record starts with the length of the key and of the value. A value length of -1 marks the
+  // removal of the key.
+  private static final int LOG_HEADER_SIZE = 16;
+  private static final int RECORD_HEADER_SIZE = 8;
+  private static final int REMOVED = -1;
+
+  /** The log is compacted on save if it is larger than this and mostly garbage. */
+  private static final long MIN_COMPACTION_LOG_LENGTH = 1 << 20;
+
+  private final Path tableFile;
+  private final Path logFile;
+  private final PersistentStringIndexer indexer;
+
+  /** Guards the files and all the fields below. Only {@link #get} takes the read lock. */
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private RandomAccessFile log;
+  private FileChannel logChannel;
+  private long logGeneration;
+  private MappedByteBuffer table;
+  private int capacity;
+
+  // These mirror the table header, which is only updated on save.
+  private long logLength;
+  private long liveBytes;
+  private int size;
+  private int deletedSlots;
+
+  /** Whether the table has been marked as modified on disk since the last save. */
+  private boolean dirty;
+
+  /** Whether a write failed, so that the table can no longer be trusted until it is rebuilt. */
+  private boolean broken;
+
+  public MappedActionCache(Path cacheRoot, Clock clock) throws IOException {
+    this.tableFile = tableFile(cacheRoot);
+    this.logFile = logFile(cacheRoot);
+    Path indexFile = cacheRoot.getChild("mapped_filename_index_v" + VERSION + ".blaze");
+    try {
+      indexer = PersistentStringIndexer.newPersistentStringIndexer(indexFile, clock);
+    } catch (IOException e) {
+      renameCorruptedFiles(cacheRoot);
+      throw new IOException("Failed to load filename index data", e);
+    }
+    try {
+      open();
+    } catch (IOException e) {
+      close();
+      renameCorruptedFiles(cacheRoot);
+      throw new IOException("Failed to load action cache data", e);
+    }
+  }
+
+  public static Path tableFile(Path cacheRoot) {
+    return cacheRoot.getChild("mapped_action_table_v" + VERSION + ".blaze");
+  }
+
+  public static Path logFile(Path cacheRoot) {
+    return cacheRoot.getChild("mapped_action_log_v" + VERSION + ".blaze");
+  }
+
+  /**
+   * Rename corrupted files so they could be analyzed later. This would also ensure
+   * that next initialization attempt will create empty cache.
+   */
+  private static void renameCorruptedFiles(Path cacheRoot) {
+    try {
+      for (Path path : UnixGlob.forPath(cacheRoot).addPattern("mapped_*_v" + VERSION + ".*")
+          .glob()) {
+        path.renameTo(path.getParentDirectory().getChild(path.getBaseName() + ".bad"));
+      }
+    } catch (IOException e) {
+      // do nothing
+    }
+  }
+
+  private void open() throws IOException {
+    openLog();
+    if (tableFile.exists() && readTable()) {
+      return;
+    }
+    // The table is missing or does not match the log.
+    rebuildTable();
+  }
+
+  private void openLog() throws IOException {
+    log = new RandomAccessFile(logFile.getPathFile(), "rw");
+    logChannel = log.getChannel();
+    if (log.length() == 0) {
+      logGeneration = 1;
+      writeFully(logChannel, logHeader(logGeneration), 0);
+      logChannel.force(false);
+    } else {
+      ByteBuffer header = readFully(0, LOG_HEADER_SIZE);
+      if (header.getInt() != LOG_MAGIC || header.getInt() != VERSION) {
+        throw new IOException("Unexpected action cache log format");
+      }
+      logGeneration = header.getLong();
+    }
+  }
+
+  /**
+   * Maps the existing table. Returns false if it has to be rebuilt from the log, and throws if the
+   * table or the log is corrupt.
+   */
+  private boolean readTable() throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(tableFile.getPathFile(), "rw")) {
+      if (file.length() < TABLE_HEADER_SIZE) {
+        return false;
+      }
+      MappedByteBuffer mapped =
+          file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+      if (mapped.getInt(MAGIC_OFFSET) != TABLE_MAGIC || mapped.getInt(VERSION_OFFSET) != VERSION) {
+        return false;
+      }
+      int mappedCapacity = mapped.getInt(CAPACITY_OFFSET);
+      if (Integer.bitCount(mappedCapacity) != 1
+          || file.length() != TABLE_HEADER_SIZE + (long) mappedCapacity * SLOT_SIZE) {
+        return false;
+      }
+      if (mapped.getLong(LOG_GENERATION_OFFSET) != logGeneration) {
+        // The server died while compacting the log.
+        return false;
+      }
+      long committedLogLength = mapped.getLong(LOG_LENGTH_OFFSET);
+      if (committedLogLength < LOG_HEADER_SIZE || committedLogLength > log.length()) {
+        throw new IOException("Action cache log is shorter than expected");
+      }
+      if (mapped.getInt(INDEXER_SIZE_OFFSET) > indexer.size()) {
+        throw new IOException("Action cache refers to missing filename index entries");
+      }
+      // Discard whatever was appended after the last save.
+      log.setLength(committedLogLength);
+      if (mapped.getInt(CLEAN_OFFSET) != 1) {
+        return false;
+      }
+      table = mapped;
+      capacity = mappedCapacity;
+      logLength = committedLogLength;
+      liveBytes = mapped.getLong(LIVE_BYTES_OFFSET);
+      size = mapped.getInt(SIZE_OFFSET);
+      deletedSlots = mapped.getInt(DELETED_SLOTS_OFFSET);
+      dirty = false;
+      return true;
+    }
+  }
+
+  /** Recreates the table from the log, e.g. after the server died between two saves. */
+  private void rebuildTable() throws IOException {
+    createTable(INITIAL_CAPACITY);
+    logLength = LOG_HEADER_SIZE;
+    liveBytes = 0;
+    long fileLength = log.length();
+    try (InputStream in = new BufferedInputStream(logFile.getInputStream())) {
+      DataInputStream dataIn = new DataInputStream(in);
+      dataIn.skipBytes(LOG_HEADER_SIZE);
+      while (logLength + RECORD_HEADER_SIZE <= fileLength) {
+        int keyLength = dataIn.readInt();
+        int valueLength = dataIn.readInt();
+        long recordLength = RECORD_HEADER_SIZE + (long) keyLength + Math.max(valueLength, 0);
+        if (keyLength < 0 || valueLength < REMOVED || logLength + recordLength > fileLength) {
+          // A partially written record at the end of the log.
+          break;
+        }
+        byte[] key = new byte[keyLength];
+        dataIn.readFully(key);
+        if (valueLength == REMOVED) {
+          removeSlot(key);
+        } else {
+          dataIn.readFully(new byte[valueLength]);
+          putSlot(key, logLength, recordLength);
+        }
+        logLength += recordLength;
+      }
+    }
+    log.setLength(logLength);
+    writeHeader();
+  }
+
+  /** Creates an empty table file with the given capacity and maps it. */
+  private void createTable(int newCapacity) throws IOException {
+    Path tmpFile = tableFile.getParentDirectory().getChild(tableFile.getBaseName() + ".tmp");
+    tmpFile.delete();
+    try (RandomAccessFile file = new RandomAccessFile(tmpFile.getPathFile(), "rw")) {
+      long length = TABLE_HEADER_SIZE + (long) newCapacity * SLOT_SIZE;
+      file.setLength(length);
+      table = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+    table.putInt(MAGIC_OFFSET, TABLE_MAGIC);
+    table.putInt(VERSION_OFFSET, VERSION);
+    table.putInt(CAPACITY_OFFSET, newCapacity);
+    table.putInt(CLEAN_OFFSET, 0);
+    tmpFile.renameTo(tableFile);
+    capacity = newCapacity;
+    size = 0;
+    deletedSlots = 0;
+    dirty = true;
+  }
+
+  private static ByteBuffer logHeader(long generation) {
+    ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+    header.putInt(LOG_MAGIC).putInt(VERSION).putLong(generation);
+    header.flip();
+    return header;
+  }
+
+  private void writeHeader() throws IOException {
+    logChannel.force(false);
+    table.putLong(LOG_GENERATION_OFFSET, logGeneration);
+    table.putLong(LOG_LENGTH_OFFSET, logLength);
+    table.putLong(LIVE_BYTES_OFFSET, liveBytes);
+    table.putInt(SIZE_OFFSET, size);
+    table.putInt(DELETED_SLOTS_OFFSET, deletedSlots);
+    table.putInt(INDEXER_SIZE_OFFSET, indexer.size());
+    table.putInt(CLEAN_OFFSET, 1);
+    table.force();
+    dirty = false;
+  }
+
+  /**
+   * Marks the table as modified on disk before the first modification after a save, so that a
+   * table whose slots may point past the saved end of the log is never trusted.
+   */
+  private void markDirty() {
+    if (!dirty) {
+      table.putInt(CLEAN_OFFSET, 0);
+      table.force();
+      dirty = true;
+    }
+  }
+
+  /**
+   * Reopens the log and rebuilds the table from it after a failed write. Entries whose records were
+   * written completely are kept.
+   */
+  private void recover() throws IOException {
+    close();
+    openLog();
+    rebuildTable();
+    broken = false;
+  }
+
+  /** Drops the entry of a failed write, and any later ones until the table is rebuilt. */
+  private void writeFailed(IOException e) {
+    LOG.log(Level.WARNING, "Failed to write to the action cache, it will be rebuilt on save", e);
+    broken = true;
+  }
+
+  private void close() {
+    try {
+      if (log != null) {
+        log.close();
+      }
+    } catch (IOException e) {
+      // do nothing
+    }
+  }
+
+  private static long hash(byte[] key) {
+    return Hashing.murmur3_128().hashBytes(key).asLong();
+  }
+
+  private static int slotOffset(int slot) {
+    return TABLE_HEADER_SIZE + slot * SLOT_SIZE;
+  }
+
+  /**
+   * Returns the slot that holds {@code key}, or {@code -(slot + 1)} for the slot at which it
+   * should be inserted.
+   */
+  private int findSlot(byte[] key, long hash) throws IOException {
+    int mask = capacity - 1;
+    int firstDeleted = -1;
+    for (int slot = (int) (hash ^ (hash >>> 32)) & mask; ; slot = (slot + 1) & mask) {
+      long offset = table.getLong(slotOffset(slot) + 8);
+      if (offset == EMPTY) {
+        return -((firstDeleted >= 0 ? firstDeleted : slot) + 1);
+      } else if (offset == DELETED) {
+        if (firstDeleted < 0) {
+          firstDeleted = slot;
+        }
+      } else if (table.getLong(slotOffset(slot)) == hash && Arrays.equals(key, readKey(offset))) {
+        return slot;
+      }
+    }
+  }
+
+  private void putSlot(byte[] key, long offset, long recordLength) throws IOException {
+    long hash = hash(key);
+    int slot = findSlot(key, hash);
+    if (slot >= 0) {
+      liveBytes -= recordLength(table.getLong(slotOffset(slot) + 8));
+    } else {
+      slot = -slot - 1;
+      if (table.getLong(slotOffset(slot) + 8) == DELETED) {
+        deletedSlots--;
+      }
+      size++;
+    }
+    table.putLong(slotOffset(slot), hash);
+    table.putLong(slotOffset(slot) + 8, offset);
+    liveBytes += recordLength;
+    if ((size + deletedSlots) * 2L > capacity) {
+      resizeTable();
+    }
+  }
+
+  private void removeSlot(byte[] key) throws IOException {
+    int slot = findSlot(key, hash(key));
+    if (slot >= 0) {
+      liveBytes -= recordLength(table.getLong(slotOffset(slot) + 8));
+      table.putLong(slotOffset(slot), 0);
+      table.putLong(slotOffset(slot) + 8, DELETED);
+      size--;
+      deletedSlots++;
+    }
+  }
+
+  /** Rehashes the table into a new file, growing it if needed. Drops deleted slots. */
+  private void resizeTable() throws IOException {
+    MappedByteBuffer oldTable = table;
+    int oldCapacity = capacity;
+    int oldSize = size;
+    int newCapacity = oldCapacity;
+    while (oldSize * 4L > newCapacity) {
+      newCapacity *= 2;
+    }
+    createTable(newCapacity);
+    int mask = newCapacity - 1;
+    for (int i = 0; i < oldCapacity; i++) {
+      long offset = oldTable.getLong(slotOffset(i) + 8);
+      if (offset == EMPTY || offset == DELETED) {
+        continue;
+      }
+      long hash = oldTable.getLong(slotOffset(i));
+      int slot = (int) (hash ^ (hash >>> 32)) & mask;
+      while (table.getLong(slotOffset(slot) + 8) != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      table.putLong(slotOffset(slot), hash);
+      table.putLong(slotOffset(slot) + 8, offset);
+    }
+    size = oldSize;
+  }
+
+  private ByteBuffer readFully(long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (logChannel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException("Unexpected end of action cache log");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+  }
+
+  private long recordLength(long offset) throws IOException {
+    ByteBuffer header = readFully(offset, RECORD_HEADER_SIZE);
+    return RECORD_HEADER_SIZE + (long) header.getInt() + Math.max(header.getInt(), 0);
+  }
+
+  private byte[] readKey(long offset) throws IOException {
+    ByteBuffer header = readFully(offset, RECORD_HEADER_SIZE);
+    return readFully(offset + RECORD_HEADER_SIZE, header.getInt()).array();
+  }
+
+  private byte[] readValue(long offset) throws IOException {
+    ByteBuffer header = readFully(offset, RECORD_HEADER_SIZE);
+    int keyLength = header.getInt();
+    int valueLength = header.getInt();
+    return readFully(offset + RECORD_HEADER_SIZE + keyLength, valueLength).array();
+  }
+
+  /** Appends a record to the log and returns its offset. */
+  private long append(byte[] key, byte[] value) throws IOException {
+    int valueLength = value == null ? REMOVED : value.length;
+    ByteBuffer record =
+        ByteBuffer.allocate(RECORD_HEADER_SIZE + key.length + Math.max(valueLength, 0));
+    record.putInt(key.length).putInt(valueLength).put(key);
+    if (value != null) {
+      record.put(value);
+    }
+    record.flip();
+    long offset = logLength;
+    writeFully(logChannel, record, offset);
+    logLength += record.capacity();
+    return offset;
+  }
+
+  @Override
+  public ActionCache.Entry createEntry(String key) {
+    return new ActionCache.Entry(key);
+  }
+
+  @Override
+  public ActionCache.Entry get(String key) {
+    byte[] keyBytes = key.getBytes(ISO_8859_1);
+    byte[] data;
+    try {
+      // Reading the table and the log with positional reads is safe from several threads.
+      lock.readLock().lock();
+      try {
+        if (broken) {
+          return null;
+        }
+        int slot = findSlot(keyBytes, hash(keyBytes));
+        if (slot < 0) {
+          return null;
+        }
+        data = readValue(table.getLong(slotOffset(slot) + 8));
+      } finally {
+        lock.readLock().unlock();
+      }
+      return CompactPersistentActionCache.decode(indexer, data);
+    } catch (IOException e) {
+      // return entry marked as corrupted.
+      return CompactPersistentActionCache.CORRUPTED;
+    }
+  }
+
+  @Override
+  public void put(String key, ActionCache.Entry entry) {
+    // Note that encoding may create new mappings in the indexer.
+    byte[] content = CompactPersistentActionCache.encode(indexer, entry);
+    byte[] keyBytes = key.getBytes(ISO_8859_1);
+    lock.writeLock().lock();
+    try {
+      if (broken) {
+        return;
+      }
+      markDirty();
+      long offset = append(keyBytes, content);
+      putSlot(keyBytes, offset, logLength - offset);
+    } catch (IOException e) {
+      // Losing an entry only causes the action to be rerun.
+      writeFailed(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void remove(String key) {
+    byte[] keyBytes = key.getBytes(ISO_8859_1);
+    lock.writeLock().lock();
+    try {
+      if (broken || findSlot(keyBytes, hash(keyBytes)) < 0) {
+        return;
+      }
+      markDirty();
+      append(keyBytes, null);
+      removeSlot(keyBytes);
+    } catch (IOException e) {
+      writeFailed(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public long save() throws IOException {
+    lock.writeLock().lock();
+    try {
+      long indexSize = indexer.save();
+      try {
+        if (broken) {
+          recover();
+        } else if (logLength > MIN_COMPACTION_LOG_LENGTH && liveBytes * 2 < logLength) {
+          compact();
+        } else if (dirty) {
+          writeHeader();
+        }
+      } catch (IOException e) {
+        // The table may point into a partially compacted log.
+        broken = true;
+        throw e;
+      }
+      return indexSize + logLength + table.capacity();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Rewrites the log with only the live records, in table order. The new log gets a new
+   * generation, so that a table that was not updated for it is never used with it.
+   */
+  private void compact() throws IOException {
+    markDirty();
+    Path tmpFile = logFile.getParentDirectory().getChild(logFile.getBaseName() + ".tmp");
+    tmpFile.delete();
+    RandomAccessFile newLog = new RandomAccessFile(tmpFile.getPathFile(), "rw");
+    FileChannel newLogChannel = newLog.getChannel();
+    try {
+      writeFully(newLogChannel, logHeader(logGeneration + 1), 0);
+      long newLength = LOG_HEADER_SIZE;
+      for (int slot = 0; slot < capacity; slot++) {
+        long offset = table.getLong(slotOffset(slot) + 8);
+        if (offset == EMPTY || offset == DELETED) {
+          continue;
+        }
+        int recordLength = (int) recordLength(offset);
+        writeFully(newLogChannel, readFully(offset, recordLength), newLength);
+        table.putLong(slotOffset(slot) + 8, newLength);
+        newLength += recordLength;
+      }
+      newLogChannel.force(false);
+      tmpFile.renameTo(logFile);
+      log.close();
+      log = newLog;
+      logChannel = newLogChannel;
+      logGeneration++;
+      logLength = newLength;
+      liveBytes = newLength - LOG_HEADER_SIZE;
+    } catch (IOException e) {
+      newLog.close();
+      throw e;
+    }
+    writeHeader();
+  }
+
+  @VisibleForTesting
+  long getLogLength() {
+    lock.readLock().lock();
+    try {
+      return logLength;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Closes the log, so that subsequent writes to it fail. */
+  @VisibleForTesting
+  void closeLogForTesting() throws IOException {
+    lock.writeLock().lock();
+    try {
+      log.close();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public String toString() {
+    lock.readLock().lock();
+    try {
+      return "Mapped action cache (" + size + " records, " + logLength + " bytes of log)";
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Dumps action cache content.
+   */
+  @Override
+  public void dump(PrintStream out) {
+    out.println("String indexer content:\n");
+    out.println(indexer);
+    lock.readLock().lock();
+    try {
+      out.println("Action cache (" + size + " records):\n");
+      for (int slot = 0; slot < capacity; slot++) {
+        long offset = table.getLong(slotOffset(slot) + 8);
+        if (offset == EMPTY || offset == DELETED) {
+          continue;
+        }
+        String key;
+        String content;
+        byte[] value = null;
+        try {
+          key = new String(readKey(offset), ISO_8859_1);
+          value = readValue(offset);
+          content = CompactPersistentActionCache.decode(indexer, value).toString();
+        } catch (IOException e) {
+          key = "<unreadable record at " + offset + ">";
+          content = e + "\n";
+        }
+        out.println(key + ":\n" + content + "\n      packed_len = "
+            + (value == null ? 0 : value.length) + "\n");
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+}
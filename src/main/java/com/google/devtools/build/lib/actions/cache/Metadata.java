@@ -18,6 +18,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.io.BaseEncoding;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
 
 import java.util.Arrays;
 import java.util.Date;
@@ -83,7 +84,8 @@ public final class Metadata {
   @Override
   public String toString() {
     if (digest != null) {
-      return "MD5 " + BaseEncoding.base16().lowerCase().encode(digest);
+      return DigestHashFunction.getDefault() + " "
+          + BaseEncoding.base16().lowerCase().encode(digest);
     } else if (mtime > 0) {
       return "timestamp " + new Date(mtime);
     }
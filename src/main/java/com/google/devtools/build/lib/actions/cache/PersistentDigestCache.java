@@ -0,0 +1,231 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.util.PersistentMap;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * A cache of file digests that survives server restarts, so that the first build after a restart
+ * does not have to read every file again.
+ *
+ * <p>A digest is returned only if the file still has the node id, size, modification time and
+ * change time it had when the digest was computed. Files that changed too recently to be told
+ * apart from a later change within the file system's timestamp granularity are not cached. The
+ * least recently used entries are evicted once the cache holds {@code maxEntries} files.
+ *
+ * <p>Digests computed with different functions must not be mixed, so the cache should be stored
+ * in a directory specific to the {@linkplain com.google.devtools.build.lib.vfs.DigestHashFunction
+ * digest function}.
+ */
+@ThreadSafe
+public final class PersistentDigestCache {
+  private static final int VERSION = 1;
+
+  /** The default number of files whose digests are kept. */
+  public static final int DEFAULT_MAX_ENTRIES = 200000;
+
+  // Modifications less than this far apart may leave all timestamps of a file unchanged.
+  private static final long RACY_INTERVAL_MILLIS = 2000;
+
+  /** The digest of a file, and the version of the file it was computed from. */
+  private static final class CachedDigest {
+    private final long nodeId;
+    private final long size;
+    private final long mtime;
+    private final long ctime;
+    private final byte[] digest;
+
+    private CachedDigest(long nodeId, long size, long mtime, long ctime, byte[] digest) {
+      this.nodeId = nodeId;
+      this.size = size;
+      this.mtime = mtime;
+      this.ctime = ctime;
+      this.digest = digest;
+    }
+
+    private CachedDigest(FileStatus stat, byte[] digest) throws IOException {
+      this(stat.getNodeId(), stat.getSize(), stat.getLastModifiedTime(), stat.getLastChangeTime(),
+          digest);
+    }
+
+    private boolean matches(FileStatus stat) throws IOException {
+      return nodeId == stat.getNodeId() && size == stat.getSize()
+          && mtime == stat.getLastModifiedTime() && ctime == stat.getLastChangeTime();
+    }
+  }
+
+  private static final class DigestMap extends PersistentMap<String, CachedDigest> {
+    private DigestMap(Map<String, CachedDigest> map, Path mapFile, Path journalFile)
+        throws IOException {
+      super(VERSION, map, mapFile, journalFile);
+      load();
+    }
+
+    @Override
+    protected boolean updateJournal() {
+      // The cache is only an optimization: entries are written when the cache is saved.
+      return false;
+    }
+
+    @Override
+    protected String readKey(DataInputStream in) throws IOException {
+      return in.readUTF();
+    }
+
+    @Override
+    protected CachedDigest readValue(DataInputStream in) throws IOException {
+      long nodeId = in.readLong();
+      long size = in.readLong();
+      long mtime = in.readLong();
+      long ctime = in.readLong();
+      int length = in.readUnsignedByte();
+      byte[] digest = new byte[length];
+      in.readFully(digest);
+      return new CachedDigest(nodeId, size, mtime, ctime, digest);
+    }
+
+    @Override
+    protected void writeKey(String key, DataOutputStream out) throws IOException {
+      out.writeUTF(key);
+    }
+
+    @Override
+    protected void writeValue(CachedDigest value, DataOutputStream out) throws IOException {
+      out.writeLong(value.nodeId);
+      out.writeLong(value.size);
+      out.writeLong(value.mtime);
+      out.writeLong(value.ctime);
+      out.writeByte(value.digest.length);
+      out.write(value.digest);
+    }
+  }
+
+  private final Clock clock;
+  // Guarded by itself: the backing map is kept in access order, so even reads modify it.
+  private final PersistentMap<String, CachedDigest> map;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public PersistentDigestCache(Path cacheRoot, Clock clock) throws IOException {
+    this(cacheRoot, clock, DEFAULT_MAX_ENTRIES);
+  }
+
+  @VisibleForTesting
+  PersistentDigestCache(Path cacheRoot, Clock clock, final int maxEntries) throws IOException {
+    this.clock = clock;
+    Map<String, CachedDigest> lruMap = new LinkedHashMap<String, CachedDigest>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedDigest> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    Path cacheFile = cacheFile(cacheRoot);
+    try {
+      map = new DigestMap(lruMap, cacheFile, journalFile(cacheRoot));
+    } catch (IOException e) {
+      cacheFile.renameTo(cacheFile.getParentDirectory().getChild(cacheFile.getBaseName() + ".bad"));
+      throw new IOException("Failed to load digest cache data", e);
+    }
+  }
+
+  public static Path cacheFile(Path cacheRoot) {
+    return cacheRoot.getChild("digest_cache_v" + VERSION + ".blaze");
+  }
+
+  private static Path journalFile(Path cacheRoot) {
+    return cacheRoot.getChild("digest_journal_v" + VERSION + ".blaze");
+  }
+
+  /**
+   * Returns the cached digest of {@code path}, or null if there is none for the version of the file
+   * described by {@code stat}.
+   */
+  @Nullable
+  public byte[] get(Path path, FileStatus stat) throws IOException {
+    byte[] digest = lookup(path, stat);
+    (digest != null ? hits : misses).incrementAndGet();
+    return digest;
+  }
+
+  /** Like {@link #get}, but does not count towards the hit and miss statistics. */
+  public boolean contains(Path path, FileStatus stat) throws IOException {
+    return lookup(path, stat) != null;
+  }
+
+  @Nullable
+  private byte[] lookup(Path path, FileStatus stat) throws IOException {
+    CachedDigest entry;
+    synchronized (map) {
+      entry = map.get(path.getPathString());
+    }
+    return entry != null && entry.matches(stat) ? entry.digest : null;
+  }
+
+  /**
+   * Records the digest of {@code path}. {@code stat} must have been obtained before reading the
+   * file, so that the digest cannot be associated with a later version.
+   */
+  public void put(Path path, FileStatus stat, byte[] digest) throws IOException {
+    long lastChange = Math.max(stat.getLastModifiedTime(), stat.getLastChangeTime());
+    if (clock.currentTimeMillis() - lastChange < RACY_INTERVAL_MILLIS) {
+      return;
+    }
+    CachedDigest entry = new CachedDigest(stat, digest);
+    synchronized (map) {
+      map.put(path.getPathString(), entry);
+    }
+  }
+
+  /** Writes the cache to disk, and returns its size in bytes. */
+  public long save() throws IOException {
+    synchronized (map) {
+      return map.save();
+    }
+  }
+
+  public int size() {
+    synchronized (map) {
+      return map.size();
+    }
+  }
+
+  /** Returns the number of digests returned by {@link #get} since the last reset. */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /** Returns the number of {@link #get} calls that did not find a digest since the last reset. */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public void resetStatistics() {
+    hits.set(0);
+    misses.set(0);
+  }
+}
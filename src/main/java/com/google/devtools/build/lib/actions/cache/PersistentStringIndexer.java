@@ -13,12 +13,13 @@
 // limitations under the License.
 package com.google.devtools.build.lib.actions.cache;
 
-import com.google.common.collect.MapMaker;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ConditionallyThreadSafe;
 import com.google.devtools.build.lib.util.CanonicalStringIndexer;
 import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.util.IntKeyMap;
 import com.google.devtools.build.lib.util.PersistentMap;
 import com.google.devtools.build.lib.util.StringCanonicalizer;
+import com.google.devtools.build.lib.util.StringKeyIntMap;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 
@@ -26,7 +27,6 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Map;
-import java.util.concurrent.ConcurrentMap;
 
 /**
  * Persistent version of the CanonicalStringIndexer.
@@ -37,7 +37,9 @@ import java.util.concurrent.ConcurrentMap;
  *
  * <p>Thread-safety is ensured by locking on all mutating operations from the
  * superclass. Read-only operations are not locked, but rather backed by
- * ConcurrentMaps.
+ * maps that support reads concurrent with a single writer. Both directions
+ * are stored in primitive-specialized maps, so that no Integer is retained
+ * per string, and lookups use their int accessors, so that they box nothing.
  */
 @ConditionallyThreadSafe // condition: each instance must instantiated with
                          // different dataFile.
@@ -54,9 +56,16 @@ final class PersistentStringIndexer extends CanonicalStringIndexer {
     private final Clock clock;
     private long nextUpdate;
 
+    private final StringKeyIntMap backingMap;
+
     public PersistentIndexMap(Path mapFile, Path journalFile, Clock clock) throws IOException {
-      super(VERSION, PersistentStringIndexer.<String, Integer>newConcurrentMap(INITIAL_ENTRIES),
-            mapFile, journalFile);
+      this(mapFile, journalFile, clock, new StringKeyIntMap(INITIAL_ENTRIES));
+    }
+
+    private PersistentIndexMap(Path mapFile, Path journalFile, Clock clock,
+        StringKeyIntMap backingMap) throws IOException {
+      super(VERSION, backingMap, mapFile, journalFile);
+      this.backingMap = backingMap;
       this.clock = clock;
       nextUpdate = clock.nanoTime();
       load(/*throwOnLoadFailure=*/true);
@@ -116,7 +125,12 @@ final class PersistentStringIndexer extends CanonicalStringIndexer {
   }
 
   private final PersistentIndexMap persistentIndexMap;
+  private final IntKeyMap<String> reverseMapping;
   private static final int INITIAL_ENTRIES = 10000;
+  // The heap size of the strings with indexes below stringsCounted. Strings are only ever added,
+  // with consecutive indexes, so estimateHeapSize() only needs to look at the new ones.
+  private long stringsHeapSize;
+  private int stringsCounted;
 
   /**
    * Instantiates and loads instance of the persistent string indexer.
@@ -125,9 +139,10 @@ final class PersistentStringIndexer extends CanonicalStringIndexer {
                                                             Clock clock) throws IOException {
     PersistentIndexMap persistentIndexMap = new PersistentIndexMap(dataPath,
         FileSystemUtils.replaceExtension(dataPath, ".journal"), clock);
-    Map<Integer, String> reverseMapping = newConcurrentMap(INITIAL_ENTRIES);
+    IntKeyMap<String> reverseMapping =
+        new IntKeyMap<>(Math.max(INITIAL_ENTRIES, persistentIndexMap.size()));
     for (Map.Entry<String, Integer> entry : persistentIndexMap.entrySet()) {
-      if (reverseMapping.put(entry.getValue(), entry.getKey()) != null) {
+      if (reverseMapping.put(entry.getValue().intValue(), entry.getKey()) != null) {
         throw new IOException("Corrupted filename index has duplicate entry: " + entry.getKey());
       }
     }
@@ -135,9 +150,27 @@ final class PersistentStringIndexer extends CanonicalStringIndexer {
   }
 
   private PersistentStringIndexer(PersistentIndexMap stringToInt,
-                                  Map<Integer, String> intToString) {
+                                  IntKeyMap<String> intToString) {
     super(stringToInt, intToString);
     this.persistentIndexMap = stringToInt;
+    this.reverseMapping = intToString;
+  }
+
+  @Override
+  protected int lookupIndex(String s) {
+    return persistentIndexMap.backingMap.getInt(s);
+  }
+
+  @Override
+  protected String lookupString(int i) {
+    return reverseMapping.get(i);
+  }
+
+  @Override
+  protected void storeMapping(String s, int i) {
+    // The persistent map journals the new entry, so it is put through its Map interface.
+    persistentIndexMap.put(s, i);
+    reverseMapping.put(i, s);
   }
 
   /**
@@ -154,8 +187,19 @@ final class PersistentStringIndexer extends CanonicalStringIndexer {
     persistentIndexMap.flush();
   }
 
-  private static <K, V> ConcurrentMap<K, V> newConcurrentMap(int expectedCapacity) {
-    return new MapMaker().initialCapacity(expectedCapacity).makeMap();
+  /**
+   * Returns the approximate number of heap bytes used by the index, counting each string once
+   * (they are canonicalized) as a 40 byte object plus its characters.
+   */
+  synchronized long estimateHeapSize() {
+    for (int size = size(); stringsCounted < size; stringsCounted++) {
+      String s = getStringForIndex(stringsCounted);
+      if (s != null) {
+        stringsHeapSize += 40 + 2L * s.length();
+      }
+    }
+    return persistentIndexMap.backingMap.getTableHeapSize() + reverseMapping.getTableHeapSize()
+        + stringsHeapSize;
   }
 
 }
@@ -16,16 +16,20 @@ package com.google.devtools.build.lib.bazel;
 import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.skyframe.DiffAwareness;
+import com.google.devtools.build.lib.skyframe.InotifyDiffAwareness;
 import com.google.devtools.build.lib.skyframe.LocalDiffAwareness;
 
 /**
- * Provides the {@link DiffAwareness} implementation that uses the Java watch service.
+ * Provides the {@link DiffAwareness} implementations that use inotify directly on Linux, and the
+ * Java watch service elsewhere.
  */
 public class BazelDiffAwarenessModule extends BlazeModule {
   @Override
   public Iterable<DiffAwareness.Factory> getDiffAwarenessFactories(boolean watchFS) {
     ImmutableList.Builder<DiffAwareness.Factory> builder = ImmutableList.builder();
     if (watchFS) {
+      // The first factory that supports the platform wins.
+      builder.add(new InotifyDiffAwareness.Factory(ImmutableList.<String>of()));
       builder.add(new LocalDiffAwareness.Factory(ImmutableList.<String>of()));
     }
     return builder.build();
@@ -41,12 +41,15 @@ import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.Executor.ActionContext;
 import com.google.devtools.build.lib.actions.ExecutorInitException;
 import com.google.devtools.build.lib.actions.LocalHostCapacity;
+import com.google.devtools.build.lib.actions.LocalHostLoad;
 import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.ResourceSet;
 import com.google.devtools.build.lib.actions.SimpleActionContextProvider;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.TestExecException;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
+import com.google.devtools.build.lib.actions.cache.ActionDurationHistory;
+import com.google.devtools.build.lib.actions.cache.PersistentDigestCache;
 import com.google.devtools.build.lib.analysis.BuildView;
 import com.google.devtools.build.lib.analysis.BuildView.AnalysisResult;
 import com.google.devtools.build.lib.analysis.ConfiguredTarget;
@@ -115,6 +118,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+
 /**
  * This class manages the execution phase. The entry point is {@link #executeBuild}.
  *
@@ -375,7 +380,12 @@ public class ExecutionTool {
     }
 
     ActionCache actionCache = getActionCache();
+    ActionDurationHistory actionDurationHistory =
+        request.getOptions(ExecutionOptions.class).criticalPathScheduling
+            ? runtime.getActionDurationHistory(getReporter())
+            : null;
     SkyframeExecutor skyframeExecutor = env.getSkyframeExecutor();
+    skyframeExecutor.setActionDurationHistory(actionDurationHistory);
     Builder builder = createBuilder(request, executor, actionCache, skyframeExecutor);
 
     //
@@ -471,7 +481,7 @@ public class ExecutionTool {
       Profiler.instance().markPhase(ProfilePhase.FINISH);
 
       if (!interrupted) {
-        saveCaches(actionCache);
+        saveCaches(actionCache, actionDurationHistory);
       }
 
       try (AutoProfiler p = AutoProfiler.profiled("Show results", ProfilerTask.INFO)) {
@@ -866,13 +876,25 @@ public class ExecutionTool {
         request.getExecutionOptions().usingLocalTestJobs()
             ? request.getExecutionOptions().localTestJobs : Integer.MAX_VALUE
     ));
+    LocalHostLoad.Sampler loadSampler = null;
+    if (options.adaptiveResourceManagement) {
+      try {
+        loadSampler = LocalHostLoad.getProcSampler();
+      } catch (IOException e) {
+        getReporter().handle(Event.warn(
+            "Adaptive resource management is disabled, the host load cannot be measured: "
+            + e.getMessage()));
+      }
+    }
+    resourceMgr.setAdaptiveMode(loadSampler);
   }
 
   /**
    * Writes the cache files to disk, reporting any errors that occurred during
    * writing.
    */
-  private void saveCaches(ActionCache actionCache) {
+  private void saveCaches(ActionCache actionCache,
+      @Nullable ActionDurationHistory actionDurationHistory) {
     long actionCacheSizeInBytes = 0;
     long actionCacheSaveTime;
 
@@ -886,6 +908,30 @@ public class ExecutionTool {
     }
     env.getEventBus().post(new CachesSavedEvent(
         actionCacheSaveTime, actionCacheSizeInBytes));
+
+    PersistentDigestCache digestCache = runtime.getDigestCache();
+    if (digestCache != null) {
+      LOG.info(String.format("Digest cache: %d hits, %d misses, %d entries",
+          digestCache.getHitCount(), digestCache.getMissCount(), digestCache.size()));
+      digestCache.resetStatistics();
+      try (AutoProfiler profiler =
+          AutoProfiler.profiledAndLogged("Saving digest cache", ProfilerTask.INFO, LOG)) {
+        digestCache.save();
+      } catch (IOException e) {
+        getReporter().handle(
+            Event.warn("I/O error while writing digest cache: " + e.getMessage()));
+      }
+    }
+
+    if (actionDurationHistory != null) {
+      try (AutoProfiler profiler =
+          AutoProfiler.profiledAndLogged("Saving action duration history", ProfilerTask.INFO, LOG)) {
+        actionDurationHistory.save();
+      } catch (IOException e) {
+        getReporter().handle(
+            Event.warn("I/O error while writing action duration history: " + e.getMessage()));
+      }
+    }
   }
 
   private ActionInputFileCache createBuildSingleFileCache(Path execRoot) {
@@ -24,11 +24,17 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * AbstractQueueVisitor is a wrapper around {@link ThreadPoolExecutor} which
@@ -50,6 +56,15 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * <p>AbstractQueueVisitor supports interruption. If the main thread is
  * interrupted, tasks will no longer be added to the queue, and the
  * {@link #work(boolean)} method will throw {@link InterruptedException}.
+ *
+ * <p>The visitor may also be backed by a {@link ForkJoinPool}. Tasks enqueued by a worker thread
+ * of that pool are then pushed to the worker's own deque, and idle workers steal tasks from the
+ * deques of busy ones, instead of all threads contending on a single shared queue.
+ *
+ * <p>Tasks may be given a priority with {@link #enqueue(Runnable, int)}. Priorities are honored
+ * only if {@link #getWorkQueue} is overridden to return a {@link PriorityBlockingQueue}, in which
+ * case queued tasks with higher priorities are run first, and tasks with equal priorities are run
+ * in the order in which they were enqueued.
  */
 public class AbstractQueueVisitor {
 
@@ -92,9 +107,13 @@ public class AbstractQueueVisitor {
    */
   private final boolean concurrent;
 
-  // Condition variable for remainingTasks==0, and a lock for it.
+  // Condition variable for remainingTasks==0, and a lock for it. The count itself is updated
+  // without holding the lock, which is only taken when the count drops to zero.
   private final Object zeroRemainingTasks = new Object();
-  private long remainingTasks = 0;
+  private final AtomicLong remainingTasks = new AtomicLong();
+
+  // Orders tasks of equal priority in a priority queue.
+  private final AtomicLong enqueuedTasks = new AtomicLong();
 
   // Map of thread ==> number of jobs executing in the thread.
   // Currently used only for interrupt handling.
@@ -105,7 +124,10 @@ public class AbstractQueueVisitor {
    * call to {@link #enqueue(Runnable)}, and removed after call to
    * {@link #work(boolean)}.
    */
-  private final ThreadPoolExecutor pool;
+  private final ExecutorService pool;
+
+  /** If the pool is a {@link ForkJoinPool}, the pool; otherwise null. */
+  private final ForkJoinPool forkJoinPool;
 
   /**
    * Flag used to record when the main thread (the thread which called
@@ -202,6 +224,7 @@ public class AbstractQueueVisitor {
       ? executorFactory.apply(new ThreadPoolExecutorParams(corePoolSize, maxPoolSize,
         keepAliveTime, units, poolName, getWorkQueue()))
       : null;
+    this.forkJoinPool = null;
   }
 
   /**
@@ -264,6 +287,29 @@ public class AbstractQueueVisitor {
     this.failFastOnException = failFastOnException;
     this.failFastOnInterrupt = failFastOnInterrupt;
     this.pool = executor;
+    this.forkJoinPool = null;
+    this.ownThreadPool = shutdownOnCompletion;
+  }
+
+  /**
+   * Create the AbstractQueueVisitor, backed by a work-stealing pool.
+   *
+   * @param pool The ForkJoinPool to use.
+   * @param shutdownOnCompletion If true, pass ownership of the pool to
+   *                             this class. The pool will be shut down after a
+   *                             call to work(). Callers must not shut down the
+   *                             pool while queue visitors use it.
+   * @param failFastOnException if true, don't run new actions after
+   *                            an uncaught exception.
+   * @param failFastOnInterrupt if true, don't run new actions after interrupt.
+   */
+  public AbstractQueueVisitor(ForkJoinPool pool, boolean shutdownOnCompletion,
+                              boolean failFastOnException, boolean failFastOnInterrupt) {
+    this.concurrent = true;
+    this.failFastOnException = failFastOnException;
+    this.failFastOnInterrupt = failFastOnInterrupt;
+    this.pool = pool;
+    this.forkJoinPool = pool;
     this.ownThreadPool = shutdownOnCompletion;
   }
 
@@ -338,10 +384,32 @@ public class AbstractQueueVisitor {
    * Called in a worker thread if concurrent.
    */
   protected void enqueue(Runnable runnable) {
+    enqueue(runnable, 0);
+  }
+
+  /**
+   * Schedules a call with the given priority. Tasks with higher priorities are run first if the
+   * work queue is a {@link PriorityBlockingQueue}; otherwise the priority is ignored.
+   * Called in a worker thread if concurrent.
+   */
+  protected void enqueue(Runnable runnable, int priority) {
     if (concurrent) {
       AtomicBoolean ranTask = new AtomicBoolean(false);
       try {
-        pool.execute(wrapRunnable(runnable, ranTask));
+        Runnable wrappedRunnable = wrapRunnable(runnable, priority, ranTask);
+        if (forkJoinPool != null && ForkJoinTask.getPool() == forkJoinPool) {
+          // Pushes the task to the current worker's deque.
+          ForkJoinTask.adapt(wrappedRunnable).fork();
+        } else {
+          pool.execute(wrappedRunnable);
+        }
+      } catch (RejectedExecutionException e) {
+        if (forkJoinPool != null && isInterrupted() && !ranTask.get()) {
+          // ForkJoinPool has no rejected execution handler: see setRejectedExecutionHandler().
+          decrementRemainingTasks();
+        } else if (!ranTask.get()) {
+          recordError(e);
+        }
       } catch (Throwable e) {
         if (!ranTask.get()) {
           // Note that keeping track of ranTask is necessary to disambiguate the case where
@@ -370,46 +438,70 @@ public class AbstractQueueVisitor {
     }
   }
 
-  private Runnable wrapRunnable(final Runnable runnable, final AtomicBoolean ranTask) {
-    synchronized (zeroRemainingTasks) {
-      remainingTasks++;
+  private Runnable wrapRunnable(Runnable runnable, int priority, AtomicBoolean ranTask) {
+    remainingTasks.incrementAndGet();
+    return new WrappedRunnable(runnable, priority, enqueuedTasks.incrementAndGet(), ranTask);
+  }
+
+  /**
+   * A task that keeps track of the jobs running in each thread and of the remaining tasks, and that
+   * is ordered by priority, then by sequence number.
+   */
+  private final class WrappedRunnable implements Runnable, Comparable<WrappedRunnable> {
+    private final Runnable runnable;
+    private final int priority;
+    private final long sequenceNumber;
+    private final AtomicBoolean ranTask;
+
+    private WrappedRunnable(
+        Runnable runnable, int priority, long sequenceNumber, AtomicBoolean ranTask) {
+      this.runnable = runnable;
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+      this.ranTask = ranTask;
     }
-    return new Runnable() {
-      @Override
-      public void run() {
-        Thread thread = null;
-        boolean addedJob = false;
-        try {
-          ranTask.set(true);
-          thread = Thread.currentThread();
-          addJob(thread);
-          addedJob = true;
-          if (blockNewActions()) {
-            // Make any newly enqueued tasks quickly die. We check after adding to the jobs map so
-            // that if another thread is racing to kill this thread and didn't make it before this
-            // conditional, it will be able to find and kill this thread anyway.
-            return;
+
+    @Override
+    public int compareTo(WrappedRunnable other) {
+      // Higher priorities first.
+      int result = Integer.compare(other.priority, priority);
+      return result != 0 ? result : Long.compare(sequenceNumber, other.sequenceNumber);
+    }
+
+    @Override
+    public void run() {
+      Thread thread = null;
+      boolean addedJob = false;
+      try {
+        ranTask.set(true);
+        thread = Thread.currentThread();
+        addJob(thread);
+        addedJob = true;
+        if (blockNewActions()) {
+          // Make any newly enqueued tasks quickly die. We check after adding to the jobs map so
+          // that if another thread is racing to kill this thread and didn't make it before this
+          // conditional, it will be able to find and kill this thread anyway.
+          return;
+        }
+        runnable.run();
+      } catch (Throwable e) {
+        synchronized (AbstractQueueVisitor.this) {
+          if (unhandled == null) { // save only the first one.
+            unhandled = e;
+            exceptionLatch.countDown();
           }
-          runnable.run();
-        } catch (Throwable e) {
-          synchronized (AbstractQueueVisitor.this) {
-            if (unhandled == null) { // save only the first one.
-              unhandled = e;
-              exceptionLatch.countDown();
-            }
-            markToStopAllJobsIfNeeded(e);
+          markToStopAllJobsIfNeeded(e);
+        }
+      } finally {
+        try {
+          if (thread != null && addedJob) {
+            removeJob(thread);
           }
         } finally {
-          try {
-            if (thread != null && addedJob) {
-              removeJob(thread);
-            }
-          } finally {
-            decrementRemainingTasks();
-          }
+          decrementRemainingTasks();
         }
       }
-    };
+    }
   }
 
   private final void addJob(Thread thread) {
@@ -439,8 +531,8 @@ public class AbstractQueueVisitor {
   }
 
   private final void decrementRemainingTasks() {
-    synchronized (zeroRemainingTasks) {
-      if (--remainingTasks == 0) {
+    if (remainingTasks.decrementAndGet() == 0) {
+      synchronized (zeroRemainingTasks) {
         zeroRemainingTasks.notify();
       }
     }
@@ -488,9 +580,7 @@ public class AbstractQueueVisitor {
    */
   @VisibleForTesting
   protected long getTaskCount() {
-    synchronized (zeroRemainingTasks) {
-      return remainingTasks;
-    }
+    return remainingTasks.get();
   }
 
   /**
@@ -503,7 +593,7 @@ public class AbstractQueueVisitor {
     Throwables.propagateIfPossible(catastrophe);
     try {
       synchronized (zeroRemainingTasks) {
-        while (remainingTasks != 0 && !jobsMustBeStopped) {
+        while (remainingTasks.get() != 0 && !jobsMustBeStopped) {
           zeroRemainingTasks.wait();
         }
       }
@@ -546,7 +636,7 @@ public class AbstractQueueVisitor {
 
     Throwables.propagateIfPossible(catastrophe);
     synchronized (zeroRemainingTasks) {
-      while (remainingTasks != 0) {
+      while (remainingTasks.get() != 0) {
         try {
           zeroRemainingTasks.wait();
         } catch (InterruptedException e) {
@@ -604,8 +694,8 @@ public class AbstractQueueVisitor {
   }
 
   private void setRejectedExecutionHandler() {
-    if (ownThreadPool) {
-      pool.setRejectedExecutionHandler(new RejectedExecutionHandler() {
+    if (ownThreadPool && pool instanceof ThreadPoolExecutor) {
+      ((ThreadPoolExecutor) pool).setRejectedExecutionHandler(new RejectedExecutionHandler() {
         @Override
         public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
           decrementRemainingTasks();
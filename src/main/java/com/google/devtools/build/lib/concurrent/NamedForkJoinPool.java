@@ -0,0 +1,47 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.concurrent;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Factory of {@link ForkJoinPool}s whose threads are named like those of the thread pools created
+ * by {@link AbstractQueueVisitor#EXECUTOR_FACTORY}, so that they can be told apart in thread dumps
+ * and profiles.
+ */
+public final class NamedForkJoinPool {
+
+  private NamedForkJoinPool() {}
+
+  /**
+   * Returns a new pool with the given parallelism, whose threads are named "{@code name} N".
+   */
+  public static ForkJoinPool newNamedPool(final String name, int parallelism) {
+    return new ForkJoinPool(
+        parallelism,
+        new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+          @Override
+          public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread =
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(name + " " + thread.getPoolIndex());
+            return thread;
+          }
+        },
+        /*handler=*/null,
+        // Tasks are not joined, so they are run in the order in which they were forked.
+        /*asyncMode=*/true);
+  }
+}
@@ -196,6 +196,23 @@ public class ExecutionOptions extends OptionsBase {
   )
   public int localTestJobs;
 
+  @Option(name = "experimental_critical_path_scheduling",
+      defaultValue = "false",
+      category = "strategy",
+      help = "If true, actions that were on the longest chains of actions in previous builds are "
+          + "started before the others. The durations of the actions are recorded in the output "
+          + "base and kept across server restarts.")
+  public boolean criticalPathScheduling;
+
+  @Option(name = "experimental_adaptive_resource_management",
+      defaultValue = "false",
+      category = "strategy",
+      help = "If true, local actions are only started when the host has enough free memory for "
+          + "them, and may be started beyond the CPU estimates when the host has idle CPUs. "
+          + "Estimates are corrected by the usage observed for earlier actions with the same "
+          + "mnemonic. Only supported on Linux.")
+  public boolean adaptiveResourceManagement;
+
   public boolean usingLocalTestJobs() {
     return localTestJobs != 0;
   }
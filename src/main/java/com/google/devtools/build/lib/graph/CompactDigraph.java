@@ -0,0 +1,573 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * An immutable directed graph whose nodes are numbered from 0 and whose edges are stored in
+ * compressed sparse row form: the successors of all nodes are laid out in a single {@code int}
+ * array, node after node, with a second array giving where those of each node start, and likewise
+ * for predecessors. This takes a few bytes per edge, compared to the dozens that the {@link Node}
+ * objects of a {@link Digraph} need, and lets the graph algorithms below run over primitive arrays
+ * without recursion.
+ *
+ * <p>Instances are obtained by {@link Digraph#freeze}, which numbers the nodes and orders the
+ * edges of each node as the {@link Digraph} iterates over them, so that the traversals of both
+ * representations visit nodes in the same order.
+ *
+ * @param <T> the type of the node labels
+ */
+public final class CompactDigraph<T> {
+
+  private final ImmutableList<T> labels;
+  // The successors of node i are successors[successorOffsets[i]] to
+  // successors[successorOffsets[i + 1] - 1], and likewise for predecessors.
+  private final int[] successorOffsets;
+  private final int[] successors;
+  private final int[] predecessorOffsets;
+  private final int[] predecessors;
+
+  // Built on first use, as many clients never look nodes up by label.
+  @Nullable private volatile Map<T, Integer> indices;
+
+  private CompactDigraph(ImmutableList<T> labels, int[] successorOffsets, int[] successors) {
+    this.labels = labels;
+    this.successorOffsets = successorOffsets;
+    this.successors = successors;
+    this.predecessorOffsets = new int[labels.size() + 1];
+    this.predecessors = new int[successors.length];
+    // Counting sort of the edges by head.
+    for (int successor : successors) {
+      predecessorOffsets[successor + 1]++;
+    }
+    for (int node = 0; node < labels.size(); node++) {
+      predecessorOffsets[node + 1] += predecessorOffsets[node];
+    }
+    int[] filled = new int[labels.size()];
+    for (int node = 0; node < labels.size(); node++) {
+      for (int i = successorOffsets[node]; i < successorOffsets[node + 1]; i++) {
+        int successor = successors[i];
+        predecessors[predecessorOffsets[successor] + filled[successor]++] = node;
+      }
+    }
+  }
+
+  /** Returns a compact copy of {@code graph}; see {@link Digraph#freeze}. */
+  static <T> CompactDigraph<T> copyOf(Digraph<T> graph) {
+    Collection<Node<T>> nodes = graph.getNodes();
+    ImmutableList.Builder<T> labels = ImmutableList.builder();
+    Map<Node<T>, Integer> indices = Maps.newHashMapWithExpectedSize(nodes.size());
+    for (Node<T> node : nodes) {
+      labels.add(node.getLabel());
+      indices.put(node, indices.size());
+    }
+    int[] successorOffsets = new int[nodes.size() + 1];
+    int[] successors = new int[graph.getEdgeCount()];
+    int node = 0;
+    int edge = 0;
+    for (Node<T> from : nodes) {
+      for (Node<T> to : from.getSuccessors()) {
+        successors[edge++] = indices.get(to);
+      }
+      successorOffsets[++node] = edge;
+    }
+    return new CompactDigraph<>(labels.build(), successorOffsets, successors);
+  }
+
+  /**
+   * Returns the graph with the given nodes and the edges {@code from[i] -> to[i]}, of which
+   * duplicates are dropped.
+   */
+  private static <L> CompactDigraph<L> fromEdges(
+      ImmutableList<L> labels, int[] from, int[] to, int edgeCount) {
+    long[] edges = new long[edgeCount];
+    for (int i = 0; i < edgeCount; i++) {
+      edges[i] = ((long) from[i] << 32) | to[i];
+    }
+    Arrays.sort(edges);
+    int[] successorOffsets = new int[labels.size() + 1];
+    int[] successors = new int[edgeCount];
+    int unique = 0;
+    for (int i = 0; i < edgeCount; i++) {
+      if (i > 0 && edges[i] == edges[i - 1]) {
+        continue;
+      }
+      successorOffsets[(int) (edges[i] >>> 32) + 1]++;
+      successors[unique++] = (int) edges[i];
+    }
+    for (int node = 0; node < labels.size(); node++) {
+      successorOffsets[node + 1] += successorOffsets[node];
+    }
+    return new CompactDigraph<>(labels, successorOffsets, Arrays.copyOf(successors, unique));
+  }
+
+  /** Returns the number of nodes in the graph. */
+  public int getNodeCount() {
+    return labels.size();
+  }
+
+  /** Returns the number of edges in the graph. */
+  public int getEdgeCount() {
+    return successors.length;
+  }
+
+  /** Returns the labels of the nodes, in the order of their numbers. */
+  public List<T> getLabels() {
+    return labels;
+  }
+
+  /** Returns the label of the given node. */
+  public T getLabel(int node) {
+    return labels.get(node);
+  }
+
+  /** Returns the number of the node with the given label, or -1 if there is none. */
+  public int getIndex(T label) {
+    Map<T, Integer> result = indices;
+    if (result == null) {
+      result = Maps.newHashMapWithExpectedSize(labels.size());
+      for (int node = 0; node < labels.size(); node++) {
+        result.put(labels.get(node), node);
+      }
+      indices = result;
+    }
+    Integer node = result.get(Preconditions.checkNotNull(label));
+    return node == null ? -1 : node;
+  }
+
+  /** Returns the number of successors of the given node. */
+  public int getSuccessorCount(int node) {
+    return successorOffsets[node + 1] - successorOffsets[node];
+  }
+
+  /** Returns the number of predecessors of the given node. */
+  public int getPredecessorCount(int node) {
+    return predecessorOffsets[node + 1] - predecessorOffsets[node];
+  }
+
+  /** Returns a new array holding the successors of the given node, in edge order. */
+  public int[] getSuccessors(int node) {
+    return Arrays.copyOfRange(successors, successorOffsets[node], successorOffsets[node + 1]);
+  }
+
+  /** Returns a new array holding the predecessors of the given node, in increasing order. */
+  public int[] getPredecessors(int node) {
+    return Arrays.copyOfRange(predecessors, predecessorOffsets[node], predecessorOffsets[node + 1]);
+  }
+
+  /** Returns true iff the graph is cyclic. Time: O(n + e). */
+  public boolean isCyclic() {
+    // Colored depth-first search: a node is white until it is reached, grey while its
+    // descendants are being visited, black afterwards. Reaching a grey node closes a cycle.
+    final byte white = 0;
+    final byte grey = 1;
+    final byte black = 2;
+    byte[] colors = new byte[labels.size()];
+    int[] stack = new int[labels.size()];
+    int[] nextEdge = new int[labels.size()];
+    for (int root = 0; root < labels.size(); root++) {
+      if (colors[root] != white) {
+        continue;
+      }
+      int depth = 0;
+      colors[root] = grey;
+      stack[0] = root;
+      nextEdge[0] = successorOffsets[root];
+      while (depth >= 0) {
+        int node = stack[depth];
+        if (nextEdge[depth] < successorOffsets[node + 1]) {
+          int successor = successors[nextEdge[depth]++];
+          if (colors[successor] == grey) {
+            return true;
+          } else if (colors[successor] == white) {
+            colors[successor] = grey;
+            depth++;
+            stack[depth] = successor;
+            nextEdge[depth] = successorOffsets[successor];
+          }
+        } else {
+          colors[node] = black;
+          depth--;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns, for each node, the number of the strongly-connected component it belongs to.
+   * Components are numbered in reverse topological order: edges between different components
+   * go from higher to lower numbers. Uses Tarjan's algorithm. Time: O(n + e).
+   */
+  public int[] getStronglyConnectedComponentNumbers() {
+    int n = labels.size();
+    int[] preorder = new int[n];
+    Arrays.fill(preorder, -1);
+    int[] lowLink = new int[n];
+    int[] component = new int[n];
+    Arrays.fill(component, -1);
+    int[] callStack = new int[n];
+    int[] nextEdge = new int[n];
+    // The nodes that have been reached but not yet assigned to a component.
+    int[] sccStack = new int[n];
+    int sccStackSize = 0;
+    int counter = 0;
+    int components = 0;
+    for (int root = 0; root < n; root++) {
+      if (preorder[root] != -1) {
+        continue;
+      }
+      int depth = 0;
+      callStack[0] = root;
+      nextEdge[0] = successorOffsets[root];
+      preorder[root] = lowLink[root] = counter++;
+      sccStack[sccStackSize++] = root;
+      while (depth >= 0) {
+        int node = callStack[depth];
+        if (nextEdge[depth] < successorOffsets[node + 1]) {
+          int successor = successors[nextEdge[depth]++];
+          if (preorder[successor] == -1) {
+            preorder[successor] = lowLink[successor] = counter++;
+            sccStack[sccStackSize++] = successor;
+            depth++;
+            callStack[depth] = successor;
+            nextEdge[depth] = successorOffsets[successor];
+          } else if (component[successor] == -1) {
+            // Still on the SCC stack, so in the same component as some node on the call stack.
+            lowLink[node] = Math.min(lowLink[node], preorder[successor]);
+          }
+        } else {
+          if (lowLink[node] == preorder[node]) {
+            int member;
+            do {
+              member = sccStack[--sccStackSize];
+              component[member] = components;
+            } while (member != node);
+            components++;
+          }
+          depth--;
+          if (depth >= 0) {
+            int parent = callStack[depth];
+            lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+          }
+        }
+      }
+    }
+    return component;
+  }
+
+  /**
+   * Returns a partition of the labels of this graph into sets, each set being one
+   * strongly-connected component of the graph.
+   */
+  public List<ImmutableSet<T>> getStronglyConnectedComponents() {
+    return getStrongComponentGraph().getLabels();
+  }
+
+  /**
+   * Returns the strong component graph of this graph: the acyclic graph in which each
+   * strongly-connected component is fused into a single node, labelled with the set of labels of
+   * its members. There are no self-edges.
+   */
+  public CompactDigraph<ImmutableSet<T>> getStrongComponentGraph() {
+    int[] component = getStronglyConnectedComponentNumbers();
+    int components = 0;
+    for (int number : component) {
+      components = Math.max(components, number + 1);
+    }
+    List<ImmutableSet.Builder<T>> members = new ArrayList<>(components);
+    for (int i = 0; i < components; i++) {
+      members.add(ImmutableSet.<T>builder());
+    }
+    for (int node = 0; node < labels.size(); node++) {
+      members.get(component[node]).add(labels.get(node));
+    }
+    ImmutableList.Builder<ImmutableSet<T>> componentLabels = ImmutableList.builder();
+    for (ImmutableSet.Builder<T> builder : members) {
+      componentLabels.add(builder.build());
+    }
+    return getImage(component, componentLabels.build(), /*selfEdges=*/false);
+  }
+
+  /**
+   * Returns the image of this graph under the function mapping each node to a node of a new
+   * graph: node {@code i} is mapped to {@code image[i]}, and the nodes of the new graph are
+   * labelled with {@code imageLabels}. There is an edge between two nodes of the new graph iff
+   * there is one between two of their preimages.
+   *
+   * @param selfEdges whether to keep the edges between two nodes with the same image
+   */
+  public <L> CompactDigraph<L> getImage(
+      int[] image, ImmutableList<L> imageLabels, boolean selfEdges) {
+    Preconditions.checkArgument(image.length == labels.size());
+    int[] from = new int[successors.length];
+    int[] to = new int[successors.length];
+    int edges = 0;
+    for (int node = 0; node < labels.size(); node++) {
+      for (int i = successorOffsets[node]; i < successorOffsets[node + 1]; i++) {
+        if (selfEdges || image[node] != image[successors[i]]) {
+          from[edges] = image[node];
+          to[edges] = image[successors[i]];
+          edges++;
+        }
+      }
+    }
+    return fromEdges(imageLabels, from, to, edges);
+  }
+
+  /**
+   * Returns the nodes of an acyclic graph in topological order [a.k.a "reverse post-order" of
+   * depth-first search], visiting nodes and edges in the order of their numbers. This is the order
+   * of {@link Digraph#getTopologicalOrder()} for the graph this one was frozen from.
+   */
+  public List<T> getTopologicalOrder() {
+    return toLabels(reversed(getPostorder(null)));
+  }
+
+  /**
+   * Returns the nodes of an acyclic graph in the topological order determined by visiting the
+   * nodes, and the edges originating from the same node, in {@code edgeOrder}. This is the order
+   * of {@link Digraph#getTopologicalOrder(Comparator)} for the graph this one was frozen from.
+   */
+  public List<T> getTopologicalOrder(Comparator<? super T> edgeOrder) {
+    return toLabels(reversed(getPostorder(Preconditions.checkNotNull(edgeOrder))));
+  }
+
+  /**
+   * Returns the numbers of the nodes of an acyclic graph in topological order; see
+   * {@link #getTopologicalOrder()}.
+   */
+  public int[] getTopologicalOrderNumbers() {
+    return reversed(getPostorder(null));
+  }
+
+  /**
+   * Returns the nodes in depth-first post-order, starting from the nodes in number order or
+   * {@code edgeOrder}, and following edges in edge order or {@code edgeOrder}.
+   */
+  private int[] getPostorder(@Nullable Comparator<? super T> edgeOrder) {
+    int n = labels.size();
+    int[] roots;
+    int[] edges;
+    if (edgeOrder == null) {
+      roots = null;
+      edges = successors;
+    } else {
+      // Sort the nodes once, then the successors of each node by the resulting rank. Sorting is
+      // stable and equal labels get equal ranks, so ties are broken as Digraph breaks them.
+      Integer[] sorted = new Integer[n];
+      for (int node = 0; node < n; node++) {
+        sorted[node] = node;
+      }
+      final Comparator<? super T> labelOrder = edgeOrder;
+      Arrays.sort(sorted, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer o1, Integer o2) {
+          return labelOrder.compare(labels.get(o1), labels.get(o2));
+        }
+      });
+      roots = new int[n];
+      int[] rank = new int[n];
+      for (int i = 0; i < n; i++) {
+        roots[i] = sorted[i];
+        rank[sorted[i]] = i > 0 && labelOrder.compare(labels.get(sorted[i - 1]),
+            labels.get(sorted[i])) == 0 ? rank[sorted[i - 1]] : i;
+      }
+      edges = new int[successors.length];
+      for (int node = 0; node < n; node++) {
+        int start = successorOffsets[node];
+        int count = successorOffsets[node + 1] - start;
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+          keys[i] = ((long) rank[successors[start + i]] << 32) | i;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < count; i++) {
+          edges[start + i] = successors[start + (int) keys[i]];
+        }
+      }
+    }
+
+    boolean[] marked = new boolean[n];
+    int[] order = new int[n];
+    int visited = 0;
+    int[] stack = new int[n];
+    int[] nextEdge = new int[n];
+    for (int i = 0; i < n; i++) {
+      int root = roots == null ? i : roots[i];
+      if (marked[root]) {
+        continue;
+      }
+      int depth = 0;
+      marked[root] = true;
+      stack[0] = root;
+      nextEdge[0] = successorOffsets[root];
+      while (depth >= 0) {
+        int node = stack[depth];
+        if (nextEdge[depth] < successorOffsets[node + 1]) {
+          int successor = edges[nextEdge[depth]++];
+          if (!marked[successor]) {
+            marked[successor] = true;
+            depth++;
+            stack[depth] = successor;
+            nextEdge[depth] = successorOffsets[successor];
+          }
+        } else {
+          order[visited++] = node;
+          depth--;
+        }
+      }
+    }
+    return order;
+  }
+
+  /**
+   * Returns the minimum rank of each node of an acyclic graph: 0 for nodes without predecessors,
+   * otherwise the length of the shortest path to the node from one of those.
+   */
+  public int[] getMinRanks() {
+    int n = labels.size();
+    int[] rank = new int[n];
+    Arrays.fill(rank, -1);
+    int[] queue = new int[n];
+    int head = 0;
+    int tail = 0;
+    for (int node = 0; node < n; node++) {
+      if (getPredecessorCount(node) == 0) {
+        rank[node] = 0;
+        queue[tail++] = node;
+      }
+    }
+    while (head < tail) {
+      int node = queue[head++];
+      for (int i = successorOffsets[node]; i < successorOffsets[node + 1]; i++) {
+        int successor = successors[i];
+        if (rank[successor] == -1) {
+          rank[successor] = rank[node] + 1;
+          queue[tail++] = successor;
+        }
+      }
+    }
+    return rank;
+  }
+
+  /**
+   * Returns the maximum rank of each node of an acyclic graph: 0 for nodes without predecessors,
+   * otherwise one more than the maximum rank of its predecessors.
+   */
+  public int[] getMaxRanks() {
+    int[] rank = new int[labels.size()];
+    for (int node : getTopologicalOrderNumbers()) {
+      for (int i = predecessorOffsets[node]; i < predecessorOffsets[node + 1]; i++) {
+        rank[node] = Math.max(rank[node], rank[predecessors[i]] + 1);
+      }
+    }
+    return rank;
+  }
+
+  /**
+   * Finds the shortest directed path from {@code from} to {@code to}. The path is returned as an
+   * ordered list of labels, including both endpoints. Returns null if there is no path. Uses
+   * breadth-first search. Time: O(n + e).
+   */
+  @Nullable
+  public List<T> getShortestPath(T from, T to) {
+    int fromNode = getIndex(from);
+    int toNode = getIndex(to);
+    Preconditions.checkArgument(fromNode != -1, "No such node label: %s", from);
+    Preconditions.checkArgument(toNode != -1, "No such node label: %s", to);
+    if (fromNode == toNode) {
+      return Collections.singletonList(from);
+    }
+
+    int n = labels.size();
+    int[] parent = new int[n];
+    Arrays.fill(parent, -1);
+    parent[fromNode] = fromNode;
+    int[] queue = new int[n];
+    int head = 0;
+    int tail = 0;
+    queue[tail++] = fromNode;
+    while (head < tail) {
+      int node = queue[head++];
+      for (int i = successorOffsets[node]; i < successorOffsets[node + 1]; i++) {
+        int successor = successors[i];
+        if (parent[successor] == -1) {
+          parent[successor] = node;
+          if (successor == toNode) {
+            List<T> path = new ArrayList<>();
+            for (int step = toNode; step != fromNode; step = parent[step]) {
+              path.add(labels.get(step));
+            }
+            path.add(from);
+            Collections.reverse(path);
+            return path;
+          }
+          queue[tail++] = successor;
+        }
+      }
+    }
+    return null;
+  }
+
+  private List<T> toLabels(int[] nodes) {
+    List<T> result = new ArrayList<>(nodes.length);
+    for (int node : nodes) {
+      result.add(labels.get(node));
+    }
+    return result;
+  }
+
+  private static int[] reversed(int[] array) {
+    for (int i = 0, j = array.length - 1; i < j; i++, j--) {
+      int tmp = array[i];
+      array[i] = array[j];
+      array[j] = tmp;
+    }
+    return array;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder("CompactDigraph{");
+    for (int node = 0; node < labels.size(); node++) {
+      if (node > 0) {
+        result.append(", ");
+      }
+      result.append(labels.get(node)).append(" -> [");
+      for (int i = successorOffsets[node]; i < successorOffsets[node + 1]; i++) {
+        if (i > successorOffsets[node]) {
+          result.append(", ");
+        }
+        result.append(labels.get(successors[i]));
+      }
+      result.append(']');
+    }
+    return result.append('}').toString();
+  }
+}
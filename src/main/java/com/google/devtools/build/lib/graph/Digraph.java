@@ -391,6 +391,15 @@ public final class Digraph<T> implements Cloneable {
     return n;
   }
 
+  /**
+   * Returns an immutable, compact copy of this graph. Nodes are numbered, and the edges of each
+   * node ordered, as this graph iterates over them, so depth-first traversals of the copy visit
+   * nodes in the same order as those of this graph.
+   */
+  public CompactDigraph<T> freeze() {
+    return CompactDigraph.copyOf(this);
+  }
+
   /******************************************************************
    *                                                                *
    *                        Graph Algorithms                        *
@@ -207,6 +207,36 @@ public class GlobCache {
    */
   @VisibleForTesting
   Future<List<Path>> safeGlob(String pattern, boolean excludeDirs) throws BadGlobException {
+    checkPattern(pattern);
+    return UnixGlob.forPath(packageDirectory)
+        .addPattern(pattern)
+        .setExcludeDirectories(excludeDirs)
+        .setDirectoryFilter(childDirectoryPredicate)
+        .setThreadPool(globExecutor)
+        .setFilesystemCalls(syscalls)
+        .globAsync(true);
+  }
+
+  /**
+   * Like {@link #safeGlob}, but evaluates several patterns in a single traversal of the package
+   * directory. Returns one future per pattern, in the same order.
+   */
+  @VisibleForTesting
+  List<Future<List<Path>>> safeGlobs(List<String> patterns, boolean excludeDirs)
+      throws BadGlobException {
+    for (String pattern : patterns) {
+      checkPattern(pattern);
+    }
+    return UnixGlob.forPath(packageDirectory)
+        .addPatterns(patterns)
+        .setExcludeDirectories(excludeDirs)
+        .setDirectoryFilter(childDirectoryPredicate)
+        .setThreadPool(globExecutor)
+        .setFilesystemCalls(syscalls)
+        .globAsyncPerPattern(true);
+  }
+
+  private static void checkPattern(String pattern) throws BadGlobException {
     // Forbidden patterns:
     if (pattern.indexOf('?') != -1) {
       throw new BadGlobException("glob pattern '" + pattern + "' contains forbidden '?' wildcard");
@@ -216,13 +246,54 @@ public class GlobCache {
     if (error != null) {
       throw new BadGlobException(error + " (in glob pattern '" + pattern + "')");
     }
-    return UnixGlob.forPath(packageDirectory)
-        .addPattern(pattern)
-        .setExcludeDirectories(excludeDirs)
-        .setDirectoryFilter(childDirectoryPredicate)
-        .setThreadPool(globExecutor)
-        .setFilesystemCalls(syscalls)
-        .globAsync(true);
+  }
+
+  /**
+   * Starts the globs for all of {@code patterns} that are not in the cache yet, sharing a single
+   * traversal of the package directory between them.
+   */
+  private void startGlobs(Iterable<String> patterns, boolean excludeDirs)
+      throws BadGlobException {
+    List<String> uncached = new ArrayList<>();
+    for (String pattern : Sets.newLinkedHashSet(patterns)) {
+      if (!globCache.containsKey(Pair.of(pattern, excludeDirs))) {
+        uncached.add(pattern);
+      }
+    }
+    if (uncached.isEmpty()) {
+      return;
+    }
+    List<Future<List<Path>>> futures = safeGlobs(uncached, excludeDirs);
+    for (int i = 0; i < uncached.size(); i++) {
+      setGlobPaths(uncached.get(i), excludeDirs, futures.get(i));
+    }
+  }
+
+  /**
+   * Starts the globs for all of {@code patterns} that are not in the cache yet, in one traversal
+   * of the package directory per value of excludeDirs, e.g. for all the glob() calls of a BUILD
+   * file. Invalid patterns are skipped, as their errors are reported when they are globbed.
+   */
+  public void prefetchGlobs(Collection<Pair<String, Boolean>> patterns) {
+    for (boolean excludeDirs : new boolean[] {false, true}) {
+      List<String> validPatterns = new ArrayList<>();
+      for (Pair<String, Boolean> pattern : patterns) {
+        if (pattern.second != excludeDirs) {
+          continue;
+        }
+        try {
+          checkPattern(pattern.first);
+          validPatterns.add(pattern.first);
+        } catch (BadGlobException e) {
+          // Ignore: the error is reported when the pattern is globbed.
+        }
+      }
+      try {
+        startGlobs(validPatterns, excludeDirs);
+      } catch (BadGlobException e) {
+        throw new IllegalStateException(e);
+      }
+    }
   }
 
   /**
@@ -248,16 +319,28 @@ public class GlobCache {
    * re-evaluate the globs.)
    */
   public boolean globsUpToDate() throws InterruptedException {
-    // Start all globs in parallel.
+    // Start all globs in parallel, in one traversal per value of excludeDirs.
     Map<Pair<String, Boolean>, Future<List<Path>>> newGlobs = new HashMap<>();
     try {
-      for (Map.Entry<Pair<String, Boolean>, Future<List<Path>>> entry : globCache.entrySet()) {
-        Pair<String, Boolean> key = entry.getKey();
+      for (boolean excludeDirs : new boolean[] {false, true}) {
+        List<String> patterns = new ArrayList<>();
+        for (Pair<String, Boolean> key : globCache.keySet()) {
+          if (key.second == excludeDirs) {
+            patterns.add(key.first);
+          }
+        }
+        if (patterns.isEmpty()) {
+          continue;
+        }
+        List<Future<List<Path>>> futures;
         try {
-          newGlobs.put(key, safeGlob(key.first, key.second));
+          futures = safeGlobs(patterns, excludeDirs);
         } catch (BadGlobException e) {
           return false;
         }
+        for (int i = 0; i < patterns.size(); i++) {
+          newGlobs.put(Pair.of(patterns.get(i), excludeDirs), futures.get(i));
+        }
       }
 
       for (Map.Entry<Pair<String, Boolean>, Future<List<Path>>> entry : globCache.entrySet()) {
@@ -287,12 +370,10 @@ public class GlobCache {
    */
   public List<String> glob(List<String> includes, List<String> excludes, boolean excludeDirs)
       throws IOException, BadGlobException, InterruptedException {
-    // Start globbing all patterns in parallel. The getGlob() calls below will
-    // block on an individual pattern's results, but the other globs can
-    // continue in the background.
-    for (String pattern : Iterables.concat(includes, excludes)) {
-      getGlobAsync(pattern, excludeDirs);
-    }
+    // Start globbing all patterns in parallel, in a single directory walk. The
+    // getGlob() calls below will block on an individual pattern's results, but
+    // the other globs can continue in the background.
+    startGlobs(Iterables.concat(includes, excludes), excludeDirs);
 
     LinkedHashSet<String> results = Sets.newLinkedHashSetWithExpectedSize(includes.size());
     for (String pattern : includes) {
@@ -525,10 +525,10 @@ public class Package implements Serializable {
   /**
    * Returns this package's workspace name.
    *
-   * <p>Package-private to encourage callers to get their workspace name from a rule, not a
+   * <p>Callers that need the workspace name of a rule should get it from the rule, not from its
    * package.</p>
    */
-  String getWorkspaceName() {
+  public String getWorkspaceName() {
     return workspaceName;
   }
 
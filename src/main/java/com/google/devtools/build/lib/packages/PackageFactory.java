@@ -63,6 +63,8 @@ import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.UnixGlob;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -132,6 +134,13 @@ public final class PackageFactory {
     /** Fetches the result of a previously started glob computation. */
     List<String> fetch(Token token) throws IOException, InterruptedException;
 
+    /**
+     * Starts the glob computations of all the given patterns, sharing work between them where
+     * possible, unlike separate {@link #runAsync} calls. Invalid patterns are ignored, as their
+     * errors are reported when they are fetched.
+     */
+    void prefetch(Collection<Pair<String, Boolean>> patterns);
+
     /** Should be called when the globber is about to be discarded due to an interrupt. */
     void onInterrupt();
 
@@ -305,6 +314,11 @@ public final class PackageFactory {
       return new Token(includes, excludes, excludeDirs);
     }
 
+    @Override
+    public void prefetch(Collection<Pair<String, Boolean>> patterns) {
+      globCache.prefetchGlobs(patterns);
+    }
+
     @Override
     public List<String> fetch(Globber.Token token) throws IOException, InterruptedException {
       Token legacyToken = (Token) token;
@@ -1325,7 +1339,50 @@ public final class PackageFactory {
   }
 
   /**
-   * Visit all targets and expand the globs in parallel.
+   * A {@link Globber} that only collects the patterns of the glob() calls, for {@link
+   * #prefetchGlobs}.
+   */
+  private static final class GlobPatternCollector implements Globber {
+    private static final Token TOKEN = new Token() {};
+
+    private final Set<Pair<String, Boolean>> globPatterns = new LinkedHashSet<>();
+
+    @Override
+    public Token runAsync(List<String> includes, List<String> excludes, boolean excludeDirs) {
+      for (String pattern : includes) {
+        globPatterns.add(Pair.of(pattern, excludeDirs));
+      }
+      for (String pattern : excludes) {
+        globPatterns.add(Pair.of(pattern, excludeDirs));
+      }
+      return TOKEN;
+    }
+
+    @Override
+    public List<String> fetch(Token token) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void prefetch(Collection<Pair<String, Boolean>> patterns) {
+      globPatterns.addAll(patterns);
+    }
+
+    @Override
+    public void onInterrupt() {}
+
+    @Override
+    public void onCompletion() {}
+
+    @Override
+    public Set<Pair<String, Boolean>> getGlobPatterns() {
+      return globPatterns;
+    }
+  }
+
+  /**
+   * Visit all targets and expand the globs in parallel. The patterns of all the glob() calls are
+   * collected first, so that they are matched together.
    */
   private void prefetchGlobs(PackageIdentifier packageId, BuildFileAST buildFileAST,
       boolean wasPreprocessed, Path buildFilePath, Globber globber,
@@ -1354,7 +1411,9 @@ public final class PackageFactory {
           .setDefaultVisibilitySet(false);
 
       // Stuff that closes over the package context:
-      PackageContext context = new PackageContext(pkgBuilder, globber, NullEventHandler.INSTANCE);
+      GlobPatternCollector collector = new GlobPatternCollector();
+      PackageContext context =
+          new PackageContext(pkgBuilder, collector, NullEventHandler.INSTANCE);
       buildPkgEnv(pkgEnv, context, ruleFactory);
       try {
         pkgEnv.update("glob", newGlobFunction.apply(context, /*async=*/true));
@@ -1365,6 +1424,7 @@ public final class PackageFactory {
         throw new AssertionError(e);
       }
       buildFileAST.exec(pkgEnv, NullEventHandler.INSTANCE);
+      globber.prefetch(collector.getGlobPatterns());
     }
   }
 
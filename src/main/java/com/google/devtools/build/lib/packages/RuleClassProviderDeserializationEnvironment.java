@@ -0,0 +1,53 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.packages.PackageDeserializer.PackageDeserializationEnvironment;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+
+/**
+ * A {@link PackageDeserializationEnvironment} that resolves paths on a given file system and rule
+ * classes using a {@link RuleClassProvider}.
+ *
+ * <p>Only native rule classes are known to the provider. Deserializing a package that contains a
+ * Skylark rule fails with an unchecked exception.
+ */
+public class RuleClassProviderDeserializationEnvironment
+    implements PackageDeserializationEnvironment {
+
+  private final FileSystem fileSystem;
+  private final RuleClassProvider ruleClassProvider;
+
+  public RuleClassProviderDeserializationEnvironment(FileSystem fileSystem,
+      RuleClassProvider ruleClassProvider) {
+    this.fileSystem = Preconditions.checkNotNull(fileSystem);
+    this.ruleClassProvider = Preconditions.checkNotNull(ruleClassProvider);
+  }
+
+  @Override
+  public Path getPath(String buildFilePath) {
+    return fileSystem.getPath(buildFilePath);
+  }
+
+  @Override
+  public RuleClass getRuleClass(Build.Rule rulePb, Location ruleLocation) {
+    return Preconditions.checkNotNull(
+        ruleClassProvider.getRuleClassMap().get(rulePb.getRuleClass()),
+        "Unknown rule class '%s' at %s", rulePb.getRuleClass(), ruleLocation);
+  }
+}
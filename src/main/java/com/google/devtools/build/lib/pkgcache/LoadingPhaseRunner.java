@@ -403,7 +403,7 @@ public class LoadingPhaseRunner {
       throw new LoadingFailedException("Loading failed; build aborted", e);
     }
 
-    postLoadingLogging(eventBus, targetsToLoad, expandedResult.getTargets(), timer);
+    postLoadingLogging(eventHandler, eventBus, targetsToLoad, expandedResult.getTargets(), timer);
     return new LoadingResult(targets.hasError(), expandedResult.hasError(),
         expandedResult.getTargets(), testsToRun, ImmutableMap.<PackageIdentifier, Path>of());
   }
@@ -432,7 +432,8 @@ public class LoadingPhaseRunner {
     }
     freeMemoryAfterLoading(callback, pkgLoader.getVisitedPackageNames());
 
-    postLoadingLogging(eventBus, baseResult.getTargets(), expandedResult.getTargets(), timer);
+    postLoadingLogging(eventHandler, eventBus, baseResult.getTargets(),
+        expandedResult.getTargets(), timer);
     LoadingResult loadingResult = new LoadingResult(targets.hasError(),
         !baseResult.isSuccesful() || expandedResult.hasError(),
         expandedResult.getTargets(), testsToRun, baseResult.roots);
@@ -445,11 +446,20 @@ public class LoadingPhaseRunner {
     return Stopwatch.createStarted();
   }
 
-  private void postLoadingLogging(EventBus eventBus, ImmutableSet<Target> originalTargetsToLoad,
-      ImmutableSet<Target> expandedTargetsToLoad, Stopwatch timer) {
+  private void postLoadingLogging(EventHandler eventHandler, EventBus eventBus,
+      ImmutableSet<Target> originalTargetsToLoad, ImmutableSet<Target> expandedTargetsToLoad,
+      Stopwatch timer) {
     Set<Target> testSuiteTargets = Sets.difference(originalTargetsToLoad, expandedTargetsToLoad);
+    PackageManager.PackageManagerStatistics statistics = packageManager.getStatistics();
     eventBus.post(new LoadingPhaseCompleteEvent(expandedTargetsToLoad, testSuiteTargets,
-        packageManager.getStatistics(), timer.stop().elapsed(TimeUnit.MILLISECONDS)));
+        statistics, timer.stop().elapsed(TimeUnit.MILLISECONDS)));
+    int cacheHits = statistics.getPersistentCacheHits();
+    int cacheLookups = cacheHits + statistics.getPersistentCacheMisses();
+    if (cacheLookups > 0) {
+      eventHandler.handle(Event.info(String.format(
+          "Package cache: %d of %d packages (%d%%) deserialized instead of loaded",
+          cacheHits, cacheLookups, 100 * cacheHits / cacheLookups)));
+    }
     LOG.info("Loading phase finished"); 
   }
 
@@ -24,6 +24,7 @@ import com.google.devtools.build.lib.packages.ConstantRuleVisibility;
 import com.google.devtools.build.lib.packages.RuleVisibility;
 import com.google.devtools.common.options.Converter;
 import com.google.devtools.common.options.Converters;
+import com.google.devtools.common.options.EnumConverter;
 import com.google.devtools.common.options.Option;
 import com.google.devtools.common.options.OptionsBase;
 import com.google.devtools.common.options.OptionsParsingException;
@@ -156,6 +157,56 @@ public class PackageCacheOptions extends OptionsBase {
       help = "Allows the command to fetch external dependencies")
   public boolean fetch;
 
+  @Option(name = "experimental_persistent_package_cache",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If true, Blaze stores loaded packages in the output base and, after a server "
+          + "restart, deserializes those whose BUILD file, loaded .bzl files and glob results "
+          + "are unchanged instead of loading them again. Packages with Skylark rules are not "
+          + "cached. Has no effect if the install MD5 of the binary is unknown. Experimental.")
+  public boolean persistentPackageCache;
+
+  /** The phases of a build whose Skyframe evaluations can use a work-stealing thread pool. */
+  public enum EvaluationPhase {
+    LOADING,
+    ANALYSIS,
+    EXECUTION
+  }
+
+  @Option(name = "experimental_work_stealing_phases",
+      defaultValue = "",
+      category = "undocumented",
+      converter = EvaluationPhaseListConverter.class,
+      help = "A comma-separated list of the phases (loading, analysis, execution) whose Skyframe "
+          + "evaluations use a work-stealing thread pool instead of a thread pool with a single "
+          + "shared queue.")
+  public List<EvaluationPhase> workStealingPhases;
+
+  /**
+   * A converter from strings containing comma-separated names of phases to lists of phases.
+   */
+  public static class EvaluationPhaseListConverter implements Converter<List<EvaluationPhase>> {
+
+    private static final Splitter COMMA_SPLITTER = Splitter.on(',').omitEmptyStrings();
+
+    private final EnumConverter<EvaluationPhase> phaseConverter =
+        new EnumConverter<EvaluationPhase>(EvaluationPhase.class, "phase") {};
+
+    @Override
+    public List<EvaluationPhase> convert(String input) throws OptionsParsingException {
+      ImmutableList.Builder<EvaluationPhase> list = ImmutableList.builder();
+      for (String s : COMMA_SPLITTER.split(input)) {
+        list.add(phaseConverter.convert(s));
+      }
+      return list.build();
+    }
+
+    @Override
+    public String getTypeDescription() {
+      return "comma-separated list of phases";
+    }
+  }
+
   /**
    * A converter from strings containing comma-separated names of packages to lists of strings.
    */
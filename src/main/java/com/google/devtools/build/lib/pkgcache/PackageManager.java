@@ -62,6 +62,18 @@ public interface PackageManager extends PackageProvider, CachingPackageLocator {
      */
     int getPackagesLoaded();
 
+    /**
+     * Returns the number of packages deserialized from the persistent package cache since the
+     * last sync instead of being loaded. Always 0 if the cache is disabled.
+     */
+    int getPersistentCacheHits();
+
+    /**
+     * Returns the number of packages loaded since the last sync that were not found in the
+     * persistent package cache. Always 0 if the cache is disabled.
+     */
+    int getPersistentCacheMisses();
+
     /**
      * Returns the number of packages looked up since the last sync.
      */
@@ -18,6 +18,10 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryUsage;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Blaze memory profiler.
@@ -34,10 +38,21 @@ import java.lang.management.MemoryUsage;
  * an application and the JVM implementation allocate memory from the
  * <em>native heap</em>.
  *
+ * <p>Large data structures can register a {@link HeapSizeEstimator}, whose estimate is stored
+ * along with the heap usage.
+ *
  * <p>The script in /devtools/blaze/scripts/blaze-memchart.sh can be used for post processing.
  */
 public final class MemoryProfiler {
 
+  /**
+   * Estimates the number of heap bytes retained by a data structure, so that its share of the
+   * heap usage can be tracked across builds.
+   */
+  public interface HeapSizeEstimator {
+    long estimateHeapSize();
+  }
+
   private static final MemoryProfiler INSTANCE = new MemoryProfiler();
 
   public static MemoryProfiler instance() {
@@ -47,6 +62,17 @@ public final class MemoryProfiler {
   private PrintStream memoryProfile;
   private ProfilePhase currentPhase;
 
+  // Weakly referenced, so that registering does not keep discarded data structures alive.
+  private final Map<String, WeakReference<HeapSizeEstimator>> estimators = new TreeMap<>();
+
+  /**
+   * Registers an estimator under the given name, replacing any estimator previously registered
+   * under that name. The estimator is only weakly referenced.
+   */
+  public synchronized void registerHeapSizeEstimator(String name, HeapSizeEstimator estimator) {
+    estimators.put(name, new WeakReference<>(estimator));
+  }
+
   public synchronized void start(OutputStream out) {
     this.memoryProfile = (out == null) ? null : new PrintStream(out);
     this.currentPhase = ProfilePhase.INIT;
@@ -74,6 +100,19 @@ public final class MemoryProfiler {
       memoryProfile.println(name + ":non-heap:used:" + memoryUsage.getUsed());
       memoryProfile.println(name + ":non-heap:commited:" + memoryUsage.getCommitted());
       memoryProfile.println(name + ":non-heap:max:" + memoryUsage.getMax());
+
+      Iterator<Map.Entry<String, WeakReference<HeapSizeEstimator>>> it =
+          estimators.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<String, WeakReference<HeapSizeEstimator>> entry = it.next();
+        HeapSizeEstimator estimator = entry.getValue().get();
+        if (estimator == null) {
+          it.remove();
+        } else {
+          memoryProfile.println(name + ":estimate:" + entry.getKey() + ":"
+              + estimator.estimateHeapSize());
+        }
+      }
       currentPhase = nextPhase;
     }
   }
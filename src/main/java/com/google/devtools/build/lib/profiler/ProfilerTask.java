@@ -89,6 +89,11 @@ public enum ProfilerTask {
   SKYLARK_PARSER("Skylark Parser"),
   SKYLARK_USER_FN("Skylark user function call", -1, 0xCC0033, 0),
   SKYLARK_BUILTIN_FN("Skylark builtin function call", -1, 0x990033, 0),
+  DIGEST("output digest computation", 10000000, 0x669966, 30),
+  HOST_LOAD("local host load", -1, 0x339999, 0),
+  ACTION_RESOURCE_USAGE("observed action resource usage", -1, 0x996699, 0),
+  SANDBOX_SETUP("sandbox setup", -1, 0x669933, 0),
+  SANDBOX_TEARDOWN("sandbox teardown", -1, 0x996633, 0),
   UNKNOWN("Unknown event", -1, 0x339966, 0);
 
   // Size of the ProfilerTask value space.
@@ -15,8 +15,10 @@ package com.google.devtools.build.lib.query2;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.cmdline.TargetParsingException;
@@ -31,6 +33,7 @@ import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.pkgcache.TargetPatternEvaluator;
 import com.google.devtools.build.lib.pkgcache.TransitivePackageLoader;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
+import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
@@ -38,8 +41,10 @@ import com.google.devtools.build.lib.query2.engine.QueryExpression;
 import com.google.devtools.build.lib.util.BinaryPredicate;
 import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -52,7 +57,8 @@ import javax.annotation.Nullable;
  * {@link QueryEnvironment} that can evaluate queries to produce a result, and implements as much
  * of QueryEnvironment as possible while remaining mostly agnostic as to the objects being stored.
  */
-public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironment<T> {
+public abstract class AbstractBlazeQueryEnvironment<T>
+    implements QueryEnvironment<T>, AutoCloseable {
   protected final ErrorSensingEventHandler eventHandler;
   private final Map<String, Set<T>> letBindings = new HashMap<>();
   protected final Map<String, Set<Target>> resolvedTargetPatterns = new HashMap<>();
@@ -67,6 +73,9 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
 
  private static final Logger LOG = Logger.getLogger(AbstractBlazeQueryEnvironment.class.getName());
 
+  /** The maximum number of targets passed at once to callbacks of streamed evaluations. */
+  public static final int STREAMING_BATCH_SIZE = 10000;
+
   protected AbstractBlazeQueryEnvironment(boolean keepGoing,
       boolean strictScope,
       Predicate<Label> labelFilter,
@@ -139,26 +148,71 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
       throws QueryException, InterruptedException {
     Set<T> resultNodes;
     try (AutoProfiler p = AutoProfiler.logged("evaluating query", LOG)) {
-      resolvedTargetPatterns.clear();
-
-      // In the --nokeep_going case, errors are reported in the order in which the patterns are
-      // specified; using a linked hash set here makes sure that the left-most error is reported.
-      Set<String> targetPatternSet = new LinkedHashSet<>();
-      expr.collectTargetPatterns(targetPatternSet);
+      preloadTargetPatterns(expr);
       try {
-        resolvedTargetPatterns.putAll(preloadOrThrow(expr, targetPatternSet));
-      } catch (TargetParsingException e) {
-        // Unfortunately, by evaluating the patterns in parallel, we lose some location information.
-        throw new QueryException(expr, e.getMessage());
+        resultNodes = expr.eval(this);
+      } catch (QueryException e) {
+        throw new QueryException(e, expr);
       }
+    }
+    return new QueryEvalResult<>(checkForBuildFileErrors(expr), resultNodes);
+  }
 
+  /**
+   * Evaluate the specified query expression in this environment, passing the resulting targets to
+   * {@code callback} in batches of at most {@link #STREAMING_BATCH_SIZE}, each target exactly
+   * once, as they are computed. Unions and the {@code deps}, {@code rdeps} and {@code allrdeps}
+   * functions pass on their results part by part, level by level for the functions; other
+   * expressions pass on their complete result at once. This is the preferred way of evaluating
+   * queries whose output does not need to be ordered.
+   *
+   * <p>To remove duplicates, the targets passed on so far are remembered, and the searches of the
+   * functions above remember the targets they visited, so memory use still grows with the size of
+   * the result. What is saved is the result's graph, and the time until the first output.
+   *
+   * <p>Unlike {@link #evaluateQuery(QueryExpression)}, which produces nothing if loading errors
+   * fail the query with {@code --nokeep_going}, part of the result may already have been passed to
+   * {@code callback} by the time the {@link QueryException} is thrown.
+   *
+   * @return a {@link QueryEvalResult} that records whether errors occurred during evaluation and
+   *   whether the result was empty
+   */
+  public QueryEvalResult<T> evaluateQuery(QueryExpression expr, Callback<T> callback)
+      throws QueryException, InterruptedException {
+    UniquifyingBatchCallback<T> batchCallback = new UniquifyingBatchCallback<>(callback);
+    try (AutoProfiler p = AutoProfiler.logged("evaluating query (streamed)", LOG)) {
+      preloadTargetPatterns(expr);
       try {
-        resultNodes = expr.eval(this);
+        expr.eval(this, batchCallback);
+        batchCallback.flush();
       } catch (QueryException e) {
         throw new QueryException(e, expr);
       }
     }
+    return new QueryEvalResult<>(checkForBuildFileErrors(expr), batchCallback.isEmpty());
+  }
 
+  private void preloadTargetPatterns(QueryExpression expr)
+      throws QueryException, InterruptedException {
+    resolvedTargetPatterns.clear();
+
+    // In the --nokeep_going case, errors are reported in the order in which the patterns are
+    // specified; using a linked hash set here makes sure that the left-most error is reported.
+    Set<String> targetPatternSet = new LinkedHashSet<>();
+    expr.collectTargetPatterns(targetPatternSet);
+    try {
+      resolvedTargetPatterns.putAll(preloadOrThrow(expr, targetPatternSet));
+    } catch (TargetParsingException e) {
+      // Unfortunately, by evaluating the patterns in parallel, we lose some location information.
+      throw new QueryException(expr, e.getMessage());
+    }
+  }
+
+  /**
+   * Returns whether the evaluation of {@code expr} was free of errors, throwing if there were
+   * some and {@code --keep_going} is not in effect.
+   */
+  private boolean checkForBuildFileErrors(QueryExpression expr) throws QueryException {
     if (eventHandler.hasErrors()) {
       if (!keepGoing) {
         // This case represents loading-phase errors reported during evaluation
@@ -170,8 +224,45 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
             + "Results may be inaccurate"));
       }
     }
+    return !eventHandler.hasErrors();
+  }
+
+  /**
+   * A {@link Callback} that removes duplicates from the elements passed to it and hands them on
+   * to its delegate in batches of {@link #STREAMING_BATCH_SIZE}. It retains the set of elements
+   * seen so far, which is as large as the result, and the current batch.
+   */
+  private static final class UniquifyingBatchCallback<T> implements Callback<T> {
+    private final Callback<T> delegate;
+    private final Set<T> seen = new HashSet<>();
+    private final List<T> batch = new ArrayList<>();
+
+    private UniquifyingBatchCallback(Callback<T> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void process(Iterable<T> partialResult) throws QueryException, InterruptedException {
+      for (T element : partialResult) {
+        if (seen.add(element)) {
+          batch.add(element);
+          if (batch.size() >= STREAMING_BATCH_SIZE) {
+            flush();
+          }
+        }
+      }
+    }
 
-    return new QueryEvalResult<>(!eventHandler.hasErrors(), resultNodes);
+    private void flush() throws QueryException, InterruptedException {
+      if (!batch.isEmpty()) {
+        delegate.process(batch);
+        batch.clear();
+      }
+    }
+
+    private boolean isEmpty() {
+      return seen.isEmpty();
+    }
   }
 
   public QueryEvalResult<T> evaluateQuery(String query)
@@ -179,6 +270,13 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
     return evaluateQuery(QueryExpression.parse(query, this));
   }
 
+  /**
+   * Releases the threads held by this environment, if any. No queries may be evaluated
+   * afterwards.
+   */
+  @Override
+  public void close() {}
+
   @Override
   public void reportBuildFileError(QueryExpression caller, String message) throws QueryException {
     if (!keepGoing) {
@@ -232,6 +330,79 @@ public abstract class AbstractBlazeQueryEnvironment<T> implements QueryEnvironme
       QueryExpression caller, Collection<String> patterns)
       throws QueryException, TargetParsingException;
 
+  @Override
+  public Set<T> getFwdTransitiveClosure(Set<T> targets, int maxDepth)
+      throws InterruptedException {
+    return breadthFirstSearch(targets, maxDepth, Predicates.<T>alwaysTrue(), /*forward=*/true);
+  }
+
+  @Override
+  public Set<T> getReverseTransitiveClosure(Set<T> targets, int maxDepth, Predicate<T> universe)
+      throws InterruptedException {
+    return breadthFirstSearch(targets, maxDepth, universe, /*forward=*/false);
+  }
+
+  @Override
+  public void getFwdTransitiveClosure(Set<T> targets, int maxDepth, Callback<T> callback)
+      throws QueryException, InterruptedException {
+    breadthFirstSearch(targets, maxDepth, Predicates.<T>alwaysTrue(), /*forward=*/true, callback);
+  }
+
+  @Override
+  public void getReverseTransitiveClosure(Set<T> targets, int maxDepth, Predicate<T> universe,
+      Callback<T> callback) throws QueryException, InterruptedException {
+    breadthFirstSearch(targets, maxDepth, universe, /*forward=*/false, callback);
+  }
+
+  private Set<T> breadthFirstSearch(Set<T> targets, int maxDepth, Predicate<T> universe,
+      boolean forward) throws InterruptedException {
+    final Set<T> visited = new LinkedHashSet<>();
+    try {
+      breadthFirstSearch(targets, maxDepth, universe, forward, new Callback<T>() {
+        @Override
+        public void process(Iterable<T> partialResult) {
+          Iterables.addAll(visited, partialResult);
+        }
+      });
+    } catch (QueryException e) {
+      throw new IllegalStateException("not thrown by the callback", e);
+    }
+    return visited;
+  }
+
+  /**
+   * Breadth-first search from {@code targets} along forward or reverse dependency edges, one level
+   * at a time, while sticking to nodes satisfying the {@code universe} predicate. The nodes of each
+   * level are passed to {@code callback} before the next level is computed.
+   */
+  private void breadthFirstSearch(Set<T> targets, int maxDepth, Predicate<T> universe,
+      boolean forward, Callback<T> callback) throws QueryException, InterruptedException {
+    Set<T> visited = new HashSet<>();
+    Collection<T> current = targets;
+
+    // We need to iterate maxDepth + 1 times.
+    for (int i = 0; i <= maxDepth; i++) {
+      // Restrict to nodes satisfying the universe predicate, and filter already visited nodes: if
+      // we see a node in a later round, then we don't need to visit it again, because the depth at
+      // which we see it must be greater than or equal to the last visit.
+      List<T> level = new ArrayList<>();
+      for (T node : Iterables.filter(current, universe)) {
+        if (visited.add(node)) {
+          level.add(node);
+        }
+      }
+      if (level.isEmpty()) {
+        // Exit when there are no more nodes to visit.
+        break;
+      }
+      callback.process(level);
+      if (i == maxDepth) {
+        break;
+      }
+      current = forward ? getFwdDeps(level) : getReverseDeps(level);
+    }
+  }
+
   @Override
   public boolean isSettingEnabled(Setting setting) {
     return settings.contains(Preconditions.checkNotNull(setting));
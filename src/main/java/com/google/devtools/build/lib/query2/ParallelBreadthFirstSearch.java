@@ -0,0 +1,151 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.query2.engine.Callback;
+import com.google.devtools.build.lib.query2.engine.QueryException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Depth-bounded breadth-first search that expands each level of the search in parallel.
+ *
+ * <p>The frontier of a level is split into batches, each of which is expanded by a single call to
+ * the successor function in a fork-join task. Nodes are deduplicated across tasks through a
+ * concurrent set of their keys, so each node is reported, and expanded, exactly once. Levels are
+ * processed one after the other, which keeps depth bounds exact.
+ *
+ * @param <T> the type of the nodes
+ * @param <K> the type of the keys that identify nodes
+ */
+@ThreadSafe
+final class ParallelBreadthFirstSearch<T, K> {
+
+  private final ForkJoinPool pool;
+  private final int batchSize;
+  private final Function<T, K> keyFunction;
+  private final Function<Iterable<T>, ? extends Iterable<T>> successorFunction;
+
+  /**
+   * @param pool the pool in which levels are expanded
+   * @param batchSize the maximum number of nodes passed to a single call of
+   *     {@code successorFunction}
+   * @param keyFunction returns the key identifying a node; must be thread-safe
+   * @param successorFunction returns the successors of a batch of nodes; must be thread-safe
+   */
+  ParallelBreadthFirstSearch(ForkJoinPool pool, int batchSize, Function<T, K> keyFunction,
+      Function<Iterable<T>, ? extends Iterable<T>> successorFunction) {
+    this.pool = pool;
+    this.batchSize = batchSize;
+    this.keyFunction = keyFunction;
+    this.successorFunction = successorFunction;
+  }
+
+  /**
+   * Returns the nodes that satisfy {@code filter} and are reachable from those of {@code roots}
+   * that do, through at most {@code maxDepth} edges and only through nodes satisfying
+   * {@code filter}. The roots that satisfy it are included.
+   *
+   * @param filter restricts the search; must be thread-safe
+   */
+  Set<T> visit(Iterable<T> roots, int maxDepth, Predicate<? super T> filter)
+      throws InterruptedException {
+    final ImmutableSet.Builder<T> result = ImmutableSet.builder();
+    try {
+      visit(roots, maxDepth, filter, new Callback<T>() {
+        @Override
+        public void process(Iterable<T> partialResult) {
+          result.addAll(partialResult);
+        }
+      });
+    } catch (QueryException e) {
+      throw new IllegalStateException("not thrown by the callback", e);
+    }
+    return result.build();
+  }
+
+  /**
+   * Passes the nodes of {@link #visit(Iterable, int, Predicate)} to {@code callback}, one level at
+   * a time, before the next level is expanded. Each node is passed exactly once.
+   */
+  void visit(Iterable<T> roots, int maxDepth, Predicate<? super T> filter, Callback<T> callback)
+      throws QueryException, InterruptedException {
+    Set<K> visited = Sets.newConcurrentHashSet();
+    List<T> frontier = new ArrayList<>();
+    for (T root : roots) {
+      if (filter.apply(root) && visited.add(keyFunction.apply(root))) {
+        frontier.add(root);
+      }
+    }
+    for (int depth = 0; !frontier.isEmpty(); depth++) {
+      callback.process(frontier);
+      if (depth == maxDepth) {
+        break;
+      }
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      frontier = pool.invoke(new ExpandTask(frontier, visited, filter));
+    }
+  }
+
+  /**
+   * Expands a range of a frontier, splitting it in halves until it fits in a batch, and returns
+   * the successors that were not visited before.
+   */
+  private final class ExpandTask extends RecursiveTask<List<T>> {
+    private final List<T> nodes;
+    private final Set<K> visited;
+    private final Predicate<? super T> filter;
+
+    private ExpandTask(List<T> nodes, Set<K> visited, Predicate<? super T> filter) {
+      this.nodes = nodes;
+      this.visited = visited;
+      this.filter = filter;
+    }
+
+    @Override
+    protected List<T> compute() {
+      if (nodes.size() > batchSize) {
+        int middle = nodes.size() / 2;
+        ExpandTask left = new ExpandTask(nodes.subList(0, middle), visited, filter);
+        ExpandTask right = new ExpandTask(nodes.subList(middle, nodes.size()), visited, filter);
+        left.fork();
+        List<T> result = right.compute();
+        List<T> leftResult = left.join();
+        if (leftResult.isEmpty()) {
+          return result;
+        }
+        leftResult.addAll(result);
+        return leftResult;
+      }
+      List<T> result = new ArrayList<>();
+      for (T successor : successorFunction.apply(nodes)) {
+        if (filter.apply(successor) && visited.add(keyFunction.apply(successor))) {
+          result.add(successor);
+        }
+      }
+      return result;
+    }
+  }
+}
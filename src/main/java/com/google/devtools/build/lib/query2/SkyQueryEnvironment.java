@@ -33,6 +33,7 @@ import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.cmdline.TargetParsingException;
 import com.google.devtools.build.lib.cmdline.TargetPattern;
 import com.google.devtools.build.lib.collect.CompactHashSet;
+import com.google.devtools.build.lib.concurrent.NamedForkJoinPool;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.graph.Digraph;
@@ -46,6 +47,7 @@ import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.pkgcache.TargetPatternEvaluator;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.query2.engine.AllRdepsFunction;
+import com.google.devtools.build.lib.query2.engine.Callback;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
@@ -79,6 +81,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
@@ -102,8 +105,33 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
   private final String parserPrefix;
   private final PathPackageLocator pkgPath;
 
+  // Shared by all the parallel visitations of this environment; created by the first one.
+  private ForkJoinPool visitationPool;
+
+  private final Function<Iterable<Target>, Collection<Target>> fwdDepsFunction =
+      new Function<Iterable<Target>, Collection<Target>>() {
+        @Override
+        public Collection<Target> apply(Iterable<Target> batch) {
+          return getFwdDeps(batch);
+        }
+      };
+
+  private final Function<Iterable<Target>, Collection<Target>> reverseDepsFunction =
+      new Function<Iterable<Target>, Collection<Target>>() {
+        @Override
+        public Collection<Target> apply(Iterable<Target> batch) {
+          return getReverseDeps(batch);
+        }
+      };
+
   private static final Logger LOG = Logger.getLogger(SkyQueryEnvironment.class.getName());
 
+  /**
+   * The maximum number of targets whose dependencies are looked up together when the transitive
+   * closure of a set of targets is computed in parallel.
+   */
+  private static final int PARALLEL_VISITATION_BATCH_SIZE = 1000;
+
   private static final Function<Target, Label> TARGET_LABEL_FUNCTION =
       new Function<Target, Label>() {
     
@@ -172,6 +200,15 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
     return super.evaluateQuery(expr);
   }
 
+  @Override
+  public QueryEvalResult<Target> evaluateQuery(QueryExpression expr, Callback<Target> callback)
+      throws QueryException, InterruptedException {
+    // See evaluateQuery(QueryExpression) above.
+    eventHandler.resetErrors();
+    init();
+    return super.evaluateQuery(expr, callback);
+  }
+
   private Map<Target, Collection<Target>> makeTargetsMap(Map<SkyKey, Iterable<SkyKey>> input) {
     ImmutableMap.Builder<Target, Collection<Target>> result = ImmutableMap.builder();
     
@@ -259,16 +296,78 @@ public class SkyQueryEnvironment extends AbstractBlazeQueryEnvironment<Target> {
   }
 
   @Override
-  public Set<Target> getTransitiveClosure(Set<Target> targets) {
-    Set<Target> visited = new HashSet<>();
-    Collection<Target> current = targets;
-    while (!current.isEmpty()) {
-      Collection<Target> toVisit = Collections2.filter(current,
-          Predicates.not(Predicates.in(visited)));
-      current = getFwdDeps(toVisit);
-      visited.addAll(toVisit);
+  public Set<Target> getTransitiveClosure(Set<Target> targets) throws InterruptedException {
+    return getFwdTransitiveClosure(targets, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public Set<Target> getFwdTransitiveClosure(Set<Target> targets, int maxDepth)
+      throws InterruptedException {
+    return visitInParallel(targets, maxDepth, Predicates.<Target>alwaysTrue(), fwdDepsFunction);
+  }
+
+  @Override
+  public Set<Target> getReverseTransitiveClosure(Set<Target> targets, int maxDepth,
+      Predicate<Target> universe) throws InterruptedException {
+    return visitInParallel(targets, maxDepth, universe, reverseDepsFunction);
+  }
+
+  @Override
+  public void getFwdTransitiveClosure(Set<Target> targets, int maxDepth,
+      Callback<Target> callback) throws QueryException, InterruptedException {
+    visitInParallel(targets, maxDepth, Predicates.<Target>alwaysTrue(), fwdDepsFunction, callback);
+  }
+
+  @Override
+  public void getReverseTransitiveClosure(Set<Target> targets, int maxDepth,
+      Predicate<Target> universe, Callback<Target> callback)
+      throws QueryException, InterruptedException {
+    visitInParallel(targets, maxDepth, universe, reverseDepsFunction, callback);
+  }
+
+  /**
+   * Breadth-first search of the universe graph from {@code targets}, in which the targets of each
+   * level are looked up in batches on {@code loadingPhaseThreads} threads. Unlike the sequential
+   * search of the other query environments, the result is in no particular order.
+   */
+  private Set<Target> visitInParallel(Set<Target> targets, int maxDepth, Predicate<Target> filter,
+      Function<Iterable<Target>, Collection<Target>> successorFunction)
+      throws InterruptedException {
+    return new ParallelBreadthFirstSearch<>(getVisitationPool(), PARALLEL_VISITATION_BATCH_SIZE,
+            TARGET_TO_SKY_KEY, successorFunction)
+        .visit(targets, maxDepth, filter);
+  }
+
+  /**
+   * Like {@link #visitInParallel(Set, int, Predicate, Function)}, but passes each level of the
+   * search to {@code callback} as soon as it has been computed.
+   */
+  private void visitInParallel(Set<Target> targets, int maxDepth, Predicate<Target> filter,
+      Function<Iterable<Target>, Collection<Target>> successorFunction, Callback<Target> callback)
+      throws QueryException, InterruptedException {
+    new ParallelBreadthFirstSearch<>(getVisitationPool(), PARALLEL_VISITATION_BATCH_SIZE,
+            TARGET_TO_SKY_KEY, successorFunction)
+        .visit(targets, maxDepth, filter, callback);
+  }
+
+  /**
+   * Returns the pool of {@code loadingPhaseThreads} threads in which the levels of the parallel
+   * visitations are expanded. A visitation only returns once its last level is expanded, so the
+   * pool is idle between visitations, even interrupted ones.
+   */
+  private synchronized ForkJoinPool getVisitationPool() {
+    if (visitationPool == null) {
+      visitationPool = NamedForkJoinPool.newNamedPool("skyquery", loadingPhaseThreads);
+    }
+    return visitationPool;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (visitationPool != null) {
+      visitationPool.shutdownNow();
+      visitationPool = null;
     }
-    return ImmutableSet.copyOf(visited);
   }
 
   // Implemented with a breadth-first search.
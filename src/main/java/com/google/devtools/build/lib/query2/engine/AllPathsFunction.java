@@ -13,14 +13,13 @@
 // limitations under the License.
 package com.google.devtools.build.lib.query2.engine;
 
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Argument;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.ArgumentType;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
 
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -59,24 +58,15 @@ public class AllPathsFunction implements QueryFunction {
     // Algorithm: compute "reachableFromX", the forward transitive closure of
     // the "from" set, then find the intersection of "reachableFromX" with the
     // reverse transitive closure of the "to" set.  The reverse transitive
-    // closure and intersection operations are interleaved for efficiency.
-    // "result" holds the intersection.
+    // closure and intersection operations are interleaved for efficiency:
+    // the reverse search starts from the "to" nodes in "reachableFromX" and
+    // never leaves "reachableFromX".
 
     env.buildTransitiveClosure(expression, fromValue, Integer.MAX_VALUE);
 
     Set<T> reachableFromX = env.getTransitiveClosure(fromValue);
-    Set<T> result = intersection(reachableFromX, toValue);
-    Collection<T> worklist = result;
-    while (!worklist.isEmpty()) {
-      Collection<T> reverseDeps = env.getReverseDeps(worklist);
-      worklist = new ArrayList<>();
-      for (T np : reverseDeps) {
-        if (reachableFromX.contains(np) && result.add(np)) {
-          worklist.add(np);
-        }
-      }
-    }
-    return result;
+    return env.getReverseTransitiveClosure(intersection(reachableFromX, toValue),
+        Integer.MAX_VALUE, Predicates.in(reachableFromX));
   }
 
   /**
@@ -16,14 +16,10 @@ package com.google.devtools.build.lib.query2.engine;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Argument;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.ArgumentType;
-import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.StreamableQueryFunction;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -36,7 +32,7 @@ import java.util.Set;
  * <pre>       | ALLRDEPS '(' expr ',' WORD ')'</pre>
  */
 // Public because SkyQueryEnvironment needs to refer to it directly.
-public class AllRdepsFunction implements QueryFunction {
+public class AllRdepsFunction implements StreamableQueryFunction {
   public AllRdepsFunction() {}
 
   @Override
@@ -62,29 +58,18 @@ public class AllRdepsFunction implements QueryFunction {
       throws QueryException, InterruptedException {
     Set<T> argumentValue = args.get(0).getExpression().eval(env);
     int depthBound = args.size() > 1 ? args.get(1).getInteger() : Integer.MAX_VALUE;
-    Set<T> visited = new LinkedHashSet<>();
-    Collection<T> current = argumentValue;
-
-    // We need to iterate depthBound + 1 times.
-    for (int i = 0; i <= depthBound; i++) {
-      List<T> next = new ArrayList<>();
-      // Restrict to nodes satisfying the universe predicate.
-      Iterable<T> currentInUniverse = Iterables.filter(current, universe);
-      // Filter already visited nodes: if we see a node in a later round, then we don't need to
-      // visit it again, because the depth at which we see it must be greater than or equal to
-      // the last visit.
-      next.addAll(env.getReverseDeps(Iterables.filter(currentInUniverse,
-          Predicates.not(Predicates.in(visited)))));
-      Iterables.addAll(visited, currentInUniverse);
-      if (next.isEmpty()) {
-        // Exit when there are no more nodes to visit.
-        break;
-      }
-      current = next;
-    }
-
-    return visited;
+    return env.getReverseTransitiveClosure(argumentValue, depthBound, universe);
+  }
 
+  /**
+   * Like {@link #eval(QueryEnvironment, List, Predicate)}, but passes on each level of the search
+   * as soon as it is computed.
+   */
+  protected <T> void eval(QueryEnvironment<T> env, List<Argument> args, Predicate<T> universe,
+      Callback<T> callback) throws QueryException, InterruptedException {
+    Set<T> argumentValue = args.get(0).getExpression().eval(env);
+    int depthBound = args.size() > 1 ? args.get(1).getInteger() : Integer.MAX_VALUE;
+    env.getReverseTransitiveClosure(argumentValue, depthBound, universe, callback);
   }
 
   /** Breadth-first search from the argument. */
@@ -93,4 +78,11 @@ public class AllRdepsFunction implements QueryFunction {
       throws QueryException, InterruptedException {
     return eval(env, args, Predicates.<T>alwaysTrue());
   }
+
+  /** Breadth-first search from the argument, passing on each level as soon as it is computed. */
+  @Override
+  public <T> void eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args,
+      Callback<T> callback) throws QueryException, InterruptedException {
+    eval(env, args, Predicates.<T>alwaysTrue(), callback);
+  }
 }
@@ -71,6 +71,23 @@ class BinaryOperatorExpression extends QueryExpression {
     return lhsValue;
   }
 
+  @Override
+  public <T> void eval(QueryEnvironment<T> env, Callback<T> callback)
+      throws QueryException, InterruptedException {
+    switch (operator) {
+      case UNION:
+      case PLUS:
+        // The operands of a union are independent, so each can be passed on as soon as it has
+        // been computed; the callback is responsible for removing duplicates.
+        for (QueryExpression operand : operands) {
+          operand.eval(env, callback);
+        }
+        break;
+      default:
+        callback.process(eval(env));
+    }
+  }
+
   @Override
   public void collectTargetPatterns(Collection<String> literals) {
     for (QueryExpression subExpression : operands) {
@@ -15,6 +15,7 @@
 package com.google.devtools.build.lib.query2.engine;
 
 import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.graph.CompactDigraph;
 import com.google.devtools.build.lib.graph.Digraph;
 
 import java.util.Set;
@@ -29,8 +30,11 @@ public class BlazeQueryEvalResult<T> extends QueryEvalResult<T> {
     this.graph = Preconditions.checkNotNull(graph);
   }
 
-  /** Returns the result as a directed graph over elements. */
-  public Digraph<T> getResultGraph() {
-    return graph.extractSubgraph(resultSet);
+  /**
+   * Returns the result as a directed graph over elements. The subgraph is extracted from the
+   * graph of the query environment and then frozen, so only its compact form outlives this call.
+   */
+  public CompactDigraph<T> getResultGraph() {
+    return graph.extractSubgraph(resultSet).freeze();
   }
 }
@@ -0,0 +1,32 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.engine;
+
+/**
+ * Receives the result of a query in batches, as it is computed.
+ *
+ * <p>Expressions evaluated with {@link QueryExpression#eval(QueryEnvironment, Callback)} may pass
+ * the same element more than once, in the same batch or in different ones; callbacks given to the
+ * query environment's top-level evaluation see each element exactly once.
+ *
+ * @param <T> the node type of the elements.
+ */
+public interface Callback<T> {
+
+  /**
+   * Processes part of the result of a query. The callback must not retain {@code partialResult}
+   * itself, as the caller is free to reuse it once this method returns.
+   */
+  void process(Iterable<T> partialResult) throws QueryException, InterruptedException;
+}
@@ -13,16 +13,11 @@
 // limitations under the License.
 package com.google.devtools.build.lib.query2.engine;
 
-import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Argument;
 import com.google.devtools.build.lib.query2.engine.QueryEnvironment.ArgumentType;
-import com.google.devtools.build.lib.query2.engine.QueryEnvironment.QueryFunction;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment.StreamableQueryFunction;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -33,7 +28,7 @@ import java.util.Set;
  * <pre>expr ::= DEPS '(' expr ')'</pre>
  * <pre>       | DEPS '(' expr ',' WORD ')'</pre>
  */
-final class DepsFunction implements QueryFunction {
+final class DepsFunction implements StreamableQueryFunction {
   DepsFunction() {
   }
 
@@ -61,26 +56,18 @@ final class DepsFunction implements QueryFunction {
     Set<T> argumentValue = args.get(0).getExpression().eval(env);
     int depthBound = args.size() > 1 ? args.get(1).getInteger() : Integer.MAX_VALUE;
     env.buildTransitiveClosure(expression, argumentValue, depthBound);
+    return env.getFwdTransitiveClosure(argumentValue, depthBound);
+  }
 
-    Set<T> visited = new LinkedHashSet<>();
-    Collection<T> current = argumentValue;
-
-    // We need to iterate depthBound + 1 times.
-    for (int i = 0; i <= depthBound; i++) {
-      List<T> next = new ArrayList<>();
-      // Filter already visited nodes: if we see a node in a later round, then we don't need to
-      // visit it again, because the depth at which we see it at must be greater than or equal to
-      // the last visit.
-      next.addAll(env.getFwdDeps(Iterables.filter(current,
-          Predicates.not(Predicates.in(visited)))));
-      visited.addAll(current);
-      if (next.isEmpty()) {
-        // Exit when there are no more nodes to visit.
-        break;
-      }
-      current = next;
-    }
-
-    return visited;
+  /**
+   * Breadth-first search from the arguments, passing on each level as soon as it is computed.
+   */
+  @Override
+  public <T> void eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args,
+      Callback<T> callback) throws QueryException, InterruptedException {
+    Set<T> argumentValue = args.get(0).getExpression().eval(env);
+    int depthBound = args.size() > 1 ? args.get(1).getInteger() : Integer.MAX_VALUE;
+    env.buildTransitiveClosure(expression, argumentValue, depthBound);
+    env.getFwdTransitiveClosure(argumentValue, depthBound, callback);
   }
 }
@@ -53,9 +53,7 @@ class LetExpression extends QueryExpression {
 
   @Override
   public <T> Set<T> eval(QueryEnvironment<T> env) throws QueryException, InterruptedException {
-    if (!NAME_PATTERN.matcher(varName).matches()) {
-      throw new QueryException(this, "invalid variable name '" + varName + "' in let expression");
-    }
+    checkVarName();
     Set<T> varValue = varExpr.eval(env);
     Set<T> prevValue = env.setVariable(varName, varValue);
     try {
@@ -65,6 +63,25 @@ class LetExpression extends QueryExpression {
     }
   }
 
+  @Override
+  public <T> void eval(QueryEnvironment<T> env, Callback<T> callback)
+      throws QueryException, InterruptedException {
+    checkVarName();
+    Set<T> varValue = varExpr.eval(env);
+    Set<T> prevValue = env.setVariable(varName, varValue);
+    try {
+      bodyExpr.eval(env, callback);
+    } finally {
+      env.setVariable(varName, prevValue); // restore
+    }
+  }
+
+  private void checkVarName() throws QueryException {
+    if (!NAME_PATTERN.matcher(varName).matches()) {
+      throw new QueryException(this, "invalid variable name '" + varName + "' in let expression");
+    }
+  }
+
   @Override
   public void collectTargetPatterns(Collection<String> literals) {
     varExpr.collectTargetPatterns(literals);
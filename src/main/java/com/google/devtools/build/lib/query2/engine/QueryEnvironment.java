@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.query2.engine;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 
 import java.util.Collection;
@@ -120,6 +121,20 @@ public interface QueryEnvironment<T> {
         throws QueryException, InterruptedException;
   }
 
+  /**
+   * A {@link QueryFunction} that can pass its result on while it is computed, see
+   * {@link QueryExpression#eval(QueryEnvironment, Callback)}.
+   */
+  interface StreamableQueryFunction extends QueryFunction {
+    /**
+     * Like {@link #eval(QueryEnvironment, QueryExpression, List)}, but passes the result to
+     * {@code callback} in parts instead of returning it. The callback may be handed the same
+     * element more than once.
+     */
+    <T> void eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args,
+        Callback<T> callback) throws QueryException, InterruptedException;
+  }
+
   /**
    * Exception type for the case where a target cannot be found. It's basically a wrapper for
    * whatever exception is internally thrown.
@@ -157,7 +172,36 @@ public interface QueryEnvironment<T> {
    * "targets".  Callers must ensure that {@link #buildTransitiveClosure}
    * has been called for the relevant subgraph.
    */
-  Set<T> getTransitiveClosure(Set<T> targets);
+  Set<T> getTransitiveClosure(Set<T> targets) throws InterruptedException;
+
+  /**
+   * Returns the targets reachable from "targets" through at most "maxDepth" forward dependency
+   * edges, "targets" included. Callers must ensure that {@link #buildTransitiveClosure} has been
+   * called for the relevant subgraph.
+   */
+  Set<T> getFwdTransitiveClosure(Set<T> targets, int maxDepth) throws InterruptedException;
+
+  /**
+   * Returns the targets satisfying "universe" that reach those of "targets" that do through at
+   * most "maxDepth" reverse dependency edges, only passing through targets satisfying "universe".
+   * The targets of "targets" that satisfy "universe" are included.
+   */
+  Set<T> getReverseTransitiveClosure(Set<T> targets, int maxDepth, Predicate<T> universe)
+      throws InterruptedException;
+
+  /**
+   * Passes the targets of {@link #getFwdTransitiveClosure(Set, int)} to {@code callback}, one
+   * level of the search at a time, as soon as each level has been computed.
+   */
+  void getFwdTransitiveClosure(Set<T> targets, int maxDepth, Callback<T> callback)
+      throws QueryException, InterruptedException;
+
+  /**
+   * Passes the targets of {@link #getReverseTransitiveClosure(Set, int, Predicate)} to
+   * {@code callback}, one level of the search at a time, as soon as each level has been computed.
+   */
+  void getReverseTransitiveClosure(Set<T> targets, int maxDepth, Predicate<T> universe,
+      Callback<T> callback) throws QueryException, InterruptedException;
 
   /**
    * Construct the dependency graph for a depth-bounded forward transitive closure
@@ -18,20 +18,34 @@ import com.google.common.base.Preconditions;
 
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 /**
  * The result of a query evaluation, containing a set of elements.
  *
+ * <p>If the result was streamed to a {@link Callback} instead of being collected, only whether it
+ * was empty is known.
+ *
  * @param <T> the node type of the elements.
  */
 public class QueryEvalResult<T> {
 
   protected final boolean success;
-  protected final Set<T> resultSet;
+  @Nullable protected final Set<T> resultSet;
+  private final boolean empty;
 
   public QueryEvalResult(
       boolean success, Set<T> resultSet) {
     this.success = success;
     this.resultSet = Preconditions.checkNotNull(resultSet);
+    this.empty = resultSet.isEmpty();
+  }
+
+  /** Creates the result of a query whose elements were streamed to a {@link Callback}. */
+  public QueryEvalResult(boolean success, boolean empty) {
+    this.success = success;
+    this.resultSet = null;
+    this.empty = empty;
   }
 
   /**
@@ -42,15 +56,25 @@ public class QueryEvalResult<T> {
     return success;
   }
 
+  /** Whether the query produced no elements at all. */
+  public boolean isEmpty() {
+    return empty;
+  }
+
   /**
-   * Returns the result as a set of targets.
+   * Returns the result as a set of targets. Must not be called if the result was streamed.
    */
   public Set<T> getResultSet() {
+    Preconditions.checkState(resultSet != null, "The result of this query was streamed");
     return resultSet;
   }
 
   @Override
   public String toString() {
+    if (resultSet == null) {
+      return (getSuccess() ? "Successful" : "Unsuccessful") + ", streamed, "
+          + (empty ? "empty" : "non-empty");
+    }
     return (getSuccess() ? "Successful" : "Unsuccessful") + ", result size = "
         + getResultSet().size() + ", " + getResultSet();
   }
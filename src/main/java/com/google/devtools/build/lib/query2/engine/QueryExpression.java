@@ -70,6 +70,22 @@ public abstract class QueryExpression {
   public abstract <T> Set<T> eval(QueryEnvironment<T> env)
       throws QueryException, InterruptedException;
 
+  /**
+   * Evaluates this query in the specified environment, passing the result to {@code callback}
+   * as it becomes available instead of returning it as a set. The callback may be handed the same
+   * element more than once.
+   *
+   * <p>The default implementation computes the complete result with {@link #eval(QueryEnvironment)}
+   * and passes it on in a single batch. Expressions whose result is the union of independently
+   * computed parts override it so that each part can be consumed, and dropped, before the next one
+   * is computed, as do calls of functions implementing
+   * {@link QueryEnvironment.StreamableQueryFunction}.
+   */
+  public <T> void eval(QueryEnvironment<T> env, Callback<T> callback)
+      throws QueryException, InterruptedException {
+    callback.process(eval(env));
+  }
+
   /**
    * Collects all target patterns that are referenced anywhere within this query expression and adds
    * them to the given collection, which must be mutable.
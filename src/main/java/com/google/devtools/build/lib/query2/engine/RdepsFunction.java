@@ -61,4 +61,18 @@ final class RdepsFunction extends AllRdepsFunction {
     return eval(env, args.subList(1, args.size()),
         Predicates.in(env.getTransitiveClosure(universeValue)));
   }
+
+  /**
+   * Like {@link #eval(QueryEnvironment, QueryExpression, List)}, but passes on each level of the
+   * search as soon as it is computed.
+   */
+  @Override
+  public <T> void eval(QueryEnvironment<T> env, QueryExpression expression, List<Argument> args,
+      Callback<T> callback) throws QueryException, InterruptedException {
+    Set<T> universeValue = args.get(0).getExpression().eval(env);
+    env.buildTransitiveClosure(expression, universeValue, Integer.MAX_VALUE);
+
+    eval(env, args.subList(1, args.size()),
+        Predicates.in(env.getTransitiveClosure(universeValue)), callback);
+  }
 }
@@ -56,6 +56,14 @@ class SetExpression extends QueryExpression {
     return result;
   }
 
+  @Override
+  public <T> void eval(QueryEnvironment<T> env, Callback<T> callback)
+      throws QueryException, InterruptedException {
+    for (TargetLiteral expr : words) {
+      expr.eval(env, callback);
+    }
+  }
+
   @Override
   public void collectTargetPatterns(Collection<String> literals) {
     for (TargetLiteral expr : words) {
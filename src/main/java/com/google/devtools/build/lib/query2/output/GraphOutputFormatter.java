@@ -13,26 +13,24 @@
 // limitations under the License.
 package com.google.devtools.build.lib.query2.output;
 
-import com.google.common.collect.ImmutableSet;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Ordering;
-import com.google.devtools.build.lib.collect.CollectionUtils;
-import com.google.devtools.build.lib.collect.EquivalenceRelation;
-import com.google.devtools.build.lib.graph.Digraph;
-import com.google.devtools.build.lib.graph.DotOutputVisitor;
-import com.google.devtools.build.lib.graph.LabelSerializer;
-import com.google.devtools.build.lib.graph.Node;
+import com.google.devtools.build.lib.graph.CompactDigraph;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.query2.output.QueryOptions.OrderOutput;
 
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+
+import javax.annotation.Nullable;
 
 /**
  * An output formatter that prints the result as factored graph in AT&amp;T
@@ -48,7 +46,7 @@ class GraphOutputFormatter extends OutputFormatter {
   }
 
   @Override
-  public void output(QueryOptions options, Digraph<Target> result, PrintStream out,
+  public void output(QueryOptions options, CompactDigraph<Target> result, PrintStream out,
       AspectResolver aspectProvider) {
     this.graphNodeStringLimit = options.graphNodeStringLimit;
 
@@ -60,71 +58,62 @@ class GraphOutputFormatter extends OutputFormatter {
     }
   }
 
-  private void outputUnfactored(Digraph<Target> result, PrintWriter out, boolean sortLabels) {
-    result.visitNodesBeforeEdges(
-        new DotOutputVisitor<Target>(out, LABEL_STRINGIFIER) {
-          @Override
-          public void beginVisit() {
-            super.beginVisit();
-            // TODO(bazel-team): (2009) make this the default in Digraph.
-            out.println("  node [shape=box];");
-          }
-        },
-        sortLabels ? new TargetOrdering() : null);
+  private void outputUnfactored(
+      CompactDigraph<Target> result, PrintWriter out, boolean sortLabels) {
+    outputGraph(result, out, sortLabels ? new TargetOrdering() : null, LABEL_STRINGIFIER);
   }
 
-  private static final Ordering<Node<Target>> NODE_COMPARATOR =
-      Ordering.from(new TargetOrdering()).onResultOf(EXTRACT_NODE_LABEL);
-
-  private static final Comparator<Iterable<Node<Target>>> ITERABLE_COMPARATOR =
-      NODE_COMPARATOR.lexicographical();
-
-  /**
-   * Given {@code collectionOfUnorderedSets}, a collection of sets of nodes, returns a collection
-   * of sets with the same elements as {@code collectionOfUnorderedSets} but with a stable
-   * iteration order within each set given by the target ordering, and the collection ordered by the
-   * same induced order.
-   */
-  private static Collection<Set<Node<Target>>> orderPartition(
-      Collection<Set<Node<Target>>> collectionOfUnorderedSets) {
-    List<Set<Node<Target>>> result = new ArrayList<>();
-    for (Set<Node<Target>> part : collectionOfUnorderedSets) {
-      List<Node<Target>> toSort = new ArrayList<>(part);
-      Collections.sort(toSort, NODE_COMPARATOR);
-      result.add(ImmutableSet.copyOf(toSort));
+  private static final Comparator<Iterable<Target>> ITERABLE_COMPARATOR =
+      Ordering.from(new TargetOrdering()).lexicographical();
+
+  private void outputFactored(CompactDigraph<Target> result, PrintWriter out, boolean sortLabels) {
+    // Partition the nodes into classes of nodes with equal topology (predecessors and successors).
+    Map<Topology, List<Integer>> classes = new LinkedHashMap<>();
+    for (int node = 0; node < result.getNodeCount(); node++) {
+      Topology topology = new Topology(result, node);
+      List<Integer> members = classes.get(topology);
+      if (members == null) {
+        members = new ArrayList<>();
+        classes.put(topology, members);
+      }
+      members.add(node);
     }
-    Collections.sort(result, ITERABLE_COMPARATOR);
-    return result;
-  }
 
-  private void outputFactored(Digraph<Target> result, PrintWriter out, final boolean sortLabels) {
-    EquivalenceRelation<Node<Target>> equivalenceRelation = createEquivalenceRelation();
-
-    Collection<Set<Node<Target>>> partition =
-        CollectionUtils.partition(result.getNodes(), equivalenceRelation);
-    if (sortLabels) {
-      partition = orderPartition(partition);
+    int[] classOfNode = new int[result.getNodeCount()];
+    ImmutableList.Builder<List<Target>> classLabels = ImmutableList.builder();
+    int classNumber = 0;
+    for (List<Integer> members : classes.values()) {
+      List<Target> targets = new ArrayList<>(members.size());
+      for (int node : members) {
+        classOfNode[node] = classNumber;
+        targets.add(result.getLabel(node));
+      }
+      if (sortLabels) {
+        Collections.sort(targets, new TargetOrdering());
+      }
+      classLabels.add(targets);
+      classNumber++;
     }
-
-    Digraph<Set<Node<Target>>> factoredGraph = result.createImageUnderPartition(partition);
+    CompactDigraph<List<Target>> factoredGraph =
+        result.getImage(classOfNode, classLabels.build(), /*selfEdges=*/true);
 
     // Concatenate the labels of all topologically-equivalent nodes.
-    LabelSerializer<Set<Node<Target>>> labelSerializer = new LabelSerializer<Set<Node<Target>>>() {
+    Function<List<Target>, String> labelSerializer = new Function<List<Target>, String>() {
       @Override
-      public String serialize(Node<Set<Node<Target>>> node) {
+      public String apply(List<Target> targets) {
         int actualLimit = graphNodeStringLimit - RESERVED_LABEL_CHARS;
         boolean firstItem = true;
         StringBuilder buf = new StringBuilder();
         int count = 0;
-        for (Node<Target> eqNode : node.getLabel()) {
-          String labelString = eqNode.getLabel().getLabel().toString();
+        for (Target target : targets) {
+          String labelString = target.getLabel().toString();
           if (!firstItem) {
             buf.append("\\n");
 
             // Use -1 to denote no limit, as it is easier than trying to pass MAX_INT on the cmdline
             if (graphNodeStringLimit != -1 && (buf.length() + labelString.length() > actualLimit)) {
               buf.append("...and ");
-              buf.append(node.getLabel().size() - count);
+              buf.append(targets.size() - count);
               buf.append(" more items");
               break;
             }
@@ -138,61 +127,73 @@ class GraphOutputFormatter extends OutputFormatter {
       }
     };
 
-    factoredGraph.visitNodesBeforeEdges(
-        new DotOutputVisitor<Set<Node<Target>>>(out, labelSerializer) {
-          @Override
-          public void beginVisit() {
-            super.beginVisit();
-            // TODO(bazel-team): (2009) make this the default in Digraph.
-            out.println("  node [shape=box];");
-          }
-        },
-        sortLabels ? ITERABLE_COMPARATOR : null);
+    outputGraph(factoredGraph, out, sortLabels ? ITERABLE_COMPARATOR : null, labelSerializer);
   }
 
   /**
-   * Returns an equivalence relation for nodes in the specified graph.
-   *
-   * <p>Two nodes are considered equal iff they have equal topology (predecessors and successors).
-   *
-   * TODO(bazel-team): Make this a method of Digraph.
+   * Prints {@code graph} in dot format, visiting all nodes and edges in topological order such
+   * that each node is printed before any edge coming out of it. Ties among nodes are broken, and
+   * the edges of each node ordered, by {@code comparator} if it is not null.
    */
-  private static <LABEL> EquivalenceRelation<Node<LABEL>> createEquivalenceRelation() {
-    return new EquivalenceRelation<Node<LABEL>>() {
-      @Override
-      public int compare(Node<LABEL> x, Node<LABEL> y) {
-        if (x == y) {
-          return 0;
-        }
-
-        if (x.numPredecessors() != y.numPredecessors()
-            || x.numSuccessors() != y.numSuccessors()) {
-          return -1;
-        }
+  private static <T> void outputGraph(CompactDigraph<T> graph, PrintWriter out,
+      @Nullable final Comparator<? super T> comparator, Function<T, String> labelSerializer) {
+    out.println("digraph mygraph {");
+    // TODO(bazel-team): (2009) make this the default in Digraph.
+    out.println("  node [shape=box];");
+    List<T> order =
+        comparator == null ? graph.getTopologicalOrder() : graph.getTopologicalOrder(comparator);
+    for (T label : order) {
+      String from = labelSerializer.apply(label);
+      out.println("\"" + from + "\"");
+      List<T> successors = new ArrayList<>();
+      for (int successor : graph.getSuccessors(graph.getIndex(label))) {
+        successors.add(graph.getLabel(successor));
+      }
+      if (comparator != null) {
+        Collections.sort(successors, comparator);
+      }
+      for (T successor : successors) {
+        out.println("\"" + from + "\" -> \"" + labelSerializer.apply(successor) + "\"");
+      }
+    }
+    out.println("}");
+    out.flush();
+  }
 
-        Set<Node<LABEL>> xpred = new HashSet<>(x.getPredecessors());
-        Set<Node<LABEL>> ypred = new HashSet<>(y.getPredecessors());
-        if (!xpred.equals(ypred)) {
-          return -1;
-        }
+  /** The predecessors and successors of a node, which are equal for equivalent nodes. */
+  private static final class Topology {
+    private final int[] predecessors;
+    private final int[] successors;
 
-        Set<Node<LABEL>> xsucc = new HashSet<>(x.getSuccessors());
-        Set<Node<LABEL>> ysucc = new HashSet<>(y.getSuccessors());
-        if (!xsucc.equals(ysucc)) {
-          return -1;
-        }
+    private Topology(CompactDigraph<?> graph, int node) {
+      this.predecessors = graph.getPredecessors(node);
+      Arrays.sort(predecessors);
+      this.successors = graph.getSuccessors(node);
+      Arrays.sort(successors);
+    }
 
-        return 0;
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Topology)) {
+        return false;
       }
-    };
+      Topology that = (Topology) o;
+      return Arrays.equals(predecessors, that.predecessors)
+          && Arrays.equals(successors, that.successors);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Arrays.hashCode(predecessors) + Arrays.hashCode(successors);
+    }
   }
 
   private static final int RESERVED_LABEL_CHARS = "\\n...and 9999999 more items".length();
 
-  private static final LabelSerializer<Target> LABEL_STRINGIFIER = new LabelSerializer<Target>() {
+  private static final Function<Target, String> LABEL_STRINGIFIER = new Function<Target, String>() {
     @Override
-    public String serialize(Node<Target> node) {
-      return node.getLabel().getLabel().toString();
+    public String apply(Target target) {
+      return target.getLabel().toString();
     }
   };
 }
@@ -17,12 +17,12 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.events.Location;
-import com.google.devtools.build.lib.graph.Digraph;
-import com.google.devtools.build.lib.graph.Node;
+import com.google.devtools.build.lib.graph.CompactDigraph;
 import com.google.devtools.build.lib.packages.Attribute;
 import com.google.devtools.build.lib.packages.PackageSerializer;
 import com.google.devtools.build.lib.packages.Rule;
@@ -40,15 +40,10 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
-import javax.annotation.Nullable;
-
 /**
  * Interface for classes which order, format and print the result of a Blaze
  * graph query.
@@ -81,14 +76,6 @@ public abstract class OutputFormatter implements Serializable {
     DEFAULT   // Rule class default
   }
 
-  public static final Function<Node<Target>, Target> EXTRACT_NODE_LABEL =
-      new Function<Node<Target>, Target>() {
-        @Override
-        public Target apply(Node<Target> input) {
-          return input.getLabel();
-        }
-      };
-
   /**
    * Converter from strings to OutputFormatter.Type.
    */
@@ -149,7 +136,7 @@ public abstract class OutputFormatter implements Serializable {
    * Format the result (a set of target nodes implicitly ordered according to
    * the graph maintained by the QueryEnvironment), and print it to "out".
    */
-  public abstract void output(QueryOptions options, Digraph<Target> result, PrintStream out,
+  public abstract void output(QueryOptions options, CompactDigraph<Target> result, PrintStream out,
       AspectResolver aspectProvider) throws IOException, InterruptedException;
 
   /**
@@ -166,6 +153,23 @@ public abstract class OutputFormatter implements Serializable {
         AspectResolver aspectResolver) throws IOException, InterruptedException;
   }
 
+  /**
+   * Unordered output formatter that can print the query result while it is being computed.
+   *
+   * <p>Streamed formatters are used instead of collecting the complete result when output does
+   * not need to be ordered, so that the first targets are printed before the query finishes. This
+   * does not bound memory use: the targets printed so far are still kept to remove duplicates, and
+   * the searches of deps, rdeps and allrdeps keep the targets they visited.
+   */
+  public interface StreamedFormatter extends UnorderedFormatter {
+    /**
+     * Returns a callback that prints the targets passed to it on {@code out}. The output is the
+     * same as that of {@link #outputUnordered} over all the targets the callback received.
+     */
+    OutputFormatterCallback<Target> createStreamCallback(QueryOptions options, PrintStream out,
+        AspectResolver aspectResolver);
+  }
+
   /**
    * Returns the user-visible name of the output formatter.
    */
@@ -174,18 +178,16 @@ public abstract class OutputFormatter implements Serializable {
   abstract static class AbstractUnorderedFormatter extends OutputFormatter
       implements UnorderedFormatter {
     private static Iterable<Target> getOrderedTargets(
-        Digraph<Target> result, QueryOptions options) {
-      Iterable<Node<Target>> orderedResult =
-          options.orderOutput == OrderOutput.DEPS
-              ? result.getTopologicalOrder()
-              : result.getTopologicalOrder(new TargetOrdering());
-      return Iterables.transform(orderedResult, EXTRACT_NODE_LABEL);
+        CompactDigraph<Target> result, QueryOptions options) {
+      return options.orderOutput == OrderOutput.DEPS
+          ? result.getTopologicalOrder()
+          : result.getTopologicalOrder(new TargetOrdering());
     }
 
     @Override
     public void output(
         QueryOptions options,
-        Digraph<Target> result,
+        CompactDigraph<Target> result,
         PrintStream out,
         AspectResolver aspectResolver)
         throws IOException, InterruptedException {
@@ -197,7 +199,8 @@ public abstract class OutputFormatter implements Serializable {
    * An output formatter that prints the labels of the resulting target set in
    * topological order, optionally with the target's kind.
    */
-  private static class LabelOutputFormatter extends AbstractUnorderedFormatter {
+  private static class LabelOutputFormatter extends AbstractUnorderedFormatter
+      implements StreamedFormatter {
 
     private final boolean showKind;
 
@@ -212,14 +215,26 @@ public abstract class OutputFormatter implements Serializable {
 
     @Override
     public void outputUnordered(QueryOptions options, Iterable<Target> result, PrintStream out,
-        AspectResolver aspectResolver) {
-      for (Target target : result) {
-        if (showKind) {
-          out.print(target.getTargetKind());
-          out.print(' ');
+        AspectResolver aspectResolver) throws IOException, InterruptedException {
+      OutputFormatterCallback.processAll(
+          createStreamCallback(options, out, aspectResolver), result);
+    }
+
+    @Override
+    public OutputFormatterCallback<Target> createStreamCallback(QueryOptions options,
+        final PrintStream out, AspectResolver aspectResolver) {
+      return new OutputFormatterCallback<Target>() {
+        @Override
+        protected void processOutput(Iterable<Target> partialResult) {
+          for (Target target : partialResult) {
+            if (showKind) {
+              out.print(target.getTargetKind());
+              out.print(' ');
+            }
+            out.println(target.getLabel());
+          }
         }
-        out.println(target.getLabel());
-      }
+      };
     }
   }
 
@@ -238,7 +253,8 @@ public abstract class OutputFormatter implements Serializable {
    * An output formatter that prints the names of the packages of the target
    * set, in lexicographical order without duplicates.
    */
-  private static class PackageOutputFormatter extends AbstractUnorderedFormatter {
+  private static class PackageOutputFormatter extends AbstractUnorderedFormatter
+      implements StreamedFormatter {
     @Override
     public String getName() {
       return "package";
@@ -246,14 +262,31 @@ public abstract class OutputFormatter implements Serializable {
 
     @Override
     public void outputUnordered(QueryOptions options, Iterable<Target> result, PrintStream out,
-        AspectResolver aspectResolver) {
-      Set<String> packageNames = Sets.newTreeSet();
-      for (Target target : result) {
-        packageNames.add(target.getLabel().getPackageName());
-      }
-      for (String packageName : packageNames) {
-        out.println(packageName);
-      }
+        AspectResolver aspectResolver) throws IOException, InterruptedException {
+      OutputFormatterCallback.processAll(
+          createStreamCallback(options, out, aspectResolver), result);
+    }
+
+    @Override
+    public OutputFormatterCallback<Target> createStreamCallback(QueryOptions options,
+        final PrintStream out, AspectResolver aspectResolver) {
+      // The package names have to be sorted, so only they are retained until the end.
+      final Set<String> packageNames = Sets.newTreeSet();
+      return new OutputFormatterCallback<Target>() {
+        @Override
+        protected void processOutput(Iterable<Target> partialResult) {
+          for (Target target : partialResult) {
+            packageNames.add(target.getLabel().getPackageName());
+          }
+        }
+
+        @Override
+        public void close() {
+          for (String packageName : packageNames) {
+            out.println(packageName);
+          }
+        }
+      };
     }
   }
 
@@ -371,54 +404,15 @@ public abstract class OutputFormatter implements Serializable {
       return "minrank";
     }
 
-    private static void outputToStreamOrSave(
-        int rank, Label label, PrintStream out, @Nullable List<RankAndLabel> toSave) {
-      if (toSave != null) {
-        toSave.add(new RankAndLabel(rank, label));
-      } else {
-        out.println(rank + " " + label);
-      }
-    }
-
     @Override
-    public void output(QueryOptions options, Digraph<Target> result, PrintStream out,
+    public void output(QueryOptions options, CompactDigraph<Target> result, PrintStream out,
         AspectResolver aspectResolver) {
-      // getRoots() isn't defined for cyclic graphs, so in order to handle
+      // Roots aren't defined for cyclic graphs, so in order to handle
       // cycles correctly, we need work on the strong component graph, as
       // cycles should be treated a "clump" of nodes all on the same rank.
       // Graphs may contain cycles because there are errors in BUILD files.
-
-      List<RankAndLabel> outputToOrder =
-          options.orderOutput == OrderOutput.FULL ? new ArrayList<RankAndLabel>() : null;
-      Digraph<Set<Node<Target>>> scGraph = result.getStrongComponentGraph();
-      Set<Node<Set<Node<Target>>>> rankNodes = scGraph.getRoots();
-      Set<Node<Set<Node<Target>>>> seen = new HashSet<>();
-      seen.addAll(rankNodes);
-      for (int rank = 0; !rankNodes.isEmpty(); rank++) {
-        // Print out this rank:
-        for (Node<Set<Node<Target>>> xScc : rankNodes) {
-          for (Node<Target> x : xScc.getLabel()) {
-            outputToStreamOrSave(rank, x.getLabel().getLabel(), out, outputToOrder);
-          }
-        }
-
-        // Find the next rank:
-        Set<Node<Set<Node<Target>>>> nextRankNodes = new LinkedHashSet<>();
-        for (Node<Set<Node<Target>>> x : rankNodes) {
-          for (Node<Set<Node<Target>>> y : x.getSuccessors()) {
-            if (seen.add(y)) {
-              nextRankNodes.add(y);
-            }
-          }
-        }
-        rankNodes = nextRankNodes;
-      }
-      if (outputToOrder != null) {
-        Collections.sort(outputToOrder);
-        for (RankAndLabel item : outputToOrder) {
-          out.println(item);
-        }
-      }
+      CompactDigraph<ImmutableSet<Target>> scGraph = result.getStrongComponentGraph();
+      outputRanks(options, scGraph, scGraph.getMinRanks(), out);
     }
   }
 
@@ -440,58 +434,44 @@ public abstract class OutputFormatter implements Serializable {
     }
 
     @Override
-    public void output(QueryOptions options, Digraph<Target> result, PrintStream out,
+    public void output(QueryOptions options, CompactDigraph<Target> result, PrintStream out,
         AspectResolver aspectResolver) {
       // In order to handle cycles correctly, we need work on the strong
       // component graph, as cycles should be treated a "clump" of nodes all on
       // the same rank. Graphs may contain cycles because there are errors in BUILD files.
+      CompactDigraph<ImmutableSet<Target>> scGraph = result.getStrongComponentGraph();
+      outputRanks(options, scGraph, scGraph.getMaxRanks(), out);
+    }
+  }
 
-      // Dynamic programming algorithm:
-      // rank(x) = max(rank(p)) + 1 foreach p in preds(x)
-      // TODO(bazel-team): Move to Digraph.
-      class DP {
-        final Map<Node<Set<Node<Target>>>, Integer> ranks = new HashMap<>();
-
-        int rank(Node<Set<Node<Target>>> node) {
-          Integer rank = ranks.get(node);
-          if (rank == null) {
-            int maxPredRank = -1;
-            for (Node<Set<Node<Target>>> p : node.getPredecessors()) {
-              maxPredRank = Math.max(maxPredRank, rank(p));
-            }
-            rank = maxPredRank + 1;
-            ranks.put(node, rank);
-          }
-          return rank;
-        }
-      }
-      DP dp = new DP();
-
-      // Now sort by rank...
-      List<RankAndLabel> output = new ArrayList<>();
-      for (Node<Set<Node<Target>>> x : result.getStrongComponentGraph().getNodes()) {
-        int rank = dp.rank(x);
-        for (Node<Target> y : x.getLabel()) {
-          output.add(new RankAndLabel(rank, y.getLabel().getLabel()));
-        }
-      }
-      if (options.orderOutput == OrderOutput.FULL) {
-        // Use the natural order for RankAndLabels, which breaks ties alphabetically.
-        Collections.sort(output);
-      } else {
-        Collections.sort(
-            output,
-            new Comparator<RankAndLabel>() {
-              @Override
-              public int compare(RankAndLabel o1, RankAndLabel o2) {
-                return o1.rank - o2.rank;
-              }
-            });
-      }
-      for (RankAndLabel item : output) {
-        out.println(item);
+  /**
+   * Prints the targets of each strongly-connected component of the result, preceded by the rank of
+   * the component, in rank order.
+   */
+  private static void outputRanks(QueryOptions options,
+      CompactDigraph<ImmutableSet<Target>> scGraph, int[] ranks, PrintStream out) {
+    List<RankAndLabel> output = new ArrayList<>();
+    for (int component = 0; component < scGraph.getNodeCount(); component++) {
+      for (Target target : scGraph.getLabel(component)) {
+        output.add(new RankAndLabel(ranks[component], target.getLabel()));
       }
     }
+    if (options.orderOutput == OrderOutput.FULL) {
+      // Use the natural order for RankAndLabels, which breaks ties alphabetically.
+      Collections.sort(output);
+    } else {
+      Collections.sort(
+          output,
+          new Comparator<RankAndLabel>() {
+            @Override
+            public int compare(RankAndLabel o1, RankAndLabel o2) {
+              return o1.rank - o2.rank;
+            }
+          });
+    }
+    for (RankAndLabel item : output) {
+      out.println(item);
+    }
   }
 
   /**
@@ -0,0 +1,60 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.output;
+
+import com.google.devtools.build.lib.query2.engine.Callback;
+import com.google.devtools.build.lib.query2.engine.QueryException;
+
+import java.io.IOException;
+
+/**
+ * A {@link Callback} that prints the part of a query result passed to it, as created by
+ * {@link OutputFormatter.StreamedFormatter#createStreamCallback}.
+ *
+ * <p>{@link #close} must be called once the whole result has been processed, as some formats can
+ * only be completed once all of it is known.
+ */
+public abstract class OutputFormatterCallback<T> implements Callback<T> {
+
+  /**
+   * Prints the given part of the result. Each element is passed exactly once over the lifetime of
+   * the callback.
+   */
+  protected abstract void processOutput(Iterable<T> partialResult)
+      throws IOException, InterruptedException;
+
+  /** Prints whatever remains of the output after the whole result has been processed. */
+  public void close() throws IOException {
+  }
+
+  @Override
+  public final void process(Iterable<T> partialResult)
+      throws QueryException, InterruptedException {
+    try {
+      processOutput(partialResult);
+    } catch (IOException e) {
+      throw new QueryException("I/O error: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Prints the complete result in one go, for formatters that implement their unordered output on
+   * top of their streamed one.
+   */
+  static <T> void processAll(OutputFormatterCallback<T> callback, Iterable<T> result)
+      throws IOException, InterruptedException {
+    callback.processOutput(result);
+    callback.close();
+  }
+}
@@ -20,10 +20,9 @@ import static com.google.devtools.build.lib.query2.proto.proto2api.Build.Target.
 import static com.google.devtools.build.lib.query2.proto.proto2api.Build.Target.Discriminator.SOURCE_FILE;
 
 import com.google.common.collect.ImmutableMultimap;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.devtools.build.lib.cmdline.Label;
-import com.google.devtools.build.lib.graph.Digraph;
+import com.google.devtools.build.lib.graph.CompactDigraph;
 import com.google.devtools.build.lib.packages.Attribute;
 import com.google.devtools.build.lib.packages.EnvironmentGroup;
 import com.google.devtools.build.lib.packages.InputFile;
@@ -35,7 +34,7 @@ import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.query2.FakeSubincludeTarget;
 import com.google.devtools.build.lib.query2.output.AspectResolver.BuildFileDependencyMode;
-import com.google.devtools.build.lib.query2.output.OutputFormatter.UnorderedFormatter;
+import com.google.devtools.build.lib.query2.output.OutputFormatter.StreamedFormatter;
 import com.google.devtools.build.lib.query2.output.QueryOptions.OrderOutput;
 import com.google.devtools.build.lib.query2.proto.proto2api.Build;
 import com.google.devtools.build.lib.syntax.Environment;
@@ -54,7 +53,7 @@ import java.util.Set;
  * By taking the bytes and calling {@code mergeFrom()} on a
  * {@code Build.QueryResult} object the full result can be reconstructed.
  */
-public class ProtoOutputFormatter extends OutputFormatter implements UnorderedFormatter {
+public class ProtoOutputFormatter extends OutputFormatter implements StreamedFormatter {
 
   /**
    * A special attribute name for the rule implementation hash code.
@@ -79,30 +78,45 @@ public class ProtoOutputFormatter extends OutputFormatter implements UnorderedFo
   @Override
   public void outputUnordered(QueryOptions options, Iterable<Target> result, PrintStream out,
       AspectResolver aspectResolver) throws IOException, InterruptedException {
+    OutputFormatterCallback.processAll(createStreamCallback(options, out, aspectResolver), result);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Each part of the result is written as a {@code Build.QueryResult} of its own. Since the
+   * only field of that message is repeated, the concatenation of the parts parses as the single
+   * message that would have been written for the complete result.
+   */
+  @Override
+  public OutputFormatterCallback<Target> createStreamCallback(QueryOptions options,
+      final PrintStream out, AspectResolver aspectResolver) {
     relativeLocations = options.relativeLocations;
     this.aspectResolver = aspectResolver;
     this.includeDefaultValues = options.protoIncludeDefaultValues;
     setDependencyFilter(options);
 
-    Build.QueryResult.Builder queryResult = Build.QueryResult.newBuilder();
-    for (Target target : result) {
-      addTarget(queryResult, target);
-    }
-
-    queryResult.build().writeTo(out);
-  }
-
-  private static Iterable<Target> getSortedLabels(Digraph<Target> result) {
-    return Iterables.transform(
-        result.getTopologicalOrder(new TargetOrdering()), EXTRACT_NODE_LABEL);
+    return new OutputFormatterCallback<Target>() {
+      @Override
+      protected void processOutput(Iterable<Target> partialResult)
+          throws IOException, InterruptedException {
+        Build.QueryResult.Builder queryResult = Build.QueryResult.newBuilder();
+        for (Target target : partialResult) {
+          addTarget(queryResult, target);
+        }
+        queryResult.build().writeTo(out);
+      }
+    };
   }
 
   @Override
-  public void output(QueryOptions options, Digraph<Target> result, PrintStream out,
+  public void output(QueryOptions options, CompactDigraph<Target> result, PrintStream out,
       AspectResolver aspectResolver) throws IOException, InterruptedException {
     outputUnordered(
         options,
-        options.orderOutput == OrderOutput.FULL ? getSortedLabels(result) : result.getLabels(),
+        options.orderOutput == OrderOutput.FULL
+            ? result.getTopologicalOrder(new TargetOrdering())
+            : result.getLabels(),
         out,
         aspectResolver);
   }
@@ -94,7 +94,12 @@ public class QueryOptions extends OptionsBase {
             + "fully ordered, depending on the output formatter (dependency-ordered for proto, "
             + "minrank, maxrank, and graph, fully ordered for all others). When output is fully "
             + "ordered, nodes that would otherwise be unordered by the output formatter are "
-            + "alphabetized before output."
+            + "alphabetized before output. With 'no', the label, label_kind, package and proto "
+            + "formats are printed while the query is being evaluated: unions print each operand, "
+            + "and deps, rdeps and allrdeps each level of their search, as soon as it is "
+            + "computed. Other operators are still evaluated in full first, and the targets "
+            + "printed so far are kept in memory to remove duplicates, so memory use still grows "
+            + "with the size of the result."
   )
   public OrderOutput orderOutput;
 
@@ -215,6 +220,21 @@ public class QueryOptions extends OptionsBase {
           + "aspect is decided in the analysis phase, which is not run during 'blaze query'.")
   public AspectResolver.Mode aspectDeps;
 
+  @Option(name = "query_server_socket",
+      defaultValue = "null",
+      category = "undocumented",
+      help = "If set, no query expression is taken from the command line. Instead, the command "
+          + "listens on a Unix domain socket at the given path and answers one query per "
+          + "connection until it is interrupted, keeping the loaded universe in memory and "
+          + "updating it incrementally before each query. A client writes the query expression "
+          + "and closes its end of the connection for writing; the response is the query output, "
+          + "followed by a newline and a last line with the exit code and the latency in "
+          + "milliseconds. If something other than a socket exists at the path, the command "
+          + "fails. Errors are reported on the terminal of the query command. Like any other "
+          + "command, the query command holds the server while it runs, so no other command, "
+          + "including builds, can run in the workspace until the query server is interrupted.")
+  public String serverSocket;
+
   /**
    * Return the current options as a set of QueryEnvironment settings.
    */
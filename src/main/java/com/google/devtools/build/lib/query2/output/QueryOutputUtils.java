@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.query2.output;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.query2.engine.BlazeQueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
+import com.google.devtools.build.lib.query2.output.OutputFormatter.StreamedFormatter;
 import com.google.devtools.build.lib.query2.output.OutputFormatter.UnorderedFormatter;
 import com.google.devtools.build.lib.query2.output.QueryOptions.OrderOutput;
 
@@ -31,6 +32,14 @@ public class QueryOutputUtils {
     return queryOptions.orderOutput != OrderOutput.NO || !(formatter instanceof UnorderedFormatter);
   }
 
+  /**
+   * Returns whether the result of the query should be printed while it is computed, rather than
+   * collected and printed afterwards.
+   */
+  public static boolean streamResults(QueryOptions queryOptions, OutputFormatter formatter) {
+    return queryOptions.orderOutput == OrderOutput.NO && formatter instanceof StreamedFormatter;
+  }
+
   public static void output(QueryOptions queryOptions, QueryEvalResult<Target> result,
       OutputFormatter formatter, PrintStream outputStream, AspectResolver aspectResolver)
       throws IOException, InterruptedException {
@@ -37,8 +37,12 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.build.lib.Constants;
 import com.google.devtools.build.lib.actions.cache.ActionCache;
+import com.google.devtools.build.lib.actions.cache.ActionDurationHistory;
 import com.google.devtools.build.lib.actions.cache.CompactPersistentActionCache;
+import com.google.devtools.build.lib.actions.cache.DigestUtils;
+import com.google.devtools.build.lib.actions.cache.MappedActionCache;
 import com.google.devtools.build.lib.actions.cache.NullActionCache;
+import com.google.devtools.build.lib.actions.cache.PersistentDigestCache;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.BlazeVersionInfo;
 import com.google.devtools.build.lib.analysis.BuildView;
@@ -54,9 +58,11 @@ import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.OutputFilter;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.exec.OutputService;
+import com.google.devtools.build.lib.packages.PackageDeserializer;
 import com.google.devtools.build.lib.packages.PackageFactory;
 import com.google.devtools.build.lib.packages.Preprocessor;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
+import com.google.devtools.build.lib.packages.RuleClassProviderDeserializationEnvironment;
 import com.google.devtools.build.lib.pkgcache.PackageCacheOptions;
 import com.google.devtools.build.lib.pkgcache.PackageManager;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
@@ -99,6 +105,8 @@ import com.google.devtools.build.lib.util.OsUtils;
 import com.google.devtools.build.lib.util.ThreadUtils;
 import com.google.devtools.build.lib.util.io.OutErr;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.BatchStat;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
@@ -173,6 +181,8 @@ public final class BlazeRuntime {
   private final ConfigurationFactory configurationFactory;
   private final ConfiguredRuleClassProvider ruleClassProvider;
   private ActionCache actionCache;
+  private PersistentDigestCache digestCache;
+  private ActionDurationHistory actionDurationHistory;
   private final TimestampGranularityMonitor timestampGranularityMonitor;
   private final Clock clock;
 
@@ -195,6 +205,10 @@ public final class BlazeRuntime {
 
   private final ProjectFile.Provider projectFileProvider;
 
+  // Whether the first command has already had the chance to restore the Skyframe graph snapshot.
+  // Nothing is saved on shutdown before that, since the graph would only hold the snapshot's values.
+  private boolean graphSnapshotLoaded = false;
+
   private BlazeRuntime(BlazeDirectories directories, Reporter reporter,
       WorkspaceStatusAction.Factory workspaceStatusActionFactory,
       final SkyframeExecutor skyframeExecutor,
@@ -559,7 +573,7 @@ public final class BlazeRuntime {
       }
       try (AutoProfiler p = profiledAndLogged("Loading action cache", ProfilerTask.INFO, LOG)) {
         try {
-          actionCache = new CompactPersistentActionCache(getCacheDirectory(), clock);
+          actionCache = newPersistentActionCache();
         } catch (IOException e) {
           LOG.log(Level.WARNING, "Failed to load action cache: " + e.getMessage(), e);
           LoggingUtil.logToRemote(Level.WARNING, "Failed to load action cache: "
@@ -568,19 +582,79 @@ public final class BlazeRuntime {
               Event.error("Error during action cache initialization: " + e.getMessage()
               + ". Corrupted files were renamed to '" + getCacheDirectory() + "/*.bad'. "
               + "Blaze will now reset action cache data, causing a full rebuild"));
-          actionCache = new CompactPersistentActionCache(getCacheDirectory(), clock);
+          actionCache = newPersistentActionCache();
         }
       }
+      loadDigestCache(reporter);
     }
     return actionCache;
   }
 
+  /**
+   * Loads the cache of file digests that is kept across server restarts, and makes it available
+   * to {@link DigestUtils}. Failures only disable the cache.
+   */
+  private void loadDigestCache(Reporter reporter) {
+    try (AutoProfiler p = profiledAndLogged("Loading digest cache", ProfilerTask.INFO, LOG)) {
+      digestCache = new PersistentDigestCache(getCacheDirectory(), clock);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to load digest cache: " + e.getMessage(), e);
+      reporter.handle(Event.warn("Error during digest cache initialization: " + e.getMessage()
+          + ". Files will be digested again"));
+      digestCache = null;
+    }
+    DigestUtils.setDigestCache(digestCache);
+  }
+
+  /**
+   * Returns the cache of file digests kept across server restarts, or null if it is not loaded.
+   */
+  @Nullable
+  public PersistentDigestCache getDigestCache() {
+    return digestCache;
+  }
+
+  /**
+   * Returns the durations of the actions of previous builds, loading them if needed, or null if
+   * they cannot be loaded.
+   */
+  @Nullable
+  public ActionDurationHistory getActionDurationHistory(Reporter reporter) {
+    if (actionDurationHistory == null) {
+      try (AutoProfiler p =
+          profiledAndLogged("Loading action duration history", ProfilerTask.INFO, LOG)) {
+        actionDurationHistory = new ActionDurationHistory(getCacheDirectory());
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Failed to load action duration history: " + e.getMessage(), e);
+        reporter.handle(Event.warn("Error during action duration history initialization: "
+            + e.getMessage() + ". Actions will be started in the order in which they are ready"));
+      }
+    }
+    return actionDurationHistory;
+  }
+
+  private boolean useMappedActionCache() {
+    return startupOptionsProvider != null
+        && startupOptionsProvider.getOptions(BlazeServerStartupOptions.class).mappedActionCache;
+  }
+
+  private ActionCache newPersistentActionCache() throws IOException {
+    Path cacheDirectory = getCacheDirectory();
+    FileSystemUtils.createDirectoryAndParents(cacheDirectory);
+    return useMappedActionCache()
+        ? new MappedActionCache(cacheDirectory, clock)
+        : new CompactPersistentActionCache(cacheDirectory, clock);
+  }
+
   /**
    * Removes in-memory caches.
    */
   public void clearCaches() throws IOException {
     clearSkyframeRelevantCaches();
     actionCache = null;
+    digestCache = null;
+    actionDurationHistory = null;
+    DigestUtils.setDigestCache(null);
     FileSystemUtils.deleteTree(getCacheDirectory());
   }
 
@@ -605,7 +679,13 @@ public final class BlazeRuntime {
    * on disk, which might not be safe.
    */
   private Path getCacheDirectory() {
-    return getOutputBase().getChild("action_cache");
+    Path cacheDirectory = getOutputBase().getChild("action_cache");
+    DigestHashFunction digestFunction = DigestHashFunction.getDefault();
+    // Digests computed with different functions cannot be compared, so each function has its own
+    // cache. MD5 keeps the historical location.
+    return digestFunction == DigestHashFunction.MD5
+        ? cacheDirectory
+        : cacheDirectory.getChild(digestFunction.name().toLowerCase());
   }
 
   /**
@@ -648,9 +728,12 @@ public final class BlazeRuntime {
       }
     }
 
-    skyframeExecutor.setBatchStatter(outputService == null
-        ? null
-        : outputService.getBatchStatter());
+    BatchStat batchStatter = outputService == null ? null : outputService.getBatchStatter();
+    if (batchStatter == null && directories.getFileSystem() instanceof UnixFileSystem) {
+      // Without an output service, still stat the outputs in batches to save JNI round trips.
+      batchStatter = ((UnixFileSystem) directories.getFileSystem()).getBatchStatter(getExecRoot());
+    }
+    skyframeExecutor.setBatchStatter(batchStatter);
 
     env.setOutputFileSystem(determineOutputFileSystem());
 
@@ -810,9 +893,11 @@ public final class BlazeRuntime {
    * For now, just returns the size of the action cache and the build id.
    */
   public String[] getCrashData(CommandEnvironment env) {
+    Path actionCacheFile = useMappedActionCache()
+        ? MappedActionCache.logFile(getCacheDirectory())
+        : CompactPersistentActionCache.cacheFile(getCacheDirectory());
     return new String[]{
-        getFileSizeString(CompactPersistentActionCache.cacheFile(getCacheDirectory()),
-                          "action cache"),
+        getFileSizeString(actionCacheFile, "action cache"),
         env.getCommandId() + " (build id)",
     };
   }
@@ -848,16 +933,66 @@ public final class BlazeRuntime {
     if (!skyframeExecutor.hasIncrementalState()) {
       clearSkyframeRelevantCaches();
     }
+    if (!graphSnapshotLoaded) {
+      graphSnapshotLoaded = true;
+      if (useSkyframeGraphSnapshot()) {
+        loadSkyframeGraphSnapshot();
+      }
+    }
     skyframeExecutor.sync(eventHandler, packageCacheOptions, getOutputBase(), getWorkingDirectory(),
         defaultsPackageContents, commandId);
   }
 
   public void shutdown() {
+    if (graphSnapshotLoaded && useSkyframeGraphSnapshot()
+        && skyframeExecutor.hasIncrementalState()) {
+      saveSkyframeGraphSnapshot();
+    }
     for (BlazeModule module : blazeModules) {
       module.blazeShutdown();
     }
   }
 
+  private boolean useSkyframeGraphSnapshot() {
+    return startupOptionsProvider != null
+        && startupOptionsProvider.getOptions(BlazeServerStartupOptions.class).skyframeGraphSnapshot;
+  }
+
+  private Path getSkyframeGraphSnapshotFile() {
+    return getOutputBase().getChild("skyframe_graph_snapshot");
+  }
+
+  /**
+   * The snapshot must only be restored by a server running the same binary, since the classes of
+   * the saved values or the rule classes of the saved packages may have changed.
+   */
+  private String getSkyframeGraphSnapshotIdentity() {
+    return String.valueOf(directories.getInstallMD5());
+  }
+
+  private void loadSkyframeGraphSnapshot() throws InterruptedException {
+    PackageDeserializer.defaultPackageDeserializationEnvironment =
+        new RuleClassProviderDeserializationEnvironment(directories.getFileSystem(),
+            ruleClassProvider);
+    try (AutoProfiler p = profiledAndLogged(
+        "Loading Skyframe graph snapshot", ProfilerTask.INFO, LOG)) {
+      skyframeExecutor.loadGraphSnapshot(getSkyframeGraphSnapshotFile(),
+          getSkyframeGraphSnapshotIdentity());
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to load the Skyframe graph snapshot", e);
+    }
+  }
+
+  private void saveSkyframeGraphSnapshot() {
+    try (AutoProfiler p = profiledAndLogged(
+        "Saving Skyframe graph snapshot", ProfilerTask.INFO, LOG)) {
+      skyframeExecutor.saveGraphSnapshot(getSkyframeGraphSnapshotFile(),
+          getSkyframeGraphSnapshotIdentity());
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to save the Skyframe graph snapshot", e);
+    }
+  }
+
   /**
    * Returns the defaults package for the default settings. Should only be called by commands that
    * do <i>not</i> process {@link BuildOptions}, since build options can alter the contents of the
@@ -1258,6 +1393,8 @@ public final class BlazeRuntime {
     PathFragment outputBase = startupOptions.outputBase;
 
     OsUtils.maybeForceJNI(installBase);  // Must be before first use of JNI.
+    // Must be before any digest is computed.
+    DigestHashFunction.setDefault(startupOptions.digestFunction);
 
     // From the point of view of the Java program --install_base and --output_base
     // are mandatory options, despite the comment in their declarations.
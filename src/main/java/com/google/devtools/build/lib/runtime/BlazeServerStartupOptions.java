@@ -15,8 +15,10 @@ package com.google.devtools.build.lib.runtime;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.util.OptionsUtils;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.common.options.Converter;
+import com.google.devtools.common.options.EnumConverter;
 import com.google.devtools.common.options.Option;
 import com.google.devtools.common.options.OptionsBase;
 
@@ -235,6 +237,37 @@ public class BlazeServerStartupOptions extends OptionsBase {
           + "changes instead of scanning every file for a change.")
   public boolean watchFS;
 
+  @Option(name = "experimental_skyframe_graph_snapshot",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If true, Blaze saves the loading phase part of the Skyframe graph to the output base "
+          + "when the server shuts down, and restores it when the next server starts, so that "
+          + "unchanged packages do not have to be loaded again. Experimental.")
+  public boolean skyframeGraphSnapshot;
+
+  @Option(name = "experimental_mapped_action_cache",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If true, Blaze keeps the action cache in memory-mapped files instead of loading it "
+          + "into memory, so that loading and saving it is not proportional to its size. Uses a "
+          + "separate set of files in the output base. Experimental.")
+  public boolean mappedActionCache;
+
+  /** Converter for the <code>digest_function</code> option. */
+  public static class DigestHashFunctionConverter extends EnumConverter<DigestHashFunction> {
+    public DigestHashFunctionConverter() {
+      super(DigestHashFunction.class, "digest function");
+    }
+  }
+
+  @Option(name = "digest_function",
+      defaultValue = "md5",
+      category = "undocumented",
+      converter = DigestHashFunctionConverter.class,
+      help = "The hash function used to digest output files and action keys: md5, sha1, sha256 "
+          + "or murmur3_128. murmur3_128 is much faster, but is not a cryptographic hash. Each "
+          + "function has its own action cache in the output base.")
+  public DigestHashFunction digestFunction;
 
   @Option(name = "invocation_policy",
       defaultValue = "",
@@ -16,16 +16,23 @@ package com.google.devtools.build.lib.runtime;
 import com.google.common.base.Joiner;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.cache.ActionDurationHistory;
+import com.google.devtools.build.lib.buildtool.ExecutionFinishedEvent;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
 import com.google.devtools.build.lib.buildtool.buildevent.ExecutionStartingEvent;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.exec.ExecutionOptions;
+import com.google.devtools.build.lib.profiler.AutoProfiler;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.common.options.OptionsProvider;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -39,20 +46,51 @@ public class BuildSummaryStatsModule extends BlazeModule {
   private SimpleCriticalPathComputer criticalPathComputer;
   private EventBus eventBus;
   private Reporter reporter;
+  private BlazeRuntime runtime;
+  private boolean recordActionDurations;
 
   @Override
   public void beforeCommand(Command command, CommandEnvironment env) {
     this.reporter = env.getReporter();
     this.eventBus = env.getEventBus();
+    this.runtime = env.getRuntime();
     eventBus.register(this);
   }
 
+  @Override
+  public void handleOptions(OptionsProvider optionsProvider) {
+    ExecutionOptions options = optionsProvider.getOptions(ExecutionOptions.class);
+    recordActionDurations = options != null && options.criticalPathScheduling;
+  }
+
   @Subscribe
   public void executionPhaseStarting(ExecutionStartingEvent event) {
     criticalPathComputer = new SimpleCriticalPathComputer(BlazeClock.instance());
     eventBus.register(criticalPathComputer);
   }
 
+  /**
+   * Records the durations of the actions of this build, before the history is saved with the other
+   * caches at the end of the execution phase.
+   */
+  @Subscribe
+  public void executionFinished(ExecutionFinishedEvent event) {
+    if (!recordActionDurations || criticalPathComputer == null) {
+      return;
+    }
+    ActionDurationHistory history = runtime.getActionDurationHistory(reporter);
+    if (history == null) {
+      return;
+    }
+    try (AutoProfiler p = AutoProfiler.profiledAndLogged(
+        "Recording action durations", ProfilerTask.INFO, LOG)) {
+      for (Map.Entry<Action, Long> entry :
+          criticalPathComputer.getCriticalPathsFromActionsMillis().entrySet()) {
+        history.put(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
   @Subscribe
   public void buildComplete(BuildCompleteEvent event) {
     try {
@@ -17,6 +17,7 @@ package com.google.devtools.build.lib.runtime;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.actions.ActionCompletionEvent;
@@ -30,8 +31,13 @@ import com.google.devtools.build.lib.util.Clock;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -238,6 +244,46 @@ public abstract class CriticalPathComputer<C extends AbstractCriticalPathCompone
     }
   }
 
+  /**
+   * Returns, for each finished action, the time in milliseconds from its start to the end of the
+   * longest chain of actions that depended on it.
+   *
+   * <p>Only the most expensive dependency of each action is recorded, so chains are approximated
+   * by following those dependencies. The result is exact for the actions on the critical path.
+   */
+  public Map<Action, Long> getCriticalPathsFromActionsMillis() {
+    List<C> components = new ArrayList<>();
+    Set<C> seen = Sets.newIdentityHashSet();
+    for (C component : outputArtifactToComponent.values()) {
+      if (!component.isRunning && seen.add(component)) {
+        components.add(component);
+      }
+    }
+    // The aggregated time of an action is at least that of its child, so sorting by decreasing
+    // aggregated time visits the actions depending on a child before the child itself.
+    Collections.sort(components, new Comparator<C>() {
+      @Override
+      public int compare(C o1, C o2) {
+        return Long.compare(o2.getAggregatedElapsedTimeNanos(), o1.getAggregatedElapsedTimeNanos());
+      }
+    });
+    Map<C, Long> longestDependentNanos = new IdentityHashMap<>();
+    Map<Action, Long> result = Maps.newHashMapWithExpectedSize(components.size());
+    for (C component : components) {
+      Long dependentNanos = longestDependentNanos.get(component);
+      long nanos = component.getElapsedTimeNanos() + (dependentNanos != null ? dependentNanos : 0);
+      C child = component.getChild();
+      if (child != null) {
+        Long previous = longestDependentNanos.get(child);
+        if (previous == null || previous < nanos) {
+          longestDependentNanos.put(child, nanos);
+        }
+      }
+      result.put(component.getAction(), TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+    return result;
+  }
+
   /**
    * If "input" is a generated artifact, link its critical path to the one we're building.
    */
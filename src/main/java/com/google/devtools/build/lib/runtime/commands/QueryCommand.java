@@ -26,7 +26,10 @@ import com.google.devtools.build.lib.query2.engine.QueryEnvironment.Setting;
 import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
 import com.google.devtools.build.lib.query2.engine.QueryException;
 import com.google.devtools.build.lib.query2.engine.QueryExpression;
+import com.google.devtools.build.lib.query2.output.AspectResolver;
 import com.google.devtools.build.lib.query2.output.OutputFormatter;
+import com.google.devtools.build.lib.query2.output.OutputFormatter.StreamedFormatter;
+import com.google.devtools.build.lib.query2.output.OutputFormatterCallback;
 import com.google.devtools.build.lib.query2.output.QueryOptions;
 import com.google.devtools.build.lib.query2.output.QueryOutputUtils;
 import com.google.devtools.build.lib.runtime.BlazeCommand;
@@ -87,13 +90,6 @@ public final class QueryCommand implements BlazeCommand {
       return e.getExitCode();
     }
 
-    if (options.getResidue().isEmpty()) {
-      env.getReporter().handle(Event.error(String.format(
-          "missing query expression. Type '%s help query' for syntax and help",
-          Constants.PRODUCT_NAME)));
-      return ExitCode.COMMAND_LINE_ERROR;
-    }
-
     Iterable<OutputFormatter> formatters = runtime.getQueryOutputFormatters();
     OutputFormatter formatter =
         OutputFormatter.getFormatter(formatters, queryOptions.outputFormat);
@@ -104,16 +100,65 @@ public final class QueryCommand implements BlazeCommand {
       return ExitCode.COMMAND_LINE_ERROR;
     }
 
+    if (queryOptions.serverSocket != null) {
+      if (!options.getResidue().isEmpty()) {
+        env.getReporter().handle(Event.error(
+            "no query expression may be given with --query_server_socket"));
+        return ExitCode.COMMAND_LINE_ERROR;
+      }
+      return new QueryServer(env.getReporter(), newQueryRunner(env,
+          options.getOptions(PackageCacheOptions.class), queryOptions, formatter))
+          .serve(env.getWorkingDirectory().getRelative(queryOptions.serverSocket));
+    }
+
+    if (options.getResidue().isEmpty()) {
+      env.getReporter().handle(Event.error(String.format(
+          "missing query expression. Type '%s help query' for syntax and help",
+          Constants.PRODUCT_NAME)));
+      return ExitCode.COMMAND_LINE_ERROR;
+    }
+
     String query = Joiner.on(' ').join(options.getResidue());
+    PrintStream output = new PrintStream(env.getReporter().getOutErr().getOutputStream());
+    return runQuery(env, queryOptions, formatter, query, output);
+  }
+
+  private static QueryServer.QueryRunner newQueryRunner(final CommandEnvironment env,
+      final PackageCacheOptions packageCacheOptions, final QueryOptions queryOptions,
+      final OutputFormatter formatter) {
+    return new QueryServer.QueryRunner() {
+      @Override
+      public void sync() throws InterruptedException, AbruptExitException {
+        env.setupPackageCache(packageCacheOptions, env.getRuntime().getDefaultsPackageContent());
+      }
+
+      @Override
+      public ExitCode run(String query, PrintStream output) {
+        return runQuery(env, queryOptions, formatter, query, output);
+      }
+    };
+  }
 
+  /**
+   * Parses and evaluates {@code query} and prints its result to {@code output}. Errors are
+   * reported to the reporter of {@code env}.
+   */
+  static ExitCode runQuery(CommandEnvironment env, QueryOptions queryOptions,
+      OutputFormatter formatter, String query, PrintStream output) {
     Set<Setting> settings = queryOptions.toSettings();
-    AbstractBlazeQueryEnvironment<Target> queryEnv = newQueryEnvironment(
+    try (AbstractBlazeQueryEnvironment<Target> queryEnv = newQueryEnvironment(
         env,
         queryOptions.keepGoing,
         QueryOutputUtils.orderResults(queryOptions, formatter),
         queryOptions.universeScope, queryOptions.loadingPhaseThreads,
-        settings);
+        settings)) {
+      return runQuery(env, queryEnv, queryOptions, formatter, query, output);
+    }
+  }
 
+  private static ExitCode runQuery(CommandEnvironment env,
+      AbstractBlazeQueryEnvironment<Target> queryEnv, QueryOptions queryOptions,
+      OutputFormatter formatter, String query, PrintStream output) {
     // 1. Parse query:
     QueryExpression expr;
     try {
@@ -124,11 +169,23 @@ public final class QueryCommand implements BlazeCommand {
       return ExitCode.COMMAND_LINE_ERROR;
     }
 
-    // 2. Evaluate expression:
+    // 2. Evaluate expression. Unless the output has to be ordered, it is printed while the query
+    // is evaluated if the formatter supports that, so the first targets are printed early. Memory
+    // use still grows with the result, as the printed targets are kept for deduplication.
+    AspectResolver aspectResolver =
+        queryOptions.aspectDeps.createResolver(env.getPackageManager(), env.getReporter());
+    OutputFormatterCallback<Target> streamCallback =
+        QueryOutputUtils.streamResults(queryOptions, formatter)
+            ? ((StreamedFormatter) formatter).createStreamCallback(
+                queryOptions, output, aspectResolver)
+            : null;
     QueryEvalResult<Target> result;
     try {
-      result = queryEnv.evaluateQuery(expr);
+      result = streamCallback == null
+          ? queryEnv.evaluateQuery(expr)
+          : queryEnv.evaluateQuery(expr, streamCallback);
     } catch (QueryException | InterruptedException e) {
+      output.flush();
       // Keep consistent with reportBuildFileError()
       env.getReporter()
           // TODO(bazel-team): this is a kludge to fix a bug observed in the wild. We should make
@@ -139,11 +196,12 @@ public final class QueryCommand implements BlazeCommand {
 
     env.getReporter().switchToAnsiAllowingHandler();
     // 3. Output results:
-    PrintStream output = new PrintStream(env.getReporter().getOutErr().getOutputStream());
     try {
-      QueryOutputUtils.output(queryOptions, result, formatter, output,
-          queryOptions.aspectDeps.createResolver(
-              env.getPackageManager(), env.getReporter()));
+      if (streamCallback == null) {
+        QueryOutputUtils.output(queryOptions, result, formatter, output, aspectResolver);
+      } else {
+        streamCallback.close();
+      }
     } catch (ClosedByInterruptException | InterruptedException e) {
       env.getReporter().handle(Event.error("query interrupted"));
       return ExitCode.INTERRUPTED;
@@ -153,7 +211,7 @@ public final class QueryCommand implements BlazeCommand {
     } finally {
       output.flush();
     }
-    if (result.getResultSet().isEmpty()) {
+    if (result.isEmpty()) {
       env.getReporter().handle(Event.info("Empty results"));
     }
 
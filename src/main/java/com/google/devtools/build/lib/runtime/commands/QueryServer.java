@@ -0,0 +1,209 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime.commands;
+
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.unix.FileStatus;
+import com.google.devtools.build.lib.unix.FilesystemUtils;
+import com.google.devtools.build.lib.unix.LocalServerSocket;
+import com.google.devtools.build.lib.unix.LocalSocketAddress;
+import com.google.devtools.build.lib.util.AbruptExitException;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.ExitCode;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.logging.Logger;
+
+/**
+ * Answers queries sent over a Unix domain socket for as long as the query command runs, so that
+ * clients issuing many small queries pay neither for starting a new command nor for preparing the
+ * universe from scratch each time.
+ *
+ * <p>The universe stays in the Skyframe graph of the server. Before each query the package cache
+ * is synced again, which invalidates only the files that the {@code DiffAwarenessManager} reports
+ * as changed since the previous query, so that evaluating the universe again only reloads what
+ * changed.
+ *
+ * <p>Each connection carries one query: the client writes the query expression and shuts down
+ * its end of the connection for writing. The response is the output of the query, which is
+ * streamed like the output of a query command, followed by a newline and a last line holding the
+ * exit code and the latency of the query in milliseconds. The exit code comes last because it is
+ * only known once the output has been written.
+ *
+ * <p>The query command keeps the Blaze server for itself while it serves queries, like any other
+ * command does while it runs. Builds and other commands in the same workspace wait until the
+ * query server is interrupted.
+ */
+final class QueryServer {
+
+  /**
+   * Evaluates the queries of a {@link QueryServer}.
+   */
+  interface QueryRunner {
+    /**
+     * Brings the universe up to date with the source tree before a query is evaluated.
+     */
+    void sync() throws InterruptedException, AbruptExitException;
+
+    /**
+     * Evaluates {@code query}, prints its output to {@code output}, and returns the exit code.
+     */
+    ExitCode run(String query, PrintStream output);
+  }
+
+  private static final Logger LOG = Logger.getLogger(QueryServer.class.getName());
+
+  /** How often to check for interrupts while waiting for a connection. */
+  private static final long ACCEPT_TIMEOUT_MILLIS = 500;
+
+  private final EventHandler reporter;
+  private final QueryRunner runner;
+
+  private int queryCount = 0;
+  private long totalLatencyMillis = 0;
+  private long maxLatencyMillis = 0;
+
+  QueryServer(EventHandler reporter, QueryRunner runner) {
+    this.reporter = reporter;
+    this.runner = runner;
+  }
+
+  /**
+   * Listens on {@code socketFile} and answers queries until the command is interrupted.
+   */
+  ExitCode serve(Path socketFile) {
+    LocalServerSocket serverSocket;
+    try {
+      removeStaleSocket(socketFile);
+      serverSocket = new LocalServerSocket();
+      serverSocket.bind(new LocalSocketAddress(socketFile.getPathFile()));
+      FilesystemUtils.chmod(socketFile.getPathFile(), 0600); // Lock it down.
+      serverSocket.listen(/*backlog=*/50);
+      serverSocket.setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+    } catch (IOException e) {
+      reporter.handle(
+          Event.error("Cannot listen on '" + socketFile + "': " + e.getMessage()));
+      return ExitCode.LOCAL_ENVIRONMENTAL_ERROR;
+    }
+
+    reporter.handle(Event.info("Answering queries on '" + socketFile + "'; other commands wait "
+        + "until this one is interrupted"));
+    try {
+      while (true) {
+        Socket socket;
+        try {
+          socket = serverSocket.accept();
+        } catch (SocketTimeoutException e) {
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+          continue;
+        }
+        try {
+          answer(socket);
+        } catch (IOException e) {
+          LOG.warning("Connection to the query client lost: " + e.getMessage());
+        } finally {
+          closeQuietly(socket);
+        }
+      }
+    } catch (InterruptedException | InterruptedIOException e) {
+      return ExitCode.SUCCESS;
+    } catch (AbruptExitException e) {
+      reporter.handle(Event.error(null, "Unknown error: " + e.getMessage()));
+      return e.getExitCode();
+    } catch (IOException e) {
+      reporter.handle(Event.error("I/O error: " + e.getMessage()));
+      return ExitCode.LOCAL_ENVIRONMENTAL_ERROR;
+    } finally {
+      closeQuietly(serverSocket);
+      try {
+        socketFile.delete();
+      } catch (IOException e) {
+        // Ignore.
+      }
+      if (queryCount > 0) {
+        reporter.handle(Event.info(String.format(
+            "Answered %d queries, average latency %d ms, maximum latency %d ms",
+            queryCount, totalLatencyMillis / queryCount, maxLatencyMillis)));
+      }
+    }
+  }
+
+  /**
+   * Removes the socket of a previous query server at {@code socketFile}, if any. As the path is
+   * given by the user, anything else at the path is left alone, and the query server fails.
+   */
+  private static void removeStaleSocket(Path socketFile) throws IOException {
+    FileStatus status;
+    try {
+      status = FilesystemUtils.lstat(socketFile.getPathString());
+    } catch (FileNotFoundException e) {
+      return;
+    }
+    if (!status.isSocket()) {
+      throw new IOException("file exists and is not a socket");
+    }
+    socketFile.delete();
+  }
+
+  private void answer(Socket socket)
+      throws IOException, InterruptedException, AbruptExitException {
+    String query = new String(ByteStreams.toByteArray(socket.getInputStream()),
+        Charset.defaultCharset()).trim();
+
+    long startNanos = BlazeClock.nanoTime();
+    // Picks up the changes to the source tree since the previous query.
+    runner.sync();
+    long syncNanos = BlazeClock.nanoTime() - startNanos;
+
+    PrintStream output = new PrintStream(new BufferedOutputStream(socket.getOutputStream()));
+    ExitCode exitCode = runner.run(query, output);
+    if (exitCode == ExitCode.INTERRUPTED || Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    long latencyMillis = (BlazeClock.nanoTime() - startNanos) / 1000000;
+
+    output.print("\n" + exitCode.getNumericExitCode() + " " + latencyMillis + "\n");
+    output.flush();
+    if (output.checkError()) {
+      throw new IOException("cannot write the response of query '" + query + "'");
+    }
+
+    queryCount++;
+    totalLatencyMillis += latencyMillis;
+    maxLatencyMillis = Math.max(maxLatencyMillis, latencyMillis);
+    LOG.info(String.format("Query '%s' took %d ms (%d ms to update the universe), exit code %d",
+        query, latencyMillis, syncNanos / 1000000, exitCode.getNumericExitCode()));
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // Ignore.
+    }
+  }
+}
@@ -32,6 +32,8 @@ import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
 import com.google.devtools.build.lib.analysis.config.RunUnder;
 import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.rules.cpp.CppCompileAction;
 import com.google.devtools.build.lib.rules.test.TestRunnerAction;
 import com.google.devtools.build.lib.standalone.StandaloneSpawnStrategy;
@@ -53,6 +55,8 @@ import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.Nullable;
+
 /**
  * Strategy that uses sandboxing to execute a process.
  */
@@ -66,6 +70,7 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
   private final Path execRoot;
   private final boolean verboseFailures;
   private final boolean sandboxDebug;
+  @Nullable private final SandboxDirectoryPool sandboxDirectories;
   private final StandaloneSpawnStrategy standaloneStrategy;
   private final UUID uuid = UUID.randomUUID();
   private final AtomicInteger execCounter = new AtomicInteger();
@@ -75,13 +80,15 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
       BlazeDirectories blazeDirs,
       ExecutorService backgroundWorkers,
       boolean verboseFailures,
-      boolean sandboxDebug) {
+      boolean sandboxDebug,
+      @Nullable SandboxDirectoryPool sandboxDirectories) {
     this.clientEnv = ImmutableMap.copyOf(clientEnv);
     this.blazeDirs = blazeDirs;
     this.execRoot = blazeDirs.getExecRoot();
     this.backgroundWorkers = backgroundWorkers;
     this.verboseFailures = verboseFailures;
     this.sandboxDebug = sandboxDebug;
+    this.sandboxDirectories = sandboxDirectories;
     this.standaloneStrategy = new StandaloneSpawnStrategy(blazeDirs.getExecRoot(), verboseFailures);
   }
 
@@ -105,62 +112,68 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
               + "]", spawn.asShellCommand(executor.getExecRoot()));
     }
 
-    FileOutErr outErr = actionExecutionContext.getFileOutErr();
-
-    // The execId is a unique ID just for this invocation of "exec".
-    String execId = uuid + "-" + execCounter.getAndIncrement();
-
-    // Each invocation of "exec" gets its own sandbox.
-    Path sandboxPath =
-        execRoot.getRelative(Constants.PRODUCT_NAME + "-sandbox").getRelative(execId);
-
+    long setupStartTime = Profiler.nanoTimeMaybe();
     ImmutableMap<Path, Path> mounts;
     try {
       // Gather all necessary mounts for the sandbox.
       mounts = getMounts(spawn, actionExecutionContext);
-      createTestTmpDir(spawn, sandboxPath);
     } catch (IllegalArgumentException | IOException e) {
       throw new UserExecException("Could not prepare mounts for sandbox execution", e);
     }
 
-    int timeout = getTimeout(spawn);
+    // Each invocation of "exec" gets its own sandbox, either a new one or an unused one from the
+    // pool.
+    Path sandboxPath;
+    if (sandboxDirectories != null) {
+      sandboxPath = sandboxDirectories.acquire(mounts);
+    } else {
+      // The execId is a unique ID just for this invocation of "exec".
+      String execId = uuid + "-" + execCounter.getAndIncrement();
+      sandboxPath = execRoot.getRelative(Constants.PRODUCT_NAME + "-sandbox").getRelative(execId);
+    }
 
     try {
-      final NamespaceSandboxRunner runner =
-          new NamespaceSandboxRunner(execRoot, sandboxPath, mounts, verboseFailures, sandboxDebug);
       try {
-        runner.run(
-            spawn.getArguments(),
-            spawn.getEnvironment(),
-            execRoot.getPathFile(),
-            outErr,
-            spawn.getOutputFiles(),
-            timeout);
-      } finally {
+        createTestTmpDir(spawn, sandboxPath);
+      } catch (IOException e) {
+        throw new UserExecException("Could not prepare mounts for sandbox execution", e);
+      }
+      Profiler.instance()
+          .logSimpleTask(setupStartTime, ProfilerTask.SANDBOX_SETUP, sandboxPath.getBaseName());
+      run(spawn, actionExecutionContext, sandboxPath, mounts);
+    } finally {
+      if (sandboxDirectories != null) {
+        sandboxDirectories.release(sandboxPath);
+      } else {
         // Due to the Linux kernel behavior, if we try to remove the sandbox too quickly after the
         // process has exited, we get "Device busy" errors because some of the mounts have not yet
         // been undone. A second later it usually works. We will just clean the old sandboxes up
         // using a background worker.
-        backgroundWorkers.execute(
-            new Runnable() {
-              @Override
-              public void run() {
-                try {
-                  while (!Thread.currentThread().isInterrupted()) {
-                    try {
-                      runner.cleanup();
-                      return;
-                    } catch (IOException e2) {
-                      // Sleep & retry.
-                      Thread.sleep(250);
-                    }
-                  }
-                } catch (InterruptedException e) {
-                  // Exit.
-                }
-              }
-            });
+        SandboxDirectoryPool.deleteInBackground(backgroundWorkers, sandboxPath);
       }
+    }
+  }
+
+  private void run(
+      Spawn spawn,
+      ActionExecutionContext actionExecutionContext,
+      Path sandboxPath,
+      ImmutableMap<Path, Path> mounts)
+      throws ExecException {
+    FileOutErr outErr = actionExecutionContext.getFileOutErr();
+
+    int timeout = getTimeout(spawn);
+
+    try {
+      NamespaceSandboxRunner runner =
+          new NamespaceSandboxRunner(execRoot, sandboxPath, mounts, verboseFailures, sandboxDebug);
+      runner.run(
+          spawn.getArguments(),
+          spawn.getEnvironment(),
+          execRoot.getPathFile(),
+          outErr,
+          spawn.getOutputFiles(),
+          timeout);
     } catch (IOException e) {
       throw new UserExecException("I/O error during sandboxed execution", e);
     }
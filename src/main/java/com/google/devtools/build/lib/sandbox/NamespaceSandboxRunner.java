@@ -25,7 +25,6 @@ import com.google.devtools.build.lib.shell.AbnormalTerminationException;
 import com.google.devtools.build.lib.shell.Command;
 import com.google.devtools.build.lib.shell.CommandException;
 import com.google.devtools.build.lib.shell.TerminationStatus;
-import com.google.devtools.build.lib.unix.FilesystemUtils;
 import com.google.devtools.build.lib.util.CommandFailureUtils;
 import com.google.devtools.build.lib.util.OsUtils;
 import com.google.devtools.build.lib.util.io.FileOutErr;
@@ -41,7 +40,7 @@ import java.util.List;
 
 /**
  * Helper class for running the namespace sandbox. This runner prepares environment inside the
- * sandbox, handles sandbox output, performs cleanup and changes invocation if necessary.
+ * sandbox, handles sandbox output and changes invocation if necessary.
  */
 public class NamespaceSandboxRunner {
   private static final String NAMESPACE_SANDBOX =
@@ -195,10 +194,4 @@ public class NamespaceSandboxRunner {
       }
     }
   }
-
-  public void cleanup() throws IOException {
-    if (sandboxPath.exists()) {
-      FilesystemUtils.rmTree(sandboxPath.getPathString());
-    }
-  }
 }
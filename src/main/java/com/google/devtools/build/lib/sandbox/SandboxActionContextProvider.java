@@ -24,6 +24,8 @@ import com.google.devtools.build.lib.util.OS;
 
 import java.util.concurrent.ExecutorService;
 
+import javax.annotation.Nullable;
+
 /**
  * Provides the sandboxed spawn strategy.
  */
@@ -33,7 +35,10 @@ public class SandboxActionContextProvider extends ActionContextProvider {
   private final ImmutableList<ActionContext> strategies;
 
   public SandboxActionContextProvider(
-      CommandEnvironment env, BuildRequest buildRequest, ExecutorService backgroundWorkers) {
+      CommandEnvironment env,
+      BuildRequest buildRequest,
+      ExecutorService backgroundWorkers,
+      @Nullable SandboxDirectoryPool sandboxDirectories) {
     boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
     boolean sandboxDebug = buildRequest.getOptions(SandboxOptions.class).sandboxDebug;
     Builder<ActionContext> strategies = ImmutableList.builder();
@@ -45,7 +50,8 @@ public class SandboxActionContextProvider extends ActionContextProvider {
               env.getDirectories(),
               backgroundWorkers,
               verboseFailures,
-              sandboxDebug));
+              sandboxDebug,
+              sandboxDirectories));
     }
 
     this.strategies = strategies.build();
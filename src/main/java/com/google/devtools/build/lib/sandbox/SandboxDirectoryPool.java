@@ -0,0 +1,200 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A pool of sandbox directories that are reused by consecutive spawns instead of being created
+ * before and deleted after each of them.
+ *
+ * <p>The namespace sandbox creates an empty file or directory for every mount point in the sandbox
+ * directory. Most of them are the same for consecutive spawns (e.g. the system directories, the
+ * tools and the common headers of C++ compiles), so before a directory is handed out again, only
+ * the entries that the next spawn doesn't mount are deleted. This also deletes whatever the
+ * previous spawn left behind in the directory, so that spawns can't see each other's files.
+ *
+ * <p>There are at most as many directories as spawns that ran at the same time, and the most
+ * recently released directory is handed out first, as it likely has the most mount points in
+ * common with the next spawn of the same thread.
+ */
+final class SandboxDirectoryPool {
+  // Created by the namespace sandbox itself for every spawn.
+  private static final String[] DEVICE_FILES = {"dev/null", "dev/random", "dev/urandom", "dev/zero"};
+  private static final String[] MOUNTED_DIRECTORIES = {"proc", "tmp"};
+
+  private final Path sandboxBase;
+  private final ExecutorService backgroundWorkers;
+  private final String namePrefix = "pool-" + UUID.randomUUID() + "-";
+  private final Deque<Path> idle = new ArrayDeque<>();
+  private int directoryCounter;
+
+  SandboxDirectoryPool(Path sandboxBase, ExecutorService backgroundWorkers) {
+    this.sandboxBase = sandboxBase;
+    this.backgroundWorkers = backgroundWorkers;
+  }
+
+  Path getSandboxBase() {
+    return sandboxBase;
+  }
+
+  /**
+   * Returns a sandbox directory for the given mounts, which must be {@link #release}d after the
+   * spawn. The directory may contain the mount points of the previous spawn that used it.
+   */
+  Path acquire(Map<Path, Path> mounts) {
+    Path sandboxPath;
+    synchronized (this) {
+      sandboxPath = idle.pollFirst();
+      if (sandboxPath == null) {
+        return sandboxBase.getRelative(namePrefix + directoryCounter++);
+      }
+    }
+    try {
+      if (sandboxPath.exists()) {
+        deleteUnusedEntries(sandboxPath, mounts);
+      }
+      return sandboxPath;
+    } catch (IOException e) {
+      // Most likely some mounts of the previous spawn are still being torn down by the kernel, so
+      // leave this directory to a background worker and start over with a fresh one.
+      deleteInBackground(backgroundWorkers, sandboxPath);
+      synchronized (this) {
+        return sandboxBase.getRelative(namePrefix + directoryCounter++);
+      }
+    }
+  }
+
+  /**
+   * Returns a sandbox directory to the pool after the spawn that used it finished.
+   */
+  synchronized void release(Path sandboxPath) {
+    idle.addFirst(sandboxPath);
+  }
+
+  /**
+   * Deletes all idle sandbox directories in the background.
+   */
+  synchronized void discardAll() {
+    for (Path sandboxPath : idle) {
+      deleteInBackground(backgroundWorkers, sandboxPath);
+    }
+    idle.clear();
+  }
+
+  /**
+   * Deletes everything below {@code sandboxPath} that isn't needed as a mount point for the given
+   * mounts (mount target to mount source), e.g. the mount points and outputs of the previous spawn
+   * that used the directory.
+   */
+  @VisibleForTesting
+  static void deleteUnusedEntries(Path sandboxPath, Map<Path, Path> mounts) throws IOException {
+    Set<Path> files = new HashSet<>();
+    Set<Path> directories = new HashSet<>();
+    Set<Path> mountedDirectories = new HashSet<>();
+    directories.add(sandboxPath.getRelative("dev"));
+    for (String file : DEVICE_FILES) {
+      files.add(sandboxPath.getRelative(file));
+    }
+    for (String directory : MOUNTED_DIRECTORIES) {
+      mountedDirectories.add(sandboxPath.getRelative(directory));
+    }
+    for (Map.Entry<Path, Path> mount : mounts.entrySet()) {
+      Path target = sandboxPath.getRelative(mount.getKey().asFragment().relativeTo("/"));
+      if (mount.getValue().isDirectory()) {
+        // The mount hides whatever is in the directory, so it doesn't matter what that is.
+        mountedDirectories.add(target);
+      } else {
+        files.add(target);
+      }
+      for (Path parent = target.getParentDirectory();
+          parent != null && !parent.equals(sandboxPath) && directories.add(parent);
+          parent = parent.getParentDirectory()) {}
+    }
+    deleteUnusedEntries(sandboxPath, files, directories, mountedDirectories);
+  }
+
+  private static void deleteUnusedEntries(
+      Path directory, Set<Path> files, Set<Path> directories, Set<Path> mountedDirectories)
+      throws IOException {
+    for (Dirent dirent : directory.readdir(Symlinks.NOFOLLOW)) {
+      Path entry = directory.getChild(dirent.getName());
+      switch (dirent.getType()) {
+        case DIRECTORY:
+          if (mountedDirectories.contains(entry)) {
+            break;
+          } else if (directories.contains(entry)) {
+            deleteUnusedEntries(entry, files, directories, mountedDirectories);
+          } else {
+            FileSystemUtils.deleteTree(entry);
+          }
+          break;
+        case FILE:
+          if (!files.contains(entry)) {
+            entry.delete();
+          }
+          break;
+        default:
+          entry.delete();
+          break;
+      }
+    }
+  }
+
+  /**
+   * Deletes the given sandbox directory in a background worker.
+   */
+  static void deleteInBackground(ExecutorService backgroundWorkers, final Path sandboxPath) {
+    backgroundWorkers.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            long startTime = Profiler.nanoTimeMaybe();
+            try {
+              while (!Thread.currentThread().isInterrupted()) {
+                try {
+                  if (sandboxPath.exists()) {
+                    FileSystemUtils.deleteTree(sandboxPath);
+                  }
+                  Profiler.instance()
+                      .logSimpleTask(
+                          startTime, ProfilerTask.SANDBOX_TEARDOWN, sandboxPath.getBaseName());
+                  return;
+                } catch (IOException e2) {
+                  // Sleep & retry.
+                  Thread.sleep(250);
+                }
+              }
+            } catch (InterruptedException e) {
+              // Exit.
+            }
+          }
+        });
+  }
+}
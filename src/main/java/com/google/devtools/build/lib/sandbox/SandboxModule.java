@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.sandbox;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.Subscribe;
+import com.google.devtools.build.lib.Constants;
 import com.google.devtools.build.lib.actions.ActionContextConsumer;
 import com.google.devtools.build.lib.actions.ActionContextProvider;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
@@ -26,12 +27,15 @@ import com.google.devtools.build.lib.runtime.BlazeRuntime;
 import com.google.devtools.build.lib.runtime.Command;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.common.options.OptionsBase;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
+
 /**
  * This module provides the Sandbox spawn strategy.
  */
@@ -44,6 +48,7 @@ public class SandboxModule extends BlazeModule {
   // Per-server state
   private final ExecutorService backgroundWorkers = Executors.newCachedThreadPool();
   private Boolean sandboxingSupported = null;
+  private SandboxDirectoryPool sandboxDirectories = null;
 
   // Per-command state
   private CommandEnvironment env;
@@ -62,7 +67,8 @@ public class SandboxModule extends BlazeModule {
     Preconditions.checkNotNull(env);
     if (isSandboxingSupported(env.getRuntime())) {
       return ImmutableList.<ActionContextProvider>of(
-          new SandboxActionContextProvider(env, buildRequest, backgroundWorkers));
+          new SandboxActionContextProvider(
+              env, buildRequest, backgroundWorkers, getSandboxDirectories()));
     }
 
     // For now, sandboxing is only supported on Linux and there's not much point in showing a scary
@@ -75,6 +81,26 @@ public class SandboxModule extends BlazeModule {
     return ImmutableList.of();
   }
 
+  /**
+   * Returns the pool of reusable sandbox directories if enabled, which is kept across builds.
+   */
+  @Nullable
+  private synchronized SandboxDirectoryPool getSandboxDirectories() {
+    Path sandboxBase =
+        env.getDirectories().getExecRoot().getRelative(Constants.PRODUCT_NAME + "-sandbox");
+    if (sandboxDirectories != null
+        && (!buildRequest.getOptions(SandboxOptions.class).reuseSandboxDirectories
+            || !sandboxDirectories.getSandboxBase().equals(sandboxBase))) {
+      sandboxDirectories.discardAll();
+      sandboxDirectories = null;
+    }
+    if (sandboxDirectories == null
+        && buildRequest.getOptions(SandboxOptions.class).reuseSandboxDirectories) {
+      sandboxDirectories = new SandboxDirectoryPool(sandboxBase, backgroundWorkers);
+    }
+    return sandboxDirectories;
+  }
+
   @Override
   public Iterable<ActionContextConsumer> getActionContextConsumers() {
     Preconditions.checkNotNull(env);
@@ -115,6 +141,13 @@ public class SandboxModule extends BlazeModule {
    */
   @Override
   public void blazeShutdown() {
+    synchronized (this) {
+      if (sandboxDirectories != null) {
+        sandboxDirectories.discardAll();
+        sandboxDirectories = null;
+      }
+    }
+
     // Disable new tasks from being submitted
     backgroundWorkers.shutdown();
 
@@ -29,6 +29,17 @@ public class SandboxOptions extends OptionsBase {
   )
   public boolean ignoreUnsupportedSandboxing;
 
+  @Option(
+    name = "experimental_reuse_sandbox_directories",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "If enabled, sandbox directories are reused by later spawns instead of being created and "
+            + "deleted for every spawn. Only the mount points that differ between two spawns are "
+            + "deleted and created."
+  )
+  public boolean reuseSandboxDirectories;
+
   @Option(
     name = "sandbox_debug",
     defaultValue = "false",
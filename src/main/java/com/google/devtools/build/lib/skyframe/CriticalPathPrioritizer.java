@@ -0,0 +1,48 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.cache.ActionDurationHistory;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.skyframe.EvaluationPrioritizer;
+import com.google.devtools.build.skyframe.SkyKey;
+
+/**
+ * Prioritizes the execution of the actions that were on the longest chains of actions in previous
+ * builds, as recorded in an {@link ActionDurationHistory}.
+ *
+ * <p>Nodes other than actions are cheap to evaluate, and they lead to the discovery of the actions
+ * to execute, so they are evaluated before any action. Actions that are not in the history are
+ * executed after all others.
+ */
+@ThreadSafe
+public final class CriticalPathPrioritizer implements EvaluationPrioritizer {
+  private final ActionDurationHistory history;
+
+  public CriticalPathPrioritizer(ActionDurationHistory history) {
+    this.history = Preconditions.checkNotNull(history);
+  }
+
+  @Override
+  public int getPriority(SkyKey key) {
+    if (!key.functionName().equals(SkyFunctions.ACTION_EXECUTION)) {
+      return Integer.MAX_VALUE;
+    }
+    long millis = history.getCriticalPathMillis((Action) key.argument());
+    // Integer.MAX_VALUE milliseconds is more than three weeks.
+    return (int) Math.max(0, Math.min(millis, Integer.MAX_VALUE - 1));
+  }
+}
@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.skyframe;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.actions.cache.DigestUtils;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.FileStatus;
@@ -161,7 +162,8 @@ public abstract class FileStateValue implements SkyValue {
       try {
         byte[] digest = stat.getDigest();
         if (digest == null) {
-          digest = path.getFastDigest();
+          // Only digests computed with the default function can be compared to other digests.
+          digest = DigestUtils.getFastDigest(path);
         }
         if (digest == null) {
           long mtime = stat.getLastModifiedTime();
@@ -0,0 +1,332 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.unix.Inotify;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.vfs.ModifiedFileSet;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * File system watcher for local filesystems on Linux that uses inotify directly through JNI,
+ * rather than through the Java WatchService like {@link LocalDiffAwareness}.
+ *
+ * <p>The whole tree is registered by a single native call, and events are read in large batches
+ * by a background thread that keeps draining the kernel queue between builds, so the queue is far
+ * less likely to overflow. If it overflows anyway, the tree is registered again (which picks up
+ * any directory created meanwhile, and keeps the watches of the others) and the next diff reports
+ * everything as modified, instead of the watcher being discarded.
+ */
+public class InotifyDiffAwareness implements DiffAwareness {
+
+  private static final Logger LOG = Logger.getLogger(InotifyDiffAwareness.class.getName());
+
+  /** How long the reader thread waits for events before checking whether it should stop. */
+  private static final int POLL_TIMEOUT_MILLIS = 500;
+
+  /** Factory for creating {@link InotifyDiffAwareness} instances. */
+  public static class Factory implements DiffAwareness.Factory {
+    private final ImmutableList<String> prefixBlacklist;
+
+    /**
+     * Creates a new factory; see {@link LocalDiffAwareness.Factory#Factory} for the meaning of the
+     * prefix blacklist. The factory only creates watchers on Linux.
+     */
+    public Factory(ImmutableList<String> prefixBlacklist) {
+      this.prefixBlacklist = prefixBlacklist;
+    }
+
+    @Override
+    public DiffAwareness maybeCreate(Path pathEntry) {
+      if (OS.getCurrent() != OS.LINUX) {
+        return null;
+      }
+      PathFragment watchRoot = LocalDiffAwareness.resolveWatchRoot(pathEntry, prefixBlacklist);
+      if (watchRoot == null) {
+        return null;
+      }
+      int fd;
+      try {
+        fd = Inotify.init();
+      } catch (IOException | UnsatisfiedLinkError e) {
+        return null;
+      }
+      return new InotifyDiffAwareness(watchRoot.getPathString(), fd);
+    }
+  }
+
+  /** Root directory to watch. This is an absolute path. */
+  private final String watchRoot;
+
+  /** The inotify instance. Closed by the reader thread once it is running; see {@link #close}. */
+  private final int fd;
+
+  // The state below is guarded by 'this'; it's shared with the reader thread.
+
+  /** The absolute path of each watched directory, by watch descriptor. */
+  private final Map<Integer, String> directoriesByWatch = new HashMap<>();
+
+  /** The absolute paths modified since the last view. */
+  private final Set<String> modifiedAbsolutePaths = new HashSet<>();
+
+  private int rootWatch = -1;
+  private boolean overflowed;
+  private IOException readerError;
+  private boolean readerRunning;
+  private volatile boolean closed;
+  private int numGetCurrentViewCalls = 0;
+
+  private InotifyDiffAwareness(String watchRoot, int fd) {
+    this.watchRoot = watchRoot;
+    this.fd = fd;
+  }
+
+  /**
+   * Like the views of {@link LocalDiffAwareness}, only consecutive views can be diffed, as the
+   * events are consumed when a view is created.
+   */
+  private static class SequentialView implements DiffAwareness.View {
+    private final InotifyDiffAwareness owner;
+    private final int position;
+    private final boolean everythingModified;
+    private final ImmutableSet<PathFragment> modifiedPaths;
+
+    private SequentialView(InotifyDiffAwareness owner, int position, boolean everythingModified,
+        ImmutableSet<PathFragment> modifiedPaths) {
+      this.owner = owner;
+      this.position = position;
+      this.everythingModified = everythingModified;
+      this.modifiedPaths = modifiedPaths;
+    }
+
+    private static boolean areInSequence(SequentialView oldView, SequentialView newView) {
+      return oldView.owner == newView.owner && (oldView.position + 1) == newView.position;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "SequentialView[owner=%s, position=%d, everythingModified=%s, modifiedPaths=%s]", owner,
+          position, everythingModified, modifiedPaths);
+    }
+  }
+
+  @Override
+  public synchronized View getCurrentView() throws BrokenDiffAwarenessException {
+    if (closed) {
+      throw new BrokenDiffAwarenessException("The inotify watcher for " + watchRoot
+          + " was closed");
+    }
+    boolean everythingModified = false;
+    ImmutableSet<PathFragment> modifiedPaths;
+    try {
+      if (numGetCurrentViewCalls++ == 0) {
+        Inotify.Watches watches = Inotify.addWatchesRecursively(fd, watchRoot, false);
+        if (watches.size() == 0) {
+          throw new IOException("Root directory " + watchRoot + " can't be watched.");
+        }
+        rootWatch = watches.getDescriptor(0);
+        addWatches(watches);
+        startReader();
+        modifiedPaths = ImmutableSet.of();
+      } else {
+        // Also pick up the events that the reader thread hasn't read yet.
+        processEvents(Inotify.readEvents(fd));
+        if (readerError != null) {
+          throw readerError;
+        }
+        if (overflowed) {
+          LOG.warning("inotify queue overflowed for " + watchRoot + "; re-registering watches");
+          addWatches(Inotify.addWatchesRecursively(fd, watchRoot, false));
+          overflowed = false;
+          everythingModified = true;
+        }
+        modifiedPaths = toRelativePaths(modifiedAbsolutePaths);
+        modifiedAbsolutePaths.clear();
+      }
+    } catch (IOException e) {
+      close();
+      throw new BrokenDiffAwarenessException(
+          "Error encountered with local file system watcher " + e);
+    }
+    return new SequentialView(this, numGetCurrentViewCalls, everythingModified, modifiedPaths);
+  }
+
+  @Override
+  public ModifiedFileSet getDiff(View oldView, View newView)
+      throws IncompatibleViewException, BrokenDiffAwarenessException {
+    SequentialView oldSequentialView;
+    SequentialView newSequentialView;
+    try {
+      oldSequentialView = (SequentialView) oldView;
+      newSequentialView = (SequentialView) newView;
+    } catch (ClassCastException e) {
+      throw new IncompatibleViewException("Given views are not from InotifyDiffAwareness");
+    }
+    if (!SequentialView.areInSequence(oldSequentialView, newSequentialView)
+        || newSequentialView.everythingModified) {
+      return ModifiedFileSet.EVERYTHING_MODIFIED;
+    }
+    return ModifiedFileSet.builder().modifyAll(newSequentialView.modifiedPaths).build();
+  }
+
+  @Override
+  public String name() {
+    return "inotify";
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    // A running reader thread closes the descriptor itself when it notices, so that it never
+    // polls a closed (and possibly reused) descriptor.
+    if (!readerRunning) {
+      Inotify.close(fd);
+    }
+  }
+
+  private void startReader() {
+    readerRunning = true;
+    Thread reader = new Thread("inotify reader for " + watchRoot) {
+      @Override
+      public void run() {
+        readEventsUntilClosed();
+      }
+    };
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  private void readEventsUntilClosed() {
+    try {
+      while (!closed) {
+        if (Inotify.waitForEvents(fd, POLL_TIMEOUT_MILLIS)) {
+          synchronized (this) {
+            if (!closed) {
+              processEvents(Inotify.readEvents(fd));
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      synchronized (this) {
+        readerError = e;
+      }
+    } finally {
+      synchronized (this) {
+        readerRunning = false;
+        if (closed) {
+          Inotify.close(fd);
+        }
+      }
+    }
+  }
+
+  private void addWatches(Inotify.Watches watches) {
+    for (int i = 0; i < watches.size(); i++) {
+      directoriesByWatch.put(watches.getDescriptor(i), watches.getDirectory(i));
+    }
+  }
+
+  /** Records the modified paths of a batch of events, and keeps the watches up to date. */
+  private void processEvents(Inotify.Events events) throws IOException {
+    for (int i = 0; i < events.size(); i++) {
+      int mask = events.getMask(i);
+      if ((mask & Inotify.IN_Q_OVERFLOW) != 0) {
+        overflowed = true;
+        continue;
+      }
+      int watch = events.getDescriptor(i);
+      String dir = directoriesByWatch.get(watch);
+      if (dir == null) {
+        // An event for a watch we already dropped.
+        continue;
+      }
+      if ((mask & Inotify.IN_IGNORED) != 0) {
+        directoriesByWatch.remove(watch);
+        if (watch == rootWatch) {
+          throw new IOException("Root directory " + watchRoot + " became inaccessible.");
+        }
+        continue;
+      }
+      String name = events.getName(i);
+      if (name.isEmpty()) {
+        // The watched directory itself was deleted or moved. Its parent reports that too, except
+        // for the root.
+        if (watch == rootWatch) {
+          throw new IOException("Root directory " + watchRoot + " was deleted or moved.");
+        }
+        continue;
+      }
+      String path = dir.equals("/") ? dir + name : dir + "/" + name;
+      modifiedAbsolutePaths.add(path);
+      if ((mask & Inotify.IN_ISDIR) != 0) {
+        if ((mask & (Inotify.IN_CREATE | Inotify.IN_MOVED_TO)) != 0) {
+          // This is a new directory, so changes to it since its creation have not been watched.
+          // Register it, and report everything in it as modified.
+          Inotify.Watches watches = Inotify.addWatchesRecursively(fd, path, true);
+          addWatches(watches);
+          for (int j = 0; j < watches.size(); j++) {
+            modifiedAbsolutePaths.add(watches.getDirectory(j));
+          }
+          Collections.addAll(modifiedAbsolutePaths, watches.getFiles());
+        } else if ((mask & Inotify.IN_MOVED_FROM) != 0) {
+          // The directories below keep their inodes, and so their watches, but not their paths.
+          // If they were moved within the tree, the IN_MOVED_TO event that follows watches them
+          // again under their new path.
+          removeWatchesUnder(path);
+        }
+      }
+    }
+  }
+
+  private void removeWatchesUnder(String dir) {
+    String prefix = dir + "/";
+    Iterator<Map.Entry<Integer, String>> it = directoriesByWatch.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Integer, String> entry = it.next();
+      if (entry.getValue().equals(dir) || entry.getValue().startsWith(prefix)) {
+        Inotify.removeWatch(fd, entry.getKey());
+        it.remove();
+      }
+    }
+  }
+
+  private ImmutableSet<PathFragment> toRelativePaths(Set<String> absolutePaths) {
+    ImmutableSet.Builder<PathFragment> result = ImmutableSet.builder();
+    for (String path : absolutePaths) {
+      Preconditions.checkState(path.startsWith(watchRoot), "%s %s", path, watchRoot);
+      String relativePath = path.substring(watchRoot.length());
+      result.add(new PathFragment(
+          relativePath.startsWith("/") ? relativePath.substring(1) : relativePath));
+    }
+    return result.build();
+  }
+}
@@ -40,6 +40,8 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashSet;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 /**
  * File system watcher for local filesystems. It's able to provide a list of changed
  * files between two consecutive calls. Uses the standard Java WatchService, which uses
@@ -62,20 +64,10 @@ public class LocalDiffAwareness implements DiffAwareness {
 
     @Override
     public DiffAwareness maybeCreate(com.google.devtools.build.lib.vfs.Path pathEntry) {
-      com.google.devtools.build.lib.vfs.Path resolvedPathEntry;
-      try {
-        resolvedPathEntry = pathEntry.resolveSymbolicLinks();
-      } catch (IOException e) {
+      PathFragment resolvedPathEntryFragment = resolveWatchRoot(pathEntry, prefixBlacklist);
+      if (resolvedPathEntryFragment == null) {
         return null;
       }
-      PathFragment resolvedPathEntryFragment = resolvedPathEntry.asFragment();
-      // There's no good way to automatically detect network file systems. We rely on a blacklist
-      // for now (and maybe add a command-line option in the future?).
-      for (String prefix : prefixBlacklist) {
-        if (resolvedPathEntryFragment.startsWith(new PathFragment(prefix))) {
-          return null;
-        }
-      }
 
       WatchService watchService;
       try {
@@ -88,6 +80,30 @@ public class LocalDiffAwareness implements DiffAwareness {
     }
   }
 
+  /**
+   * Returns the path to watch for the given package path entry, with symlinks resolved, or null if
+   * it can't be resolved or is on a blacklisted (network) file system.
+   */
+  @Nullable
+  static PathFragment resolveWatchRoot(com.google.devtools.build.lib.vfs.Path pathEntry,
+      ImmutableList<String> prefixBlacklist) {
+    com.google.devtools.build.lib.vfs.Path resolvedPathEntry;
+    try {
+      resolvedPathEntry = pathEntry.resolveSymbolicLinks();
+    } catch (IOException e) {
+      return null;
+    }
+    PathFragment resolvedPathEntryFragment = resolvedPathEntry.asFragment();
+    // There's no good way to automatically detect network file systems. We rely on a blacklist
+    // for now (and maybe add a command-line option in the future?).
+    for (String prefix : prefixBlacklist) {
+      if (resolvedPathEntryFragment.startsWith(new PathFragment(prefix))) {
+        return null;
+      }
+    }
+    return resolvedPathEntryFragment;
+  }
+
   private int numGetCurrentViewCalls = 0;
 
   /**
@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
@@ -31,14 +32,17 @@ import com.google.devtools.build.lib.events.StoredEventHandler;
 import com.google.devtools.build.lib.packages.BuildFileContainsErrorsException;
 import com.google.devtools.build.lib.packages.BuildFileNotFoundException;
 import com.google.devtools.build.lib.packages.CachingPackageLocator;
+import com.google.devtools.build.lib.packages.EnvironmentGroup;
 import com.google.devtools.build.lib.packages.InvalidPackageNameException;
 import com.google.devtools.build.lib.packages.NoSuchPackageException;
 import com.google.devtools.build.lib.packages.Package;
 import com.google.devtools.build.lib.packages.Package.LegacyBuilder;
+import com.google.devtools.build.lib.packages.PackageDeserializer.PackageDeserializationException;
 import com.google.devtools.build.lib.packages.PackageFactory;
 import com.google.devtools.build.lib.packages.PackageFactory.Globber;
 import com.google.devtools.build.lib.packages.Preprocessor;
 import com.google.devtools.build.lib.packages.Preprocessor.Result;
+import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.packages.RuleVisibility;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.profiler.Profiler;
@@ -65,6 +69,7 @@ import com.google.devtools.build.skyframe.ValueOrException4;
 import com.google.devtools.build.skyframe.ValueOrExceptionUtils;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -72,8 +77,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 
@@ -82,12 +91,19 @@ import javax.annotation.Nullable;
  */
 public class PackageFunction implements SkyFunction {
 
+  private static final Logger LOG = Logger.getLogger(PackageFunction.class.getName());
+
   private final PackageFactory packageFactory;
   private final CachingPackageLocator packageLocator;
   private final Cache<PackageIdentifier, Package.LegacyBuilder> packageFunctionCache;
   private final Cache<PackageIdentifier, Preprocessor.Result> preprocessCache;
   private final AtomicBoolean showLoadingProgress;
   private final AtomicInteger numPackagesLoaded;
+  private final AtomicReference<PersistentPackageCache> persistentPackageCache;
+  // The Skylark imports of the packages being loaded from their BUILD files, by package, if they
+  // may be stored in the persistent package cache once loaded.
+  private final Map<PackageIdentifier, ImmutableList<SkyKey>> persistentCacheImports =
+      new ConcurrentHashMap<>();
   private final Profiler profiler = Profiler.instance();
 
   private final PathFragment preludePath;
@@ -105,6 +121,7 @@ public class PackageFunction implements SkyFunction {
       Cache<PackageIdentifier, LegacyBuilder> packageFunctionCache,
       Cache<PackageIdentifier, Result> preprocessCache,
       AtomicInteger numPackagesLoaded,
+      AtomicReference<PersistentPackageCache> persistentPackageCache,
       @Nullable SkylarkImportLookupFunction skylarkImportLookupFunctionForInlining) {
     this.skylarkImportLookupFunctionForInlining = skylarkImportLookupFunctionForInlining;
     // Can be null in tests.
@@ -117,6 +134,7 @@ public class PackageFunction implements SkyFunction {
     this.packageFunctionCache = packageFunctionCache;
     this.preprocessCache = preprocessCache;
     this.numPackagesLoaded = numPackagesLoaded;
+    this.persistentPackageCache = persistentPackageCache;
   }
 
   public void setSkylarkImportLookupFunctionForInliningForTesting(
@@ -460,6 +478,28 @@ public class PackageFunction implements SkyFunction {
     List<Statement> preludeStatements = astLookupValue.getAST() == null
         ? ImmutableList.<Statement>of() : astLookupValue.getAST().getStatements();
 
+    // Inlined Skylark imports are not in the graph, so the dependencies of a cached package could
+    // not be checked against it.
+    PersistentPackageCache persistentCache = persistentPackageCache.get();
+    String persistentCacheKey = null;
+    if (persistentCache != null && replacementContents == null
+        && skylarkImportLookupFunctionForInlining == null) {
+      persistentCacheKey = getPersistentCacheKey(persistentCache, packageId, buildFilePath,
+          defaultVisibility, astLookupValue, externalPkg);
+      if (persistentCacheKey != null && packageFunctionCache.getIfPresent(packageId) == null) {
+        Package cachedPkg = loadFromPersistentCache(persistentCache, persistentCacheKey,
+            packageId, packageLookupValue.getRoot(), env);
+        if (env.valuesMissing()) {
+          return null;
+        }
+        if (cachedPkg != null) {
+          Event.replayEventsOn(env.getListener(), cachedPkg.getEvents());
+          persistentCache.recordHit();
+          return new PackageValue(cachedPkg);
+        }
+      }
+    }
+
     // Load the BUILD file AST and handle Skylark dependencies. This way BUILD files are
     // only loaded twice if there are unavailable Skylark or package dependencies or an
     // IOException occurs. Note that the BUILD files are still parsed two times.
@@ -498,6 +538,7 @@ public class PackageFunction implements SkyFunction {
           packageLookupValue.getRoot(), packageId, legacyPkgBuilder, env);
     } catch (InternalInconsistentFilesystemException e) {
       packageFunctionCache.invalidate(packageId);
+      persistentCacheImports.remove(packageId);
       throw new PackageFunctionException(e,
           e.isTransient() ? Transience.TRANSIENT : Transience.PERSISTENT);
     }
@@ -516,6 +557,7 @@ public class PackageFunction implements SkyFunction {
               env, globPatterns, subincludes, packageId, legacyPkgBuilder.containsErrors());
     } catch (InternalInconsistentFilesystemException e) {
       packageFunctionCache.invalidate(packageId);
+      persistentCacheImports.remove(packageId);
       throw new PackageFunctionException(e,
           e.isTransient() ? Transience.TRANSIENT : Transience.PERSISTENT);
     }
@@ -532,9 +574,221 @@ public class PackageFunction implements SkyFunction {
     // We know this SkyFunction will not be called again, so we can remove the cache entry.
     packageFunctionCache.invalidate(packageId);
 
+    ImmutableList<SkyKey> importKeys = persistentCacheImports.remove(packageId);
+    if (persistentCacheKey != null) {
+      persistentCache.recordMiss();
+      if (importKeys != null && subincludes.isEmpty()) {
+        storeInPersistentCache(persistentCache, persistentCacheKey, pkg, importKeys, globPatterns,
+            env);
+      }
+    }
+
     return new PackageValue(pkg);
   }
 
+  /**
+   * Returns the key of {@code packageId} in the persistent package cache, or null if the BUILD
+   * file cannot be digested.
+   */
+  @Nullable
+  private static String getPersistentCacheKey(PersistentPackageCache persistentCache,
+      PackageIdentifier packageId, Path buildFilePath, RuleVisibility defaultVisibility,
+      ASTFileLookupValue preludeLookupValue, Package externalPkg) {
+    byte[] digest;
+    try {
+      digest = buildFilePath.getDigest();
+    } catch (IOException e) {
+      // Let the BUILD file be read as usual, which reports the error.
+      return null;
+    }
+    String preludeHash = preludeLookupValue.getAST() == null
+        ? null : preludeLookupValue.getAST().getContentHashCode();
+    return persistentCache.getKey(packageId, buildFilePath, digest,
+        defaultVisibility.getDeclaredLabels(), preludeHash, externalPkg.getWorkspaceName());
+  }
+
+  /**
+   * Returns the package stored in the persistent package cache under {@code key}, or null if there
+   * is none or if its Skylark imports, globs or subpackages have changed since it was stored. Like
+   * a package loaded from its BUILD file, the package depends on the values used for this check.
+   *
+   * <p>May request values that are not yet computed, in which case the caller must check
+   * {@link Environment#valuesMissing}.
+   */
+  @Nullable
+  private static Package loadFromPersistentCache(PersistentPackageCache persistentCache,
+      String key, PackageIdentifier packageId, Path packageRoot, Environment env)
+      throws InterruptedException {
+    PersistentPackageCache.Entry entry;
+    try {
+      entry = persistentCache.read(packageId, key);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to read " + packageId + " from the package cache", e);
+      return null;
+    }
+    if (entry == null) {
+      return null;
+    }
+
+    Map<SkyKey, String> importHashes = new HashMap<>();
+    Map<SkyKey, ImmutableList<String>> globMatches = new HashMap<>();
+    try {
+      for (Map.Entry<PackageIdentifier, String> imported : entry.getImports().entrySet()) {
+        importHashes.put(SkylarkImportLookupValue.key(imported.getKey()), imported.getValue());
+      }
+      for (Map.Entry<Pair<String, Boolean>, ImmutableList<String>> glob :
+          entry.getGlobs().entrySet()) {
+        globMatches.put(GlobValue.key(packageId, glob.getKey().getFirst(),
+            glob.getKey().getSecond(), PathFragment.EMPTY_FRAGMENT), glob.getValue());
+      }
+    } catch (ASTLookupInputException | InvalidGlobPatternException e) {
+      // Only keys of successfully loaded packages are stored.
+      throw new IllegalStateException(e);
+    }
+    // Request the imports and the globs before checking either, so that they are computed in
+    // parallel.
+    Map<SkyKey, ValueOrException4<SkylarkImportFailedException, InconsistentFilesystemException,
+        ASTLookupInputException, BuildFileNotFoundException>> importValues =
+        env.getValuesOrThrow(importHashes.keySet(), SkylarkImportFailedException.class,
+            InconsistentFilesystemException.class, ASTLookupInputException.class,
+            BuildFileNotFoundException.class);
+    Map<SkyKey, ValueOrException4<IOException, BuildFileNotFoundException,
+        FileSymlinkException, InconsistentFilesystemException>> globValues =
+        env.getValuesOrThrow(globMatches.keySet(), IOException.class,
+            BuildFileNotFoundException.class, FileSymlinkException.class,
+            InconsistentFilesystemException.class);
+    if (env.valuesMissing()) {
+      return null;
+    }
+    // Errors are left to the regular loading of the package to report.
+    try {
+      for (Map.Entry<SkyKey, String> imported : importHashes.entrySet()) {
+        SkylarkImportLookupValue value =
+            (SkylarkImportLookupValue) importValues.get(imported.getKey()).get();
+        if (!imported.getValue().equals(
+            value.getEnvironmentExtension().getTransitiveContentHashCode())) {
+          return null;
+        }
+      }
+    } catch (SkylarkImportFailedException | InconsistentFilesystemException
+        | ASTLookupInputException | BuildFileNotFoundException e) {
+      return null;
+    }
+    try {
+      for (Map.Entry<SkyKey, ImmutableList<String>> glob : globMatches.entrySet()) {
+        GlobValue value = (GlobValue) globValues.get(glob.getKey()).get();
+        if (!glob.getValue().equals(sortedGlobMatches(value))) {
+          return null;
+        }
+      }
+    } catch (IOException | BuildFileNotFoundException | FileSymlinkException
+        | InconsistentFilesystemException e) {
+      return null;
+    }
+
+    Package pkg;
+    try {
+      pkg = persistentCache.deserialize(entry);
+    } catch (PackageDeserializationException | IOException | RuntimeException e) {
+      LOG.log(Level.WARNING, "Failed to deserialize " + packageId + " from the package cache", e);
+      return null;
+    }
+
+    // The package was stored without errors, so none of its targets crossed into a subpackage at
+    // the time. Check that none of them does now.
+    Set<SkyKey> containingPkgLookupKeys = Sets.newHashSet();
+    for (Target target : pkg.getTargets()) {
+      PathFragment dir = target.getLabel().toPathFragment().getParentDirectory();
+      if (!dir.equals(packageId.getPackageFragment())) {
+        containingPkgLookupKeys.add(ContainingPackageLookupValue.key(
+            PackageIdentifier.create(packageId.getRepository(), dir)));
+      }
+    }
+    Map<SkyKey, ValueOrException3<BuildFileNotFoundException, InconsistentFilesystemException,
+        FileSymlinkException>> containingPkgLookupValues = env.getValuesOrThrow(
+            containingPkgLookupKeys, BuildFileNotFoundException.class,
+            InconsistentFilesystemException.class, FileSymlinkException.class);
+    if (env.valuesMissing()) {
+      return null;
+    }
+    try {
+      for (ValueOrException3<BuildFileNotFoundException, InconsistentFilesystemException,
+          FileSymlinkException> valueOrException : containingPkgLookupValues.values()) {
+        ContainingPackageLookupValue value =
+            (ContainingPackageLookupValue) valueOrException.get();
+        if (!value.hasContainingPackage()
+            || !value.getContainingPackageName().equals(packageId)
+            || !value.getContainingPackageRoot().equals(packageRoot)) {
+          return null;
+        }
+      }
+    } catch (BuildFileNotFoundException | InconsistentFilesystemException
+        | FileSymlinkException e) {
+      return null;
+    }
+    return pkg;
+  }
+
+  /**
+   * Stores a package just loaded from its BUILD file in the persistent package cache, if it can be
+   * restored from there.
+   */
+  private static void storeInPersistentCache(PersistentPackageCache persistentCache, String key,
+      Package pkg, ImmutableList<SkyKey> importKeys,
+      Collection<Pair<String, Boolean>> globPatterns, Environment env) {
+    // Packages in error are not cached, so that their errors are reported in full every time.
+    // Environment groups and Skylark rules cannot be deserialized.
+    if (pkg.containsErrors() || !Iterables.isEmpty(pkg.getTargets(EnvironmentGroup.class))) {
+      return;
+    }
+    for (Rule rule : pkg.getTargets(Rule.class)) {
+      if (rule.getRuleClassObject().isSkylarkExecutable()) {
+        return;
+      }
+    }
+
+    // All of these values have been requested while loading the package, so they are available.
+    Map<PackageIdentifier, String> imports = new HashMap<>();
+    for (SkyKey importKey : importKeys) {
+      SkylarkImportLookupValue value = (SkylarkImportLookupValue) env.getValue(importKey);
+      if (value == null || value.getEnvironmentExtension().getTransitiveContentHashCode() == null) {
+        return;
+      }
+      imports.put((PackageIdentifier) importKey.argument(),
+          value.getEnvironmentExtension().getTransitiveContentHashCode());
+    }
+    Map<Pair<String, Boolean>, ImmutableList<String>> globs = new HashMap<>();
+    for (Pair<String, Boolean> globPattern : globPatterns) {
+      GlobValue value;
+      try {
+        value = (GlobValue) env.getValue(GlobValue.key(pkg.getPackageIdentifier(),
+            globPattern.getFirst(), globPattern.getSecond(), PathFragment.EMPTY_FRAGMENT));
+      } catch (InvalidGlobPatternException e) {
+        throw new IllegalStateException(e);
+      }
+      if (value == null) {
+        return;
+      }
+      globs.put(globPattern, sortedGlobMatches(value));
+    }
+
+    try {
+      persistentCache.write(pkg.getPackageIdentifier(), key, new PersistentPackageCache.Entry(
+          imports, globs, PersistentPackageCache.serialize(pkg)));
+    } catch (IOException | RuntimeException e) {
+      LOG.log(Level.WARNING,
+          "Failed to store " + pkg.getPackageIdentifier() + " in the package cache", e);
+    }
+  }
+
+  private static ImmutableList<String> sortedGlobMatches(GlobValue value) {
+    List<String> matches = new ArrayList<>();
+    for (PathFragment match : value.getMatches()) {
+      matches.add(match.getPathString());
+    }
+    return Ordering.natural().immutableSortedCopy(matches);
+  }
+
   // TODO(bazel-team): this should take the AST so we don't parse the file twice.
   @Nullable
   private SkylarkImportResult discoverSkylarkImports(
@@ -557,7 +811,8 @@ public class PackageFunction implements SkyFunction {
       importResult =
           new SkylarkImportResult(
               ImmutableMap.<PathFragment, Extension>of(),
-              ImmutableList.<Label>of());
+              ImmutableList.<Label>of(),
+              ImmutableList.<SkyKey>of());
     } else {
       importResult =
           fetchImportsFromBuildFile(buildFilePath, buildFileFragment, packageId, buildFileAST, env);
@@ -713,7 +968,8 @@ public class PackageFunction implements SkyFunction {
       // There are unavailable Skylark dependencies.
       return null;
     }
-    return new SkylarkImportResult(importMap, transitiveClosureOfLabels(fileDependencies.build()));
+    return new SkylarkImportResult(importMap, transitiveClosureOfLabels(fileDependencies.build()),
+        ImmutableList.copyOf(skylarkImports.keySet()));
   }
 
   private ImmutableList<Label> transitiveClosureOfLabels(
@@ -927,6 +1183,12 @@ public class PackageFunction implements SkyFunction {
             defaultVisibility, globber);
         numPackagesLoaded.incrementAndGet();
         packageFunctionCache.put(packageId, pkgBuilder);
+        // A preprocessed BUILD file may depend on more than the imports and globs that the
+        // persistent package cache checks.
+        persistentCacheImports.remove(packageId);
+        if (persistentPackageCache.get() != null && !preprocessingResult.preprocessed) {
+          persistentCacheImports.put(packageId, importResult.importKeys);
+        }
       } finally {
         profiler.completeTask(ProfilerTask.CREATE_PACKAGE);
       }
@@ -988,11 +1250,14 @@ public class PackageFunction implements SkyFunction {
   private static final class SkylarkImportResult {
     private final Map<PathFragment, Extension> importMap;
     private final ImmutableList<Label> fileDependencies;
+    private final ImmutableList<SkyKey> importKeys;
     private SkylarkImportResult(
         Map<PathFragment, Extension> importMap,
-        ImmutableList<Label> fileDependencies) {
+        ImmutableList<Label> fileDependencies,
+        ImmutableList<SkyKey> importKeys) {
       this.importMap = importMap;
       this.fileDependencies = fileDependencies;
+      this.importKeys = importKeys;
     }
   }
 }
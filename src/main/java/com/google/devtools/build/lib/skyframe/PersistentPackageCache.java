@@ -0,0 +1,251 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.LabelSyntaxException;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.PackageDeserializer;
+import com.google.devtools.build.lib.packages.PackageDeserializer.PackageDeserializationEnvironment;
+import com.google.devtools.build.lib.packages.PackageDeserializer.PackageDeserializationException;
+import com.google.devtools.build.lib.packages.PackageSerializer;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.util.Pair;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk cache of loaded packages that survives server restarts, so that a cold server can
+ * deserialize unchanged packages with {@link PackageDeserializer} instead of evaluating their
+ * BUILD files again.
+ *
+ * <p>An entry is looked up by a key that covers the contents of the BUILD file and the settings
+ * that influence its evaluation (see {@link #getKey}). Each entry also records the transitive
+ * content hashes of the Skylark files loaded by the BUILD file and the results of its globs; the
+ * {@link PackageFunction} only uses the entry if these are unchanged.
+ *
+ * <p>Only the most recent entry of each package is kept, so the cache does not grow beyond one
+ * file per package. Entries are only valid for the server binary that wrote them, which is
+ * part of the key.
+ */
+@ThreadSafe
+final class PersistentPackageCache {
+  private static final int VERSION = 1;
+
+  /** The state of the dependencies of a package, and the package itself in serialized form. */
+  static final class Entry {
+    private final ImmutableMap<PackageIdentifier, String> imports;
+    private final ImmutableMap<Pair<String, Boolean>, ImmutableList<String>> globs;
+    private final byte[] serializedPackage;
+
+    /**
+     * @param imports the transitive content hashes of the Skylark files loaded by the BUILD file,
+     *     keyed by the argument of their {@link SkylarkImportLookupValue} key
+     * @param globs the sorted matches of each glob of the package, keyed by pattern and
+     *     {@code exclude_directories}
+     * @param serializedPackage the package as written by {@link PackageSerializer}
+     */
+    Entry(Map<PackageIdentifier, String> imports,
+        Map<Pair<String, Boolean>, ImmutableList<String>> globs, byte[] serializedPackage) {
+      this.imports = ImmutableMap.copyOf(imports);
+      this.globs = ImmutableMap.copyOf(globs);
+      this.serializedPackage = Preconditions.checkNotNull(serializedPackage);
+    }
+
+    ImmutableMap<PackageIdentifier, String> getImports() {
+      return imports;
+    }
+
+    ImmutableMap<Pair<String, Boolean>, ImmutableList<String>> getGlobs() {
+      return globs;
+    }
+  }
+
+  private final Path directory;
+  private final String identity;
+  private final PackageDeserializer deserializer;
+
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  /**
+   * @param directory the directory holding the cache entries; created on demand
+   * @param identity identifies the server binary, since the serialized rule classes and the
+   *     evaluation of BUILD files may differ between binaries
+   */
+  PersistentPackageCache(Path directory, String identity,
+      PackageDeserializationEnvironment deserializationEnvironment) {
+    this.directory = Preconditions.checkNotNull(directory);
+    this.identity = Preconditions.checkNotNull(identity);
+    this.deserializer = new PackageDeserializer(deserializationEnvironment);
+  }
+
+  /**
+   * Returns the key of the entry for a package whose BUILD file has the given digest and is
+   * evaluated with the given settings.
+   */
+  String getKey(PackageIdentifier packageId, Path buildFile, byte[] buildFileDigest,
+      List<Label> defaultVisibility, @Nullable String preludeHash, String workspaceName) {
+    Fingerprint fp = new Fingerprint();
+    fp.addInt(VERSION);
+    fp.addString(identity);
+    fp.addString(packageId.toString());
+    fp.addPath(buildFile);
+    fp.addBytes(buildFileDigest);
+    fp.addInt(defaultVisibility.size());
+    for (Label label : defaultVisibility) {
+      fp.addString(label.toString());
+    }
+    fp.addString(preludeHash == null ? "" : preludeHash);
+    fp.addString(workspaceName);
+    return fp.hexDigestAndReset();
+  }
+
+  /**
+   * Returns the entry stored for {@code packageId} under {@code key}, or null if there is none.
+   */
+  @Nullable
+  Entry read(PackageIdentifier packageId, String key) throws IOException {
+    Path file = getPackageDirectory(packageId).getChild(key);
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(file.getInputStream()))) {
+      if (in.readInt() != VERSION) {
+        return null;
+      }
+      ImmutableMap.Builder<PackageIdentifier, String> imports = ImmutableMap.builder();
+      for (int i = in.readInt(); i > 0; i--) {
+        String repository = in.readUTF();
+        PathFragment path = new PathFragment(in.readUTF());
+        try {
+          imports.put(PackageIdentifier.create(repository, path), in.readUTF());
+        } catch (LabelSyntaxException e) {
+          throw new IOException("Invalid import in " + file, e);
+        }
+      }
+      ImmutableMap.Builder<Pair<String, Boolean>, ImmutableList<String>> globs =
+          ImmutableMap.builder();
+      for (int i = in.readInt(); i > 0; i--) {
+        Pair<String, Boolean> pattern = Pair.of(in.readUTF(), in.readBoolean());
+        ImmutableList.Builder<String> matches = ImmutableList.builder();
+        for (int j = in.readInt(); j > 0; j--) {
+          matches.add(in.readUTF());
+        }
+        globs.put(pattern, matches.build());
+      }
+      byte[] serializedPackage = new byte[in.readInt()];
+      in.readFully(serializedPackage);
+      return new Entry(imports.build(), globs.build(), serializedPackage);
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Stores {@code entry} for {@code packageId} under {@code key}, replacing any other entry of the
+   * package.
+   */
+  void write(PackageIdentifier packageId, String key, Entry entry) throws IOException {
+    Path packageDirectory = getPackageDirectory(packageId);
+    FileSystemUtils.createDirectoryAndParents(packageDirectory);
+    Path tmpFile = packageDirectory.getChild(key + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(tmpFile.getOutputStream()))) {
+      out.writeInt(VERSION);
+      out.writeInt(entry.imports.size());
+      for (Map.Entry<PackageIdentifier, String> imported : entry.imports.entrySet()) {
+        out.writeUTF(imported.getKey().getRepository().toString());
+        out.writeUTF(imported.getKey().getPackageFragment().getPathString());
+        out.writeUTF(imported.getValue());
+      }
+      out.writeInt(entry.globs.size());
+      for (Map.Entry<Pair<String, Boolean>, ImmutableList<String>> glob :
+          entry.globs.entrySet()) {
+        out.writeUTF(glob.getKey().getFirst());
+        out.writeBoolean(glob.getKey().getSecond());
+        out.writeInt(glob.getValue().size());
+        for (String match : glob.getValue()) {
+          out.writeUTF(match);
+        }
+      }
+      out.writeInt(entry.serializedPackage.length);
+      out.write(entry.serializedPackage);
+    }
+    for (Path stale : packageDirectory.getDirectoryEntries()) {
+      if (!stale.equals(tmpFile)) {
+        stale.delete();
+      }
+    }
+    tmpFile.renameTo(packageDirectory.getChild(key));
+  }
+
+  /** Entries are grouped by package, so that a new entry can replace the old ones. */
+  private Path getPackageDirectory(PackageIdentifier packageId) {
+    String hash = Fingerprint.md5Digest(packageId.toString());
+    return directory.getRelative(hash.substring(0, 2)).getRelative(hash.substring(2));
+  }
+
+  static byte[] serialize(Package pkg) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new PackageSerializer().serialize(pkg, out);
+    return out.toByteArray();
+  }
+
+  Package deserialize(Entry entry)
+      throws PackageDeserializationException, IOException, InterruptedException {
+    return deserializer.deserialize(new ByteArrayInputStream(entry.serializedPackage));
+  }
+
+  /** Records that a package was deserialized from this cache. */
+  void recordHit() {
+    hits.incrementAndGet();
+  }
+
+  /** Records that a package had to be loaded from its BUILD file. */
+  void recordMiss() {
+    misses.incrementAndGet();
+  }
+
+  int getHitCount() {
+    return hits.get();
+  }
+
+  int getMissCount() {
+    return misses.get();
+  }
+
+  void resetStatistics() {
+    hits.set(0);
+    misses.set(0);
+  }
+}
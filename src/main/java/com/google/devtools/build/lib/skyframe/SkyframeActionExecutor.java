@@ -52,6 +52,7 @@ import com.google.devtools.build.lib.actions.PackageRootResolver;
 import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.ResourceSet;
 import com.google.devtools.build.lib.actions.TargetOutOfDateException;
+import com.google.devtools.build.lib.actions.cache.DigestUtils;
 import com.google.devtools.build.lib.actions.cache.MetadataHandler;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.concurrent.ExecutorUtil;
@@ -795,6 +796,7 @@ public final class SkyframeActionExecutor implements ActionExecutionContextFacto
 
       profiler.startTask(ProfilerTask.ACTION_COMPLETE, action);
       try {
+        prefetchOutputDigests(action, metadataHandler);
         if (!checkOutputs(action, metadataHandler)) {
           reportError("not all outputs were created", null, action,
               outputAlreadyDumped ? null : fileOutErr);
@@ -823,6 +825,28 @@ public final class SkyframeActionExecutor implements ActionExecutionContextFacto
     }
   }
 
+  /**
+   * Starts computing the digests of the action's outputs in the background, so that large outputs
+   * are hashed concurrently instead of one after the other when {@link #checkOutputs} requests
+   * their metadata.
+   */
+  private void prefetchOutputDigests(Action action, MetadataHandler metadataHandler) {
+    if (action.getOutputs().size() < 2) {
+      // Nothing to overlap with.
+      return;
+    }
+    try {
+      for (Artifact output : action.getOutputs()) {
+        // The digests of injected outputs are already known.
+        if (!metadataHandler.artifactOmitted(output) && !metadataHandler.isInjected(output)) {
+          DigestUtils.prefetchDigest(output.getPath());
+        }
+      }
+    } catch (IOException e) {
+      // Ignored: the outputs are checked right afterwards.
+    }
+  }
+
   /**
    * For each of the action's outputs that is a regular file (not a symbolic
    * link or directory), make it read-only and executable.
@@ -34,6 +34,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.EventBus;
+import com.google.common.hash.HashCode;
 import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.actions.ActionCacheChecker;
 import com.google.devtools.build.lib.actions.ActionExecutionContextFactory;
@@ -48,6 +49,7 @@ import com.google.devtools.build.lib.actions.Executor;
 import com.google.devtools.build.lib.actions.PackageRootResolutionException;
 import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.actions.cache.ActionDurationHistory;
 import com.google.devtools.build.lib.analysis.Aspect;
 import com.google.devtools.build.lib.analysis.AspectWithParameters;
 import com.google.devtools.build.lib.analysis.BlazeDirectories;
@@ -85,14 +87,17 @@ import com.google.devtools.build.lib.packages.PackageFactory;
 import com.google.devtools.build.lib.packages.Preprocessor;
 import com.google.devtools.build.lib.packages.Preprocessor.Result;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
+import com.google.devtools.build.lib.packages.RuleClassProviderDeserializationEnvironment;
 import com.google.devtools.build.lib.packages.RuleVisibility;
 import com.google.devtools.build.lib.packages.Target;
 import com.google.devtools.build.lib.pkgcache.PackageCacheOptions;
+import com.google.devtools.build.lib.pkgcache.PackageCacheOptions.EvaluationPhase;
 import com.google.devtools.build.lib.pkgcache.PackageManager;
 import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
 import com.google.devtools.build.lib.pkgcache.TransitivePackageLoader;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
 import com.google.devtools.build.lib.skyframe.AspectValue.AspectKey;
+import com.google.devtools.build.lib.skyframe.DirtinessCheckerUtils.BasicFilesystemDirtinessChecker;
 import com.google.devtools.build.lib.skyframe.DirtinessCheckerUtils.FileDirtinessChecker;
 import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ActionCompletedReceiver;
 import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ProgressSupplier;
@@ -113,6 +118,7 @@ import com.google.devtools.build.skyframe.CyclesReporter;
 import com.google.devtools.build.skyframe.Differencer;
 import com.google.devtools.build.skyframe.Differencer.DiffWithDelta.Delta;
 import com.google.devtools.build.skyframe.ErrorInfo;
+import com.google.devtools.build.skyframe.EvaluationPrioritizer;
 import com.google.devtools.build.skyframe.EvaluationProgressReceiver;
 import com.google.devtools.build.skyframe.EvaluationResult;
 import com.google.devtools.build.skyframe.ImmutableDiff;
@@ -125,7 +131,11 @@ import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -185,6 +195,10 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
       newPreprocessCache();
 
   private final AtomicInteger numPackagesLoaded = new AtomicInteger(0);
+  // The cache of loaded packages kept across server restarts; null unless the options of the
+  // current command enable it.
+  private final AtomicReference<PersistentPackageCache> persistentPackageCache =
+      new AtomicReference<>();
 
   protected SkyframeBuildView skyframeBuildView;
   private ActionLogBufferPathGenerator actionLogBufferPathGenerator;
@@ -200,6 +214,10 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   protected final AtomicReference<ImmutableSet<PackageIdentifier>> deletedPackages =
       new AtomicReference<>(ImmutableSet.<PackageIdentifier>of());
   private final AtomicReference<EventBus> eventBus = new AtomicReference<>();
+  // The phases whose evaluations use a work-stealing pool, set from the options of each command.
+  private volatile ImmutableSet<EvaluationPhase> workStealingPhases = ImmutableSet.of();
+  // Orders the execution of actions; null to execute them in the order in which they are ready.
+  @Nullable private EvaluationPrioritizer executionPrioritizer;
 
   private final ImmutableList<BuildInfoFactory> buildInfoFactories;
   // Under normal circumstances, the artifact factory persists for the life of a Blaze server, but
@@ -277,7 +295,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     this.workspaceStatusActionFactory = workspaceStatusActionFactory;
     this.packageManager = new SkyframePackageManager(
         new SkyframePackageLoader(), new SkyframeTransitivePackageLoader(),
-        syscalls, cyclesReporter, pkgLocator, numPackagesLoaded, this);
+        syscalls, cyclesReporter, pkgLocator, numPackagesLoaded, persistentPackageCache, this);
     this.resourceManager = ResourceManager.instance();
     this.skyframeActionExecutor = new SkyframeActionExecutor(
         resourceManager, eventBus, statusReporterRef);
@@ -342,6 +360,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
             packageFunctionCache,
             preprocessCache,
             numPackagesLoaded,
+            persistentPackageCache,
             ruleClassProvider));
     map.put(SkyFunctions.PACKAGE_ERROR, new PackageErrorFunction());
     map.put(SkyFunctions.TARGET_MARKER, new TargetMarkerFunction());
@@ -391,6 +410,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
       Cache<PackageIdentifier, LegacyBuilder> packageFunctionCache,
       Cache<PackageIdentifier, Result> preprocessCache,
       AtomicInteger numPackagesLoaded,
+      AtomicReference<PersistentPackageCache> persistentPackageCache,
       RuleClassProvider ruleClassProvider) {
     return new PackageFunction(
         pkgFactory,
@@ -399,6 +419,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         packageFunctionCache,
         preprocessCache,
         numPackagesLoaded,
+        persistentPackageCache,
         null);
   }
 
@@ -424,10 +445,84 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     this.skyframeActionExecutor.setFileCache(fileCache);
   }
 
+  /**
+   * Sets the history used to start the actions that were on the critical path of previous builds
+   * first. If {@code history} is null, actions are started in the order in which they are ready.
+   */
+  public void setActionDurationHistory(@Nullable ActionDurationHistory history) {
+    this.executionPrioritizer = history != null ? new CriticalPathPrioritizer(history) : null;
+  }
+
   public void dump(boolean summarize, PrintStream out) {
     memoizingEvaluator.dump(summarize, out);
   }
 
+  /**
+   * The value types saved by {@link #saveGraphSnapshot}. These are the values of the loading phase
+   * that are cheap to check against the file system but expensive to recompute.
+   */
+  private static final ImmutableSet<SkyFunctionName> GRAPH_SNAPSHOT_VALUES =
+      ImmutableSet.of(
+          SkyFunctions.PRECOMPUTED,
+          SkyFunctions.FILE_STATE,
+          SkyFunctions.DIRECTORY_LISTING_STATE,
+          SkyFunctions.FILE,
+          SkyFunctions.DIRECTORY_LISTING,
+          SkyFunctions.PACKAGE_LOOKUP,
+          SkyFunctions.CONTAINING_PACKAGE_LOOKUP,
+          SkyFunctions.AST_FILE_LOOKUP,
+          SkyFunctions.SKYLARK_IMPORTS_LOOKUP,
+          SkyFunctions.GLOB,
+          SkyFunctions.PACKAGE);
+
+  /**
+   * Saves the loading phase values of the graph to {@code snapshotFile}, so that a later server
+   * with the same {@code identity} can restore them with {@link #loadGraphSnapshot}. Returns the
+   * number of saved values.
+   */
+  public int saveGraphSnapshot(Path snapshotFile, String identity) throws IOException {
+    Path tmpFile = snapshotFile.getParentDirectory().getChild(snapshotFile.getBaseName() + ".tmp");
+    int numSaved;
+    try (OutputStream out = new BufferedOutputStream(tmpFile.getOutputStream())) {
+      numSaved = memoizingEvaluator.saveSnapshot(
+          SkyFunctionName.functionIsIn(GRAPH_SNAPSHOT_VALUES), identity, out);
+    }
+    tmpFile.renameTo(snapshotFile);
+    return numSaved;
+  }
+
+  /**
+   * Restores the values saved by {@link #saveGraphSnapshot} into the still empty graph, and
+   * invalidates those that do not match the file system anymore. Does nothing if there is no
+   * snapshot, or if it was saved with a different {@code identity}. Returns the number of restored
+   * values.
+   */
+  public int loadGraphSnapshot(Path snapshotFile, String identity)
+      throws IOException, InterruptedException {
+    if (!snapshotFile.exists()) {
+      return 0;
+    }
+    int numLoaded;
+    try (InputStream in = new BufferedInputStream(snapshotFile.getInputStream())) {
+      numLoaded = memoizingEvaluator.loadSnapshot(identity, in);
+    } catch (IOException e) {
+      // The graph may have been partially restored; start over from an empty one.
+      resetEvaluator();
+      throw e;
+    }
+    if (numLoaded > 0) {
+      // Unlike in an incremental build, any file may have changed since the snapshot was taken.
+      Differencer.Diff diff = new FilesystemValueChecker(memoizingEvaluator, tsgm, null)
+          .getDirtyKeys(new BasicFilesystemDirtinessChecker());
+      invalidate(Predicates.in(diff.changedKeysWithoutNewValues()));
+      injectable().inject(diff.changedKeysWithNewValues());
+      LOG.info(String.format("Restored %d values from %s, %d of which have changed", numLoaded,
+          snapshotFile, diff.changedKeysWithoutNewValues().size()
+              + diff.changedKeysWithNewValues().size()));
+    }
+    return numLoaded;
+  }
+
   public abstract void dumpPackages(PrintStream out);
 
   public void setBatchStatter(@Nullable BatchStat batchStatter) {
@@ -1052,12 +1147,15 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
       Iterable<SkyKey> targetKeys = TargetCompletionValue.keys(targetsToBuild);
       Iterable<SkyKey> aspectKeys = AspectCompletionValue.keys(aspects);
       Iterable<SkyKey> testKeys = TestCompletionValue.keys(targetsToTest, exclusiveTesting);
+      memoizingEvaluator.setPrioritizer(executionPrioritizer);
       return buildDriver.evaluate(
           Iterables.concat(artifactKeys, targetKeys, aspectKeys, testKeys),
           keepGoing,
           numJobs,
+          workStealingPhases.contains(EvaluationPhase.EXECUTION),
           reporter);
     } finally {
+      memoizingEvaluator.setPrioritizer(null);
       progressReceiver.executionProgressReceiver = null;
       // Also releases thread locks.
       resourceManager.resetResourceUsage();
@@ -1075,7 +1173,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   EvaluationResult<TargetPatternValue> targetPatterns(Iterable<SkyKey> patternSkyKeys,
       int numThreads, boolean keepGoing, EventHandler eventHandler) throws InterruptedException {
     checkActive();
-    return buildDriver.evaluate(patternSkyKeys, keepGoing, numThreads, eventHandler);
+    return buildDriver.evaluate(patternSkyKeys, keepGoing, numThreads,
+        workStealingPhases.contains(EvaluationPhase.LOADING), eventHandler);
   }
 
   /**
@@ -1334,7 +1433,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     }
     // Make sure to not run too many analysis threads. This can cause memory thrashing.
     return buildDriver.evaluate(keys, keepGoing, ResourceUsage.getAvailableProcessors(),
-        eventHandler);
+        workStealingPhases.contains(EvaluationPhase.ANALYSIS), eventHandler);
   }
 
   /**
@@ -1350,7 +1449,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     // Make sure to not run too many analysis threads. This can cause memory thrashing.
     EvaluationResult<PostConfiguredTargetValue> result =
         buildDriver.evaluate(PostConfiguredTargetValue.keys(values), keepGoing,
-            ResourceUsage.getAvailableProcessors(), eventHandler);
+            ResourceUsage.getAvailableProcessors(),
+            workStealingPhases.contains(EvaluationPhase.ANALYSIS), eventHandler);
 
     // Remove all post-configured target values immediately for memory efficiency. We are OK with
     // this mini-phase being non-incremental as the failure mode of action conflict is rare.
@@ -1384,7 +1484,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
       }
 
       return buildDriver.evaluate(valueNames, keepGoing, DEFAULT_THREAD_COUNT,
-          eventHandler);
+          workStealingPhases.contains(EvaluationPhase.LOADING), eventHandler);
     }
 
     public Set<Package> retrievePackages(
@@ -1435,7 +1535,8 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
       int numThreads, EventHandler eventHandler) throws InterruptedException {
     SkyKey skyKey = getPrepareDepsKey(patterns, offset);
     EvaluationResult<SkyValue> evaluationResult =
-        buildDriver.evaluate(ImmutableList.of(skyKey), true, numThreads, eventHandler);
+        buildDriver.evaluate(ImmutableList.of(skyKey), true, numThreads,
+            workStealingPhases.contains(EvaluationPhase.LOADING), eventHandler);
     Preconditions.checkNotNull(evaluationResult.getWalkableGraph(), patterns);
     return evaluationResult;
   }
@@ -1589,11 +1690,39 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
         packageCacheOptions.defaultVisibility, packageCacheOptions.showLoadingProgress,
         packageCacheOptions.globbingThreads, defaultsPackageContents, commandId);
     setDeletedPackages(ImmutableSet.copyOf(packageCacheOptions.deletedPackages));
+    workStealingPhases = Sets.immutableEnumSet(packageCacheOptions.workStealingPhases);
+    setPersistentPackageCache(packageCacheOptions.persistentPackageCache);
 
     incrementalBuildMonitor = new SkyframeIncrementalBuildMonitor();
     invalidateTransientErrors();
   }
 
+  /**
+   * Enables or disables the cache of loaded packages in the output base, which lets a new server
+   * deserialize unchanged packages instead of loading them again. The cache stays disabled if
+   * there is no install MD5 to tell entries written by different binaries apart.
+   */
+  private void setPersistentPackageCache(boolean enabled) {
+    PersistentPackageCache cache = persistentPackageCache.get();
+    HashCode installMD5 = directories.getInstallMD5();
+    if (enabled && installMD5 == null) {
+      LOG.warning("Not using the persistent package cache: the install MD5 is unknown");
+      enabled = false;
+    }
+    if (!enabled) {
+      persistentPackageCache.set(null);
+    } else if (cache == null) {
+      // Entries written by a different binary may have different rule classes.
+      persistentPackageCache.set(new PersistentPackageCache(
+          directories.getOutputBase().getChild("package_cache"),
+          installMD5.toString(),
+          new RuleClassProviderDeserializationEnvironment(
+              directories.getFileSystem(), pkgFactory.getRuleClassProvider())));
+    } else {
+      cache.resetStatistics();
+    }
+  }
+
   protected PathPackageLocator createPackageLocator(EventHandler eventHandler,
       PackageCacheOptions packageCacheOptions, Path outputBase, Path workspace,
       Path workingDirectory) throws AbruptExitException {
@@ -48,6 +48,7 @@ class SkyframePackageManager implements PackageManager {
   private final AtomicReference<CyclesReporter> skyframeCyclesReporter;
   private final AtomicReference<PathPackageLocator> pkgLocator;
   private final AtomicInteger numPackagesLoaded;
+  private final AtomicReference<PersistentPackageCache> persistentPackageCache;
   private final SkyframeExecutor skyframeExecutor;
 
   public SkyframePackageManager(SkyframePackageLoader packageLoader,
@@ -56,6 +57,7 @@ class SkyframePackageManager implements PackageManager {
       AtomicReference<CyclesReporter> skyframeCyclesReporter,
       AtomicReference<PathPackageLocator> pkgLocator,
       AtomicInteger numPackagesLoaded,
+      AtomicReference<PersistentPackageCache> persistentPackageCache,
       SkyframeExecutor skyframeExecutor) {
     this.packageLoader = packageLoader;
     this.transitiveLoader = transitiveLoader;
@@ -63,6 +65,7 @@ class SkyframePackageManager implements PackageManager {
     this.pkgLocator = pkgLocator;
     this.syscalls = syscalls;
     this.numPackagesLoaded = numPackagesLoaded;
+    this.persistentPackageCache = persistentPackageCache;
     this.skyframeExecutor = skyframeExecutor;
   }
 
@@ -92,6 +95,18 @@ class SkyframePackageManager implements PackageManager {
         return numPackagesLoaded.get();
       }
 
+      @Override
+      public int getPersistentCacheHits() {
+        PersistentPackageCache cache = persistentPackageCache.get();
+        return cache == null ? 0 : cache.getHitCount();
+      }
+
+      @Override
+      public int getPersistentCacheMisses() {
+        PersistentPackageCache cache = persistentPackageCache.get();
+        return cache == null ? 0 : cache.getMissCount();
+      }
+
       @Override
       public int getPackagesLookedUp() {
         return -1;
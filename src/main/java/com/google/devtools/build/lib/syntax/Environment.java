@@ -181,6 +181,12 @@ public final class Environment implements Freezable {
     /** The global Frame of the caller. */
     Frame globalFrame;
 
+    /** The slots of the local variables of the caller. */
+    @Nullable ImmutableMap<String, Integer> localSlots;
+
+    /** The values of the local variables of the caller. */
+    @Nullable Object[] localValues;
+
     /** The set of known global variables of the caller. */
     @Nullable Set<String> knownGlobalVariables;
 
@@ -193,6 +199,8 @@ public final class Environment implements Freezable {
         FuncallExpression caller,
         Frame lexicalFrame,
         Frame globalFrame,
+        ImmutableMap<String, Integer> localSlots,
+        Object[] localValues,
         Set<String> knownGlobalVariables,
         boolean isSkylark) {
       this.continuation = continuation;
@@ -200,6 +208,8 @@ public final class Environment implements Freezable {
       this.caller = caller;
       this.lexicalFrame = lexicalFrame;
       this.globalFrame = globalFrame;
+      this.localSlots = localSlots;
+      this.localValues = localValues;
       this.isSkylark = isSkylark;
     }
   }
@@ -325,6 +335,18 @@ public final class Environment implements Freezable {
    */
   @Nullable private Continuation continuation;
 
+  /**
+   * The slots of the local variables of the current function, if they were resolved when the
+   * function was validated, or null.
+   *
+   * <p>The value of a local variable that has a slot is kept in {@link #localValues}, never in the
+   * lexical Frame, whether it is accessed by name or by slot.
+   */
+  @Nullable private ImmutableMap<String, Integer> localSlots;
+
+  /** The values of the local variables that have a slot, or null while they are unbound. */
+  @Nullable private Object[] localValues;
+
   /**
    * Enters a scope by saving state to a new Continuation
    * @param function the function whose scope to enter
@@ -332,10 +354,24 @@ public final class Environment implements Freezable {
    * @param globals the global Frame that this function closes over from its definition Environment
    */
   void enterScope(BaseFunction function, FuncallExpression caller, Frame globals) {
-    continuation = new Continuation(
-        continuation, function, caller, lexicalFrame, globalFrame, knownGlobalVariables, isSkylark);
+    enterScope(function, caller, globals, null);
+  }
+
+  /**
+   * Enters a scope by saving state to a new Continuation
+   * @param function the function whose scope to enter
+   * @param caller the source AST node for the caller
+   * @param globals the global Frame that this function closes over from its definition Environment
+   * @param localSlots the slots of the local variables of the function, or null if unresolved
+   */
+  void enterScope(BaseFunction function, FuncallExpression caller, Frame globals,
+      @Nullable ImmutableMap<String, Integer> localSlots) {
+    continuation = new Continuation(continuation, function, caller, lexicalFrame, globalFrame,
+        this.localSlots, localValues, knownGlobalVariables, isSkylark);
     lexicalFrame = new Frame(mutability(), null);
     globalFrame = globals;
+    this.localSlots = localSlots;
+    localValues = localSlots == null ? null : new Object[localSlots.size()];
     knownGlobalVariables = new HashSet<String>();
     isSkylark = true;
   }
@@ -347,6 +383,8 @@ public final class Environment implements Freezable {
     Preconditions.checkNotNull(continuation);
     lexicalFrame = continuation.lexicalFrame;
     globalFrame = continuation.globalFrame;
+    localSlots = continuation.localSlots;
+    localValues = continuation.localValues;
     knownGlobalVariables = continuation.knownGlobalVariables;
     isSkylark = continuation.isSkylark;
     continuation = continuation.continuation;
@@ -591,7 +629,7 @@ public final class Environment implements Freezable {
           String.format("Trying to bind dynamic variable '%s' but it is already bound",
               varname));
     }
-    if (lexicalFrame != null && lexicalFrame.get(varname) != null) {
+    if (lexicalFrame != null && getLexical(varname) != null) {
       throw new AssertionError(
           String.format("Trying to bind dynamic variable '%s' but it is already bound lexically",
               varname));
@@ -626,14 +664,13 @@ public final class Environment implements Freezable {
    */
   public Environment update(String varname, Object value) throws EvalException {
     Preconditions.checkNotNull(value, "update(value == null)");
-    // prevents clashes between static and dynamic variables.
-    if (dynamicFrame.get(varname) != null) {
-      throw new EvalException(
-          null, String.format("Trying to update special read-only global variable '%s'", varname));
-    }
-    if (isKnownGlobalVariable(varname)) {
-      throw new EvalException(
-          null, String.format("Trying to update read-only global variable '%s'", varname));
+    checkUpdatable(varname);
+    if (localSlots != null) {
+      Integer slot = localSlots.get(varname);
+      if (slot != null) {
+        localValues[slot] = value;
+        return this;
+      }
     }
     try {
       currentFrame().put(this, varname, Preconditions.checkNotNull(value));
@@ -650,6 +687,32 @@ public final class Environment implements Freezable {
     return this;
   }
 
+  /**
+   * Like {@link #update(String, Object)}, for an identifier that was resolved to the given slot of
+   * the local variables of the current function.
+   */
+  void updateLocal(int slot, String varname, Object value) throws EvalException {
+    if (localValues == null) {
+      update(varname, value);
+      return;
+    }
+    Preconditions.checkNotNull(value, "update(value == null)");
+    checkUpdatable(varname);
+    localValues[slot] = value;
+  }
+
+  private void checkUpdatable(String varname) throws EvalException {
+    // prevents clashes between static and dynamic variables.
+    if (dynamicFrame.get(varname) != null) {
+      throw new EvalException(
+          null, String.format("Trying to update special read-only global variable '%s'", varname));
+    }
+    if (isKnownGlobalVariable(varname)) {
+      throw new EvalException(
+          null, String.format("Trying to update read-only global variable '%s'", varname));
+    }
+  }
+
   private boolean hasVariable(String varname) {
     try {
       lookup(varname);
@@ -695,23 +758,63 @@ public final class Environment implements Freezable {
   public Object lookup(String varname) throws NoSuchVariableException {
     // Which Frame to lookup first doesn't matter because update prevents clashes.
     if (lexicalFrame != null) {
-      Object lexicalValue = lexicalFrame.get(varname);
+      Object lexicalValue = getLexical(varname);
       if (lexicalValue != null) {
         return lexicalValue;
       }
     }
-    Object globalValue = globalFrame.get(varname);
-    Object dynamicValue = dynamicFrame.get(varname);
-    if (globalValue == null && dynamicValue == null) {
-      throw new NoSuchVariableException(varname);
+    return lookupGlobalOrDynamic(varname);
+  }
+
+  /**
+   * Like {@link #lookup(String)}, for an identifier that was resolved to the given slot of the
+   * local variables of the current function.
+   */
+  Object lookupLocal(int slot, String varname) throws NoSuchVariableException {
+    if (localValues != null) {
+      Object value = localValues[slot];
+      if (value != null) {
+        return value;
+      }
+    }
+    // The variable is not bound yet, so it may still refer to a global variable.
+    return lookup(varname);
+  }
+
+  /**
+   * Like {@link #lookup(String)}, for an identifier in a function body that was resolved not to
+   * refer to a local variable of the function.
+   */
+  Object lookupGlobal(String varname) throws NoSuchVariableException {
+    if (lexicalFrame != null && !lexicalFrame.bindings.isEmpty()) {
+      return lookup(varname);
+    }
+    return lookupGlobalOrDynamic(varname);
+  }
+
+  private Object lookupGlobalOrDynamic(String varname) throws NoSuchVariableException {
+    Object value = globalFrame.get(varname);
+    if (value == null) {
+      value = dynamicFrame.get(varname);
+      if (value == null) {
+        throw new NoSuchVariableException(varname);
+      }
     }
     if (knownGlobalVariables != null) {
       knownGlobalVariables.add(varname);
     }
-    if (globalValue != null) {
-      return globalValue;
+    return value;
+  }
+
+  /** Returns the value of a variable of the current function, or null if it is unbound. */
+  private Object getLexical(String varname) {
+    if (localSlots != null) {
+      Integer slot = localSlots.get(varname);
+      if (slot != null) {
+        return localValues[slot];
+      }
     }
-    return dynamicValue;
+    return lexicalFrame.get(varname);
   }
 
   /**
@@ -749,6 +852,13 @@ public final class Environment implements Freezable {
     if (lexicalFrame != null) {
       lexicalFrame.addVariableNamesTo(vars);
     }
+    if (localSlots != null) {
+      for (Map.Entry<String, Integer> local : localSlots.entrySet()) {
+        if (localValues[local.getValue()] != null) {
+          vars.add(local.getKey());
+        }
+      }
+    }
     globalFrame.addVariableNamesTo(vars);
     dynamicFrame.addVariableNamesTo(vars);
     return vars;
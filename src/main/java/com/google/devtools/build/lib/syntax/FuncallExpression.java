@@ -644,6 +644,8 @@ public final class FuncallExpression extends Expression {
     } else if (!env.hasSymbolInEnvironment(func.getName())) {
       throw new EvalException(getLocation(),
           String.format("function '%s' does not exist", func.getName()));
+    } else {
+      env.addReference(func);
     }
   }
 
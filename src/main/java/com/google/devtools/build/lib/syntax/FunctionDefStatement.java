@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.syntax;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -28,6 +29,9 @@ public class FunctionDefStatement extends Statement {
   private final ImmutableList<Statement> statements;
   private final ImmutableList<Parameter<Expression, Expression>> parameters;
 
+  // The slots of the local variables of the function, or null until the function is validated.
+  private ImmutableMap<String, Integer> localSlots;
+
   public FunctionDefStatement(Identifier ident,
       Iterable<Parameter<Expression, Expression>> parameters,
       FunctionSignature.WithValues<Expression, Expression> signature,
@@ -57,7 +61,8 @@ public class FunctionDefStatement extends Statement {
             FunctionSignature.WithValues.<Object, SkylarkType>create(
                 signature.getSignature(), defaultValues, types),
             statements,
-            env.getGlobals()));
+            env.getGlobals(),
+            localSlots));
   }
 
   @Override
@@ -116,5 +121,6 @@ public class FunctionDefStatement extends Statement {
     for (Statement stmts : statements) {
       stmts.validate(localEnv);
     }
+    localSlots = localEnv.resolveLocals();
   }
 }
@@ -20,16 +20,25 @@ import javax.annotation.Nullable;
 // (1) intern the strings, so we can use == to compare, and have .equals use the assumption.
 // Then have Argument and Parameter use Identifier again instead of String as keys.
 // (2) Use Identifier, not String, as keys in the Environment, which will be cleaner.
-// (3) For performance, avoid doing HashMap lookups at runtime, and compile local variable access
-// into array reference with a constant index. Variable lookups are currently a speed bottleneck,
-// as previously measured in an experiment.
 /**
  *  Syntax node for an identifier.
  */
 public final class Identifier extends Expression {
 
+  /** The scope of the identifier is not known, because it has not been validated. */
+  static final int UNRESOLVED = -1;
+
+  /** The identifier is used in a function body but does not refer to a local variable. */
+  static final int GLOBAL = -2;
+
   private final String name;
 
+  /**
+   * The slot of the local variable this identifier refers to in the function that contains it,
+   * or {@link #UNRESOLVED} or {@link #GLOBAL}. Set by {@link ValidationEnvironment#resolveLocals}.
+   */
+  private int slot = UNRESOLVED;
+
   public Identifier(String name) {
     this.name = name;
   }
@@ -41,6 +50,14 @@ public final class Identifier extends Expression {
     return name;
   }
   
+  int getSlot() {
+    return slot;
+  }
+
+  void setSlot(int slot) {
+    this.slot = slot;
+  }
+
   public boolean isPrivate() {
     return name.startsWith("_");
   }
@@ -67,7 +84,10 @@ public final class Identifier extends Expression {
   @Override
   Object doEval(Environment env) throws EvalException {
     try {
-      return env.lookup(name);
+      if (slot >= 0) {
+        return env.lookupLocal(slot, name);
+      }
+      return slot == GLOBAL ? env.lookupGlobal(name) : env.lookup(name);
     } catch (Environment.NoSuchVariableException e) {
       throw createInvalidIdentifierException();
     }
@@ -83,6 +103,7 @@ public final class Identifier extends Expression {
     if (!env.hasSymbolInEnvironment(name)) {
       throw createInvalidIdentifierException();
     }
+    env.addReference(this);
   }
 
   private EvalException createInvalidIdentifierException() {
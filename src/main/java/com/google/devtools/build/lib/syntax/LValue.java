@@ -93,7 +93,12 @@ public class LValue implements Serializable {
                 ident.getName()));
       }
     }
-    env.update(ident.getName(), result);
+    int slot = ident.getSlot();
+    if (slot >= 0) {
+      env.updateLocal(slot, ident.getName(), result);
+    } else {
+      env.update(ident.getName(), result);
+    }
   }
 
   void validate(ValidationEnvironment env, Location loc) throws EvalException {
@@ -105,6 +110,7 @@ public class LValue implements Serializable {
     if (expr instanceof Identifier) {
       Identifier ident = (Identifier) expr;
       env.declare(ident.getName(), loc);
+      env.addReference(ident);
       return;
     }
     if (expr instanceof ListLiteral) {
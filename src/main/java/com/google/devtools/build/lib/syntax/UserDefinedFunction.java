@@ -14,12 +14,15 @@
 package com.google.devtools.build.lib.syntax;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.events.Location.LineAndColumn;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
+import javax.annotation.Nullable;
+
 /**
  * The actual function registered in the environment. This function is defined in the
  * parsed code using {@link FunctionDefStatement}.
@@ -31,12 +34,23 @@ public class UserDefinedFunction extends BaseFunction {
   // we close over the globals at the time of definition
   private final Environment.Frame definitionGlobals;
 
+  // The slots of the local variables, parameters first, or null if the function was not validated.
+  @Nullable private final ImmutableMap<String, Integer> localSlots;
+
   protected UserDefinedFunction(Identifier function,
       FunctionSignature.WithValues<Object, SkylarkType> signature,
       ImmutableList<Statement> statements, Environment.Frame definitionGlobals) {
+    this(function, signature, statements, definitionGlobals, null);
+  }
+
+  protected UserDefinedFunction(Identifier function,
+      FunctionSignature.WithValues<Object, SkylarkType> signature,
+      ImmutableList<Statement> statements, Environment.Frame definitionGlobals,
+      @Nullable ImmutableMap<String, Integer> localSlots) {
     super(function.getName(), signature, function.getLocation());
     this.statements = statements;
     this.definitionGlobals = definitionGlobals;
+    this.localSlots = localSlots;
   }
 
   public FunctionSignature.WithValues<Object, SkylarkType> getFunctionSignature() {
@@ -62,13 +76,15 @@ public class UserDefinedFunction extends BaseFunction {
     Profiler.instance().startTask(ProfilerTask.SKYLARK_USER_FN,
         getLocationPathAndLine() + "#" + getName());
     try {
-      env.enterScope(this, ast, definitionGlobals);
+      env.enterScope(this, ast, definitionGlobals, localSlots);
       ImmutableList<String> names = signature.getSignature().getNames();
 
-      // Registering the functions's arguments as variables in the local Environment
+      // Registering the functions's arguments as variables in the local Environment. Parameters
+      // were declared first when the function was validated, so they take the first slots.
       int i = 0;
       for (String name : names) {
-        env.update(name, arguments[i++]);
+        env.updateLocal(i, name, arguments[i]);
+        i++;
       }
 
       try {
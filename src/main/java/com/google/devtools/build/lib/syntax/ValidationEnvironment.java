@@ -15,10 +15,13 @@
 package com.google.devtools.build.lib.syntax;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.events.Location;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -44,6 +47,11 @@ public final class ValidationEnvironment {
   // branches of if-else statements.
   private Stack<Set<String>> futureReadOnlyVariables = new Stack<>();
 
+  // For the environment of a function body: the slots of the local variables of the function, in
+  // order of declaration, and the identifiers in the body that refer to variables.
+  private final Map<String, Integer> localSlots = new LinkedHashMap<>();
+  private final List<Identifier> references = new ArrayList<>();
+
   /**
    * Tracks the number of nested for loops that contain the statement that is currently being
    * validated
@@ -91,6 +99,37 @@ public final class ValidationEnvironment {
     }
     variables.add(varname);
     variableLocations.put(varname, location);
+    if (parent != null && !localSlots.containsKey(varname)) {
+      localSlots.put(varname, localSlots.size());
+    }
+  }
+
+  /**
+   * Records that {@code identifier} refers to a variable, so that {@link #resolveLocals} can tell
+   * it where to find the variable.
+   */
+  void addReference(Identifier identifier) {
+    if (parent != null) {
+      references.add(identifier);
+    }
+  }
+
+  /**
+   * Resolves the identifiers of the function body validated in this environment: each identifier
+   * that refers to a local variable of the function is assigned the slot of the variable, so that
+   * it is accessed by array indexing instead of by name. Must be called after the whole body was
+   * validated, since a variable is local to the function if it is assigned anywhere in it.
+   *
+   * @return the slots of all local variables, the parameters first in the order they were
+   *     declared
+   */
+  ImmutableMap<String, Integer> resolveLocals() {
+    Preconditions.checkState(parent != null);
+    for (Identifier identifier : references) {
+      Integer slot = localSlots.get(identifier.getName());
+      identifier.setSlot(slot == null ? Identifier.GLOBAL : slot);
+    }
+    return ImmutableMap.copyOf(localSlots);
   }
 
   private void checkReadonly(String varname, Location location) throws EvalException {
@@ -203,6 +203,48 @@ public final class FilesystemUtils {
    */
   public static native ErrnoFileStatus errnoLstat(String path);
 
+  /**
+   * The number of longs per path in the result of {@link #batchStat(String[], boolean)}. Must match
+   * kBatchStatFields in unix_jni.cc.
+   */
+  private static final int BATCH_STAT_FIELDS = 11;
+
+  /**
+   * Stats (or lstats) all of {@code paths} with a single JNI call. This is much cheaper than one
+   * {@link #errnoStat} or {@link #errnoLstat} call per path when checking many files, as the
+   * per-call overhead of crossing the JNI boundary and of allocating a result object is paid only
+   * once.
+   *
+   * @param paths the files to stat.
+   * @param followSymlinks whether to follow symbolic links, i.e. stat(2) rather than lstat(2).
+   * @return an array with one entry per path, in the same order. An entry is null if the file
+   *     could not be stat'ed for any reason.
+   */
+  public static FileStatus[] batchStat(String[] paths, boolean followSymlinks) {
+    long[] fields = batchStatNative(paths, followSymlinks);
+    FileStatus[] result = new FileStatus[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      int offset = i * BATCH_STAT_FIELDS;
+      if (fields[offset] != 0) {
+        // The stat failed with this errno; the other fields are undefined.
+        continue;
+      }
+      result[i] = new FileStatus((int) fields[offset + 1],
+          (int) fields[offset + 2], (int) fields[offset + 3],
+          (int) fields[offset + 4], (int) fields[offset + 5],
+          (int) fields[offset + 6], (int) fields[offset + 7],
+          fields[offset + 8], (int) fields[offset + 9], fields[offset + 10]);
+    }
+    return result;
+  }
+
+  /**
+   * Native part of {@link #batchStat(String[], boolean)}. Returns {@link #BATCH_STAT_FIELDS} longs
+   * per path: errno (0 on success), st_mode, st_atime, st_atimensec, st_mtime, st_mtimensec,
+   * st_ctime, st_ctimensec, st_size, st_dev and st_ino.
+   */
+  private static native long[] batchStatNative(String[] paths, boolean followSymlinks);
+
   /**
    * Native wrapper around POSIX utime(2) syscall.
    *
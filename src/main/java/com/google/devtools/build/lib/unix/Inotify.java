@@ -0,0 +1,164 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.unix;
+
+import com.google.devtools.build.lib.UnixJniLoader;
+
+import java.io.IOException;
+
+/**
+ * Native wrappers around the Linux inotify(7) API, for watching directory trees for changes.
+ * On other platforms, {@link #init} throws an {@link IOException}.
+ *
+ * <p>The event masks are the values from {@code <sys/inotify.h>}, which are part of the Linux
+ * kernel ABI.
+ */
+public final class Inotify {
+
+  private Inotify() {}
+
+  static {
+    UnixJniLoader.loadJni();
+  }
+
+  public static final int IN_MODIFY = 0x00000002;
+  public static final int IN_ATTRIB = 0x00000004;
+  public static final int IN_MOVED_FROM = 0x00000040;
+  public static final int IN_MOVED_TO = 0x00000080;
+  public static final int IN_CREATE = 0x00000100;
+  public static final int IN_DELETE = 0x00000200;
+  public static final int IN_DELETE_SELF = 0x00000400;
+  public static final int IN_MOVE_SELF = 0x00000800;
+  /** The kernel queue overflowed and events were lost; the watch descriptor is -1. */
+  public static final int IN_Q_OVERFLOW = 0x00004000;
+  /** The watch was removed, either explicitly or because its directory is gone. */
+  public static final int IN_IGNORED = 0x00008000;
+  /** The subject of the event is a directory. */
+  public static final int IN_ISDIR = 0x40000000;
+
+  /**
+   * The result of {@link #addWatchesRecursively}: the watched directories with their watch
+   * descriptors, and the files found in them.
+   */
+  public static final class Watches {
+    private final int[] descriptors;
+    private final String[] directories;
+    private final String[] files;
+
+    // Called only from JNI code.
+    private Watches(int[] descriptors, String[] directories, String[] files) {
+      this.descriptors = descriptors;
+      this.directories = directories;
+      this.files = files;
+    }
+
+    public int size() {
+      return descriptors.length;
+    }
+
+    public int getDescriptor(int i) {
+      return descriptors[i];
+    }
+
+    public String getDirectory(int i) {
+      return directories[i];
+    }
+
+    /** Returns the files (all non-directories) found, or an empty array if not requested. */
+    public String[] getFiles() {
+      return files;
+    }
+  }
+
+  /**
+   * A batch of events read by {@link #readEvents}, in the order the kernel reported them.
+   */
+  public static final class Events {
+    private final int[] descriptors;
+    private final int[] masks;
+    private final String[] names;
+
+    // Called only from JNI code.
+    private Events(int[] descriptors, int[] masks, String[] names) {
+      this.descriptors = descriptors;
+      this.masks = masks;
+      this.names = names;
+    }
+
+    public int size() {
+      return descriptors.length;
+    }
+
+    /** Returns the watch descriptor of the directory the i-th event happened in. */
+    public int getDescriptor(int i) {
+      return descriptors[i];
+    }
+
+    public int getMask(int i) {
+      return masks[i];
+    }
+
+    /** Returns the name of the entry the i-th event is about, or "" for the directory itself. */
+    public String getName(int i) {
+      return names[i];
+    }
+  }
+
+  /**
+   * Creates a new non-blocking inotify instance and returns its file descriptor.
+   *
+   * @throws IOException if inotify is not available or the instance limit was reached.
+   */
+  public static native int init() throws IOException;
+
+  /**
+   * Watches {@code directory} and, recursively, all directories below it for created, deleted,
+   * modified and moved entries. Symbolic links are not followed. Each directory is watched before
+   * it is listed, so that no entry created concurrently goes unnoticed. Directories that were
+   * already watched keep their watch descriptor.
+   *
+   * <p>Directories that disappear or can't be read during the traversal are skipped; if {@code
+   * directory} itself can't be watched, the result is empty.
+   *
+   * @param fd the inotify instance.
+   * @param directory the absolute path of the root of the tree to watch.
+   * @param listFiles whether to also return the non-directories found.
+   * @throws IOException if the limit on the number of watches was reached.
+   */
+  public static native Watches addWatchesRecursively(int fd, String directory, boolean listFiles)
+      throws IOException;
+
+  /**
+   * Stops watching the directory with the given watch descriptor. Does nothing if the watch is
+   * already gone.
+   */
+  public static native void removeWatch(int fd, int watchDescriptor);
+
+  /**
+   * Waits up to {@code timeoutMillis} for events to become available.
+   *
+   * @return whether events are available.
+   */
+  public static native boolean waitForEvents(int fd, int timeoutMillis) throws IOException;
+
+  /**
+   * Returns all events that are available right now, without blocking.
+   */
+  public static native Events readEvents(int fd) throws IOException;
+
+  /**
+   * Closes the inotify instance, which removes all of its watches.
+   */
+  public static native void close(int fd);
+}
@@ -61,21 +61,39 @@ public class CanonicalStringIndexer extends AbstractIndexer {
     return intToString.size();
   }
 
+  /**
+   * Returns the index of {@code s} in the backing map, or -1 if there is none. Subclasses whose
+   * maps have primitive accessors override this and the other lookup methods to avoid boxing.
+   */
+  protected int lookupIndex(String s) {
+    Integer i = stringToInt.get(s);
+    return (i == null) ? NOT_FOUND : i;
+  }
+
+  /** Returns the string with index {@code i} in the backing map, or null if there is none. */
+  protected String lookupString(int i) {
+    return intToString.get(i);
+  }
+
+  /** Adds the mapping between {@code s} and {@code i} to both backing maps. */
+  protected void storeMapping(String s, int i) {
+    stringToInt.put(s, i);
+    intToString.put(i, s);
+  }
+
   @Override
   public int getOrCreateIndex(String s) {
-    Integer i = stringToInt.get(s);
-    if (i == null) {
+    int i = lookupIndex(s);
+    if (i == NOT_FOUND) {
       synchronized (this) {
         // First, make sure another thread hasn't just added the entry:
-        i = stringToInt.get(s);
-        if (i != null) {
+        i = lookupIndex(s);
+        if (i != NOT_FOUND) {
           return i;
         }
 
         int ind = intToString.size();
-        s = StringCanonicalizer.intern(s);
-        stringToInt.put(s, ind);
-        intToString.put(ind, s);
+        storeMapping(StringCanonicalizer.intern(s), ind);
         return ind;
       }
     } else {
@@ -85,8 +103,7 @@ public class CanonicalStringIndexer extends AbstractIndexer {
 
   @Override
   public int getIndex(String s) {
-    Integer i = stringToInt.get(s);
-    return (i == null) ? NOT_FOUND : i;
+    return lookupIndex(s);
   }
 
   @Override
@@ -98,7 +115,7 @@ public class CanonicalStringIndexer extends AbstractIndexer {
 
   @Override
   public String getStringForIndex(int i) {
-    return intToString.get(i);
+    return lookupString(i);
   }
 
   @Override
@@ -17,17 +17,18 @@ package com.google.devtools.build.lib.util;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Map;
 import java.util.UUID;
 
 /**
- * Simplified wrapper for MD5 message digests. See also
- * com.google.math.crypto.MD5HMAC for a similar interface.
+ * Simplified wrapper for message digests. Uses the server's
+ * {@linkplain DigestHashFunction#getDefault default digest function}, which is MD5 unless
+ * configured otherwise. See also com.google.math.crypto.MD5HMAC for a similar interface.
  *
  * @see java.security.MessageDigest
  */
@@ -36,15 +37,18 @@ public final class Fingerprint {
   private final MessageDigest md;
 
   /**
-   * Creates and initializes a new MD5 object; if this fails, Java must be
-   * installed incorrectly.
+   * Creates and initializes a new fingerprint using the default digest function; if this fails,
+   * Java must be installed incorrectly.
    */
   public Fingerprint() {
-    try {
-      md = MessageDigest.getInstance("md5");
-    } catch (NoSuchAlgorithmException e) {
-      throw new IllegalStateException("MD5 not available", e);
-    }
+    this(DigestHashFunction.getDefault());
+  }
+
+  /**
+   * Creates and initializes a new fingerprint using the given digest function.
+   */
+  public Fingerprint(DigestHashFunction function) {
+    md = function.newMessageDigest();
   }
 
   /**
@@ -52,7 +56,7 @@ public final class Fingerprint {
    *
    * <p>This method has the side-effect of resetting the underlying digest computer.
    *
-   * @return the MD5 digest as a 16-byte array
+   * @return the digest, e.g. a 16-byte array for MD5
    * @see java.security.MessageDigest#digest()
    */
   public byte[] digestAndReset() {
@@ -64,7 +68,7 @@ public final class Fingerprint {
    *
    * <p>This method has the side-effect of resetting the underlying digest computer.
    *
-   * @return the MD5 digest as a 32-character string of hexadecimal digits
+   * @return the digest as a string of hexadecimal digits, e.g. 32 of them for MD5
    * @see com.google.math.crypto.MD5HMAC#toString()
    */
   public String hexDigestAndReset() {
@@ -72,13 +76,13 @@ public final class Fingerprint {
   }
 
   /**
-   * Returns a string representation of an MD5 digest.
+   * Returns a string representation of a digest.
    *
-   * @param digest the MD5 digest, perhaps from a previous call to digest
-   * @return the digest as a 32-character string of hexadecimal digits
+   * @param digest the digest, perhaps from a previous call to digest
+   * @return the digest as a string of hexadecimal digits
    */
   public static String hexDigest(byte[] digest) {
-    StringBuilder b = new StringBuilder(32);
+    StringBuilder b = new StringBuilder(2 * digest.length);
     for (int i = 0; i < digest.length; i++) {
       int n = digest[i];
       b.append("0123456789abcdef".charAt((n >> 4) & 0xF));
@@ -88,7 +92,7 @@ public final class Fingerprint {
   }
 
   /**
-   * Override of Object.toString to return a string for the MD5 digest without
+   * Override of Object.toString to return a string for the digest without
    * finalizing the digest computation. Calling hexDigest() instead will
    * finalize the digest computation.
    *
@@ -97,7 +101,7 @@ public final class Fingerprint {
   @Override
   public String toString() {
     try {
-      // MD5 does support cloning, so this should not fail
+      // The JDK's digests support cloning, so this should not fail for them
       return hexDigest(((MessageDigest) md.clone()).digest());
     } catch (CloneNotSupportedException e) {
       // MessageDigest does not support cloning,
@@ -306,13 +310,13 @@ public final class Fingerprint {
   // -------- Convenience methods ----------------------------
 
   /**
-   * Computes the hex digest from a String using UTF8 encoding and returning
-   * the hexDigest().
+   * Computes the MD5 hex digest from a String using UTF8 encoding and returning
+   * the hexDigest(), regardless of the default digest function.
    *
    * @param input the String from which to compute the digest
    */
   public static String md5Digest(String input) {
-    Fingerprint f = new Fingerprint();
+    Fingerprint f = new Fingerprint(DigestHashFunction.MD5);
     f.addBytes(input.getBytes(UTF_8));
     return f.hexDigestAndReset();
   }
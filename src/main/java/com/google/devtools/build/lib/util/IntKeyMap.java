@@ -0,0 +1,265 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ConditionallyThreadSafe;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A map from {@code int} to non-null values, backed by open-addressed parallel arrays instead of
+ * boxed keys and per-entry objects.
+ *
+ * <p>The {@link java.util.Map} methods box their keys, but the keys are stored unboxed, and
+ * {@link #get(int)}, {@link #put(int, Object)} and {@link #remove(int)} avoid boxing altogether.
+ * Iteration order is unspecified.
+ *
+ * <p>Reads may run concurrently with a writer, but writes must be serialized by the caller. This
+ * is the contract {@link CanonicalStringIndexer} requires from its maps. Slots are never reused
+ * for a different key until the arrays are reallocated, so a reader never sees a key paired with
+ * the value of another key.
+ */
+@ConditionallyThreadSafe // condition: writes must be serialized.
+public final class IntKeyMap<V> extends AbstractMap<Integer, V> {
+
+  private static final int MIN_CAPACITY = 16;
+
+  /** Marks the slot of a removed key. Slots that were never used hold {@code null}. */
+  private static final Object REMOVED = new Object();
+
+  private static final class Table {
+    private final int[] keys;
+    private final AtomicReferenceArray<Object> values;
+    /** The number of slots that are not {@code null}. Only accessed by the writer. */
+    private int usedSlots;
+
+    private Table(int capacity) {
+      keys = new int[capacity];
+      values = new AtomicReferenceArray<>(capacity);
+    }
+  }
+
+  private volatile Table table;
+  private volatile int size;
+
+  public IntKeyMap() {
+    this(0);
+  }
+
+  public IntKeyMap(int expectedSize) {
+    table = new Table(capacityFor(expectedSize));
+  }
+
+  /** Returns a power of two that keeps the load factor of {@code size} entries at most 1/2. */
+  private static int capacityFor(int size) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < 2L * size) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private static int firstSlot(int key, int mask) {
+    int hash = key * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /** Returns the value for {@code key}, or {@code null} if there is none. */
+  @SuppressWarnings("unchecked")
+  public V get(int key) {
+    Table t = table;
+    int mask = t.keys.length - 1;
+    for (int slot = firstSlot(key, mask); ; slot = (slot + 1) & mask) {
+      // The value must be read first: it is written after the key.
+      Object value = t.values.get(slot);
+      if (value == null) {
+        return null;
+      }
+      if (value != REMOVED && t.keys[slot] == key) {
+        return (V) value;
+      }
+    }
+  }
+
+  /** Maps {@code key} to {@code value} and returns the previous value, if any. */
+  @SuppressWarnings("unchecked")
+  public V put(int key, V value) {
+    Preconditions.checkNotNull(value);
+    Table t = table;
+    int mask = t.keys.length - 1;
+    int slot = firstSlot(key, mask);
+    for (Object current = t.values.get(slot); current != null;
+        slot = (slot + 1) & mask, current = t.values.get(slot)) {
+      if (current != REMOVED && t.keys[slot] == key) {
+        t.values.set(slot, value);
+        return (V) current;
+      }
+    }
+    t.keys[slot] = key;
+    t.values.set(slot, value);
+    t.usedSlots++;
+    size++;
+    if (2L * t.usedSlots > t.keys.length) {
+      rehash(capacityFor(size));
+    }
+    return null;
+  }
+
+  /** Removes the mapping for {@code key} and returns its value, if any. */
+  @SuppressWarnings("unchecked")
+  public V remove(int key) {
+    Table t = table;
+    int mask = t.keys.length - 1;
+    for (int slot = firstSlot(key, mask); ; slot = (slot + 1) & mask) {
+      Object value = t.values.get(slot);
+      if (value == null) {
+        return null;
+      }
+      if (value != REMOVED && t.keys[slot] == key) {
+        t.values.set(slot, REMOVED);
+        size--;
+        return (V) value;
+      }
+    }
+  }
+
+  /** Copies the live entries into new arrays, dropping removed slots. */
+  private void rehash(int capacity) {
+    Table oldTable = table;
+    Table newTable = new Table(capacity);
+    int mask = capacity - 1;
+    for (int i = 0; i < oldTable.keys.length; i++) {
+      Object value = oldTable.values.get(i);
+      if (value == null || value == REMOVED) {
+        continue;
+      }
+      int key = oldTable.keys[i];
+      int slot = firstSlot(key, mask);
+      while (newTable.values.get(slot) != null) {
+        slot = (slot + 1) & mask;
+      }
+      newTable.keys[slot] = key;
+      newTable.values.set(slot, value);
+      newTable.usedSlots++;
+    }
+    table = newTable;
+  }
+
+  @Override
+  public V get(Object key) {
+    return key instanceof Integer ? get(((Integer) key).intValue()) : null;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public V put(Integer key, V value) {
+    return put(key.intValue(), value);
+  }
+
+  @Override
+  public V remove(Object key) {
+    return key instanceof Integer ? remove(((Integer) key).intValue()) : null;
+  }
+
+  @Override
+  public void clear() {
+    table = new Table(MIN_CAPACITY);
+    size = 0;
+  }
+
+  /**
+   * Returns the approximate number of bytes used by the arrays of this map, not counting the
+   * values themselves.
+   */
+  public long getTableHeapSize() {
+    // An int and a (possibly compressed) reference per slot.
+    return table.keys.length * 12L;
+  }
+
+  @Override
+  public Set<Entry<Integer, V>> entrySet() {
+    return new AbstractSet<Entry<Integer, V>>() {
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public Iterator<Entry<Integer, V>> iterator() {
+        return new EntryIterator();
+      }
+    };
+  }
+
+  private final class EntryIterator implements Iterator<Entry<Integer, V>> {
+    private final Table iteratedTable = table;
+    private int nextSlot = -1;
+    private int lastSlot = -1;
+
+    private EntryIterator() {
+      advance();
+    }
+
+    private void advance() {
+      do {
+        nextSlot++;
+      } while (nextSlot < iteratedTable.keys.length && !isLive(nextSlot));
+    }
+
+    private boolean isLive(int slot) {
+      Object value = iteratedTable.values.get(slot);
+      return value != null && value != REMOVED;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextSlot < iteratedTable.keys.length;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Entry<Integer, V> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastSlot = nextSlot;
+      advance();
+      return new SimpleImmutableEntry<>(
+          iteratedTable.keys[lastSlot], (V) iteratedTable.values.get(lastSlot));
+    }
+
+    @Override
+    public void remove() {
+      Preconditions.checkState(lastSlot >= 0);
+      // Removal never reallocates the arrays, so the iteration can continue.
+      IntKeyMap.this.remove(iteratedTable.keys[lastSlot]);
+      lastSlot = -1;
+    }
+  }
+}
@@ -0,0 +1,89 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Parse and return the aggregate CPU times from /proc/stat.
+ */
+public class ProcStatParser {
+
+  public static final String FILE = "/proc/stat";
+
+  private static final Splitter WHITESPACE_SPLITTER =
+      Splitter.on(CharMatcher.WHITESPACE).omitEmptyStrings();
+
+  private final long totalJiffies;
+  private final long idleJiffies;
+
+  /**
+   * Populates the CPU times by reading /proc/stat.
+   * @throws IOException if reading or parsing the file failed.
+   */
+  public ProcStatParser() throws IOException {
+    this(FILE);
+  }
+
+  @VisibleForTesting
+  public ProcStatParser(String fileName) throws IOException {
+    String firstLine = Files.readFirstLine(new File(fileName), Charset.defaultCharset());
+    if (firstLine == null || !firstLine.startsWith("cpu ")) {
+      throw new IOException("Can't locate the aggregate cpu line in " + fileName);
+    }
+    // cpu user nice system idle iowait irq softirq steal ...
+    List<String> fields = WHITESPACE_SPLITTER.splitToList(firstLine);
+    long total = 0;
+    long idle = 0;
+    try {
+      for (int i = 1; i < fields.size(); i++) {
+        long value = Long.parseLong(fields.get(i));
+        // Guest times are already included in the user times.
+        if (i <= 8) {
+          total += value;
+        }
+        if (i == 4 || i == 5) {
+          idle += value;
+        }
+      }
+    } catch (NumberFormatException e) {
+      throw new IOException("Can't parse " + fileName + ": " + firstLine, e);
+    }
+    totalJiffies = total;
+    idleJiffies = idle;
+  }
+
+  /**
+   * Returns the time spent by all processors since boot, in jiffies.
+   */
+  public long getTotalJiffies() {
+    return totalJiffies;
+  }
+
+  /**
+   * Returns the time spent idle or waiting for I/O by all processors since boot, in jiffies.
+   */
+  public long getIdleJiffies() {
+    return idleJiffies;
+  }
+}
@@ -0,0 +1,60 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.CharMatcher;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Parse and return the memory usage of a process from /proc/&lt;pid&gt;/status.
+ */
+public class ProcStatusParser {
+
+  private final long residentKb;
+
+  /**
+   * Populates the memory usage by reading /proc/&lt;pid&gt;/status.
+   * @throws IOException if reading or parsing the file failed, e.g. because the process exited.
+   */
+  public ProcStatusParser(long pid) throws IOException {
+    this("/proc/" + pid + "/status");
+  }
+
+  @VisibleForTesting
+  public ProcStatusParser(String fileName) throws IOException {
+    for (String line : Files.readLines(new File(fileName), Charset.defaultCharset())) {
+      if (line.startsWith("VmRSS:")) {
+        try {
+          residentKb = Long.parseLong(CharMatcher.inRange('0', '9').retainFrom(line));
+          return;
+        } catch (NumberFormatException e) {
+          throw new IOException("Can't parse " + fileName + ": " + line, e);
+        }
+      }
+    }
+    throw new IOException("Can't locate VmRSS in " + fileName);
+  }
+
+  /**
+   * Returns the resident set size of the process.
+   */
+  public long getResidentKb() {
+    return residentKb;
+  }
+}
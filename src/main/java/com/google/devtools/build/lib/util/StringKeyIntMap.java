@@ -0,0 +1,270 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ConditionallyThreadSafe;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A map from strings to {@code int}, backed by open-addressed parallel arrays instead of boxed
+ * values and per-entry objects. The counterpart of {@link IntKeyMap}, with the same thread-safety
+ * contract: reads may run concurrently with a writer, but writes must be serialized by the caller.
+ */
+@ConditionallyThreadSafe // condition: writes must be serialized.
+public final class StringKeyIntMap extends AbstractMap<String, Integer> {
+
+  /** Returned by {@link #getInt} for missing keys. */
+  public static final int NOT_FOUND = -1;
+
+  private static final int MIN_CAPACITY = 16;
+
+  /** Marks the slot of a removed key. Compared by identity. */
+  private static final String REMOVED = new String("<removed>");
+
+  private static final class Table {
+    private final AtomicReferenceArray<String> keys;
+    private final int[] values;
+    /** The number of slots that are not {@code null}. Only accessed by the writer. */
+    private int usedSlots;
+
+    private Table(int capacity) {
+      keys = new AtomicReferenceArray<>(capacity);
+      values = new int[capacity];
+    }
+  }
+
+  private volatile Table table;
+  private volatile int size;
+
+  public StringKeyIntMap() {
+    this(0);
+  }
+
+  public StringKeyIntMap(int expectedSize) {
+    table = new Table(capacityFor(expectedSize));
+  }
+
+  /** Returns a power of two that keeps the load factor of {@code size} entries at most 1/2. */
+  private static int capacityFor(int size) {
+    int capacity = MIN_CAPACITY;
+    while (capacity < 2L * size) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private static int firstSlot(String key, int mask) {
+    int hash = key.hashCode() * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /** Returns the value for {@code key}, or {@link #NOT_FOUND} if there is none. */
+  public int getInt(String key) {
+    Table t = table;
+    int mask = t.values.length - 1;
+    for (int slot = firstSlot(key, mask); ; slot = (slot + 1) & mask) {
+      // The key must be read first: it is written after the value.
+      String current = t.keys.get(slot);
+      if (current == null) {
+        return NOT_FOUND;
+      }
+      if (current != REMOVED && current.equals(key)) {
+        return t.values[slot];
+      }
+    }
+  }
+
+  /**
+   * Maps {@code key} to {@code value}, which must not be negative, and returns the previous value
+   * or {@link #NOT_FOUND}.
+   */
+  public int putInt(String key, int value) {
+    Preconditions.checkArgument(value >= 0, value);
+    Table t = table;
+    int mask = t.values.length - 1;
+    int slot = firstSlot(key, mask);
+    for (String current = t.keys.get(slot); current != null;
+        slot = (slot + 1) & mask, current = t.keys.get(slot)) {
+      if (current != REMOVED && current.equals(key)) {
+        // Readers may briefly see either value.
+        int previous = t.values[slot];
+        t.values[slot] = value;
+        t.keys.set(slot, current);
+        return previous;
+      }
+    }
+    t.values[slot] = value;
+    t.keys.set(slot, key);
+    t.usedSlots++;
+    size++;
+    if (2L * t.usedSlots > t.values.length) {
+      rehash(capacityFor(size));
+    }
+    return NOT_FOUND;
+  }
+
+  /** Removes the mapping for {@code key} and returns its value, or {@link #NOT_FOUND}. */
+  public int removeInt(String key) {
+    Table t = table;
+    int mask = t.values.length - 1;
+    for (int slot = firstSlot(key, mask); ; slot = (slot + 1) & mask) {
+      String current = t.keys.get(slot);
+      if (current == null) {
+        return NOT_FOUND;
+      }
+      if (current != REMOVED && current.equals(key)) {
+        t.keys.set(slot, REMOVED);
+        size--;
+        return t.values[slot];
+      }
+    }
+  }
+
+  /** Copies the live entries into new arrays, dropping removed slots. */
+  private void rehash(int capacity) {
+    Table oldTable = table;
+    Table newTable = new Table(capacity);
+    int mask = capacity - 1;
+    for (int i = 0; i < oldTable.values.length; i++) {
+      String key = oldTable.keys.get(i);
+      if (key == null || key == REMOVED) {
+        continue;
+      }
+      int slot = firstSlot(key, mask);
+      while (newTable.keys.get(slot) != null) {
+        slot = (slot + 1) & mask;
+      }
+      newTable.values[slot] = oldTable.values[i];
+      newTable.keys.set(slot, key);
+      newTable.usedSlots++;
+    }
+    table = newTable;
+  }
+
+  @Override
+  public Integer get(Object key) {
+    if (!(key instanceof String)) {
+      return null;
+    }
+    int value = getInt((String) key);
+    return value == NOT_FOUND ? null : value;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof String && getInt((String) key) != NOT_FOUND;
+  }
+
+  @Override
+  public Integer put(String key, Integer value) {
+    int previous = putInt(key, value);
+    return previous == NOT_FOUND ? null : previous;
+  }
+
+  @Override
+  public Integer remove(Object key) {
+    if (!(key instanceof String)) {
+      return null;
+    }
+    int previous = removeInt((String) key);
+    return previous == NOT_FOUND ? null : previous;
+  }
+
+  @Override
+  public void clear() {
+    table = new Table(MIN_CAPACITY);
+    size = 0;
+  }
+
+  /**
+   * Returns the approximate number of bytes used by the arrays of this map, not counting the keys
+   * themselves.
+   */
+  public long getTableHeapSize() {
+    // A (possibly compressed) reference and an int per slot.
+    return table.values.length * 12L;
+  }
+
+  @Override
+  public Set<Entry<String, Integer>> entrySet() {
+    return new AbstractSet<Entry<String, Integer>>() {
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public Iterator<Entry<String, Integer>> iterator() {
+        return new EntryIterator();
+      }
+    };
+  }
+
+  private final class EntryIterator implements Iterator<Entry<String, Integer>> {
+    private final Table iteratedTable = table;
+    private int nextSlot = -1;
+    private String lastKey = null;
+
+    private EntryIterator() {
+      advance();
+    }
+
+    private void advance() {
+      do {
+        nextSlot++;
+      } while (nextSlot < iteratedTable.values.length && !isLive(nextSlot));
+    }
+
+    private boolean isLive(int slot) {
+      String key = iteratedTable.keys.get(slot);
+      return key != null && key != REMOVED;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextSlot < iteratedTable.values.length;
+    }
+
+    @Override
+    public Entry<String, Integer> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      int slot = nextSlot;
+      advance();
+      lastKey = iteratedTable.keys.get(slot);
+      return new SimpleImmutableEntry<>(lastKey, iteratedTable.values[slot]);
+    }
+
+    @Override
+    public void remove() {
+      Preconditions.checkState(lastKey != null);
+      // Removal never reallocates the arrays, so the iteration can continue.
+      StringKeyIntMap.this.remove(lastKey);
+      lastKey = null;
+    }
+  }
+}
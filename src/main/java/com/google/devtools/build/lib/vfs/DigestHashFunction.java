@@ -0,0 +1,161 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+/**
+ * The hash functions that can be used to digest file contents and action keys.
+ *
+ * <p>The function in use is chosen once per server, with the {@code --digest_function} startup
+ * option, and returned by {@link #getDefault}. Digests computed with different functions must
+ * never be compared, so anything that persists digests across servers must record the function.
+ */
+public enum DigestHashFunction {
+  MD5(Hashing.md5(), "MD5"),
+  SHA1(Hashing.sha1(), "SHA-1"),
+  SHA256(Hashing.sha256(), "SHA-256"),
+  /**
+   * A non-cryptographic function that is several times faster than MD5. It is suitable for
+   * detecting changes, but not for content that may be crafted to collide.
+   */
+  MURMUR3_128(Hashing.murmur3_128(), null);
+
+  private static volatile DigestHashFunction defaultFunction = MD5;
+
+  private final HashFunction hashFunction;
+  // Cloning is much cheaper than looking up the provider in MessageDigest.getInstance().
+  @Nullable private final MessageDigest prototype;
+
+  private DigestHashFunction(HashFunction hashFunction, @Nullable String messageDigestAlgorithm) {
+    this.hashFunction = hashFunction;
+    if (messageDigestAlgorithm == null) {
+      this.prototype = null;
+    } else {
+      try {
+        this.prototype = MessageDigest.getInstance(messageDigestAlgorithm);
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(messageDigestAlgorithm + " not available", e);
+      }
+    }
+  }
+
+  /** Returns the function used to digest files and action keys in this server. */
+  public static DigestHashFunction getDefault() {
+    return defaultFunction;
+  }
+
+  /**
+   * Sets the function returned by {@link #getDefault}. Must be called before any digest is
+   * computed, as digests computed with different functions are not comparable.
+   */
+  public static void setDefault(DigestHashFunction function) {
+    defaultFunction = Preconditions.checkNotNull(function);
+  }
+
+  public HashFunction getHashFunction() {
+    return hashFunction;
+  }
+
+  /** Returns the length of the digests computed by this function, in bytes. */
+  public int getDigestLength() {
+    return hashFunction.bits() / 8;
+  }
+
+  /** Returns a new {@link MessageDigest} computing this function. It supports cloning. */
+  public MessageDigest newMessageDigest() {
+    if (prototype == null) {
+      return new HasherMessageDigest(this);
+    }
+    try {
+      return (MessageDigest) prototype.clone();
+    } catch (CloneNotSupportedException e) {
+      try {
+        return MessageDigest.getInstance(prototype.getAlgorithm());
+      } catch (NoSuchAlgorithmException e2) {
+        throw new IllegalStateException(e2);
+      }
+    }
+  }
+
+  /**
+   * Adapts a {@link HashFunction} to the {@link MessageDigest} interface.
+   *
+   * <p>The input is buffered until the digest is computed, because a {@link Hasher} cannot be
+   * copied and {@link #clone} must not disturb the computation in progress. This digest is only
+   * used for fingerprints, whose input is small.
+   */
+  private static final class HasherMessageDigest extends MessageDigest implements Cloneable {
+    private final HashFunction hashFunction;
+    private byte[] buffer = new byte[64];
+    private int length = 0;
+
+    private HasherMessageDigest(DigestHashFunction function) {
+      super(function.name());
+      this.hashFunction = function.getHashFunction();
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+      }
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+      ensureCapacity(length + 1);
+      buffer[length++] = input;
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+      ensureCapacity(length + len);
+      System.arraycopy(input, offset, buffer, length, len);
+      length += len;
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+      return hashFunction.bits() / 8;
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+      byte[] digest = hashFunction.hashBytes(buffer, 0, length).asBytes();
+      engineReset();
+      return digest;
+    }
+
+    @Override
+    protected void engineReset() {
+      length = 0;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+      HasherMessageDigest copy = (HasherMessageDigest) super.clone();
+      copy.buffer = Arrays.copyOf(buffer, Math.max(length, 1));
+      return copy;
+    }
+  }
+}
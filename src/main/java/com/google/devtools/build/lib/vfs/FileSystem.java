@@ -240,6 +240,23 @@ public abstract class FileSystem {
     return null;
   }
 
+  /**
+   * Returns the digest of the file denoted by {@code path} under the given function. See
+   * {@link Path#getDigest} for specification.
+   */
+  protected byte[] getDigest(final Path path, DigestHashFunction function) throws IOException {
+    if (function == DigestHashFunction.MD5) {
+      // Subclasses may have optimized MD5.
+      return getMD5Digest(path);
+    }
+    return new ByteSource() {
+      @Override
+      public InputStream openStream() throws IOException {
+        return getInputStream(path);
+      }
+    }.hash(function.getHashFunction()).asBytes();
+  }
+
   /**
    * Returns the MD5 digest of the file denoted by {@code path}. See
    * {@link Path#getMD5Digest} for specification.
@@ -29,13 +29,13 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
-import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.IdentityHashMap;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * <p>Instances of this class represent pathnames, forming a tree
@@ -96,16 +96,10 @@ public class Path implements Comparable<Path>, Serializable {
       while (true) {
         try {
           PathWeakReferenceForCleanup ref = (PathWeakReferenceForCleanup) REFERENCE_QUEUE.remove();
-          Path parent = ref.parent;
-          synchronized (parent) {
-            // It's possible that since this reference was enqueued for deletion, the Path was
-            // recreated with a new entry in the map. We definitely shouldn't delete that entry, so
-            // check to make sure they're the same.
-            Reference<Path> currentRef = ref.parent.children.get(ref.baseName);
-            if (currentRef == ref) {
-              ref.parent.children.remove(ref.baseName);
-            }
-          }
+          // It's possible that since this reference was enqueued for deletion, the Path was
+          // recreated with a new entry in the map. We definitely shouldn't delete that entry, so
+          // removeChildReference only removes this exact reference.
+          ref.parent.removeChildReference(ref);
         } catch (InterruptedException e) {
           // Ignored.
         }
@@ -118,17 +112,20 @@ public class Path implements Comparable<Path>, Serializable {
     PATH_CHILD_CACHE_CLEANUP_THREAD.start();
   }
 
+  /**
+   * The largest number of children that is stored in an array rather than in a map.
+   */
+  private static final int MAX_ARRAY_CHILDREN = 8;
+
+  private static final AtomicReferenceFieldUpdater<Path, Object> CHILDREN_UPDATER =
+      AtomicReferenceFieldUpdater.newUpdater(Path.class, Object.class, "children");
+
   /**
    * A mapping from a child file name to the {@link Path} representing it.
    *
    * <p>File names must be a single path segment.  The strings must be
-   * canonical.  We use IdentityHashMap instead of HashMap for reasons of space
-   * efficiency: instances are smaller by a single word.  Also, since all path
-   * segments are interned, the universe of Paths holds a minimal number of
-   * references to strings.  (It's doubtful that there's any time gain from use
-   * of an IdentityHashMap, since the time saved by avoiding string equality
-   * tests during hash lookups is probably equal to the time spent eagerly
-   * interning strings, unless the collision rate is high.)
+   * canonical.  Since all path segments are interned, the universe of Paths
+   * holds a minimal number of references to strings.
    *
    * <p>The Paths are stored as weak references to ensure that a live
    * Path for a directory does not hold a strong reference to all of its
@@ -141,15 +138,22 @@ public class Path implements Comparable<Path>, Serializable {
    * store data in Paths as an optimization, but there must be another
    * source for that data in case the Path is recycled.
    *
-   * <p>We intentionally avoid using the existing library classes for reasons of
-   * space efficiency: while ConcurrentHashMap would reduce our locking
-   * overhead, and ReferenceMap would simplify the code a little, both of those
-   * classes have much higher per-instance overheads than IdentityHashMap.
+   * <p>The field is one of:
+   * <ul>
+   *   <li>null, if no child was ever requested (the common case for files);
+   *   <li>an immutable {@code PathWeakReferenceForCleanup[]} of at most
+   *       {@link #MAX_ARRAY_CHILDREN} entries, which is replaced as a whole with
+   *       a compare-and-set whenever a child is added or removed (66% of Paths
+   *       have a single child, 80% at most two);
+   *   <li>a {@code ConcurrentHashMap<String, PathWeakReferenceForCleanup>} once
+   *       there are more children than that. It is never replaced afterwards.
+   * </ul>
    *
-   * <p>The Path object must be synchronized while children is being
-   * accessed.
+   * <p>Lookups never lock, so threads resolving siblings in a hot directory do
+   * not serialize on the parent. The small array is also more compact than a
+   * hash map; only directories with a large fanout pay for a ConcurrentHashMap.
    */
-  private volatile IdentityHashMap<String, Reference<Path>> children;
+  private volatile Object children;
 
   /**
    * Create a path instance.  Should only be called by {@link #createChildPath}.
@@ -215,29 +219,109 @@ public class Path implements Comparable<Path>, Serializable {
    * Returns the child path named name, or creates such a path (and caches it)
    * if it doesn't already exist.
    */
+  @SuppressWarnings("unchecked")
   private Path getCachedChildPath(String childName) {
-    // We get a canonical instance since 'children' is an IdentityHashMap.
+    // We get a canonical instance so that array entries can be compared by identity.
     childName = StringCanonicalizer.intern(childName);
-    // We use double-checked locking so that we only hold the lock when we might need to mutate the
-    // 'children' variable. 'children' will never become null if it's already non-null, so we only
-    // need to worry about the case where it's currently null and we race with another thread
-    // executing getCachedChildPath(<doesn't matter>) trying to set 'children' to a non-null value.
-    if (children == null) {
-      synchronized (this) {
-        if (children == null) {
-          // 66% of Paths have size == 1, 80% <= 2
-          children = new IdentityHashMap<>(1);
+    Path newChild = null;
+    while (true) {
+      Object current = children;
+      if (current instanceof ConcurrentHashMap) {
+        ConcurrentHashMap<String, PathWeakReferenceForCleanup> map =
+            (ConcurrentHashMap<String, PathWeakReferenceForCleanup>) current;
+        PathWeakReferenceForCleanup childRef = map.get(childName);
+        Path child = childRef == null ? null : childRef.get();
+        if (child != null) {
+          return child;
+        }
+        if (newChild == null) {
+          newChild = createChildPath(childName);
+        }
+        PathWeakReferenceForCleanup newRef =
+            new PathWeakReferenceForCleanup(newChild, REFERENCE_QUEUE);
+        if (childRef == null
+            ? map.putIfAbsent(childName, newRef) == null
+            : map.replace(childName, childRef, newRef)) {
+          return newChild;
+        }
+        // Another thread installed the child first; go back and return theirs.
+        continue;
+      }
+
+      PathWeakReferenceForCleanup[] array = (PathWeakReferenceForCleanup[]) current;
+      int size = array == null ? 0 : array.length;
+      int index = -1;
+      for (int i = 0; i < size; i++) {
+        if (array[i].baseName == childName) {
+          Path child = array[i].get();
+          if (child != null) {
+            return child;
+          }
+          index = i;
+          break;
+        }
+      }
+      if (newChild == null) {
+        newChild = createChildPath(childName);
+      }
+      PathWeakReferenceForCleanup newRef =
+          new PathWeakReferenceForCleanup(newChild, REFERENCE_QUEUE);
+      Object replacement;
+      if (index >= 0) {
+        // Replace the stale reference; the cleanup thread won't find it anymore, which is fine.
+        PathWeakReferenceForCleanup[] newArray = array.clone();
+        newArray[index] = newRef;
+        replacement = newArray;
+      } else if (size < MAX_ARRAY_CHILDREN) {
+        PathWeakReferenceForCleanup[] newArray = new PathWeakReferenceForCleanup[size + 1];
+        if (size > 0) {
+          System.arraycopy(array, 0, newArray, 0, size);
         }
+        newArray[size] = newRef;
+        replacement = newArray;
+      } else {
+        ConcurrentHashMap<String, PathWeakReferenceForCleanup> map =
+            new ConcurrentHashMap<>(4 * MAX_ARRAY_CHILDREN);
+        for (PathWeakReferenceForCleanup ref : array) {
+          map.put(ref.baseName, ref);
+        }
+        map.put(childName, newRef);
+        replacement = map;
+      }
+      if (CHILDREN_UPDATER.compareAndSet(this, current, replacement)) {
+        return newChild;
       }
+      // Lost a race with another thread adding or removing a child; retry against the new value.
     }
-    synchronized (this) {
-      Reference<Path> childRef = children.get(childName);
-      Path child;
-      if (childRef == null || (child = childRef.get()) == null) {
-        child = createChildPath(childName);
-        children.put(childName, new PathWeakReferenceForCleanup(child, REFERENCE_QUEUE));
+  }
+
+  /**
+   * Removes {@code ref} from the children of this path, unless it has already been replaced by a
+   * newer reference for the same name. Called by the cleanup thread.
+   */
+  @SuppressWarnings("unchecked")
+  private void removeChildReference(PathWeakReferenceForCleanup ref) {
+    while (true) {
+      Object current = children;
+      if (current instanceof ConcurrentHashMap) {
+        ((ConcurrentHashMap<String, PathWeakReferenceForCleanup>) current)
+            .remove(ref.baseName, ref);
+        return;
+      }
+      PathWeakReferenceForCleanup[] array = (PathWeakReferenceForCleanup[]) current;
+      int index = array == null ? -1 : Arrays.asList(array).indexOf(ref);
+      if (index < 0) {
+        return;
+      }
+      PathWeakReferenceForCleanup[] newArray = null;
+      if (array.length > 1) {
+        newArray = new PathWeakReferenceForCleanup[array.length - 1];
+        System.arraycopy(array, 0, newArray, 0, index);
+        System.arraycopy(array, index + 1, newArray, index, array.length - index - 1);
+      }
+      if (CHILDREN_UPDATER.compareAndSet(this, current, newArray)) {
+        return;
       }
-      return child;
     }
   }
 
@@ -247,18 +331,27 @@ public class Path implements Comparable<Path>, Serializable {
    * side-effects.
    *
    * <p>This function exists to hide the "children" field, whose complex
-   * synchronization and identity requirements are too unsafe to be exposed to
-   * subclasses.  For example, the "children" field must be synchronized for
-   * the duration of any iteration over it; it may be null; and references
-   * within it may be stale, and must be ignored.
-   */
-  protected synchronized void applyToChildren(Predicate<Path> function) {
-    if (children != null) {
-      for (Reference<Path> childRef : children.values()) {
-        Path child = childRef.get();
-        if (child != null) {
-          function.apply(child);
-        }
+   * representation and identity requirements are too unsafe to be exposed to
+   * subclasses.  For example, the "children" field may be null, it changes
+   * representation as the number of children grows, and references within it
+   * may be stale, and must be ignored. Children added concurrently with the
+   * iteration may or may not be visited.
+   */
+  @SuppressWarnings("unchecked")
+  protected void applyToChildren(Predicate<Path> function) {
+    Object current = children;
+    Iterable<PathWeakReferenceForCleanup> refs;
+    if (current == null) {
+      return;
+    } else if (current instanceof ConcurrentHashMap) {
+      refs = ((ConcurrentHashMap<String, PathWeakReferenceForCleanup>) current).values();
+    } else {
+      refs = Arrays.asList((PathWeakReferenceForCleanup[]) current);
+    }
+    for (PathWeakReferenceForCleanup childRef : refs) {
+      Path child = childRef.get();
+      if (child != null) {
+        function.apply(child);
       }
     }
   }
@@ -943,6 +1036,26 @@ public class Path implements Comparable<Path>, Serializable {
     return fileSystem.getMD5Digest(this);
   }
 
+  /**
+   * Returns the digest of the file denoted by the current path under the server's
+   * {@linkplain DigestHashFunction#getDefault default function}, following symbolic links.
+   *
+   * @throws IOException if the digest could not be computed for any reason
+   */
+  public byte[] getDigest() throws IOException {
+    return getDigest(DigestHashFunction.getDefault());
+  }
+
+  /**
+   * Returns the digest of the file denoted by the current path under the given function,
+   * following symbolic links.
+   *
+   * @throws IOException if the digest could not be computed for any reason
+   */
+  public byte[] getDigest(DigestHashFunction function) throws IOException {
+    return fileSystem.getDigest(this, function);
+  }
+
   /**
    * Opens the file denoted by this path, following symbolic links, for reading,
    * and returns an input stream to it.
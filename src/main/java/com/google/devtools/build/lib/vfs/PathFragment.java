@@ -27,12 +27,20 @@ import java.io.File;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.Arrays;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
 
 /**
  * This class represents an immutable UNIX filesystem path, which may be absolute or relative. The
- * path is maintained as a simple ordered list of path segment strings.
+ * path is maintained as an ordered list of path segment strings: the last one, and the list of the
+ * others, which is stored in a trie that is shared by all path fragments (see {@link Node}).
  *
  * <p>This class is independent from other VFS classes, especially anything requiring native code.
  * It is safe to use in places that need simple segmented string path functionality.
@@ -45,6 +53,131 @@ import java.util.Set;
 @Immutable @ThreadSafe
 public final class PathFragment implements Comparable<PathFragment>, Serializable {
 
+  /**
+   * A node of the trie of the parent directories of all live path fragments: the last segment of a
+   * directory, and the node of its parent directory. The nodes of path fragments parsed from
+   * strings are interned, so equal directories are usually represented by the same node, and share
+   * the nodes of their common ancestors. The empty list of segments is represented by null.
+   *
+   * <p>Thus path fragments need no array of segments, and the parent directory and children of a
+   * path fragment can be computed without copying segments. Only directories are interned, as
+   * there are many fewer of them than files, and an interned node costs more memory than a segment
+   * of a path fragment. The children computed by {@link #getRelative} and {@link #getChild} share
+   * the nodes of their parent without going through the interner, so equal nodes are not always
+   * identical, and are compared segment by segment unless they are.
+   */
+  private static final class Node {
+    @Nullable private final Node parent;
+    private final String segment;
+    // The number of segments, and the hash code of the segments.
+    private final int depth;
+    private final int hash;
+
+    private Node(@Nullable Node parent, String segment) {
+      this.parent = parent;
+      this.segment = segment;
+      this.depth = (parent == null) ? 1 : parent.depth + 1;
+      this.hash = hash(parent, segment);
+    }
+
+    private static int hash(@Nullable Node parent, String segment) {
+      return ((parent == null) ? 0 : parent.hash) * 31 + segment.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Node && equal(this, (Node) other);
+    }
+
+    private static boolean equal(@Nullable Node node1, @Nullable Node node2) {
+      // Stops at the first common ancestor, which is usually near, as most nodes are interned.
+      while (node1 != node2) {
+        if (node1 == null || node2 == null
+            || node1.hash != node2.hash
+            || node1.depth != node2.depth
+            || !node1.segment.equals(node2.segment)) {
+          return false;
+        }
+        node1 = node1.parent;
+        node2 = node2.parent;
+      }
+      return true;
+    }
+
+    /**
+     * Compares the first {@code depth} segments of two nodes, which must have at least as many,
+     * and returns the result of the first differing segment, or 0 if there is none.
+     */
+    private static int compareSegments(@Nullable Node node1, @Nullable Node node2, int depth) {
+      node1 = ancestor(node1, depth);
+      node2 = ancestor(node2, depth);
+      int result = 0;
+      // Walks towards the root, so the last difference found is the first one of the segments.
+      while (node1 != node2) {
+        int segmentResult = node1.segment.compareTo(node2.segment);
+        if (segmentResult != 0) {
+          result = segmentResult;
+        }
+        node1 = node1.parent;
+        node2 = node2.parent;
+      }
+      return result;
+    }
+
+    /**
+     * Returns the ancestor of {@code node} (or the node itself) with at most {@code depth}
+     * segments.
+     */
+    @Nullable
+    private static Node ancestor(@Nullable Node node, int depth) {
+      while (node != null && node.depth > depth) {
+        node = node.parent;
+      }
+      return node;
+    }
+  }
+
+  /**
+   * A weak reference to an interned node, which is equal to the references to equal nodes while
+   * the node is reachable, and only to itself once it has been collected.
+   */
+  private static final class NodeReference extends WeakReference<Node> {
+    private final int hash;
+
+    private NodeReference(Node node, @Nullable ReferenceQueue<Node> queue) {
+      super(node, queue);
+      this.hash = node.hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      Node node = get();
+      return node != null && other instanceof NodeReference
+          && node.equals(((NodeReference) other).get());
+    }
+  }
+
+  // The interned nodes. Unlike an Interner, the map can be searched without adding the node looked
+  // up, so that the node of a directory that was seen before is found with a single lookup, and a
+  // new node is only added once its ancestors are interned. Weak, so that the nodes of path
+  // fragments that are no longer used can be garbage collected.
+  private static final ConcurrentMap<NodeReference, NodeReference> NODES =
+      new ConcurrentHashMap<>();
+  private static final ReferenceQueue<Node> COLLECTED_NODES = new ReferenceQueue<>();
+
   public static final int INVALID_SEGMENT = -1;
 
   public static final char SEPARATOR_CHAR = '/';
@@ -83,20 +216,20 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
 
   /** Lower-level API. Create a PathFragment, interning segments. */
   public static PathFragment create(char driveLetter, boolean isAbsolute, String[] segments) {
-    String[] internedSegments = new String[segments.length];
-    for (int i = 0; i < segments.length; i++) {
-      internedSegments[i] = StringCanonicalizer.intern(segments[i]);
-    }
     return new PathFragment(driveLetter, isAbsolute, segments);
   }
 
-  // We have 3 word-sized fields (segments, hashCode and path), and 2
-  // byte-sized ones, which fits in 16 bytes. Object sizes are rounded
-  // to 16 bytes.  Medium sized builds can easily hold millions of
-  // live PathFragments, so do not add further fields on a whim.
+  // We have 4 word-sized fields (parent, baseName, node and path), and 2
+  // byte-sized ones, which together with the object header fit in 32 bytes
+  // with compressed references.
+  // Object sizes are rounded to 8 bytes. Medium sized builds can easily hold
+  // millions of live PathFragments, so do not add further fields on a whim.
 
-  // The individual path components.
-  private final String[] segments;
+  // All path components but the last one, or null if there are none.
+  @Nullable private final Node parent;
+
+  // The last path component, or null if there are no path components.
+  @Nullable private final String baseName;
 
   // True both for UNIX-style absolute paths ("/foo") and Windows-style ("C:/foo").
   private final boolean isAbsolute;
@@ -105,8 +238,11 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   // general, we create a lot of these objects, so space is at a premium.
   private final char driveLetter;
 
-  // hashCode and path are lazily initialized but semantically immutable.
-  private int hashCode;
+  // The node of all segments, or null if there are none. Lazily initialized but semantically
+  // immutable, so that the children of a path fragment share its node.
+  private volatile Node node;
+
+  // path is lazily initialized but semantically immutable.
   private String path;
 
   /**
@@ -119,7 +255,9 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
       // TODO(bazel-team): Decide what to do about non-absolute paths with a volume name, e.g. C:x.
     }
     this.isAbsolute = path.length() > 0 && isSeparator(path.charAt(0));
-    this.segments = segment(path, isAbsolute ? 1 : 0);
+    String[] segments = segment(path, isAbsolute ? 1 : 0);
+    this.parent = getNode(segments, 0, segments.length - 1);
+    this.baseName = getBaseName(segments, segments.length);
   }
 
   private static boolean isSeparator(char c) {
@@ -135,14 +273,36 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   }
 
   /**
-   * Constructs a PathFragment, taking ownership of segments. Package-private,
-   * because it does not perform a defensive clone of the segments array. Used
-   * here in PathFragment, and by Path.asFragment() and Path.relativeTo().
+   * Constructs a PathFragment from the given segments. Package-private, because it does not check
+   * that the segments are valid. Used here in PathFragment, and by Path.asFragment() and
+   * Path.relativeTo().
    */
   PathFragment(char driveLetter, boolean isAbsolute, String[] segments) {
+    this(driveLetter, isAbsolute, segments, 0, segments.length);
+  }
+
+  /**
+   * Constructs a PathFragment from the segments from {@code start} (inclusive) to {@code end}
+   * (exclusive).
+   */
+  private PathFragment(
+      char driveLetter, boolean isAbsolute, String[] segments, int start, int end) {
+    this(driveLetter, isAbsolute, getNode(segments, start, end - 1),
+        getBaseName(segments, end - start > 0 ? end : 0));
+  }
+
+  private PathFragment(
+      char driveLetter, boolean isAbsolute, @Nullable Node parent, @Nullable String baseName) {
     this.driveLetter = driveLetter;
     this.isAbsolute = isAbsolute;
-    this.segments = segments;
+    this.parent = parent;
+    this.baseName = baseName;
+  }
+
+  private PathFragment(char driveLetter, boolean isAbsolute, @Nullable Node node) {
+    this(driveLetter, isAbsolute,
+        (node == null) ? null : node.parent, (node == null) ? null : node.segment);
+    this.node = node;
   }
 
   /**
@@ -151,35 +311,127 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    */
   public PathFragment(PathFragment first, PathFragment second, PathFragment... more) {
     // TODO(bazel-team): The handling of absolute path fragments in this constructor is unexpected.
-    this.segments = new String[sumLengths(first, second, more)];
-    int offset = 0;
-    offset += addSegments(offset, first);
-    offset += addSegments(offset, second);
+    PathFragment result = first.append(second);
     for (PathFragment fragment : more) {
-      offset += addSegments(offset, fragment);
+      result = result.append(fragment);
     }
+    this.parent = result.parent;
+    this.baseName = result.baseName;
     this.isAbsolute = first.isAbsolute;
     this.driveLetter = first.driveLetter;
   }
 
-  private int addSegments(int offset, PathFragment fragment) {
-    int count = fragment.segmentCount();
-    System.arraycopy(fragment.segments, 0, this.segments, offset, count);
-    return count;
+  /**
+   * Returns the interned node for the segments from {@code start} (inclusive) to {@code end}
+   * (exclusive).
+   */
+  @Nullable
+  private static Node getNode(String[] segments, int start, int end) {
+    Node node = null;
+    for (int i = start; i < end; i++) {
+      node = new Node(node, segments[i]);
+    }
+    return intern(node);
   }
 
-  private static int sumLengths(PathFragment first, PathFragment second, PathFragment[] more) {
-    int total = first.segmentCount() + second.segmentCount();
-    for (PathFragment fragment : more) {
-      total += fragment.segmentCount();
+  /**
+   * Returns the interned node equal to {@code node}, which is only used for the lookup. The deepest
+   * node is looked up first, as the parent directory of a path usually has been seen before. Only
+   * if it has not are its ancestors looked up, and a new node is interned with their interned
+   * nodes and a canonical segment, so that interned nodes are immutable.
+   */
+  @Nullable
+  private static Node intern(@Nullable Node node) {
+    if (node == null) {
+      return null;
+    }
+    NodeReference reference = NODES.get(new NodeReference(node, null));
+    Node interned = (reference == null) ? null : reference.get();
+    if (interned != null) {
+      return interned;
+    }
+    Node newNode = new Node(intern(node.parent), StringCanonicalizer.intern(node.segment));
+    NodeReference newReference = new NodeReference(newNode, COLLECTED_NODES);
+    for (Reference<?> collected = COLLECTED_NODES.poll(); collected != null;
+        collected = COLLECTED_NODES.poll()) {
+      NODES.remove(collected);
+    }
+    while (true) {
+      reference = NODES.putIfAbsent(newReference, newReference);
+      if (reference == null) {
+        return newNode;
+      }
+      interned = reference.get();
+      if (interned != null) {
+        return interned;
+      }
+      // The equal node was collected in the meantime, so its reference is no longer equal to the
+      // new one.
+    }
+  }
+
+  /**
+   * Returns the interned segment before {@code end}, or null if there is none.
+   */
+  @Nullable
+  private static String getBaseName(String[] segments, int end) {
+    return (end == 0) ? null : StringCanonicalizer.intern(segments[end - 1]);
+  }
+
+  /**
+   * Returns the node of all segments of this path fragment, or null if there are none. The node is
+   * not interned, so that computing the children of a path fragment does not contend on the
+   * interner.
+   */
+  @Nullable
+  private Node getNode() {
+    Node result = node;
+    if (result == null && baseName != null) {
+      result = new Node(parent, baseName);
+      node = result;
     }
-    return total;
+    return result;
+  }
+
+  /**
+   * Returns the node of the first {@code depth} segments, which must be fewer than all.
+   */
+  @Nullable
+  private Node getAncestorNode(int depth) {
+    return Node.ancestor(parent, depth);
+  }
+
+  /**
+   * Returns the segments of {@code other} appended to the segments of this path fragment, keeping
+   * the drive letter and absoluteness of this path fragment.
+   */
+  private PathFragment append(PathFragment other) {
+    if (other.baseName == null) {
+      return this;
+    }
+    if (baseName == null) {
+      // Nothing to append to, so the nodes of the other fragment can be used as they are.
+      return new PathFragment(driveLetter, isAbsolute, other.parent, other.baseName);
+    }
+    if (other.parent == null) {
+      return new PathFragment(driveLetter, isAbsolute, getNode(), other.baseName);
+    }
+    Node[] otherNodes = new Node[other.parent.depth];
+    for (Node n = other.parent; n != null; n = n.parent) {
+      otherNodes[n.depth - 1] = n;
+    }
+    Node result = getNode();
+    for (Node otherNode : otherNodes) {
+      result = new Node(result, otherNode.segment);
+    }
+    return new PathFragment(driveLetter, isAbsolute, result, other.baseName);
   }
 
   /**
    * Segments the string passed in as argument and returns an array of strings.
    * The split is performed along occurrences of (sequences of) the slash
-   * character.
+   * character. Only the last segment is interned, as the other ones become
+   * parts of nodes.
    *
    * @param toSegment the string to segment
    * @param offset how many characters from the start of the string to ignore.
@@ -217,14 +469,14 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
           // Make a copy of the String here to allow the interning to save memory. String.substring
           // does not make a copy, but refers to the original char array, preventing garbage
           // collection of the parts that are unnecessary.
-          result[seg] = StringCanonicalizer.intern(new String(chars, start,  i - start));
+          result[seg] = new String(chars, start,  i - start);
           seg++;
         }
         start = i + 1;
       }
     }
     if (start < length) {
-      result[seg] = StringCanonicalizer.intern(new String(chars, start, length - start));
+      result[seg] = new String(chars, start, length - start);
       seg++;
     }
     return result;
@@ -301,6 +553,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   }
 
   private String joinSegments(char separatorChar) {
+    String[] segments = segments();
     if (segments.length == 0 && isAbsolute) {
       return windowsVolume() + ROOT_DIR;
     }
@@ -329,8 +582,14 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * Return true iff none of the segments are either "." or "..".
    */
   public boolean isNormalized() {
-    for (String segment : segments) {
-      if (segment.equals(".") || segment.equals("..")) {
+    if (baseName == null) {
+      return true;
+    }
+    if (baseName.equals(".") || baseName.equals("..")) {
+      return false;
+    }
+    for (Node n = parent; n != null; n = n.parent) {
+      if (n.segment.equals(".") || n.segment.equals("..")) {
         return false;
       }
     }
@@ -343,6 +602,12 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * start with "..").
    */
   public PathFragment normalize() {
+    if (isNormalized()) {
+      // Optimization, no new PathFragment needs to be created.
+      return this;
+    }
+
+    String[] segments = segments();
     String[] scratchSegments = new String[segments.length];
     int segmentCount = 0;
 
@@ -366,13 +631,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
       }
     }
 
-    if (segmentCount == segments.length) {
-      // Optimization, no new PathFragment needs to be created.
-      return this;
-    }
-
-    return new PathFragment(driveLetter, isAbsolute,
-        subarray(scratchSegments, 0, segmentCount));
+    return new PathFragment(driveLetter, isAbsolute, scratchSegments, 0, segmentCount);
   }
 
   /**
@@ -386,7 +645,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   public PathFragment getRelative(PathFragment otherFragment) {
     return otherFragment.isAbsolute()
         ? otherFragment
-        : new PathFragment(this, otherFragment);
+        : append(otherFragment);
   }
 
   /**
@@ -414,17 +673,15 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    */
   public PathFragment getChild(String baseName) {
     FileSystemUtils.checkBaseName(baseName);
-    baseName = StringCanonicalizer.intern(baseName);
-    String[] newSegments = Arrays.copyOf(segments, segments.length + 1);
-    newSegments[newSegments.length - 1] = baseName;
-    return new PathFragment(driveLetter, isAbsolute, newSegments);
+    return new PathFragment(
+        driveLetter, isAbsolute, getNode(), StringCanonicalizer.intern(baseName));
   }
 
   /**
    * Returns the last segment of this path, or "" for the empty fragment.
    */
   public String getBaseName() {
-    return (segments.length == 0) ? "" : segments[segments.length - 1];
+    return (baseName == null) ? "" : baseName;
   }
 
   /**
@@ -438,25 +695,17 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * returns <code>"bar/wiz"</code>.
    */
   public PathFragment relativeTo(PathFragment ancestorDirectory) {
-    String[] ancestorSegments = ancestorDirectory.segments();
-    int ancestorLength = ancestorSegments.length;
-
     if (isAbsolute != ancestorDirectory.isAbsolute()
-        || segments.length < ancestorLength) {
+        || !hasPrefix(ancestorDirectory)) {
       throw new IllegalArgumentException("PathFragment " + this
           + " is not beneath " + ancestorDirectory);
     }
 
-    for (int index = 0; index < ancestorLength; index++) {
-      if (!segments[index].equals(ancestorSegments[index])) {
-        throw new IllegalArgumentException("PathFragment " + this
-            + " is not beneath " + ancestorDirectory);
-      }
+    int ancestorLength = ancestorDirectory.segmentCount();
+    if (ancestorLength == 0) {
+      return new PathFragment('\0', false, parent, baseName);
     }
-
-    int length = segments.length - ancestorLength;
-    String[] resultSegments = subarray(segments, ancestorLength, length);
-    return new PathFragment('\0', false, resultSegments);
+    return new PathFragment('\0', false, segments(), ancestorLength, segmentCount());
   }
 
   /**
@@ -475,7 +724,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * {@link #getRelative(String)}.
    */
   public PathFragment replaceName(String newName) {
-    return segments.length == 0 ? null : getParentDirectory().getRelative(newName);
+    return baseName == null ? null : getParentDirectory().getRelative(newName);
   }
 
   /**
@@ -485,7 +734,10 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * <p>Note: This method DOES NOT normalize ".."  and "." path segments.
    */
   public PathFragment getParentDirectory() {
-    return segments.length == 0 ? null : subFragment(0, segments.length - 1);
+    if (baseName == null) {
+      return null;
+    }
+    return new PathFragment(driveLetter, isAbsolute, parent);
   }
 
   /**
@@ -497,17 +749,26 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * order)
    */
   public boolean startsWith(PathFragment prefix) {
-    if (this.isAbsolute != prefix.isAbsolute ||
-        this.segments.length < prefix.segments.length ||
-        this.driveLetter != prefix.driveLetter) {
+    return this.isAbsolute == prefix.isAbsolute
+        && this.driveLetter == prefix.driveLetter
+        && hasPrefix(prefix);
+  }
+
+  /**
+   * Returns true iff the segments of {@code prefix} are a prefix of the segments of {@code this}.
+   */
+  private boolean hasPrefix(PathFragment prefix) {
+    int prefixLength = prefix.segmentCount();
+    int length = this.segmentCount();
+    if (prefixLength == 0) {
+      return true;
+    } else if (prefixLength == length) {
+      return this.baseName.equals(prefix.baseName) && Node.equal(this.parent, prefix.parent);
+    } else if (prefixLength > length) {
       return false;
     }
-    for (int i = 0, len = prefix.segments.length; i < len; i++) {
-      if (!this.segments[i].equals(prefix.segments[i])) {
-        return false;
-      }
-    }
-    return true;
+    Node ancestor = getAncestorNode(prefixLength);
+    return ancestor.segment.equals(prefix.baseName) && Node.equal(ancestor.parent, prefix.parent);
   }
 
   /**
@@ -519,24 +780,23 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    */
   public boolean endsWith(PathFragment suffix) {
     if ((suffix.isAbsolute && !suffix.equals(this)) ||
-        this.segments.length < suffix.segments.length) {
+        this.segmentCount() < suffix.segmentCount()) {
+      return false;
+    }
+    if (suffix.baseName == null) {
+      return true;
+    }
+    if (!this.baseName.equals(suffix.baseName)) {
       return false;
     }
-    int offset = this.segments.length - suffix.segments.length;
-    for (int i = 0; i < suffix.segments.length; i++) {
-      if (!this.segments[offset + i].equals(suffix.segments[i])) {
+    for (Node n = this.parent, s = suffix.parent; s != null; n = n.parent, s = s.parent) {
+      if (!n.segment.equals(s.segment)) {
         return false;
       }
     }
     return true;
   }
 
-  private static String[] subarray(String[] array, int start, int length) {
-    String[] subarray = new String[length];
-    System.arraycopy(array, start, subarray, 0, length);
-    return subarray;
-  }
-
   /**
    * Returns a new path fragment that is a sub fragment of this one.
    * The sub fragment begins at the specified <code>beginIndex</code> segment
@@ -554,15 +814,20 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    *             <code>endIndex</code>.
    */
   public PathFragment subFragment(int beginIndex, int endIndex) {
-    int count = segments.length;
+    int count = segmentCount();
     if ((beginIndex < 0) || (beginIndex > endIndex) || (endIndex > count)) {
       throw new IndexOutOfBoundsException(String.format("path: %s, beginIndex: %d endIndex: %d",
           toString(), beginIndex, endIndex));
     }
-    boolean isAbsolute = (beginIndex == 0) && this.isAbsolute;
-    return ((beginIndex == 0) && (endIndex == count)) ? this :
-        new PathFragment(driveLetter, isAbsolute,
-            subarray(segments, beginIndex, endIndex - beginIndex));
+    if (beginIndex == 0) {
+      if (endIndex == count) {
+        return this;
+      } else if (endIndex == 0) {
+        return new PathFragment(driveLetter, isAbsolute, null, null);
+      }
+      return new PathFragment(driveLetter, isAbsolute, getAncestorNode(endIndex));
+    }
+    return new PathFragment(driveLetter, false, segments(), beginIndex, endIndex);
   }
 
   /**
@@ -573,10 +838,16 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
   }
 
   /**
-   * Returns the segments of this path fragment. This array should not be
-   * modified.
+   * Returns the segments of this path fragment in a new array.
    */
   String[] segments() {
+    String[] segments = new String[segmentCount()];
+    if (baseName != null) {
+      segments[segments.length - 1] = baseName;
+    }
+    for (Node n = parent; n != null; n = n.parent) {
+      segments[n.depth - 1] = n.segment;
+    }
     return segments;
   }
 
@@ -596,7 +867,10 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * Returns the number of segments in this path.
    */
   public int segmentCount() {
-    return segments.length;
+    if (baseName == null) {
+      return 0;
+    }
+    return (parent == null) ? 1 : parent.depth + 1;
   }
 
   /**
@@ -604,7 +878,11 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * less than numSegments().
    */
   public String getSegment(int index) {
-    return segments[index];
+    int count = segmentCount();
+    if (index < 0 || index >= count) {
+      throw new ArrayIndexOutOfBoundsException(index);
+    }
+    return (index == count - 1) ? baseName : getAncestorNode(index + 1).segment;
   }
 
   /**
@@ -612,6 +890,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * or {@link PathFragment#INVALID_SEGMENT} if none of the segments match.
    */
   public int getFirstSegment(Set<String> values) {
+    String[] segments = segments();
     for (int i = 0; i < segments.length; i++) {
       if (values.contains(segments[i])) {
         return i;
@@ -624,8 +903,14 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    * Returns true iff this path contains uplevel references "..".
    */
   public boolean containsUplevelReferences() {
-    for (String segment : segments) {
-      if (segment.equals("..")) {
+    if (baseName == null) {
+      return false;
+    }
+    if (baseName.equals("..")) {
+      return true;
+    }
+    for (Node n = parent; n != null; n = n.parent) {
+      if (n.segment.equals("..")) {
         return true;
       }
     }
@@ -638,7 +923,7 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
    */
   public PathFragment toRelative() {
     Preconditions.checkArgument(isAbsolute);
-    return new PathFragment(driveLetter, false, segments);
+    return new PathFragment(driveLetter, false, parent, baseName);
   }
 
   /**
@@ -655,31 +940,10 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
 
   @Override
   public int hashCode() {
-    // We use the hash code caching strategy employed by java.lang.String. There are three subtle
-    // things going on here:
-    //
-    // (1) We use a value of 0 to indicate that the hash code hasn't been computed and cached yet.
-    // Yes, this means that if the hash code is really 0 then we will "recompute" it each time. But
-    // this isn't a problem in practice since a hash code of 0 is rare.
-    //
-    // (2) Since we have no synchronization, multiple threads can race here thinking there are the
-    // first one to compute and cache the hash code.
-    //
-    // (3) Moreover, since 'hashCode' is non-volatile, the cached hash code value written from one
-    // thread may not be visible by another.
-    //
-    // All three of these issues are benign from a correctness perspective; in the end we have no
-    // overhead from synchronization, at the cost of potentially computing the hash code more than
-    // once.
-    int h = hashCode;
-    if (h == 0) {
-      h = isAbsolute ? 1 : 0;
-      for (String segment : segments) {
-        h = h * 31 + segment.hashCode();
-      }
-      hashCode = h;
-    }
-    return h;
+    // The hash code of the parent directory is computed once per node, not per path fragment,
+    // and the one of the base name is cached by the string.
+    int h = (baseName == null) ? 0 : Node.hash(parent, baseName);
+    return h * 31 + (isAbsolute ? 1 : 0);
   }
 
   @Override
@@ -691,8 +955,9 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
       return false;
     }
     PathFragment otherPath = (PathFragment) other;
-    return isAbsolute == otherPath.isAbsolute &&
-        Arrays.equals(otherPath.segments, segments);
+    return isAbsolute == otherPath.isAbsolute
+        && Objects.equals(baseName, otherPath.baseName)
+        && Node.equal(parent, otherPath.parent);
   }
 
   /**
@@ -703,20 +968,12 @@ public final class PathFragment implements Comparable<PathFragment>, Serializabl
     if (isAbsolute != p2.isAbsolute) {
       return isAbsolute ? -1 : 1;
     }
-    PathFragment p1 = this;
-    String[] segments1 = p1.segments;
-    String[] segments2 = p2.segments;
-    int len1 = segments1.length;
-    int len2 = segments2.length;
+    // Compares the common number of leading segments, and then the number of segments.
+    int len1 = segmentCount();
+    int len2 = p2.segmentCount();
     int n = Math.min(len1, len2);
-    for (int i = 0; i < n; i++) {
-      String segment1 = segments1[i];
-      String segment2 = segments2[i];
-      if (!segment1.equals(segment2)) {
-       return segment1.compareTo(segment2);
-      }
-    }
-    return len1 - len2;
+    int result = Node.compareSegments(getNode(), p2.getNode(), n);
+    return (result != 0) ? result : len1 - len2;
   }
 
   @Override
@@ -189,6 +189,54 @@ public class UnixFileSystem extends AbstractFileSystem {
     }
   }
 
+  /**
+   * The number of paths stat'ed per JNI call by {@link #getBatchStatter}. Bounds the size of the
+   * native buffers and lets a batch be interrupted in between.
+   */
+  private static final int MAX_BATCH_STAT_SIZE = 4096;
+
+  /**
+   * Returns a {@link BatchStat} that resolves paths against {@code execRoot} and stats them with
+   * one JNI call per batch rather than one per path.
+   *
+   * <p>The returned statuses never include a digest; callers compute it themselves, as they do for
+   * a plain {@link Path#stat}. A status is null if the file could not be stat'ed, in which case the
+   * caller should stat it again individually to find out why.
+   */
+  public BatchStat getBatchStatter(final Path execRoot) {
+    Preconditions.checkArgument(execRoot.getFileSystem() == this, execRoot);
+    return new BatchStat() {
+      @Override
+      public List<FileStatusWithDigest> batchStat(boolean includeDigest, boolean includeLinks,
+          Iterable<PathFragment> paths) throws InterruptedException {
+        List<String> names = new ArrayList<>();
+        for (PathFragment path : paths) {
+          names.add(execRoot.getRelative(path).getPathString());
+        }
+        List<FileStatusWithDigest> result = new ArrayList<>(names.size());
+        for (List<String> batch : Lists.partition(names, MAX_BATCH_STAT_SIZE)) {
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+          long startTime = Profiler.nanoTimeMaybe();
+          try {
+            for (com.google.devtools.build.lib.unix.FileStatus status
+                : FilesystemUtils.batchStat(batch.toArray(new String[batch.size()]),
+                    !includeLinks)) {
+              result.add(status == null
+                  ? null
+                  : FileStatusWithDigestAdapter.adapt(new UnixFileStatus(status)));
+            }
+          } finally {
+            profiler.logSimpleTask(startTime, ProfilerTask.VFS_STAT,
+                "batch of " + batch.size() + " files");
+          }
+        }
+        return result;
+      }
+    };
+  }
+
   @Override
   protected boolean exists(Path path, boolean followSymlinks) {
     return statNullable(path, followSymlinks) != null;
@@ -23,6 +23,7 @@ import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
@@ -39,7 +40,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -47,6 +52,8 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
+
 /**
  * Implementation of a subset of UNIX-style file globbing, expanding "*" and "?" as wildcards, but
  * not [a-z] ranges.
@@ -89,6 +96,21 @@ public final class UnixGlob {
     }
   }
 
+  private static List<Future<List<Path>>> globAsyncPerPatternInternal(Path base,
+      List<String> patterns, Collection<String> excludePatterns, boolean excludeDirectories,
+      Predicate<Path> dirPred, FilesystemCalls syscalls, boolean checkForInterruption,
+      ThreadPoolExecutor threadPool) {
+    Preconditions.checkNotNull(threadPool, "%s %s", base, patterns);
+    try {
+      return new GlobVisitor(threadPool, checkForInterruption).globAsyncPerPattern(
+          base, patterns, excludePatterns, excludeDirectories, dirPred, syscalls);
+    } catch (IOException e) {
+      // We are evaluating asynchronously, so no exceptions should be thrown until the future is
+      // retrieved.
+      throw new IllegalStateException(e);
+    }
+  }
+
   /**
    * Checks that each pattern is valid, splits it into segments and checks
    * that each segment contains only valid wildcards.
@@ -477,6 +499,20 @@ public final class UnixGlob {
       return globAsyncInternal(base, patterns, excludes, excludeDirectories, pathFilter,
           syscalls.get(), checkForInterrupt, threadPool);
     }
+
+    /**
+     * Executes the glob asynchronously, but with a separate result for each pattern, in the order
+     * the patterns were added. The exclude patterns apply to every result. All patterns are
+     * matched in a single traversal, so each directory is read at most once, however many
+     * patterns reach it, and cancelling any of the futures cancels all of them.
+     * {@link #setThreadPool} must have been called already with a non-null argument.
+     *
+     * @param checkForInterrupt if the returned futures may throw InterruptedException.
+     */
+    public List<Future<List<Path>>> globAsyncPerPattern(boolean checkForInterrupt) {
+      return globAsyncPerPatternInternal(base, patterns, excludes, excludeDirectories, pathFilter,
+          syscalls.get(), checkForInterrupt, threadPool);
+    }
   }
 
   /**
@@ -522,13 +558,47 @@ public final class UnixGlob {
     }
   }
 
+  /**
+   * A pattern of a glob, split into segments, together with the number of segments matched by the
+   * path that leads to the directory being visited.
+   */
+  private static final class PatternPosition {
+    private final int pattern;
+    private final int segment;
+
+    private PatternPosition(int pattern, int segment) {
+      this.pattern = pattern;
+      this.segment = segment;
+    }
+
+    private PatternPosition next() {
+      return new PatternPosition(pattern, segment + 1);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof PatternPosition)) {
+        return false;
+      }
+      PatternPosition that = (PatternPosition) other;
+      return pattern == that.pattern && segment == that.segment;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * pattern + segment;
+    }
+  }
+
   /**
    * GlobVisitor executes a glob using parallelism, which is useful when
    * the glob() requires many readdir() calls on high latency filesystems.
+   *
+   * <p>All patterns of the glob are matched in a single traversal: each visited directory carries
+   * the set of patterns (and positions within them) that can still match below it, so a directory
+   * is read at most once however many patterns reach it.
    */
   private static final class GlobVisitor {
-    // These collections are used across workers and must therefore be thread-safe.
-    private final Collection<Path> results = Sets.newConcurrentHashSet();
     private final Cache<String, Pattern> cache = CacheBuilder.newBuilder().build(
         new CacheLoader<String, Pattern>() {
             @Override
@@ -537,15 +607,27 @@ public final class UnixGlob {
             }
           });
 
-    private final GlobFuture result;
     private final ThreadPoolExecutor executor;
+    private final boolean failFastOnInterrupt;
     private final AtomicLong pendingOps = new AtomicLong(0);
     private final AtomicReference<IOException> failure = new AtomicReference<>();
     private volatile boolean canceled = false;
 
+    // Set once at the start of the glob, and read-only afterwards.
+    private List<String> patterns;
+    private List<String[]> splitPatterns;
+    private boolean excludeDirectories;
+    private Predicate<Path> dirPred;
+    private FilesystemCalls syscalls;
+    /** For each pattern, the index of the result it contributes to. */
+    private int[] resultIndices;
+    // These collections are used across workers and must therefore be thread-safe.
+    private List<Collection<Path>> results;
+    private List<GlobFuture> futures;
+
     public GlobVisitor(ThreadPoolExecutor executor, boolean failFastOnInterrupt) {
       this.executor = executor;
-      this.result = new GlobFuture(this, failFastOnInterrupt);
+      this.failFastOnInterrupt = failFastOnInterrupt;
     }
 
     public GlobVisitor(boolean failFastOnInterrupt) {
@@ -587,46 +669,75 @@ public final class UnixGlob {
     public Future<List<Path>> globAsync(Path base, Collection<String> patterns,
         Collection<String> excludePatterns, boolean excludeDirectories,
         Predicate<Path> dirPred, FilesystemCalls syscalls) throws IOException {
-
-      FileStatus baseStat = syscalls.statNullable(base, Symlinks.FOLLOW);
-      if (baseStat == null || patterns.isEmpty()) {
+      if (patterns.isEmpty()) {
         return Futures.immediateFuture(Collections.<Path>emptyList());
       }
+      // All patterns contribute to the same result.
+      return start(base, ImmutableList.copyOf(patterns), new int[patterns.size()], 1,
+          excludePatterns, excludeDirectories, dirPred, syscalls).get(0);
+    }
 
-      List<String[]> splitPatterns = checkAndSplitPatterns(patterns);
+    public List<Future<List<Path>>> globAsyncPerPattern(Path base, List<String> patterns,
+        Collection<String> excludePatterns, boolean excludeDirectories,
+        Predicate<Path> dirPred, FilesystemCalls syscalls) throws IOException {
+      int[] resultIndices = new int[patterns.size()];
+      for (int i = 0; i < resultIndices.length; i++) {
+        resultIndices[i] = i;
+      }
+      return start(base, ImmutableList.copyOf(patterns), resultIndices, patterns.size(),
+          excludePatterns, excludeDirectories, dirPred, syscalls);
+    }
+
+    private List<Future<List<Path>>> start(Path base, List<String> patterns, int[] resultIndices,
+        int numResults, Collection<String> excludePatterns, boolean excludeDirectories,
+        Predicate<Path> dirPred, FilesystemCalls syscalls) throws IOException {
+      this.patterns = patterns;
+      this.splitPatterns = checkAndSplitPatterns(patterns);
       List<String[]> splitExcludes = checkAndSplitPatterns(excludePatterns);
+      this.excludeDirectories = excludeDirectories;
+      this.dirPred = dirPred;
+      this.syscalls = syscalls;
+      this.resultIndices = resultIndices;
+      this.results = new ArrayList<>(numResults);
+      this.futures = new ArrayList<>(numResults);
+      List<Future<List<Path>>> futures = new ArrayList<>(numResults);
+      for (int i = 0; i < numResults; i++) {
+        results.add(Sets.<Path>newConcurrentHashSet());
+        GlobFuture future = new GlobFuture(this, failFastOnInterrupt);
+        this.futures.add(future);
+        futures.add(future);
+      }
+
+      FileStatus baseStat = syscalls.statNullable(base, Symlinks.FOLLOW);
+      if (baseStat == null || patterns.isEmpty()) {
+        return Collections.nCopies(numResults,
+            Futures.immediateFuture(Collections.<Path>emptyList()));
+      }
 
-      // We do a dumb loop, even though it will likely duplicate work
-      // (e.g., readdir calls). In order to optimize, we would need
-      // to keep track of which patterns shared sub-patterns and which did not
-      // (for example consider the glob [*/*.java, sub/*.java, */*.txt]).
+      List<PatternPosition> positions = new ArrayList<>(patterns.size());
+      for (int i = 0; i < patterns.size(); i++) {
+        positions.add(new PatternPosition(i, 0));
+      }
       pendingOps.incrementAndGet();
       try {
-        for (String[] splitPattern : splitPatterns) {
-          queueGlob(base, baseStat.isDirectory(), splitPattern, 0, excludeDirectories,
-                  splitExcludes, 0, results, cache, dirPred, syscalls);
-        }
+        queueGlob(base, baseStat.isDirectory(), positions, splitExcludes, 0);
       } finally {
         decrementAndCheckDone();
       }
 
-      return result;
+      return futures;
     }
 
     private void queueGlob(final Path base, final boolean baseIsDir,
-        final String[] patternParts, final int idx,
-        final boolean excludeDirectories,
+        final Collection<PatternPosition> positions,
         final List<String[]> excludePatterns,
-        final int excludeIdx,
-        final Collection<Path> results, final Cache<String, Pattern> cache,
-        final Predicate<Path> dirPred, final FilesystemCalls syscalls) throws IOException {
+        final int excludeIdx) throws IOException {
       enqueue(new Runnable() {
         @Override
         public void run() {
           Profiler.instance().startTask(ProfilerTask.VFS_GLOB, this);
           try {
-            reallyGlob(base, baseIsDir, patternParts, idx, excludeDirectories,
-                    excludePatterns, excludeIdx, results, cache, dirPred, syscalls);
+            reallyGlob(base, baseIsDir, positions, excludePatterns, excludeIdx);
           } catch (IOException e) {
             failure.set(e);
           } finally {
@@ -636,11 +747,19 @@ public final class UnixGlob {
 
         @Override
         public String toString() {
+          List<String> include = new ArrayList<>(positions.size());
+          for (PatternPosition position : positions) {
+            include.add(patterns.get(position.pattern));
+          }
+          List<String> exclude = new ArrayList<>(excludePatterns.size());
+          for (String[] excludePattern : excludePatterns) {
+            exclude.add(Joiner.on('/').join(excludePattern));
+          }
           return String.format(
                   "%s glob(include=[%s], exclude=[%s], exclude_directories=%s)",
                   base.getPathString(),
-                  "\"" + Joiner.on("\", \"").join(patternParts) + "\"",
-                  "\"" + Joiner.on("\", \"").join(excludePatterns) + "\"",
+                  "\"" + Joiner.on("\", \"").join(include) + "\"",
+                  "\"" + Joiner.on("\", \"").join(exclude) + "\"",
                   excludeDirectories);
         }
       });
@@ -678,108 +797,153 @@ public final class UnixGlob {
         // We get to 0 iff we are done all the relevant work. This is because we always increment
         // the pending ops count as we're enqueuing, and don't decrement until the task is complete
         // (which includes accounting for any additional tasks that one enqueues).
-        if (canceled) {
-          result.markCanceled();
-        } else if (failure.get() != null) {
-          result.setException(failure.get());
-        } else {
-          result.set(Ordering.<Path>natural().immutableSortedCopy(results));
+        for (int i = 0; i < futures.size(); i++) {
+          GlobFuture result = futures.get(i);
+          if (canceled) {
+            result.markCanceled();
+          } else if (failure.get() != null) {
+            result.setException(failure.get());
+          } else {
+            result.set(Ordering.<Path>natural().immutableSortedCopy(results.get(i)));
+          }
         }
       }
     }
 
+    private void addResult(PatternPosition position, Path path) {
+      results.get(resultIndices[position.pattern]).add(path);
+    }
+
     /**
-     * Expressed in Haskell:
+     * Expressed in Haskell, for a single pattern:
      * <pre>
      *  reallyGlob base []     = { base }
      *  reallyGlob base [x:xs] = union { reallyGlob(f, xs) | f results "base/x" }
      * </pre>
+     *
+     * <p>{@code positions} are all the patterns that are still alive at {@code base}, each with
+     * the number of segments matched so far.
      */
-    private void reallyGlob(Path base, boolean baseIsDir, String[] patternParts, int idx,
-        boolean excludeDirectories,
-        List<String[]> excludePatterns,
-        int excludeIdx,
-        Collection<Path> results, Cache<String, Pattern> cache,
-        Predicate<Path> dirPred,
-        FilesystemCalls syscalls) throws IOException {
+    private void reallyGlob(Path base, boolean baseIsDir, Collection<PatternPosition> positions,
+        List<String[]> excludePatterns, int excludeIdx) throws IOException {
       if (baseIsDir && !dirPred.apply(base)) {
         return;
       }
 
-      if (idx == patternParts.length) { // Base case.
-        if (!(excludeDirectories && baseIsDir) &&
-            !excludedOnMatch(base, excludePatterns, excludeIdx, cache)) {
-          results.add(base);
+      // ** is special: it can match nothing at all, but only below a directory.
+      // For example, x/** matches x, **/y matches y, and x/**/y matches x/y.
+      Set<PatternPosition> expandedPositions = new LinkedHashSet<>();
+      for (PatternPosition position : positions) {
+        String[] patternParts = splitPatterns.get(position.pattern);
+        expandedPositions.add(position);
+        while (baseIsDir && position.segment < patternParts.length
+            && "**".equals(patternParts[position.segment])) {
+          position = position.next();
+          expandedPositions.add(position);
         }
-
-        return;
       }
 
-      if (!baseIsDir) {
-        // Nothing to find here.
+      // Children named literally by a pattern segment, which only need a stat, and the patterns
+      // that continue with them.
+      Map<String, Set<PatternPosition>> literalChildren = new LinkedHashMap<>();
+      // Positions at a segment with a wildcard, which need a readdir.
+      List<PatternPosition> wildcardPositions = new ArrayList<>();
+      for (PatternPosition position : expandedPositions) {
+        String[] patternParts = splitPatterns.get(position.pattern);
+        if (position.segment == patternParts.length) { // Base case.
+          if (!(excludeDirectories && baseIsDir)
+              && !excludedOnMatch(base, excludePatterns, excludeIdx, cache)) {
+            addResult(position, base);
+          }
+          continue;
+        }
+        if (!baseIsDir) {
+          // Nothing to find here.
+          continue;
+        }
+        String pattern = patternParts[position.segment];
+        if (!pattern.contains("*") && !pattern.contains("?")) {
+          Set<PatternPosition> childPositions = literalChildren.get(pattern);
+          if (childPositions == null) {
+            childPositions = new LinkedHashSet<>();
+            literalChildren.put(pattern, childPositions);
+          }
+          childPositions.add(position.next());
+        } else {
+          wildcardPositions.add(position);
+        }
+      }
+      if (literalChildren.isEmpty() && wildcardPositions.isEmpty()) {
         return;
       }
 
       List<String[]> relevantExcludes
           = getRelevantExcludes(base, excludePatterns, excludeIdx, cache);
-      final String pattern = patternParts[idx];
 
-      // ** is special: it can match nothing at all.
-      // For example, x/** matches x, **/y matches y, and x/**/y matches x/y.
-      if ("**".equals(pattern)) {
-        queueGlob(base, baseIsDir, patternParts, idx + 1, excludeDirectories,
-            excludePatterns, excludeIdx, results, cache, dirPred, syscalls);
+      if (!wildcardPositions.isEmpty()) {
+        Collection<Dirent> dents = syscalls.readdir(base, Symlinks.FOLLOW);
+
+        for (Dirent dent : dents) {
+          String text = dent.getName();
+          // A child named literally by some pattern is visited here too, so that it is not queued
+          // a second time below.
+          Set<PatternPosition> childPositions = literalChildren.remove(text);
+          Dirent.Type type = dent.getType();
+          if (type == Dirent.Type.UNKNOWN) {
+            // The file is a dangling symlink, fifo, etc.
+            continue;
+          }
+          boolean childIsDir = (type == Dirent.Type.DIRECTORY);
+
+          for (PatternPosition position : wildcardPositions) {
+            String pattern = splitPatterns.get(position.pattern)[position.segment];
+            if (childIsDir && "**".equals(pattern)) {
+              // Recurse without shifting the pattern.
+              childPositions = addPosition(childPositions, position);
+            }
+            if (matches(pattern, text, cache)) {
+              // Recurse and consume one segment of the pattern.
+              childPositions = addPosition(childPositions, position.next());
+            }
+          }
+          if (childPositions == null) {
+            continue;
+          }
+
+          Path child = base.getChild(text);
+          if (childIsDir) {
+            queueGlob(child, childIsDir, childPositions, relevantExcludes, excludeIdx + 1);
+          } else {
+            // Instead of using an async call, just repeat the base case above.
+            for (PatternPosition position : childPositions) {
+              if (position.segment == splitPatterns.get(position.pattern).length
+                  && !excludedOnMatch(child, relevantExcludes, excludeIdx + 1, cache)) {
+                addResult(position, child);
+              }
+            }
+          }
+        }
       }
 
-      if (!pattern.contains("*") && !pattern.contains("?")) {
+      for (Map.Entry<String, Set<PatternPosition>> entry : literalChildren.entrySet()) {
         // We do not need to do a readdir in this case, just a stat.
-        Path child = base.getChild(pattern);
+        Path child = base.getChild(entry.getKey());
         FileStatus status = syscalls.statNullable(child, Symlinks.FOLLOW);
         if (status == null || (!status.isDirectory() && !status.isFile())) {
           // The file is a dangling symlink, fifo, does not exist, etc.
-          return;
-        }
-
-        boolean childIsDir = status.isDirectory();
-
-        queueGlob(child, childIsDir, patternParts, idx + 1, excludeDirectories,
-            relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
-        return;
-      }
-
-      Collection<Dirent> dents = syscalls.readdir(base, Symlinks.FOLLOW);
-
-      for (Dirent dent : dents) {
-        Dirent.Type type = dent.getType();
-        if (type == Dirent.Type.UNKNOWN) {
-          // The file is a dangling symlink, fifo, etc.
           continue;
         }
-        boolean childIsDir = (type == Dirent.Type.DIRECTORY);
-        String text = dent.getName();
-        Path child = base.getChild(text);
+        queueGlob(child, status.isDirectory(), entry.getValue(), relevantExcludes, excludeIdx + 1);
+      }
+    }
 
-        if ("**".equals(pattern)) {
-          // Recurse without shifting the pattern.
-          if (childIsDir) {
-            queueGlob(child, childIsDir, patternParts, idx, excludeDirectories,
-                relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
-          }
-        }
-        if (matches(pattern, text, cache)) {
-          // Recurse and consume one segment of the pattern.
-          if (childIsDir) {
-            queueGlob(child, childIsDir, patternParts, idx + 1, excludeDirectories,
-                relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
-          } else {
-            // Instead of using an async call, just repeat the base case above.
-            if (idx + 1 == patternParts.length &&
-                !excludedOnMatch(child, relevantExcludes, excludeIdx + 1, cache)) {
-              results.add(child);
-            }
-          }
-        }
+    private static Set<PatternPosition> addPosition(
+        @Nullable Set<PatternPosition> positions, PatternPosition position) {
+      if (positions == null) {
+        positions = new LinkedHashSet<>();
       }
+      positions.add(position);
+      return positions;
     }
   }
 }
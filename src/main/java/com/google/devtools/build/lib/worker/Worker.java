@@ -16,13 +16,18 @@ package com.google.devtools.build.lib.worker;
 import com.google.common.base.Preconditions;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.util.ProcStatusParser;
 import com.google.devtools.build.lib.vfs.Path;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ProcessBuilder.Redirect;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Interface to a worker process running as a child process.
@@ -35,16 +40,20 @@ import java.util.concurrent.atomic.AtomicInteger;
  * <p>Other code in Blaze can talk to the worker process via input / output streams provided by this
  * class.
  */
-final class Worker {
+class Worker {
+  private static final Logger LOG = Logger.getLogger(Worker.class.getName());
   private static final AtomicInteger pidCounter = new AtomicInteger();
   private final int workerId;
   private final Process process;
   private final Thread shutdownHook;
+  // The operating system id of the process, or -1 if it is not known.
+  private final long processId;
 
-  private Worker(Process process, Thread shutdownHook, int pid) {
+  Worker(Process process, Thread shutdownHook, int pid, long processId) {
     this.process = process;
     this.shutdownHook = shutdownHook;
     this.workerId = pid;
+    this.processId = processId;
   }
 
   static Worker create(WorkerKey key, Path logDir, Reporter reporter, boolean verbose)
@@ -83,7 +92,7 @@ final class Worker {
                   + logFile));
     }
 
-    return new Worker(process, shutdownHook, workerId);
+    return new Worker(process, shutdownHook, workerId, getProcessId(process));
   }
 
   void destroy() {
@@ -136,6 +145,48 @@ final class Worker {
     }
   }
 
+  /**
+   * Returns the resident memory of the worker process in KB, or -1 if it cannot be determined,
+   * e.g. because the platform does not support it.
+   */
+  long getResidentMemoryKb() {
+    if (processId < 0) {
+      return -1;
+    }
+    try {
+      return new ProcStatusParser(processId).getResidentKb();
+    } catch (IOException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Returns the operating system id of a process, or -1 if it is not known.
+   */
+  private static long getProcessId(Process process) {
+    Method pidMethod;
+    try {
+      // Available from Java 9 on.
+      pidMethod = Process.class.getMethod("pid");
+    } catch (NoSuchMethodException e) {
+      pidMethod = null;
+    }
+    try {
+      if (pidMethod != null) {
+        return (Long) pidMethod.invoke(process);
+      }
+      // Up to Java 8, only java.lang.UNIXProcess knows the id, in a private field.
+      if (process.getClass().getName().equals("java.lang.UNIXProcess")) {
+        Field pidField = process.getClass().getDeclaredField("pid");
+        pidField.setAccessible(true);
+        return pidField.getInt(process);
+      }
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      LOG.log(Level.INFO, "Could not determine the process id of a worker", e);
+    }
+    return -1;
+  }
+
   InputStream getInputStream() {
     return process.getInputStream();
   }
@@ -13,6 +13,8 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.vfs.Path;
@@ -21,13 +23,19 @@ import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
 
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Factory used by the pool to create / destroy / validate worker processes.
  */
-final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker> {
+class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker> {
   private Path logDir;
   private Reporter reporter;
   private boolean verbose;
+  // All workers that were created and not destroyed yet.
+  private final Map<Worker, WorkerKey> liveWorkers = new ConcurrentHashMap<>();
 
   public void setLogDirectory(Path logDir) {
     this.logDir = logDir;
@@ -43,9 +51,26 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
 
   @Override
   public Worker create(WorkerKey key) throws Exception {
+    Worker worker = startWorker(key);
+    liveWorkers.put(worker, key);
+    return worker;
+  }
+
+  /**
+   * Starts the process of a new worker.
+   */
+  @VisibleForTesting
+  Worker startWorker(WorkerKey key) throws IOException {
     return Worker.create(key, logDir, reporter, verbose);
   }
 
+  /**
+   * Returns the keys of all workers that were created and not destroyed yet, by worker.
+   */
+  ImmutableMap<Worker, WorkerKey> getLiveWorkers() {
+    return ImmutableMap.copyOf(liveWorkers);
+  }
+
   /**
    * Use the DefaultPooledObject implementation.
    */
@@ -59,16 +84,21 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
    */
   @Override
   public void destroyObject(WorkerKey key, PooledObject<Worker> p) throws Exception {
+    destroyWorker(key, p.getObject());
+  }
+
+  void destroyWorker(WorkerKey key, Worker worker) {
     if (verbose) {
       reporter.handle(
           Event.info(
               "Destroying "
                   + key.getMnemonic()
                   + " worker (id "
-                  + p.getObject().getWorkerId()
+                  + worker.getWorkerId()
                   + ")."));
     }
-    p.getObject().destroy();
+    liveWorkers.remove(worker);
+    worker.destroy();
   }
 
   /**
@@ -38,6 +38,8 @@ import java.io.IOException;
  */
 public class WorkerModule extends BlazeModule {
   private WorkerPool workers;
+  // The workers used by the previous build, to pre-warm them for the next one.
+  private WorkerPool.Usage previousUsage;
 
   private CommandEnvironment env;
   private BuildRequest buildRequest;
@@ -103,6 +105,10 @@ public class WorkerModule extends BlazeModule {
     workers.setMinIdlePerKey(options.workerMaxInstances);
     workers.setVerbose(options.workerVerbose);
     this.verbose = options.workerVerbose;
+
+    if (options.workerPrewarm && previousUsage != null && !previousUsage.isEmpty()) {
+      workers.prewarm(previousUsage);
+    }
   }
 
   @Override
@@ -123,7 +129,12 @@ public class WorkerModule extends BlazeModule {
 
   @Subscribe
   public void buildComplete(BuildCompleteEvent event) {
-    if (workers != null && buildRequest.getOptions(WorkerOptions.class).workerQuitAfterBuild) {
+    if (workers == null) {
+      return;
+    }
+    previousUsage = workers.takeUsage();
+    WorkerOptions options = buildRequest.getOptions(WorkerOptions.class);
+    if (options.workerQuitAfterBuild) {
       if (verbose) {
         env
             .getReporter()
@@ -131,6 +142,27 @@ public class WorkerModule extends BlazeModule {
       }
       workers.close();
       workers = null;
+    } else if (options.workerMaxTotalMemoryMb > 0) {
+      evictLargestWorkers(options.workerMaxTotalMemoryMb);
+    }
+  }
+
+  private void evictLargestWorkers(int maxTotalMemoryMb) {
+    try {
+      int evicted = workers.evictLargestWorkers(maxTotalMemoryMb * 1024L);
+      if (verbose && evicted > 0) {
+        env
+            .getReporter()
+            .handle(
+                Event.info(
+                    String.format(
+                        "Shut down %d worker(s) to stay below --worker_max_total_memory_mb=%d",
+                        evicted, maxTotalMemoryMb)));
+      }
+    } catch (Exception e) {
+      env
+          .getReporter()
+          .handle(Event.warn("Could not shut down workers over the memory limit: " + e));
     }
   }
 
@@ -140,6 +172,7 @@ public class WorkerModule extends BlazeModule {
   @Subscribe
   public void buildInterrupted(BuildInterruptedEvent event) {
     if (workers != null) {
+      previousUsage = workers.takeUsage();
       if (verbose) {
         env
             .getReporter()
@@ -0,0 +1,193 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Sends concurrent requests to a single worker process.
+ *
+ * <p>Each request gets a unique id, which the worker copies into its response. A reader thread
+ * receives the responses in the order the worker finishes them and hands them to the threads
+ * waiting for them. If the worker exits or sends something that is not a valid response, all
+ * pending requests fail and the multiplexer is no longer alive.
+ */
+@ThreadSafe
+final class WorkerMultiplexer {
+  private final Worker worker;
+  private final int maxRequests;
+  private final Semaphore requestSlots;
+  private final AtomicInteger lastRequestId = new AtomicInteger();
+  private final ConcurrentMap<Integer, SettableFuture<WorkResponse>> pendingRequests =
+      new ConcurrentHashMap<>();
+  private final Object writeLock = new Object();
+  private volatile IOException failure;
+
+  WorkerMultiplexer(Worker worker, int maxRequests) {
+    Preconditions.checkArgument(maxRequests > 0);
+    this.worker = Preconditions.checkNotNull(worker);
+    this.maxRequests = maxRequests;
+    this.requestSlots = new Semaphore(maxRequests, true);
+
+    Thread readerThread =
+        new Thread("worker-multiplexer-" + worker.getWorkerId()) {
+          @Override
+          public void run() {
+            readResponses();
+          }
+        };
+    readerThread.setDaemon(true);
+    readerThread.start();
+  }
+
+  /**
+   * Sends a request to the worker and waits for its response. Blocks while the worker already
+   * handles the maximum number of requests.
+   *
+   * <p>If the caller is interrupted after the request was sent, the request keeps its slot until
+   * the worker responds to it or fails, as the worker still handles it until then.
+   *
+   * @throws IOException if the worker failed before responding
+   */
+  WorkResponse execute(WorkRequest request) throws IOException, InterruptedException {
+    requestSlots.acquire();
+    int requestId = lastRequestId.incrementAndGet();
+    if (requestId <= 0) {
+      requestSlots.release();
+      throw new IOException("Ran out of request ids, the worker must be restarted");
+    }
+    SettableFuture<WorkResponse> response = SettableFuture.create();
+    pendingRequests.put(requestId, response);
+    boolean sent = false;
+    try {
+      // The reader thread sets the failure before it fails the pending requests, so either it
+      // fails this request or we see the failure here.
+      checkNotFailed();
+      synchronized (writeLock) {
+        request
+            .toBuilder()
+            .setRequestId(requestId)
+            .build()
+            .writeDelimitedTo(worker.getOutputStream());
+        worker.getOutputStream().flush();
+      }
+      sent = true;
+    } finally {
+      if (!sent) {
+        finishRequest(requestId);
+      }
+    }
+
+    try {
+      return response.get();
+    } catch (ExecutionException e) {
+      throw (IOException) e.getCause();
+    } catch (InterruptedException e) {
+      // The reader thread ignores the response, and only then releases the slot of the request.
+      response.cancel(false);
+      throw e;
+    }
+  }
+
+  /**
+   * Removes a request from the pending ones and releases its slot. Returns the future of its
+   * response, or null if the request was already finished by another thread.
+   */
+  private SettableFuture<WorkResponse> finishRequest(int requestId) {
+    SettableFuture<WorkResponse> response = pendingRequests.remove(requestId);
+    if (response != null) {
+      requestSlots.release();
+    }
+    return response;
+  }
+
+  private void checkNotFailed() throws IOException {
+    IOException e = failure;
+    if (e != null) {
+      throw new IOException("Multiplexed worker failed", e);
+    }
+  }
+
+  private void readResponses() {
+    InputStream inputStream = worker.getInputStream();
+    try {
+      while (true) {
+        WorkResponse response = WorkResponse.parseDelimitedFrom(inputStream);
+        if (response == null) {
+          throw new IOException("Worker process exited");
+        }
+        int requestId = response.getRequestId();
+        if (requestId <= 0 || requestId > lastRequestId.get()) {
+          throw new IOException(
+              "Worker process returned a WorkResponse for an unknown request id " + requestId
+                  + ". This is probably caused by a bug in the worker, writing unexpected other "
+                  + "data to stdout.");
+        }
+        SettableFuture<WorkResponse> pendingResponse = finishRequest(requestId);
+        if (pendingResponse != null) {
+          pendingResponse.set(response);
+        }
+      }
+    } catch (IOException e) {
+      failure = e;
+      for (Integer requestId : pendingRequests.keySet()) {
+        SettableFuture<WorkResponse> pendingResponse = finishRequest(requestId);
+        if (pendingResponse != null) {
+          pendingResponse.setException(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of requests that can be sent before the worker handles the maximum number
+   * of requests.
+   */
+  @VisibleForTesting
+  int getAvailableRequestSlots() {
+    return requestSlots.availablePermits();
+  }
+
+  /**
+   * Returns the maximum number of requests that the worker handles concurrently.
+   */
+  int getMaxRequests() {
+    return maxRequests;
+  }
+
+  /**
+   * Returns the worker process. Destroying it fails the pending requests.
+   */
+  Worker getWorker() {
+    return worker;
+  }
+
+  boolean isAlive() {
+    return failure == null && worker.isAlive();
+  }
+}
@@ -13,9 +13,18 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.devtools.common.options.Converter;
+import com.google.devtools.common.options.Converters.AssignmentConverter;
 import com.google.devtools.common.options.Option;
 import com.google.devtools.common.options.Options;
 import com.google.devtools.common.options.OptionsBase;
+import com.google.devtools.common.options.OptionsParsingException;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Options related to worker processes.
@@ -42,6 +51,20 @@ public class WorkerOptions extends OptionsBase {
   )
   public int workerMaxInstances;
 
+  @Option(
+    name = "worker_max_multiplex_requests",
+    allowMultiple = true,
+    converter = MultiplexRequestsConverter.class,
+    defaultValue = "",
+    category = "strategy",
+    help =
+        "Run the workers of a mnemonic in multiplexed mode, in which a single worker process "
+            + "handles up to this many requests concurrently. Example: 'Javac=8'. The worker must "
+            + "support the request_id field of the worker protocol. --worker_max_instances does "
+            + "not apply to multiplexed workers."
+  )
+  public List<Map.Entry<String, Integer>> workerMaxMultiplexRequests;
+
   @Option(
     name = "worker_max_changed_files",
     defaultValue = "0",
@@ -60,6 +83,27 @@ public class WorkerOptions extends OptionsBase {
   )
   public int workerMaxRetries;
 
+  @Option(
+    name = "worker_max_total_memory_mb",
+    defaultValue = "0",
+    category = "strategy",
+    help =
+        "If the resident memory of all workers together exceeds this many megabytes after a "
+            + "build, the largest workers are shut down until it doesn't anymore. 0 means "
+            + "unlimited. Only supported on Linux."
+  )
+  public int workerMaxTotalMemoryMb;
+
+  @Option(
+    name = "worker_prewarm",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "If enabled, the workers used by the previous build are started in the background when "
+            + "a build starts, so that actions don't have to wait for them to start up."
+  )
+  public boolean workerPrewarm;
+
   @Option(
     name = "worker_quit_after_build",
     defaultValue = "false",
@@ -75,4 +119,44 @@ public class WorkerOptions extends OptionsBase {
     help = "If enabled, prints verbose messages when workers are started, shutdown, ..."
   )
   public boolean workerVerbose;
+
+  /**
+   * Returns the maximum number of concurrent requests of the multiplexed workers, by mnemonic.
+   * Later occurrences of a mnemonic override earlier ones.
+   */
+  public ImmutableMap<String, Integer> getMaxMultiplexRequests() {
+    Map<String, Integer> maxRequests = new LinkedHashMap<>();
+    for (Map.Entry<String, Integer> entry : workerMaxMultiplexRequests) {
+      maxRequests.put(entry.getKey(), entry.getValue());
+    }
+    return ImmutableMap.copyOf(maxRequests);
+  }
+
+  /**
+   * Converts a "mnemonic=n" assignment, where n is a positive number of requests.
+   */
+  public static class MultiplexRequestsConverter
+      implements Converter<Map.Entry<String, Integer>> {
+    private final AssignmentConverter assignmentConverter = new AssignmentConverter();
+
+    @Override
+    public Map.Entry<String, Integer> convert(String input) throws OptionsParsingException {
+      Map.Entry<String, String> assignment = assignmentConverter.convert(input);
+      int maxRequests;
+      try {
+        maxRequests = Integer.parseInt(assignment.getValue());
+      } catch (NumberFormatException e) {
+        throw new OptionsParsingException("'" + assignment.getValue() + "' is not an int");
+      }
+      if (maxRequests <= 0) {
+        throw new OptionsParsingException("The number of requests must be positive");
+      }
+      return Maps.immutableEntry(assignment.getKey(), maxRequests);
+    }
+
+    @Override
+    public String getTypeDescription() {
+      return "a 'mnemonic=number of requests' assignment";
+    }
+  }
 }
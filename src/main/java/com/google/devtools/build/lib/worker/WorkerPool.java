@@ -13,14 +13,23 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.vfs.Path;
 
 import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -28,12 +37,47 @@ import javax.annotation.concurrent.ThreadSafe;
  * A worker pool that spawns multiple workers and delegates work to them.
  *
  * <p>This is useful when the worker cannot handle multiple parallel requests on its own and we need
- * to pre-fork a couple of them instead.
+ * to pre-fork a couple of them instead. Workers that can handle multiple parallel requests are
+ * shared through a {@link WorkerMultiplexer} instead, of which there is at most one per key.
  */
 @ThreadSafe
 final class WorkerPool extends GenericKeyedObjectPool<WorkerKey, Worker> {
+  private static final Logger LOG = Logger.getLogger(WorkerPool.class.getName());
+
+  /**
+   * The workers used during a period of time, e.g. a build: the largest number of workers used at
+   * the same time per key, and the number of concurrent requests of each multiplexer.
+   */
+  static final class Usage {
+    private final ImmutableMap<WorkerKey, Integer> workers;
+    private final ImmutableMap<WorkerKey, Integer> multiplexers;
+
+    Usage(ImmutableMap<WorkerKey, Integer> workers, ImmutableMap<WorkerKey, Integer> multiplexers) {
+      this.workers = workers;
+      this.multiplexers = multiplexers;
+    }
+
+    ImmutableMap<WorkerKey, Integer> getWorkers() {
+      return workers;
+    }
+
+    ImmutableMap<WorkerKey, Integer> getMultiplexers() {
+      return multiplexers;
+    }
+
+    boolean isEmpty() {
+      return workers.isEmpty() && multiplexers.isEmpty();
+    }
+  }
+
   final WorkerFactory workerFactory;
   final Set<Worker> workers = new HashSet<>();
+  private final Map<WorkerKey, WorkerMultiplexer> multiplexers = new HashMap<>();
+  // The workers that are borrowed from the pool and not returned yet.
+  private final Set<Worker> activeWorkers = new HashSet<>();
+  // The workers used since the last call to takeUsage(), see Usage.
+  private final Map<WorkerKey, Integer> usedWorkers = new HashMap<>();
+  private final Map<WorkerKey, Integer> usedMultiplexers = new HashMap<>();
 
   public WorkerPool(WorkerFactory factory, GenericKeyedObjectPoolConfig config) {
     super(factory, config);
@@ -51,4 +95,199 @@ final class WorkerPool extends GenericKeyedObjectPool<WorkerKey, Worker> {
   public void setVerbose(boolean verbose) {
     this.workerFactory.setVerbose(verbose);
   }
+
+  @Override
+  public Worker borrowObject(WorkerKey key) throws Exception {
+    Worker worker = super.borrowObject(key);
+    synchronized (this) {
+      activeWorkers.add(worker);
+      Integer used = usedWorkers.get(key);
+      int active = getNumActive(key);
+      if (used == null || used < active) {
+        usedWorkers.put(key, active);
+      }
+    }
+    return worker;
+  }
+
+  @Override
+  public void returnObject(WorkerKey key, Worker worker) {
+    synchronized (this) {
+      activeWorkers.remove(worker);
+    }
+    super.returnObject(key, worker);
+  }
+
+  @Override
+  public void invalidateObject(WorkerKey key, Worker worker) throws Exception {
+    synchronized (this) {
+      activeWorkers.remove(worker);
+    }
+    super.invalidateObject(key, worker);
+  }
+
+  /**
+   * Returns the multiplexer for the given key, starting a worker process for it if there is no
+   * live one that handles {@code maxRequests} concurrent requests.
+   */
+  public synchronized WorkerMultiplexer getMultiplexer(WorkerKey key, int maxRequests)
+      throws Exception {
+    WorkerMultiplexer multiplexer = startMultiplexer(key, maxRequests);
+    usedMultiplexers.put(key, maxRequests);
+    return multiplexer;
+  }
+
+  /**
+   * Like {@link #getMultiplexer}, but without recording the multiplexer as used.
+   */
+  private synchronized WorkerMultiplexer startMultiplexer(WorkerKey key, int maxRequests)
+      throws Exception {
+    WorkerMultiplexer multiplexer = multiplexers.get(key);
+    if (multiplexer != null
+        && (!multiplexer.isAlive() || multiplexer.getMaxRequests() != maxRequests)) {
+      invalidateMultiplexer(key, multiplexer);
+      multiplexer = null;
+    }
+    if (multiplexer == null) {
+      multiplexer = new WorkerMultiplexer(workerFactory.create(key), maxRequests);
+      multiplexers.put(key, multiplexer);
+    }
+    return multiplexer;
+  }
+
+  /**
+   * Destroys the worker process of a multiplexer, e.g. because it failed, unless another request
+   * already did.
+   */
+  public synchronized void invalidateMultiplexer(WorkerKey key, WorkerMultiplexer multiplexer) {
+    if (multiplexers.get(key) == multiplexer) {
+      multiplexers.remove(key);
+      workerFactory.destroyWorker(key, multiplexer.getWorker());
+    }
+  }
+
+  /**
+   * Returns the workers used since the last call of this method and starts recording anew.
+   */
+  public synchronized Usage takeUsage() {
+    Usage usage =
+        new Usage(ImmutableMap.copyOf(usedWorkers), ImmutableMap.copyOf(usedMultiplexers));
+    usedWorkers.clear();
+    usedMultiplexers.clear();
+    return usage;
+  }
+
+  /**
+   * Starts the workers of the given usage in the background, so that the actions that need them
+   * don't have to wait for the worker processes to start up. Workers that are already running are
+   * taken into account. Pre-warmed workers only count as used once an action uses them.
+   */
+  public void prewarm(final Usage usage) {
+    Thread thread =
+        new Thread("worker-prewarm") {
+          @Override
+          public void run() {
+            for (Map.Entry<WorkerKey, Integer> entry : usage.getMultiplexers().entrySet()) {
+              try {
+                startMultiplexer(entry.getKey(), entry.getValue());
+              } catch (Exception e) {
+                // The worker will be started (and the error reported) when an action needs it.
+                LOG.log(Level.INFO, "Could not pre-warm worker", e);
+              }
+            }
+            for (Map.Entry<WorkerKey, Integer> entry : usage.getWorkers().entrySet()) {
+              WorkerKey key = entry.getKey();
+              int count = Math.min(entry.getValue(), getMaxTotalPerKey());
+              try {
+                for (int i = getNumIdle(key) + getNumActive(key); i < count; i++) {
+                  addObject(key);
+                }
+              } catch (Exception e) {
+                // Also happens when the pool is closed while we're pre-warming it.
+                LOG.log(Level.INFO, "Could not pre-warm worker", e);
+              }
+            }
+          }
+        };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stops the workers with the largest resident memory until all workers together use at most
+   * {@code maxTotalKb} kilobytes. Workers whose memory can't be measured are never stopped.
+   *
+   * <p>Must only be called when no worker is in use, i.e. between builds.
+   *
+   * @return the number of stopped workers
+   */
+  public synchronized int evictLargestWorkers(long maxTotalKb) throws Exception {
+    final Map<Worker, Long> residentKb = new HashMap<>();
+    long totalKb = 0;
+    for (Worker worker : workerFactory.getLiveWorkers().keySet()) {
+      long kb = worker.getResidentMemoryKb();
+      if (kb >= 0) {
+        residentKb.put(worker, kb);
+        totalKb += kb;
+      }
+    }
+    List<Worker> largestFirst = new ArrayList<>(residentKb.keySet());
+    Collections.sort(
+        largestFirst,
+        new Comparator<Worker>() {
+          @Override
+          public int compare(Worker a, Worker b) {
+            return Long.compare(residentKb.get(b), residentKb.get(a));
+          }
+        });
+    Map<Worker, WorkerKey> keys = workerFactory.getLiveWorkers();
+    int evicted = 0;
+    for (Worker worker : largestFirst) {
+      if (totalKb <= maxTotalKb) {
+        break;
+      }
+      WorkerKey key = keys.get(worker);
+      WorkerMultiplexer multiplexer = multiplexers.get(key);
+      boolean stopped;
+      if (multiplexer != null && multiplexer.getWorker() == worker) {
+        invalidateMultiplexer(key, multiplexer);
+        stopped = true;
+      } else {
+        stopped = evictIdleWorker(key, worker);
+      }
+      if (stopped) {
+        totalKb -= residentKb.get(worker);
+        evicted++;
+      }
+    }
+    return evicted;
+  }
+
+  /**
+   * Destroys the given worker if it's idle. Invalidating an idle worker removes it from the pool
+   * without handing it out.
+   */
+  private boolean evictIdleWorker(WorkerKey key, Worker worker) throws Exception {
+    if (activeWorkers.contains(worker)) {
+      return false;
+    }
+    try {
+      invalidateObject(key, worker);
+      return true;
+    } catch (IllegalStateException e) {
+      // The pool destroyed it in the meantime.
+      return false;
+    }
+  }
+
+  @Override
+  public void close() {
+    super.close();
+    synchronized (this) {
+      for (Map.Entry<WorkerKey, WorkerMultiplexer> entry : multiplexers.entrySet()) {
+        workerFactory.destroyWorker(entry.getKey(), entry.getValue().getWorker());
+      }
+      multiplexers.clear();
+    }
+  }
 }
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.worker;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -20,6 +21,8 @@ import com.google.common.collect.Iterables;
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
 import com.google.devtools.build.lib.actions.ChangedFilesMessage;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
@@ -36,10 +39,15 @@ import com.google.devtools.build.lib.standalone.StandaloneSpawnStrategy;
 import com.google.devtools.build.lib.util.CommandFailureUtils;
 import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.worker.WorkerProtocol.Input;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 import com.google.devtools.common.options.OptionsClassProvider;
+import com.google.protobuf.ByteString;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -53,6 +61,7 @@ final class WorkerSpawnStrategy implements SpawnActionContext {
   private final StandaloneSpawnStrategy standaloneStrategy;
   private final boolean verboseFailures;
   private final int maxRetries;
+  private final ImmutableMap<String, Integer> maxMultiplexRequests;
 
   public WorkerSpawnStrategy(
       BlazeDirectories blazeDirs,
@@ -69,6 +78,7 @@ final class WorkerSpawnStrategy implements SpawnActionContext {
     this.standaloneStrategy = new StandaloneSpawnStrategy(blazeDirs.getExecRoot(), verboseFailures);
     this.verboseFailures = verboseFailures;
     this.maxRetries = maxRetries;
+    this.maxMultiplexRequests = options.getMaxMultiplexRequests();
   }
 
   @Override
@@ -111,7 +121,19 @@ final class WorkerSpawnStrategy implements SpawnActionContext {
     WorkerKey key = new WorkerKey(args, env, workDir, spawn.getMnemonic());
 
     try {
-      WorkResponse response = execInWorker(executor.getEventHandler(), paramFile, key, maxRetries);
+      WorkRequest request =
+          WorkRequest.newBuilder()
+              .addArguments(paramFile)
+              .addAllInputs(
+                  getInputDigests(
+                      spawn.getInputFiles(), actionExecutionContext.getActionInputFileCache()))
+              .build();
+      Integer maxRequests = maxMultiplexRequests.get(spawn.getMnemonic());
+      WorkResponse response =
+          maxRequests == null
+              ? execInWorker(executor.getEventHandler(), request, key, maxRetries)
+              : execInMultiplexer(
+                  executor.getEventHandler(), request, key, maxRequests, maxRetries);
 
       outErr.getErrorStream().write(response.getOutputBytes().toByteArray());
 
@@ -127,18 +149,39 @@ final class WorkerSpawnStrategy implements SpawnActionContext {
     }
   }
 
+  /**
+   * Returns the inputs of a spawn with their digests, so that workers can tell which inputs
+   * changed since an earlier request. Inputs whose digests are not known, like directories, are
+   * left out.
+   */
+  @VisibleForTesting
+  static List<Input> getInputDigests(
+      Iterable<? extends ActionInput> inputFiles, ActionInputFileCache inputFileCache) {
+    List<Input> inputs = new ArrayList<>();
+    for (ActionInput input : inputFiles) {
+      ByteString digest;
+      try {
+        digest = inputFileCache.getDigest(input);
+      } catch (IOException e) {
+        continue;
+      }
+      if (digest != null) {
+        inputs.add(
+            Input.newBuilder().setPath(input.getExecPathString()).setDigest(digest).build());
+      }
+    }
+    return inputs;
+  }
+
   private WorkResponse execInWorker(
-      EventHandler eventHandler, String paramFile, WorkerKey key, int retriesLeft)
+      EventHandler eventHandler, WorkRequest request, WorkerKey key, int retriesLeft)
       throws Exception {
     Worker worker = null;
     WorkResponse response = null;
 
     try {
       worker = workers.borrowObject(key);
-      WorkRequest.newBuilder()
-          .addArguments(paramFile)
-          .build()
-          .writeDelimitedTo(worker.getOutputStream());
+      request.writeDelimitedTo(worker.getOutputStream());
       worker.getOutputStream().flush();
 
       response = WorkResponse.parseDelimitedFrom(worker.getInputStream());
@@ -168,7 +211,7 @@ final class WorkerSpawnStrategy implements SpawnActionContext {
                     + " worker failed ("
                     + e
                     + "), invalidating and retrying with new worker..."));
-        return execInWorker(eventHandler, paramFile, key, retriesLeft - 1);
+        return execInWorker(eventHandler, request, key, retriesLeft - 1);
       } else {
         throw e;
       }
@@ -180,6 +223,38 @@ final class WorkerSpawnStrategy implements SpawnActionContext {
     return response;
   }
 
+  private WorkResponse execInMultiplexer(
+      EventHandler eventHandler, WorkRequest request, WorkerKey key, int maxRequests,
+      int retriesLeft)
+      throws Exception {
+    WorkerMultiplexer multiplexer = null;
+    try {
+      multiplexer = workers.getMultiplexer(key, maxRequests);
+      return multiplexer.execute(request);
+    } catch (Exception e) {
+      if (e instanceof InterruptedException) {
+        // The user pressed Ctrl-C. Get out here quick.
+        throw e;
+      }
+
+      if (multiplexer != null) {
+        workers.invalidateMultiplexer(key, multiplexer);
+      }
+
+      if (retriesLeft > 0) {
+        eventHandler.handle(
+            Event.warn(
+                key.getMnemonic()
+                    + " multiplexed worker failed ("
+                    + e
+                    + "), invalidating and retrying with new worker..."));
+        return execInMultiplexer(eventHandler, request, key, maxRequests, retriesLeft - 1);
+      } else {
+        throw e;
+      }
+    }
+  }
+
   @Override
   public String strategyLocality(String mnemonic, boolean remotable) {
     return "worker";
@@ -30,6 +30,13 @@ public interface BuildDriver {
       Iterable<SkyKey> roots, boolean keepGoing, int numThreads, EventHandler reporter)
       throws InterruptedException;
 
+  /**
+   * See {@link MemoizingEvaluator#evaluate(Iterable, Version, boolean, int, boolean,
+   * EventHandler)}.
+   */
+  <T extends SkyValue> EvaluationResult<T> evaluate(Iterable<SkyKey> roots, boolean keepGoing,
+      int numThreads, boolean workStealing, EventHandler reporter) throws InterruptedException;
+
   /**
    * Retrieve metadata about the computation over the given roots. Data returned is specific to the
    * underlying evaluator implementation.
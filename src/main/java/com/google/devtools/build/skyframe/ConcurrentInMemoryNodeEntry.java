@@ -0,0 +1,210 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link InMemoryNodeEntry} that serves the common operations on done nodes without taking the
+ * entry's monitor.
+ *
+ * <p>Nodes with very many reverse deps (toolchains, precomputed values, ...) are asked for their
+ * value and are registered as a reverse dep by every parent that depends on them. With the plain
+ * {@link InMemoryNodeEntry} all of those calls serialize on a single monitor. This entry keeps a
+ * volatile copy of the done bit, so that once the node is done:
+ *
+ * <ul>
+ *   <li>{@link #isDone}, {@link #getVersion}, {@link #getValue}, {@link #getValueMaybeWithMetadata}
+ *       and {@link #getErrorInfo} are plain volatile reads;
+ *   <li>{@link #addReverseDepAndCheckIfDone} appends the new reverse dep to a lazily created
+ *       concurrent buffer instead of the reverse deps list.
+ * </ul>
+ *
+ * <p>The buffer is merged into the reverse deps list, under the monitor, before any operation that
+ * reads or modifies the reverse deps. State transitions (done to dirty, not done to done) still
+ * happen under the monitor, and the done bit is only published once the transition is complete.
+ *
+ * <p>The fast path relies on the evaluator never invalidating a node concurrently with an
+ * evaluation that adds reverse deps to it, which holds for {@link ParallelEvaluator}. Note that the
+ * cheap duplicate reverse dep check done by {@link InMemoryNodeEntry} is skipped for buffered
+ * reverse deps; duplicates are still detected when the reverse deps are read.
+ */
+public class ConcurrentInMemoryNodeEntry extends InMemoryNodeEntry {
+
+  // There is no class literal for ConcurrentLinkedQueue<SkyKey>, so the raw one is cast to it.
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  private static final AtomicReferenceFieldUpdater<
+          ConcurrentInMemoryNodeEntry, ConcurrentLinkedQueue<SkyKey>>
+      PENDING_REVERSE_DEPS_UPDATER =
+          AtomicReferenceFieldUpdater.newUpdater(
+              ConcurrentInMemoryNodeEntry.class,
+              (Class) ConcurrentLinkedQueue.class,
+              "pendingReverseDeps");
+
+  private final boolean keepEdges;
+
+  /**
+   * Mirrors {@code buildingState == null}. Only written while holding the monitor, after the
+   * corresponding state transition has been completed.
+   */
+  private volatile boolean done = false;
+
+  /**
+   * Reverse deps added to this node while it was done, that have not been merged into the reverse
+   * deps list yet. Created on first use, since most nodes never need it.
+   */
+  @Nullable private volatile ConcurrentLinkedQueue<SkyKey> pendingReverseDeps = null;
+
+  public ConcurrentInMemoryNodeEntry(boolean keepEdges) {
+    this.keepEdges = keepEdges;
+  }
+
+  @Override
+  public boolean keepEdges() {
+    return keepEdges;
+  }
+
+  @Override
+  public boolean isDone() {
+    return done;
+  }
+
+  @Override
+  public Version getVersion() {
+    return done ? version : super.getVersion();
+  }
+
+  @Override
+  public SkyValue getValue() {
+    SkyValue doneValue = getDoneValueOrNull();
+    return doneValue == null ? super.getValue() : ValueWithMetadata.justValue(doneValue);
+  }
+
+  @Override
+  public SkyValue getValueMaybeWithMetadata() {
+    SkyValue doneValue = getDoneValueOrNull();
+    return doneValue == null ? super.getValueMaybeWithMetadata() : doneValue;
+  }
+
+  @Override
+  @Nullable
+  public ErrorInfo getErrorInfo() {
+    SkyValue doneValue = getDoneValueOrNull();
+    return doneValue == null
+        ? super.getErrorInfo()
+        : ValueWithMetadata.getMaybeErrorInfo(doneValue);
+  }
+
+  /**
+   * Returns the value of this node if it is done, and {@code null} if the caller must fall back to
+   * the synchronized path.
+   */
+  @Nullable
+  private SkyValue getDoneValueOrNull() {
+    // The volatile read of done must come first: it makes the write to value that preceded the
+    // write of done visible to this thread.
+    return done ? value : null;
+  }
+
+  @Override
+  public DependencyState addReverseDepAndCheckIfDone(SkyKey reverseDep) {
+    if (done) {
+      if (reverseDep != null && keepEdges) {
+        getOrCreatePendingReverseDeps().add(reverseDep);
+      }
+      return DependencyState.DONE;
+    }
+    synchronized (this) {
+      mergePendingReverseDeps();
+      return super.addReverseDepAndCheckIfDone(reverseDep);
+    }
+  }
+
+  private ConcurrentLinkedQueue<SkyKey> getOrCreatePendingReverseDeps() {
+    ConcurrentLinkedQueue<SkyKey> pending = pendingReverseDeps;
+    if (pending == null) {
+      PENDING_REVERSE_DEPS_UPDATER.compareAndSet(this, null, new ConcurrentLinkedQueue<SkyKey>());
+      pending = pendingReverseDeps;
+    }
+    return pending;
+  }
+
+  /** Moves any buffered reverse deps into the reverse deps list. Must hold the monitor. */
+  private void mergePendingReverseDeps() {
+    ConcurrentLinkedQueue<SkyKey> pending = pendingReverseDeps;
+    if (pending == null || pending.isEmpty()) {
+      return;
+    }
+    List<SkyKey> toAdd = new ArrayList<>();
+    for (SkyKey reverseDep = pending.poll(); reverseDep != null; reverseDep = pending.poll()) {
+      toAdd.add(reverseDep);
+    }
+    REVERSE_DEPS_UTIL.consolidateData(this);
+    REVERSE_DEPS_UTIL.addReverseDeps(this, toAdd);
+  }
+
+  @Override
+  public synchronized Set<SkyKey> setValue(SkyValue value, Version version) {
+    mergePendingReverseDeps();
+    Set<SkyKey> reverseDepsToSignal = super.setValue(value, version);
+    done = true;
+    return reverseDepsToSignal;
+  }
+
+  @Override
+  public synchronized Set<SkyKey> markClean() {
+    mergePendingReverseDeps();
+    Set<SkyKey> reverseDepsToSignal = super.markClean();
+    done = true;
+    return reverseDepsToSignal;
+  }
+
+  @Override
+  public synchronized boolean markDirty(boolean isChanged) {
+    mergePendingReverseDeps();
+    boolean result = super.markDirty(isChanged);
+    done = false;
+    return result;
+  }
+
+  @Override
+  public synchronized DependencyState checkIfDoneForDirtyReverseDep(SkyKey reverseDep) {
+    mergePendingReverseDeps();
+    return super.checkIfDoneForDirtyReverseDep(reverseDep);
+  }
+
+  @Override
+  public synchronized void removeReverseDep(SkyKey reverseDep) {
+    mergePendingReverseDeps();
+    super.removeReverseDep(reverseDep);
+  }
+
+  @Override
+  public synchronized Iterable<SkyKey> getReverseDeps() {
+    mergePendingReverseDeps();
+    return super.getReverseDeps();
+  }
+
+  @Override
+  public synchronized InMemoryNodeEntry cloneNodeEntry() {
+    mergePendingReverseDeps();
+    return super.cloneNodeEntry();
+  }
+}
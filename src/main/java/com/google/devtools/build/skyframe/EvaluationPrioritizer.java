@@ -0,0 +1,33 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+
+/**
+ * Decides the order in which {@link ParallelEvaluator} evaluates the nodes that are ready to be
+ * evaluated. Without a prioritizer, nodes are evaluated in the order in which they became ready.
+ *
+ * <p>A good prioritizer puts the nodes on the critical path of the evaluation first, so that they
+ * do not wait behind many cheap nodes that could be evaluated later at no cost.
+ */
+public interface EvaluationPrioritizer {
+
+  /**
+   * Returns the priority of evaluating {@code key}. Among the nodes ready to be evaluated, those
+   * with higher priorities are evaluated first. Called once every time the node is enqueued.
+   */
+  @ThreadSafe
+  int getPriority(SkyKey key);
+}
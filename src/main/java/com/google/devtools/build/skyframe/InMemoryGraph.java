@@ -38,13 +38,24 @@ public class InMemoryGraph implements ProcessableGraph {
   protected final ConcurrentMap<SkyKey, NodeEntry> nodeMap =
       new MapMaker().initialCapacity(1024).concurrencyLevel(200).makeMap();
   private final boolean keepEdges;
+  private final boolean concurrentNodeEntries;
 
   InMemoryGraph() {
     this(/*keepEdges=*/true);
   }
 
   public InMemoryGraph(boolean keepEdges) {
+    this(keepEdges, /*concurrentNodeEntries=*/false);
+  }
+
+  /**
+   * Creates a graph. If {@code concurrentNodeEntries} is true, nodes are stored in
+   * {@link ConcurrentInMemoryNodeEntry} objects, which avoid monitor contention on done nodes with
+   * many reverse deps at the cost of a little more memory per node.
+   */
+  public InMemoryGraph(boolean keepEdges, boolean concurrentNodeEntries) {
     this.keepEdges = keepEdges;
+    this.concurrentNodeEntries = concurrentNodeEntries;
   }
 
   @Override
@@ -71,11 +82,18 @@ public class InMemoryGraph implements ProcessableGraph {
 
   @Override
   public NodeEntry createIfAbsent(SkyKey key) {
-    NodeEntry newval = keepEdges ? new InMemoryNodeEntry() : new EdgelessInMemoryNodeEntry();
+    NodeEntry newval = newNodeEntry();
     NodeEntry oldval = nodeMap.putIfAbsent(key, newval);
     return oldval == null ? newval : oldval;
   }
 
+  private NodeEntry newNodeEntry() {
+    if (concurrentNodeEntries) {
+      return new ConcurrentInMemoryNodeEntry(keepEdges);
+    }
+    return keepEdges ? new InMemoryNodeEntry() : new EdgelessInMemoryNodeEntry();
+  }
+
   /** Only done nodes exist to the outside world. */
   private static final Predicate<NodeEntry> NODE_DONE_PREDICATE =
       new Predicate<NodeEntry>() {
@@ -0,0 +1,253 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.util.GroupedList.GroupedListHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves the done, error-free part of an {@link InMemoryGraph} to a stream and restores it into an
+ * empty graph, so that a new server can start from the values computed by its predecessor.
+ *
+ * <p>Keys and values are written with Java serialization. A node is only saved if it is selected
+ * by the caller's predicate, if its key and value can be serialized, and if all of its direct deps
+ * are saved as well, so that the restored graph never has dangling edges. Both edge directions are
+ * restored, which lets the usual invalidation machinery dirty restored nodes.
+ *
+ * <p>Restored nodes get {@link MinimalVersion#INSTANCE} as their version. That way any value that
+ * is re-evaluated in the new server counts as changed for its restored parents, while values that
+ * re-evaluate to an equal value keep their parents clean.
+ *
+ * <p>The snapshot records an identity string supplied by the caller (for instance the hash of the
+ * binary that wrote it). A snapshot with a different identity, or in an unknown format, is ignored
+ * on load. Restored values are only as fresh as the snapshot; callers are responsible for checking
+ * them against the outside world (e.g. the file system) before the next evaluation.
+ */
+public final class InMemoryGraphSnapshot {
+
+  private static final int MAGIC = 0x534b5947; // "SKYG"
+  private static final int FORMAT_VERSION = 1;
+
+  private InMemoryGraphSnapshot() {
+  }
+
+  /**
+   * Writes the saveable nodes of {@code graph} that satisfy {@code keysToSave} to {@code out}.
+   * Returns the number of nodes written. Must not be called during an evaluation.
+   */
+  public static int save(InMemoryGraph graph, Predicate<SkyKey> keysToSave, String identity,
+      OutputStream out) throws IOException {
+    Preconditions.checkState(graph.keepsEdges(), "Cannot save a graph without edges");
+    Map<SkyKey, byte[]> serialized = new LinkedHashMap<>();
+    for (Map.Entry<SkyKey, NodeEntry> mapEntry : graph.getAllValues().entrySet()) {
+      SkyKey key = mapEntry.getKey();
+      NodeEntry entry = mapEntry.getValue();
+      if (!keysToSave.apply(key) || !entry.isDone() || entry.getErrorInfo() != null
+          || key.functionName().equals(ErrorTransienceValue.FUNCTION_NAME)) {
+        // Error transience is evaluator-internal state that is recreated by every evaluation.
+        continue;
+      }
+      byte[] bytes = serializeOrNull(key, entry.getValueMaybeWithMetadata());
+      if (bytes != null) {
+        serialized.put(key, bytes);
+      }
+    }
+    removeNodesWithUnsavedDeps(graph, serialized);
+
+    Map<SkyKey, Integer> indices = new HashMap<>();
+    for (SkyKey key : serialized.keySet()) {
+      indices.put(key, indices.size());
+    }
+    DataOutputStream dataOut = new DataOutputStream(out);
+    dataOut.writeInt(MAGIC);
+    dataOut.writeInt(FORMAT_VERSION);
+    dataOut.writeUTF(identity);
+    dataOut.writeInt(serialized.size());
+    for (Map.Entry<SkyKey, byte[]> mapEntry : serialized.entrySet()) {
+      byte[] bytes = mapEntry.getValue();
+      dataOut.writeInt(bytes.length);
+      dataOut.write(bytes);
+      Iterable<Iterable<SkyKey>> groupedDeps = getGroupedDirectDeps(graph, mapEntry.getKey());
+      dataOut.writeInt(Iterables.size(groupedDeps));
+      for (Iterable<SkyKey> group : groupedDeps) {
+        dataOut.writeInt(Iterables.size(group));
+        for (SkyKey dep : group) {
+          dataOut.writeInt(indices.get(dep));
+        }
+      }
+    }
+    dataOut.flush();
+    return serialized.size();
+  }
+
+  /**
+   * Restores the nodes written by {@link #save} into {@code graph}, which must be empty. Nodes
+   * whose key or value cannot be deserialized are skipped, together with all nodes that
+   * transitively depend on them. Returns the number of restored nodes, which is 0 if the snapshot
+   * was written in a different format or with a different identity.
+   */
+  public static int load(InMemoryGraph graph, String identity, InputStream in)
+      throws IOException {
+    Preconditions.checkState(graph.getAllValues().isEmpty(), "Can only load into an empty graph");
+    Preconditions.checkState(graph.keepsEdges(), "Cannot load into a graph without edges");
+    DataInputStream dataIn = new DataInputStream(in);
+    if (dataIn.readInt() != MAGIC || dataIn.readInt() != FORMAT_VERSION
+        || !identity.equals(dataIn.readUTF())) {
+      return 0;
+    }
+    int numNodes = dataIn.readInt();
+    SkyKey[] keys = new SkyKey[numNodes];
+    SkyValue[] values = new SkyValue[numNodes];
+    int[][][] groupedDeps = new int[numNodes][][];
+    List<List<Integer>> reverseDeps = new ArrayList<>(numNodes);
+    Deque<Integer> failed = new ArrayDeque<>();
+    for (int i = 0; i < numNodes; i++) {
+      reverseDeps.add(new ArrayList<Integer>());
+    }
+    for (int i = 0; i < numNodes; i++) {
+      byte[] bytes = new byte[dataIn.readInt()];
+      dataIn.readFully(bytes);
+      try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+        keys[i] = (SkyKey) objectIn.readObject();
+        values[i] = (SkyValue) objectIn.readObject();
+      } catch (IOException | ClassNotFoundException | RuntimeException e) {
+        // E.g. a package using a rule class that this binary does not know about.
+        failed.add(i);
+      }
+      int[][] groups = new int[dataIn.readInt()][];
+      for (int j = 0; j < groups.length; j++) {
+        groups[j] = new int[dataIn.readInt()];
+        for (int k = 0; k < groups[j].length; k++) {
+          groups[j][k] = dataIn.readInt();
+          reverseDeps.get(groups[j][k]).add(i);
+        }
+      }
+      groupedDeps[i] = groups;
+    }
+
+    boolean[] skipped = new boolean[numNodes];
+    for (int i : failed) {
+      skipped[i] = true;
+    }
+    while (!failed.isEmpty()) {
+      for (int parent : reverseDeps.get(failed.poll())) {
+        if (!skipped[parent]) {
+          skipped[parent] = true;
+          failed.add(parent);
+        }
+      }
+    }
+
+    int numRestored = 0;
+    for (int i = 0; i < numNodes; i++) {
+      if (skipped[i]) {
+        continue;
+      }
+      NodeEntry entry = graph.createIfAbsent(keys[i]);
+      entry.addReverseDepAndCheckIfDone(null);
+      GroupedListHelper<SkyKey> helper = new GroupedListHelper<>();
+      int numDeps = 0;
+      for (int[] group : groupedDeps[i]) {
+        if (group.length > 1) {
+          helper.startGroup();
+        }
+        for (int dep : group) {
+          helper.add(keys[dep]);
+          numDeps++;
+        }
+        if (group.length > 1) {
+          helper.endGroup();
+        }
+      }
+      entry.addTemporaryDirectDeps(helper);
+      for (int j = 0; j < numDeps; j++) {
+        entry.signalDep(MinimalVersion.INSTANCE);
+      }
+      entry.setValue(values[i], MinimalVersion.INSTANCE);
+      numRestored++;
+    }
+    for (int i = 0; i < numNodes; i++) {
+      if (skipped[i]) {
+        continue;
+      }
+      for (int[] group : groupedDeps[i]) {
+        for (int dep : group) {
+          graph.get(keys[dep]).addReverseDepAndCheckIfDone(keys[i]);
+        }
+      }
+    }
+    return numRestored;
+  }
+
+  private static byte[] serializeOrNull(SkyKey key, SkyValue value) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+      objectOut.writeObject(key);
+      objectOut.writeObject(value);
+    } catch (IOException | RuntimeException e) {
+      // Not every key and value is serializable in practice. Such nodes are simply not saved.
+      return null;
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Removes nodes with a direct dep that is not in {@code nodes}, and then, transitively, the
+   * parents of removed nodes.
+   */
+  private static void removeNodesWithUnsavedDeps(InMemoryGraph graph, Map<SkyKey, ?> nodes) {
+    Deque<SkyKey> removed = new ArrayDeque<>();
+    for (SkyKey key : nodes.keySet()) {
+      for (SkyKey dep : graph.get(key).getDirectDeps()) {
+        if (!nodes.containsKey(dep)) {
+          removed.add(key);
+          break;
+        }
+      }
+    }
+    for (SkyKey key : removed) {
+      nodes.remove(key);
+    }
+    while (!removed.isEmpty()) {
+      for (SkyKey parent : graph.get(removed.poll()).getReverseDeps()) {
+        if (nodes.remove(parent) != null) {
+          removed.add(parent);
+        }
+      }
+    }
+  }
+
+  private static Iterable<Iterable<SkyKey>> getGroupedDirectDeps(InMemoryGraph graph, SkyKey key) {
+    return ((InMemoryNodeEntry) graph.get(key)).getGroupedDirectDeps();
+  }
+}
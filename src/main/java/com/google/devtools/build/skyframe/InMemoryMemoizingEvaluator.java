@@ -29,6 +29,9 @@ import com.google.devtools.build.skyframe.InvalidatingNodeVisitor.DirtyingInvali
 import com.google.devtools.build.skyframe.InvalidatingNodeVisitor.InvalidationState;
 import com.google.devtools.build.skyframe.ParallelEvaluator.Receiver;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.Collection;
 import java.util.HashMap;
@@ -78,6 +81,8 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
 
   private final AtomicBoolean evaluating = new AtomicBoolean(false);
 
+  @Nullable private EvaluationPrioritizer prioritizer;
+
   public InMemoryMemoizingEvaluator(
       Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer) {
     this(skyFunctions, differencer, null);
@@ -93,10 +98,18 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
       Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer,
       @Nullable EvaluationProgressReceiver invalidationReceiver,
       EmittedEventState emittedEventState, boolean keepEdges) {
+    this(skyFunctions, differencer, invalidationReceiver, emittedEventState, keepEdges,
+        /*concurrentNodeEntries=*/false);
+  }
+
+  public InMemoryMemoizingEvaluator(
+      Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer,
+      @Nullable EvaluationProgressReceiver invalidationReceiver,
+      EmittedEventState emittedEventState, boolean keepEdges, boolean concurrentNodeEntries) {
     this.skyFunctions = ImmutableMap.copyOf(skyFunctions);
     this.differencer = Preconditions.checkNotNull(differencer);
     this.progressReceiver = invalidationReceiver;
-    this.graph = new InMemoryGraph(keepEdges);
+    this.graph = new InMemoryGraph(keepEdges, concurrentNodeEntries);
     this.emittedEventState = emittedEventState;
     this.keepEdges = keepEdges;
   }
@@ -137,6 +150,13 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
   public <T extends SkyValue> EvaluationResult<T> evaluate(Iterable<SkyKey> roots, Version version,
           boolean keepGoing, int numThreads, EventHandler eventHandler)
       throws InterruptedException {
+    return evaluate(roots, version, keepGoing, numThreads, /*workStealing=*/false, eventHandler);
+  }
+
+  @Override
+  public <T extends SkyValue> EvaluationResult<T> evaluate(Iterable<SkyKey> roots, Version version,
+          boolean keepGoing, int numThreads, boolean workStealing, EventHandler eventHandler)
+      throws InterruptedException {
     // NOTE: Performance critical code. See bug "Null build performance parity".
     IntVersion intVersion = (IntVersion) version;
     Preconditions.checkState((lastGraphVersion == null && intVersion.getVal() == 0)
@@ -178,6 +198,8 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
               DEFAULT_STORED_EVENT_FILTER,
               keepGoing,
               numThreads,
+              workStealing,
+              prioritizer,
               progressReceiver,
               dirtyKeyTracker,
               lazyDeletingReceiver);
@@ -192,6 +214,11 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
     }
   }
 
+  @Override
+  public void setPrioritizer(@Nullable EvaluationPrioritizer prioritizer) {
+    this.prioritizer = prioritizer;
+  }
+
   /**
    * Removes entries in {@code valuesToInject} whose values are equal to the present values in the
    * graph.
@@ -274,6 +301,25 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
     this.graph = graph;
   }
 
+  @Override
+  public int saveSnapshot(Predicate<SkyKey> pred, String identity, OutputStream out)
+      throws IOException {
+    Preconditions.checkState(!evaluating.get(), "Cannot save a snapshot during an evaluation");
+    if (!keepEdges) {
+      return 0;
+    }
+    return InMemoryGraphSnapshot.save(graph, pred, identity, out);
+  }
+
+  @Override
+  public int loadSnapshot(String identity, InputStream in) throws IOException {
+    Preconditions.checkState(!evaluating.get(), "Cannot load a snapshot during an evaluation");
+    if (!keepEdges || lastGraphVersion != null) {
+      return 0;
+    }
+    return InMemoryGraphSnapshot.load(graph, identity, in);
+  }
+
   @Override
   public void dump(boolean summarize, PrintStream out) {
     if (summarize) {
@@ -339,4 +385,19 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
           emittedEventState, keepEdges);
     }
   };
+
+  /**
+   * Like {@link #SUPPLIER}, but the evaluator's graph uses {@link ConcurrentInMemoryNodeEntry}
+   * nodes.
+   */
+  public static final EvaluatorSupplier CONCURRENT_NODE_ENTRY_SUPPLIER = new EvaluatorSupplier() {
+    @Override
+    public MemoizingEvaluator create(
+        Map<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions, Differencer differencer,
+        @Nullable EvaluationProgressReceiver invalidationReceiver,
+        EmittedEventState emittedEventState, boolean keepEdges) {
+      return new InMemoryMemoizingEvaluator(skyFunctions, differencer, invalidationReceiver,
+          emittedEventState, keepEdges, /*concurrentNodeEntries=*/true);
+    }
+  };
 }
@@ -19,6 +19,9 @@ import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadHostile;
 import com.google.devtools.build.lib.events.EventHandler;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.Map;
 
@@ -53,6 +56,28 @@ public interface MemoizingEvaluator {
       EventHandler reporter)
           throws InterruptedException;
 
+  /**
+   * Like {@link #evaluate(Iterable, Version, boolean, int, EventHandler)}, but if
+   * {@code workStealing} is true, schedules evaluations on a work-stealing thread pool, which
+   * scales better with many threads.
+   */
+  <T extends SkyValue> EvaluationResult<T> evaluate(
+      Iterable<SkyKey> roots,
+      Version version,
+      boolean keepGoing,
+      int numThreads,
+      boolean workStealing,
+      EventHandler reporter)
+          throws InterruptedException;
+
+  /**
+   * Sets the prioritizer deciding the order in which ready values are evaluated by subsequent
+   * {@link #evaluate} calls, or evaluates them in the order in which they became ready if
+   * {@code prioritizer} is null.
+   */
+  @ThreadHostile
+  void setPrioritizer(@Nullable EvaluationPrioritizer prioritizer);
+
   /**
    * Ensures that after the next completed {@link #evaluate} call the current values of any value
    * matching this predicate (and all values that transitively depend on them) will be removed from
@@ -124,6 +149,26 @@ public interface MemoizingEvaluator {
   @ThreadHostile
   void dump(boolean summarize, PrintStream out);
 
+  /**
+   * Writes the done values whose keys match {@code pred}, together with the edges between them, to
+   * {@code out}, so that a later process can restore them with {@link #loadSnapshot}. Only values
+   * whose whole transitive closure can be saved are written. Returns the number of values written.
+   * Must not be called during an evaluation.
+   */
+  @ThreadHostile
+  int saveSnapshot(Predicate<SkyKey> pred, String identity, OutputStream out) throws IOException;
+
+  /**
+   * Restores values written by {@link #saveSnapshot} with the same {@code identity}. Returns the
+   * number of restored values, which is 0 if the snapshot is not compatible with this evaluator or
+   * if this evaluator has already evaluated something.
+   *
+   * <p>The restored values are not checked in any way. The caller must invalidate any of them that
+   * are out of date before the next evaluation.
+   */
+  @ThreadHostile
+  int loadSnapshot(String identity, InputStream in) throws IOException;
+
   /**
    * A supplier for creating instances of a particular evaluator implementation.
    */
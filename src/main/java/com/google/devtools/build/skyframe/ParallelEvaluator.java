@@ -30,6 +30,7 @@ import com.google.devtools.build.lib.collect.nestedset.NestedSet;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor;
 import com.google.devtools.build.lib.concurrent.AbstractQueueVisitor;
+import com.google.devtools.build.lib.concurrent.NamedForkJoinPool;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
@@ -56,7 +57,10 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -133,6 +137,8 @@ public final class ParallelEvaluator implements Evaluator {
   private final NestedSetVisitor<TaggedEvents> replayingNestedSetEventVisitor;
   private final boolean keepGoing;
   private final int threadCount;
+  private final boolean workStealing;
+  @Nullable private final EvaluationPrioritizer prioritizer;
   @Nullable private final EvaluationProgressReceiver progressReceiver;
   private final DirtyKeyTracker dirtyKeyTracker;
   private final Receiver<Collection<SkyKey>> inflightKeysReceiver;
@@ -152,6 +158,54 @@ public final class ParallelEvaluator implements Evaluator {
       @Nullable EvaluationProgressReceiver progressReceiver,
       DirtyKeyTracker dirtyKeyTracker,
       Receiver<Collection<SkyKey>> inflightKeysReceiver) {
+    this(graph, graphVersion, skyFunctions, reporter, emittedEventState, storedEventFilter,
+        keepGoing, threadCount, /*workStealing=*/false, progressReceiver, dirtyKeyTracker,
+        inflightKeysReceiver);
+  }
+
+  /**
+   * Creates an evaluator. If {@code workStealing} is true, evaluations are run on a work-stealing
+   * {@link ForkJoinPool}: nodes enqueued while evaluating a node go to the
+   * evaluating thread's own deque, which avoids contention on a single shared queue with many
+   * threads.
+   */
+  public ParallelEvaluator(
+      ProcessableGraph graph,
+      Version graphVersion,
+      ImmutableMap<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions,
+      final EventHandler reporter,
+      EmittedEventState emittedEventState,
+      Predicate<Event> storedEventFilter,
+      boolean keepGoing,
+      int threadCount,
+      boolean workStealing,
+      @Nullable EvaluationProgressReceiver progressReceiver,
+      DirtyKeyTracker dirtyKeyTracker,
+      Receiver<Collection<SkyKey>> inflightKeysReceiver) {
+    this(graph, graphVersion, skyFunctions, reporter, emittedEventState, storedEventFilter,
+        keepGoing, threadCount, workStealing, /*prioritizer=*/null, progressReceiver,
+        dirtyKeyTracker, inflightKeysReceiver);
+  }
+
+  /**
+   * Creates an evaluator. If {@code prioritizer} is non-null, nodes that are ready to be evaluated
+   * are evaluated in the order of their priorities rather than in the order in which they became
+   * ready. Priorities are ignored if {@code workStealing} is true.
+   */
+  public ParallelEvaluator(
+      ProcessableGraph graph,
+      Version graphVersion,
+      ImmutableMap<? extends SkyFunctionName, ? extends SkyFunction> skyFunctions,
+      final EventHandler reporter,
+      EmittedEventState emittedEventState,
+      Predicate<Event> storedEventFilter,
+      boolean keepGoing,
+      int threadCount,
+      boolean workStealing,
+      @Nullable EvaluationPrioritizer prioritizer,
+      @Nullable EvaluationProgressReceiver progressReceiver,
+      DirtyKeyTracker dirtyKeyTracker,
+      Receiver<Collection<SkyKey>> inflightKeysReceiver) {
     this.graph = graph;
     this.skyFunctions = skyFunctions;
     this.graphVersion = graphVersion;
@@ -159,6 +213,8 @@ public final class ParallelEvaluator implements Evaluator {
     this.reporter = Preconditions.checkNotNull(reporter);
     this.keepGoing = keepGoing;
     this.threadCount = threadCount;
+    this.workStealing = workStealing;
+    this.prioritizer = prioritizer;
     this.progressReceiver = progressReceiver;
     this.dirtyKeyTracker = Preconditions.checkNotNull(dirtyKeyTracker);
     this.replayingNestedSetEventVisitor =
@@ -542,6 +598,21 @@ public final class ParallelEvaluator implements Evaluator {
           "skyframe-evaluator");
     }
 
+    private ValueVisitor(ForkJoinPool pool) {
+      super(pool,
+          /*shutdownOnCompletion*/true,
+          /*failFastOnException*/true,
+          /*failFastOnInterrupt*/true);
+    }
+
+    @Override
+    protected BlockingQueue<Runnable> getWorkQueue() {
+      // Called from the superclass constructor, so it may only use fields of the evaluator.
+      return prioritizer != null
+          ? new PriorityBlockingQueue<Runnable>()
+          : super.getWorkQueue();
+    }
+
     @Override
     protected boolean isCriticalError(Throwable e) {
       return e instanceof RuntimeException;
@@ -569,7 +640,11 @@ public final class ParallelEvaluator implements Evaluator {
       if (newlyEnqueued && progressReceiver != null) {
         progressReceiver.enqueueing(key);
       }
-      enqueue(new Evaluate(this, key));
+      if (prioritizer != null) {
+        enqueue(new Evaluate(this, key), prioritizer.getPriority(key));
+      } else {
+        enqueue(new Evaluate(this, key));
+      }
     }
 
     /**
@@ -1088,7 +1163,9 @@ public final class ParallelEvaluator implements Evaluator {
 
     Profiler.instance().startTask(ProfilerTask.SKYFRAME_EVAL, skyKeySet);
     try {
-      return eval(skyKeySet, new ValueVisitor(threadCount));
+      return eval(skyKeySet, workStealing
+          ? new ValueVisitor(NamedForkJoinPool.newNamedPool("skyframe-evaluator", threadCount))
+          : new ValueVisitor(threadCount));
     } finally {
       Profiler.instance().completeTask(ProfilerTask.SKYFRAME_EVAL);
     }
@@ -34,8 +34,16 @@ public class SequentialBuildDriver implements BuildDriver {
   public <T extends SkyValue> EvaluationResult<T> evaluate(
       Iterable<SkyKey> roots, boolean keepGoing, int numThreads, EventHandler reporter)
       throws InterruptedException {
+    return evaluate(roots, keepGoing, numThreads, /*workStealing=*/false, reporter);
+  }
+
+  @Override
+  public <T extends SkyValue> EvaluationResult<T> evaluate(Iterable<SkyKey> roots,
+      boolean keepGoing, int numThreads, boolean workStealing, EventHandler reporter)
+      throws InterruptedException {
     try {
-      return memoizingEvaluator.evaluate(roots, curVersion, keepGoing, numThreads, reporter);
+      return memoizingEvaluator.evaluate(
+          roots, curVersion, keepGoing, numThreads, workStealing, reporter);
     } finally {
       curVersion = curVersion.next();
     }
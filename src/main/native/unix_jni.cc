@@ -19,6 +19,7 @@
 #include <errno.h>
 #include <fcntl.h>
 #include <limits.h>
+#include <poll.h>
 #include <stdlib.h>
 #include <string.h>
 #include <sys/resource.h>
@@ -454,6 +455,73 @@ Java_com_google_devtools_build_lib_unix_FilesystemUtils_errnoLstat(JNIEnv *env,
   return ::StatCommon(env, path, portable_lstat, false);
 }
 
+// Number of jlongs per path in the result of batchStatNative; must match
+// FilesystemUtils.BATCH_STAT_FIELDS.
+static const int kBatchStatFields = 11;
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.FilesystemUtils
+ * Method:    batchStatNative
+ * Signature: ([Ljava/lang/String;Z)[J
+ *
+ * Stats every path of the array and returns the results packed into a single
+ * array of kBatchStatFields longs per path: errno (0 on success), st_mode,
+ * st_atime, st_atimensec, st_mtime, st_mtimensec, st_ctime, st_ctimensec,
+ * st_size, st_dev and st_ino. Failures to stat a path are reported through
+ * its errno field, not as exceptions, so that one missing file does not fail
+ * the whole batch.
+ */
+extern "C" JNIEXPORT jlongArray JNICALL
+Java_com_google_devtools_build_lib_unix_FilesystemUtils_batchStatNative(
+    JNIEnv *env, jclass clazz, jobjectArray paths, jboolean follow_symlinks) {
+  int (*stat_function)(const char *, portable_stat_struct *) =
+      follow_symlinks ? portable_stat : portable_lstat;
+  jsize len = env->GetArrayLength(paths);
+  std::vector<jlong> fields(static_cast<size_t>(len) * kBatchStatFields);
+  for (jsize ii = 0; ii < len; ++ii) {
+    jstring path = static_cast<jstring>(env->GetObjectArrayElement(paths, ii));
+    const char *path_chars = GetStringLatin1Chars(env, path);
+    if (path_chars == NULL) {
+      return NULL;  // async exception!
+    }
+    portable_stat_struct statbuf;
+    int r;
+    while ((r = stat_function(path_chars, &statbuf)) == -1 && errno == EINTR) { }
+    jlong *out = &fields[static_cast<size_t>(ii) * kBatchStatFields];
+    if (r == -1) {
+      int saved_errno = errno;
+      if (PostRuntimeException(env, saved_errno, path_chars)) {
+        ::ReleaseStringLatin1Chars(path_chars);
+        return NULL;
+      }
+      out[0] = saved_errno;
+    } else {
+      out[0] = 0;
+      out[1] = statbuf.st_mode;
+      out[2] = StatSeconds(statbuf, STAT_ATIME);
+      out[3] = StatNanoSeconds(statbuf, STAT_ATIME);
+      out[4] = StatSeconds(statbuf, STAT_MTIME);
+      out[5] = StatNanoSeconds(statbuf, STAT_MTIME);
+      out[6] = StatSeconds(statbuf, STAT_CTIME);
+      out[7] = StatNanoSeconds(statbuf, STAT_CTIME);
+      out[8] = static_cast<jlong>(statbuf.st_size);
+      out[9] = static_cast<int>(statbuf.st_dev);
+      out[10] = static_cast<jlong>(statbuf.st_ino);
+    }
+    ::ReleaseStringLatin1Chars(path_chars);
+    env->DeleteLocalRef(path);
+  }
+
+  jlongArray result = env->NewLongArray(fields.size());
+  if (result == NULL) {
+    return NULL;  // async exception!
+  }
+  if (!fields.empty()) {
+    env->SetLongArrayRegion(result, 0, fields.size(), &fields[0]);
+  }
+  return result;
+}
+
 /*
  * Class:     com.google.devtools.build.lib.unix.FilesystemUtils
  * Method:    utime
@@ -780,17 +848,18 @@ Java_com_google_devtools_build_lib_unix_FilesystemUtils_lgetxattr(JNIEnv *env,
 static int md5sumAsBytes(const char *file,
                          jbyte result[Md5Digest::kDigestLength]) {
   Md5Digest digest;
-  // OPT: Using a 32k buffer would give marginally better performance,
-  // but what is the stack size here?
-  jbyte buf[4096];
+  // Large outputs are digested on a few dedicated threads, so a large buffer
+  // pays off by reducing the number of read() calls. It is allocated on the
+  // heap because the stack size of JNI threads is unknown.
+  std::vector<jbyte> buf(64 * 1024);
   int fd;
   while ((fd = open(file, O_RDONLY)) == -1 && errno == EINTR) { }
   if (fd == -1) {
     return -1;
   }
-  for (ssize_t len = read(fd, buf, arraysize(buf));
+  for (ssize_t len = read(fd, buf.data(), buf.size());
        len != 0;
-       len = read(fd, buf, arraysize(buf))) {
+       len = read(fd, buf.data(), buf.size())) {
     if (len == -1) {
       if (errno == EINTR) {
         continue;
@@ -801,7 +870,7 @@ static int md5sumAsBytes(const char *file,
         return -1;
       }
     }
-    digest.Update(buf, len);
+    digest.Update(buf.data(), len);
   }
   if (close(fd) < 0 && errno != EINTR) {
     return -1;
@@ -826,3 +895,253 @@ Java_com_google_devtools_build_lib_unix_FilesystemUtils_md5sumAsBytes(
   ReleaseStringLatin1Chars(path_chars);
   return result;
 }
+
+////////////////////////////////////////////////////////////////////////
+// inotify
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.Inotify
+ * Method:    init
+ * Signature: ()I
+ * Throws:    java.io.IOException
+ */
+extern "C" JNIEXPORT jint JNICALL
+Java_com_google_devtools_build_lib_unix_Inotify_init(JNIEnv *env,
+                                                     jclass clazz) {
+  int fd = portable_inotify_init();
+  if (fd == -1) {
+    ::PostException(env, errno, "inotify_init");
+  }
+  return fd;
+}
+
+// Adds watches for "dir" and all directories below it, not following
+// symlinks, and records every directory seen, and every file too unless
+// "files" is NULL. A directory is watched
+// before it is listed, so an entry created concurrently is either listed or
+// reported by the watch. Returns false, with errno set, if the watch limit
+// was reached; directories that disappear or can't be read are skipped.
+static bool AddWatchesRecursively(int fd, const std::string &dir,
+                                  std::vector<int> *wds,
+                                  std::vector<std::string> *dirs,
+                                  std::vector<std::string> *files) {
+  int wd = portable_inotify_add_watch(fd, dir.c_str());
+  if (wd == -1) {
+    return errno != ENOSPC;
+  }
+  wds->push_back(wd);
+  dirs->push_back(dir);
+
+  DIR *dirh;
+  while ((dirh = ::opendir(dir.c_str())) == NULL && errno == EINTR) { }
+  if (dirh == NULL) {
+    return true;
+  }
+  std::vector<std::string> subdirs;
+  for (;;) {
+    errno = 0;
+    struct dirent *entry = ::readdir(dirh);
+    if (entry == NULL) {
+      if (errno == EINTR || errno == EIO) continue;
+      break;  // EOF, or an error we can't do anything about.
+    }
+    if (entry->d_name[0] == '.') {
+      if (entry->d_name[1] == '\0') continue;
+      if (entry->d_name[1] == '.' && entry->d_name[2] == '\0') continue;
+    }
+    std::string child = dir == "/" ? dir + entry->d_name
+                                   : dir + "/" + entry->d_name;
+    bool is_dir = entry->d_type == DT_DIR;
+    if (entry->d_type == DT_UNKNOWN) {
+      portable_stat_struct statbuf;
+      is_dir = portable_lstat(child.c_str(), &statbuf) == 0
+          && S_ISDIR(statbuf.st_mode);
+    }
+    if (is_dir) {
+      subdirs.push_back(child);
+    } else if (files != NULL) {
+      files->push_back(child);
+    }
+  }
+  ::closedir(dirh);
+
+  for (size_t ii = 0; ii < subdirs.size(); ++ii) {
+    if (!AddWatchesRecursively(fd, subdirs[ii], wds, dirs, files)) {
+      return false;
+    }
+  }
+  return true;
+}
+
+static jobjectArray NewStringArray(JNIEnv *env,
+                                   const std::vector<std::string> &strings) {
+  static jclass string_class = NULL;
+  if (string_class == NULL) {  // note: harmless race condition
+    jclass local = env->FindClass("java/lang/String");
+    CHECK(local != NULL);
+    string_class = static_cast<jclass>(env->NewGlobalRef(local));
+  }
+  jobjectArray result = env->NewObjectArray(strings.size(), string_class, NULL);
+  if (result == NULL) {
+    return NULL;  // async exception!
+  }
+  for (size_t ii = 0; ii < strings.size(); ++ii) {
+    jstring s = NewStringLatin1(env, strings[ii].c_str());
+    if (s == NULL) {
+      return NULL;  // async exception!
+    }
+    env->SetObjectArrayElement(result, ii, s);
+    env->DeleteLocalRef(s);
+  }
+  return result;
+}
+
+static jintArray NewIntArray(JNIEnv *env, const std::vector<int> &ints) {
+  jintArray result = env->NewIntArray(ints.size());
+  if (result == NULL) {
+    return NULL;  // async exception!
+  }
+  if (!ints.empty()) {
+    env->SetIntArrayRegion(result, 0, ints.size(),
+                           reinterpret_cast<const jint *>(&ints[0]));
+  }
+  return result;
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.Inotify
+ * Method:    addWatchesRecursively
+ * Signature: (ILjava/lang/String;Z)Lcom/google/devtools/build/lib/unix/Inotify$Watches;
+ * Throws:    java.io.IOException
+ */
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_google_devtools_build_lib_unix_Inotify_addWatchesRecursively(
+    JNIEnv *env, jclass clazz, jint fd, jstring path, jboolean list_files) {
+  static jclass watches_class = NULL;
+  if (watches_class == NULL) {  // note: harmless race condition
+    jclass local =
+        env->FindClass("com/google/devtools/build/lib/unix/Inotify$Watches");
+    CHECK(local != NULL);
+    watches_class = static_cast<jclass>(env->NewGlobalRef(local));
+  }
+  static jmethodID ctor = NULL;
+  if (ctor == NULL) {  // note: harmless race condition
+    ctor = env->GetMethodID(watches_class, "<init>",
+                            "([I[Ljava/lang/String;[Ljava/lang/String;)V");
+    CHECK(ctor != NULL);
+  }
+
+  const char *path_chars = GetStringLatin1Chars(env, path);
+  if (path_chars == NULL) {
+    return NULL;  // async exception!
+  }
+  std::string root(path_chars);
+  std::vector<int> wds;
+  std::vector<std::string> dirs;
+  std::vector<std::string> files;
+  if (!AddWatchesRecursively(fd, root, &wds, &dirs,
+                             list_files ? &files : NULL)) {
+    ::PostException(env, errno,
+                    root + " (consider raising fs.inotify.max_user_watches)");
+    ReleaseStringLatin1Chars(path_chars);
+    return NULL;
+  }
+  ReleaseStringLatin1Chars(path_chars);
+
+  jintArray wds_obj = NewIntArray(env, wds);
+  if (wds_obj == NULL) return NULL;
+  jobjectArray dirs_obj = NewStringArray(env, dirs);
+  if (dirs_obj == NULL) return NULL;
+  jobjectArray files_obj = NewStringArray(env, files);
+  if (files_obj == NULL) return NULL;
+  return env->NewObject(watches_class, ctor, wds_obj, dirs_obj, files_obj);
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.Inotify
+ * Method:    removeWatch
+ * Signature: (II)V
+ */
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_unix_Inotify_removeWatch(JNIEnv *env,
+                                                            jclass clazz,
+                                                            jint fd,
+                                                            jint wd) {
+  // Fails with EINVAL if the watch is already gone, which is fine.
+  portable_inotify_rm_watch(fd, wd);
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.Inotify
+ * Method:    waitForEvents
+ * Signature: (II)Z
+ * Throws:    java.io.IOException
+ */
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_google_devtools_build_lib_unix_Inotify_waitForEvents(
+    JNIEnv *env, jclass clazz, jint fd, jint timeout_millis) {
+  struct pollfd pfd;
+  pfd.fd = fd;
+  pfd.events = POLLIN;
+  int r = ::poll(&pfd, 1, timeout_millis);
+  if (r == -1) {
+    if (errno == EINTR) {
+      return false;
+    }
+    ::PostException(env, errno, "poll");
+    return false;
+  }
+  return r > 0;
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.Inotify
+ * Method:    readEvents
+ * Signature: (I)Lcom/google/devtools/build/lib/unix/Inotify$Events;
+ * Throws:    java.io.IOException
+ */
+extern "C" JNIEXPORT jobject JNICALL
+Java_com_google_devtools_build_lib_unix_Inotify_readEvents(JNIEnv *env,
+                                                           jclass clazz,
+                                                           jint fd) {
+  static jclass events_class = NULL;
+  if (events_class == NULL) {  // note: harmless race condition
+    jclass local =
+        env->FindClass("com/google/devtools/build/lib/unix/Inotify$Events");
+    CHECK(local != NULL);
+    events_class = static_cast<jclass>(env->NewGlobalRef(local));
+  }
+  static jmethodID ctor = NULL;
+  if (ctor == NULL) {  // note: harmless race condition
+    ctor = env->GetMethodID(events_class, "<init>",
+                            "([I[I[Ljava/lang/String;)V");
+    CHECK(ctor != NULL);
+  }
+
+  std::vector<int> wds;
+  std::vector<int> masks;
+  std::vector<std::string> names;
+  if (portable_inotify_read_events(fd, &wds, &masks, &names) == -1) {
+    ::PostException(env, errno, "inotify read");
+    return NULL;
+  }
+  jintArray wds_obj = NewIntArray(env, wds);
+  if (wds_obj == NULL) return NULL;
+  jintArray masks_obj = NewIntArray(env, masks);
+  if (masks_obj == NULL) return NULL;
+  jobjectArray names_obj = NewStringArray(env, names);
+  if (names_obj == NULL) return NULL;
+  return env->NewObject(events_class, ctor, wds_obj, masks_obj, names_obj);
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.Inotify
+ * Method:    close
+ * Signature: (I)V
+ */
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_unix_Inotify_close(JNIEnv *env,
+                                                      jclass clazz,
+                                                      jint fd) {
+  ::close(fd);
+}
@@ -21,6 +21,7 @@
 #include <sys/stat.h>
 
 #include <string>
+#include <vector>
 
 #define CHECK(condition) \
     do { \
@@ -87,4 +88,25 @@ ssize_t portable_getxattr(const char *path, const char *name, void *value,
 ssize_t portable_lgetxattr(const char *path, const char *name, void *value,
                            size_t size);
 
+// Creates a non-blocking inotify instance, if available. If not, sets errno to
+// ENOSYS.
+int portable_inotify_init();
+
+// Adds or updates a watch for changes to the entries of the directory "path",
+// without following symlinks, if inotify is available. If not, sets errno to
+// ENOSYS.
+int portable_inotify_add_watch(int fd, const char *path);
+
+// Removes a watch added by portable_inotify_add_watch. If inotify is not
+// available, sets errno to ENOSYS.
+int portable_inotify_rm_watch(int fd, int wd);
+
+// Reads all events that are available on the inotify instance "fd" without
+// blocking, and appends their watch descriptors, masks and names to the
+// vectors. Returns the number of events read, or -1 on error. If inotify is not
+// available, sets errno to ENOSYS.
+int portable_inotify_read_events(int fd, std::vector<int> *wds,
+                                 std::vector<int> *masks,
+                                 std::vector<std::string> *names);
+
 #endif  // BAZEL_SRC_MAIN_NATIVE_UNIX_JNI_H__
@@ -23,6 +23,7 @@
 #include <sys/syslimits.h>
 
 #include <string>
+#include <vector>
 
 const int PATH_MAX2 = PATH_MAX * 2;
 
@@ -111,3 +112,25 @@ ssize_t portable_lgetxattr(const char *path, const char *name, void *value,
   errno = ENOSYS;
   return -1;
 }
+
+int portable_inotify_init() {
+  errno = ENOSYS;
+  return -1;
+}
+
+int portable_inotify_add_watch(int fd, const char *path) {
+  errno = ENOSYS;
+  return -1;
+}
+
+int portable_inotify_rm_watch(int fd, int wd) {
+  errno = ENOSYS;
+  return -1;
+}
+
+int portable_inotify_read_events(int fd, std::vector<int> *wds,
+                                 std::vector<int> *masks,
+                                 std::vector<std::string> *names) {
+  errno = ENOSYS;
+  return -1;
+}
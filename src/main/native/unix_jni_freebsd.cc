@@ -24,6 +24,7 @@
 #include <sys/stat.h>
 
 #include <string>
+#include <vector>
 
 const int PATH_MAX2 = PATH_MAX * 2;
 
@@ -79,3 +80,25 @@ ssize_t portable_lgetxattr(const char *path, const char *name, void *value,
                            size_t size) {
   return extattr_get_link(path, EXTATTR_NAMESPACE_SYSTEM, name, value, size);
 }
+
+int portable_inotify_init() {
+  errno = ENOSYS;
+  return -1;
+}
+
+int portable_inotify_add_watch(int fd, const char *path) {
+  errno = ENOSYS;
+  return -1;
+}
+
+int portable_inotify_rm_watch(int fd, int wd) {
+  errno = ENOSYS;
+  return -1;
+}
+
+int portable_inotify_read_events(int fd, std::vector<int> *wds,
+                                 std::vector<int> *masks,
+                                 std::vector<std::string> *names) {
+  errno = ENOSYS;
+  return -1;
+}
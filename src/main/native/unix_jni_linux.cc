@@ -16,8 +16,11 @@
 
 #include <string.h>
 #include <stdlib.h>
+#include <errno.h>
+#include <sys/inotify.h>
 #include <sys/stat.h>
 #include <sys/xattr.h>
+#include <unistd.h>
 
 #include <string>
 
@@ -73,3 +76,46 @@ ssize_t portable_lgetxattr(const char *path, const char *name, void *value,
                            size_t size) {
   return ::lgetxattr(path, name, value, size);
 }
+
+int portable_inotify_init() {
+  return ::inotify_init1(IN_NONBLOCK | IN_CLOEXEC);
+}
+
+int portable_inotify_add_watch(int fd, const char *path) {
+  return ::inotify_add_watch(fd, path,
+      IN_ATTRIB | IN_CREATE | IN_DELETE | IN_DELETE_SELF | IN_MODIFY |
+      IN_MOVE_SELF | IN_MOVED_FROM | IN_MOVED_TO | IN_DONT_FOLLOW |
+      IN_EXCL_UNLINK | IN_ONLYDIR);
+}
+
+int portable_inotify_rm_watch(int fd, int wd) {
+  return ::inotify_rm_watch(fd, wd);
+}
+
+int portable_inotify_read_events(int fd, std::vector<int> *wds,
+                                 std::vector<int> *masks,
+                                 std::vector<std::string> *names) {
+  // Large enough for several hundred events per read(2); the kernel never
+  // splits an event across reads.
+  char buf[64 * 1024]
+      __attribute__((aligned(__alignof__(struct inotify_event))));
+  int count = 0;
+  for (;;) {
+    ssize_t len = ::read(fd, buf, sizeof buf);
+    if (len == -1) {
+      if (errno == EINTR) continue;
+      if (errno == EAGAIN) return count;
+      return -1;
+    }
+    for (char *p = buf; p < buf + len; ) {
+      const struct inotify_event *event =
+          reinterpret_cast<const struct inotify_event *>(p);
+      wds->push_back(event->wd);
+      masks->push_back(event->mask);
+      // The name is padded with NULs up to event->len.
+      names->push_back(event->len > 0 ? std::string(event->name) : "");
+      count++;
+      p += sizeof(struct inotify_event) + event->len;
+    }
+  }
+}
@@ -292,12 +292,16 @@ static void CreateFile(const char *path) {
   CHECK_CALL(close(handle));
 }
 
+static int CreateTarget(const char *path, bool is_directory);
+
+// The sandbox root may be reused from a previous run, so the mount points below
+// are only created if they don't exist yet.
 static void SetupDevices() {
-  CHECK_CALL(mkdir("dev", 0755));
+  CHECK_CALL(CreateTarget("dev", true));
   const char *devs[] = {"/dev/null", "/dev/random", "/dev/urandom", "/dev/zero",
                         NULL};
   for (int i = 0; devs[i] != NULL; i++) {
-    CreateFile(devs[i] + 1);
+    CHECK_CALL(CreateTarget(devs[i] + 1, false));
     CHECK_CALL(mount(devs[i], devs[i] + 1, NULL, MS_BIND, NULL));
   }
 
@@ -355,10 +359,10 @@ static void SetupDirectories(struct Options *opt) {
   // Setup /dev.
   SetupDevices();
 
-  CHECK_CALL(mkdir("proc", 0755));
+  CHECK_CALL(CreateTarget("proc", true));
   CHECK_CALL(mount("/proc", "proc", NULL, MS_REC | MS_BIND, NULL));
 
-  CHECK_CALL(mkdir("tmp", 0755));
+  CHECK_CALL(CreateTarget("tmp", true));
   CHECK_CALL(mount("tmpfs", "tmp", "tmpfs", MS_NOSUID | MS_NODEV,
                    "size=25%,mode=1777"));
 
@@ -20,7 +20,10 @@ import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 
 import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
 import com.google.devtools.build.lib.actions.cache.DigestUtils;
+import com.google.devtools.build.lib.actions.cache.PersistentDigestCache;
+import com.google.devtools.build.lib.testutil.ManualClock;
 import com.google.devtools.build.lib.testutil.TestThread;
 import com.google.devtools.build.lib.testutil.TestUtils;
 import com.google.devtools.build.lib.util.BlazeClock;
@@ -29,13 +32,17 @@ import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
 
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Tests for DigestUtils.
@@ -43,6 +50,167 @@ import java.util.concurrent.TimeUnit;
 @RunWith(JUnit4.class)
 public class DigestUtilsTest {
 
+  private static final int LARGE_FILE_SIZE = 10000;
+
+  /** Counts digest computations, and lets tests hold them until a latch is released. */
+  private static class DigestCountingFileSystem extends InMemoryFileSystem {
+    private final AtomicInteger digestCount = new AtomicInteger();
+    private volatile CountDownLatch started = new CountDownLatch(0);
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    DigestCountingFileSystem() {
+      super(BlazeClock.instance());
+    }
+
+    @Override
+    protected byte[] getMD5Digest(Path path) throws IOException {
+      digestCount.incrementAndGet();
+      started.countDown();
+      try {
+        assertTrue(release.await(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      return super.getMD5Digest(path);
+    }
+  }
+
+  private DigestCountingFileSystem fileSystem;
+
+  @Before
+  public void setUp() throws Exception {
+    fileSystem = new DigestCountingFileSystem();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    DigestUtils.setDigestCache(null);
+  }
+
+  private Path createFile(String name, int size, byte content) throws IOException {
+    Path path = fileSystem.getPath("/" + name);
+    byte[] bytes = new byte[size];
+    Arrays.fill(bytes, content);
+    FileSystemUtils.writeContent(path, bytes);
+    return path;
+  }
+
+  private static byte[] md5(int size, byte content) {
+    byte[] bytes = new byte[size];
+    Arrays.fill(bytes, content);
+    return Hashing.md5().hashBytes(bytes).asBytes();
+  }
+
+  @Test
+  public void testSmallAndLargeFiles() throws Exception {
+    Path small = createFile("small", 10, (byte) 1);
+    Path large = createFile("large", LARGE_FILE_SIZE, (byte) 2);
+    assertArrayEquals(md5(10, (byte) 1), DigestUtils.getDigestOrFail(small, 10));
+    assertArrayEquals(md5(LARGE_FILE_SIZE, (byte) 2),
+        DigestUtils.getDigestOrFail(large, LARGE_FILE_SIZE));
+    assertEquals(2, fileSystem.digestCount.get());
+  }
+
+  @Test
+  public void testConcurrentRequestsShareOneComputation() throws Exception {
+    final Path path = createFile("shared", LARGE_FILE_SIZE, (byte) 3);
+    fileSystem.started = new CountDownLatch(1);
+    fileSystem.release = new CountDownLatch(1);
+
+    class DigestRequester extends TestThread {
+      @Override
+      public void runTest() throws Exception {
+        assertArrayEquals(md5(LARGE_FILE_SIZE, (byte) 3),
+            DigestUtils.getDigestOrFail(path, LARGE_FILE_SIZE));
+      }
+    }
+    DigestRequester first = new DigestRequester();
+    DigestRequester second = new DigestRequester();
+    first.start();
+    assertTrue(fileSystem.started.await(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    second.start();
+    // Give the second requester a chance to find the pending computation.
+    Thread.sleep(100);
+    fileSystem.release.countDown();
+    first.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
+    second.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
+    assertEquals(1, fileSystem.digestCount.get());
+  }
+
+  @Test
+  public void testPrefetchedDigestIsReused() throws Exception {
+    Path path = createFile("prefetched", LARGE_FILE_SIZE, (byte) 4);
+    fileSystem.started = new CountDownLatch(1);
+    DigestUtils.prefetchDigest(path);
+    assertTrue(fileSystem.started.await(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertArrayEquals(md5(LARGE_FILE_SIZE, (byte) 4),
+        DigestUtils.getDigestOrFail(path, LARGE_FILE_SIZE));
+    assertEquals(1, fileSystem.digestCount.get());
+  }
+
+  @Test
+  public void testPrefetchIgnoresSmallAndMissingFiles() throws Exception {
+    Path small = createFile("small", 10, (byte) 5);
+    DigestUtils.prefetchDigest(small);
+    DigestUtils.prefetchDigest(fileSystem.getPath("/missing"));
+    assertEquals(0, fileSystem.digestCount.get());
+    assertArrayEquals(md5(10, (byte) 5), DigestUtils.getDigestOrFail(small, 10));
+    assertEquals(1, fileSystem.digestCount.get());
+  }
+
+  @Test
+  public void testModifiedFileIsDigestedAgain() throws Exception {
+    Path path = createFile("modified", LARGE_FILE_SIZE, (byte) 6);
+    fileSystem.started = new CountDownLatch(1);
+    DigestUtils.prefetchDigest(path);
+    assertTrue(fileSystem.started.await(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    createFile("modified", LARGE_FILE_SIZE + 1, (byte) 7);
+    assertArrayEquals(md5(LARGE_FILE_SIZE + 1, (byte) 7),
+        DigestUtils.getDigestOrFail(path, LARGE_FILE_SIZE + 1));
+    assertEquals(2, fileSystem.digestCount.get());
+  }
+
+  @Test
+  public void testLargeFilesAreDigestedInParallel() throws Exception {
+    Path first = createFile("first", LARGE_FILE_SIZE, (byte) 8);
+    Path second = createFile("second", LARGE_FILE_SIZE, (byte) 9);
+    fileSystem.started = new CountDownLatch(2);
+    fileSystem.release = new CountDownLatch(1);
+    DigestUtils.prefetchDigest(first);
+    DigestUtils.prefetchDigest(second);
+    // Both computations must be running at once for the latch to open.
+    boolean bothStarted = fileSystem.started.await(10, TimeUnit.SECONDS);
+    fileSystem.release.countDown();
+    assertTrue(bothStarted);
+    assertArrayEquals(md5(LARGE_FILE_SIZE, (byte) 8),
+        DigestUtils.getDigestOrFail(first, LARGE_FILE_SIZE));
+    assertArrayEquals(md5(LARGE_FILE_SIZE, (byte) 9),
+        DigestUtils.getDigestOrFail(second, LARGE_FILE_SIZE));
+    assertEquals(2, fileSystem.digestCount.get());
+  }
+
+  @Test
+  public void testPersistentDigestCacheAvoidsReading() throws Exception {
+    Path path = createFile("cached", LARGE_FILE_SIZE, (byte) 10);
+    Path cacheRoot = fileSystem.getPath("/cache");
+    cacheRoot.createDirectory();
+    ManualClock clock = new ManualClock();
+    // Files modified "now" are not cached.
+    clock.advanceMillis(System.currentTimeMillis() + 10000);
+    PersistentDigestCache cache = new PersistentDigestCache(cacheRoot, clock);
+    DigestUtils.setDigestCache(cache);
+    assertArrayEquals(md5(LARGE_FILE_SIZE, (byte) 10),
+        DigestUtils.getDigestOrFail(path, LARGE_FILE_SIZE));
+    cache.save();
+
+    // Simulates a server restart.
+    DigestUtils.setDigestCache(new PersistentDigestCache(cacheRoot, clock));
+    DigestUtils.prefetchDigest(path);
+    assertArrayEquals(md5(LARGE_FILE_SIZE, (byte) 10),
+        DigestUtils.getDigestOrFail(path, LARGE_FILE_SIZE));
+    assertEquals(1, fileSystem.digestCount.get());
+  }
+
   private static void assertMd5CalculationConcurrency(boolean expectConcurrent,
       final boolean fastDigest, final int fileSize1, final int fileSize2) throws Exception {
     final CountDownLatch barrierLatch = new CountDownLatch(2); // Used to block test threads.
@@ -106,16 +274,16 @@ public class DigestUtilsTest {
   }
 
   /**
-   * Ensures that MD5 calculation is synchronized for files
-   * greater than 4096 bytes if MD5 is not available cheaply,
-   * so machines with rotating drives don't become unusable.
+   * Ensures that MD5 calculation is not serialized. Files greater than 4096 bytes are read on a
+   * bounded number of digest threads if MD5 is not available cheaply, so machines with rotating
+   * drives don't become unusable, but there are at least two of them.
    */
   @Test
   public void testMd5CalculationConcurrency() throws Exception {
     assertMd5CalculationConcurrency(true, true, 4096, 4096);
     assertMd5CalculationConcurrency(true, true, 4097, 4097);
     assertMd5CalculationConcurrency(true, false, 4096, 4096);
-    assertMd5CalculationConcurrency(false, false, 4097, 4097);
+    assertMd5CalculationConcurrency(true, false, 4097, 4097);
     assertMd5CalculationConcurrency(true, false, 1024, 4097);
     assertMd5CalculationConcurrency(true, false, 1024, 1024);
   }
@@ -20,6 +20,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.EventBus;
+import com.google.devtools.build.lib.testutil.ManualClock;
 import com.google.devtools.build.lib.testutil.TestThread;
 
 import org.junit.Before;
@@ -27,6 +28,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.IOException;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -323,8 +325,145 @@ public class ResourceManagerTest {
     assertFalse(rm.inUse());
   }
 
+  /** A sampler that returns the load set by the test, or fails if none is set. */
+  private static class FakeLoadSampler implements LocalHostLoad.Sampler {
+    private LocalHostLoad load;
+
+    @Override
+    public LocalHostLoad sample() throws IOException {
+      if (load == null) {
+        throw new IOException("no load");
+      }
+      return load;
+    }
+  }
+
+  private ResourceManager newAdaptiveResourceManager(ManualClock clock, FakeLoadSampler sampler,
+      double memoryMb, double cpuUsage) {
+    ResourceManager adaptiveRm = ResourceManager.instanceForTestingOnly(clock);
+    adaptiveRm.setRamUtilizationPercentage(100);
+    adaptiveRm.setAvailableResources(ResourceSet.create(memoryMb, cpuUsage, 1.0, 2));
+    adaptiveRm.setEventBus(new EventBus());
+    adaptiveRm.setAdaptiveMode(sampler);
+    return adaptiveRm;
+  }
+
+  @Test
+  public void testAdaptiveModeWaitsForFreeMemory() throws Exception {
+    ManualClock clock = new ManualClock();
+    FakeLoadSampler sampler = new FakeLoadSampler();
+    sampler.load = new LocalHostLoad(0.0, 300);
+    ResourceManager adaptiveRm = newAdaptiveResourceManager(clock, sampler, 1000, 1.0);
+    ActionMetadata owner = new ResourceOwnerStub("Compile");
+
+    adaptiveRm.acquireResources(owner, ResourceSet.createWithRamCpuIo(100, 0, 0));
+    // The host only has 300 MB free, which the last sample does not reflect the first action in.
+    assertFalse(adaptiveRm.isAvailable(owner, ResourceSet.createWithRamCpuIo(250, 0, 0)));
+    assertTrue(adaptiveRm.isAvailable(owner, ResourceSet.createWithRamCpuIo(200, 0, 0)));
+
+    // The next sample shows that the first action uses less memory than estimated.
+    clock.advanceMillis(1000);
+    assertTrue(adaptiveRm.isAvailable(owner, ResourceSet.createWithRamCpuIo(250, 0, 0)));
+    sampler.load = new LocalHostLoad(0.0, 100);
+    clock.advanceMillis(1000);
+    assertFalse(adaptiveRm.isAvailable(owner, ResourceSet.createWithRamCpuIo(250, 0, 0)));
+
+    // The usual budget still applies when the host has plenty of free memory.
+    sampler.load = new LocalHostLoad(0.0, 100000);
+    clock.advanceMillis(1000);
+    assertFalse(adaptiveRm.isAvailable(owner, ResourceSet.createWithRamCpuIo(950, 0, 0)));
+  }
+
+  @Test
+  public void testAdaptiveModeOvercommitsIdleCpus() throws Exception {
+    ManualClock clock = new ManualClock();
+    FakeLoadSampler sampler = new FakeLoadSampler();
+    sampler.load = new LocalHostLoad(0.0, 100000);
+    ResourceManager adaptiveRm = newAdaptiveResourceManager(clock, sampler, 1000, 2.0);
+    ActionMetadata owner = new ResourceOwnerStub("Download");
+
+    adaptiveRm.acquireResources(owner, ResourceSet.createWithRamCpuIo(0, 2.0, 0));
+    // The last sample does not reflect the running action yet.
+    assertFalse(adaptiveRm.isAvailable(owner, ResourceSet.createWithRamCpuIo(0, 1.0, 0)));
+
+    // The running action mostly waits.
+    sampler.load = new LocalHostLoad(0.5, 100000);
+    clock.advanceMillis(1000);
+    assertTrue(adaptiveRm.isAvailable(owner, ResourceSet.createWithRamCpuIo(0, 1.0, 0)));
+    // But no more than twice the available CPUs may be used.
+    assertFalse(adaptiveRm.isAvailable(owner, ResourceSet.createWithRamCpuIo(0, 4.0, 0)));
+
+    // The host is busy.
+    sampler.load = new LocalHostLoad(1.9, 100000);
+    clock.advanceMillis(1000);
+    assertFalse(adaptiveRm.isAvailable(owner, ResourceSet.createWithRamCpuIo(0, 1.0, 0)));
+  }
+
+  @Test
+  public void testAdaptiveModeLearnsUsageOfMnemonics() throws Exception {
+    ManualClock clock = new ManualClock();
+    FakeLoadSampler sampler = new FakeLoadSampler();
+    sampler.load = new LocalHostLoad(0.0, 1000);
+    ResourceManager adaptiveRm = newAdaptiveResourceManager(clock, sampler, 10000, 1.0);
+    ActionMetadata link = new ResourceOwnerStub("Link");
+    ActionMetadata other = new ResourceOwnerStub("Other");
+    ResourceSet linkResources = ResourceSet.createWithRamCpuIo(1500, 0, 0);
+
+    // Nothing is known about links yet, so another one does not fit into the free memory.
+    adaptiveRm.acquireResources(other, ResourceSet.createWithRamCpuIo(100, 0, 0));
+    assertFalse(adaptiveRm.isAvailable(other, linkResources));
+    assertFalse(adaptiveRm.isAvailable(link, linkResources));
+    adaptiveRm.releaseResources(other, ResourceSet.createWithRamCpuIo(100, 0, 0));
+
+    // Links are observed to use much less memory than estimated.
+    for (int i = 0; i < 10; i++) {
+      sampler.load = new LocalHostLoad(0.0, 1000);
+      clock.advanceMillis(1000);
+      adaptiveRm.acquireResources(link, linkResources);
+      sampler.load = new LocalHostLoad(0.0, 900);
+      clock.advanceMillis(1000);
+      adaptiveRm.releaseResources(link, linkResources);
+    }
+
+    sampler.load = new LocalHostLoad(0.0, 1000);
+    clock.advanceMillis(1000);
+    adaptiveRm.acquireResources(other, ResourceSet.createWithRamCpuIo(100, 0, 0));
+    clock.advanceMillis(1000);
+    assertTrue(adaptiveRm.isAvailable(link, linkResources));
+    // The estimates of other mnemonics are unaffected.
+    assertFalse(adaptiveRm.isAvailable(other, linkResources));
+  }
+
+  @Test
+  public void testAdaptiveModeIsDisabledWhenSamplingFails() throws Exception {
+    ManualClock clock = new ManualClock();
+    FakeLoadSampler sampler = new FakeLoadSampler();
+    sampler.load = new LocalHostLoad(0.0, 10);
+    ResourceManager adaptiveRm = newAdaptiveResourceManager(clock, sampler, 1000, 1.0);
+    ActionMetadata owner = new ResourceOwnerStub("Compile");
+
+    adaptiveRm.acquireResources(owner, ResourceSet.createWithRamCpuIo(100, 0, 0));
+    assertFalse(adaptiveRm.isAvailable(owner, ResourceSet.createWithRamCpuIo(100, 0, 0)));
+
+    sampler.load = null;
+    clock.advanceMillis(1000);
+    assertTrue(adaptiveRm.isAvailable(owner, ResourceSet.createWithRamCpuIo(100, 0, 0)));
+    adaptiveRm.releaseResources(owner, ResourceSet.createWithRamCpuIo(100, 0, 0));
+    assertFalse(adaptiveRm.inUse());
+  }
+
   private static class ResourceOwnerStub implements ActionMetadata {
 
+    @Nullable private final String mnemonic;
+
+    ResourceOwnerStub() {
+      this(null);
+    }
+
+    ResourceOwnerStub(@Nullable String mnemonic) {
+      this.mnemonic = mnemonic;
+    }
+
     @Override
     @Nullable
     public String getProgressMessage() {
@@ -343,7 +482,10 @@ public class ResourceManagerTest {
 
     @Override
     public String getMnemonic() {
-      throw new IllegalStateException();
+      if (mnemonic == null) {
+        throw new IllegalStateException();
+      }
+      return mnemonic;
     }
 
     @Override
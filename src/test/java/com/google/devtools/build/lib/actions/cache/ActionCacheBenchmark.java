@@ -0,0 +1,139 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link CompactPersistentActionCache} and {@link MappedActionCache} on a synthetic
+ * action cache: the time to load a saved cache, to look up a fraction of its entries (a typical
+ * incremental build), to overwrite them, and to save the result.
+ *
+ * <p>This is not a test; run it by hand, e.g. with arguments
+ * {@code <directory> <actions> <inputs per action> <fraction looked up>}. Defaults to
+ * {@code $TMPDIR 500000 50 0.1}.
+ */
+public class ActionCacheBenchmark {
+
+  private interface CacheFactory {
+    ActionCache create(Path cacheRoot) throws IOException;
+  }
+
+  private static final CacheFactory COMPACT = new CacheFactory() {
+    @Override
+    public ActionCache create(Path cacheRoot) throws IOException {
+      return new CompactPersistentActionCache(cacheRoot, BlazeClock.instance());
+    }
+  };
+
+  private static final CacheFactory MAPPED = new CacheFactory() {
+    @Override
+    public ActionCache create(Path cacheRoot) throws IOException {
+      return new MappedActionCache(cacheRoot, BlazeClock.instance());
+    }
+  };
+
+  private final int numActions;
+  private final int numInputs;
+  private final double fraction;
+
+  private ActionCacheBenchmark(int numActions, int numInputs, double fraction) {
+    this.numActions = numActions;
+    this.numInputs = numInputs;
+    this.fraction = fraction;
+  }
+
+  private ActionCache.Entry newEntry(ActionCache cache, int action, int generation) {
+    ActionCache.Entry entry = cache.createEntry("action_key_" + action + "_" + generation);
+    for (int i = 0; i < numInputs; i++) {
+      // Actions share most of their inputs, like the headers of a large library.
+      entry.addFile(new PathFragment("pkg" + ((action + i) % 1000) + "/input" + i + ".h"),
+          Metadata.CONSTANT_METADATA);
+    }
+    entry.getFileDigest();
+    return entry;
+  }
+
+  private static long millisSince(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  private void run(String name, CacheFactory factory, Path cacheRoot) throws IOException {
+    if (cacheRoot.exists()) {
+      FileSystemUtils.deleteTree(cacheRoot);
+    }
+    FileSystemUtils.createDirectoryAndParents(cacheRoot);
+    ActionCache cache = factory.create(cacheRoot);
+    for (int action = 0; action < numActions; action++) {
+      cache.put("bazel-out/bin/output" + action, newEntry(cache, action, 0));
+    }
+    cache.save();
+    cache = null;
+    System.gc();
+
+    long start = System.nanoTime();
+    cache = factory.create(cacheRoot);
+    long loadMillis = millisSince(start);
+
+    Random random = new Random(42);
+    int numTouched = (int) (numActions * fraction);
+    int[] touched = new int[numTouched];
+    for (int i = 0; i < numTouched; i++) {
+      touched[i] = random.nextInt(numActions);
+    }
+    start = System.nanoTime();
+    for (int action : touched) {
+      Preconditions.checkNotNull(cache.get("bazel-out/bin/output" + action));
+    }
+    long getMillis = millisSince(start);
+
+    start = System.nanoTime();
+    for (int action : touched) {
+      cache.put("bazel-out/bin/output" + action, newEntry(cache, action, 1));
+    }
+    long putMillis = millisSince(start);
+
+    start = System.nanoTime();
+    cache.save();
+    long saveMillis = millisSince(start);
+
+    System.gc();
+    long usedBytes = Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    System.out.printf("%s: load %d ms, %d gets %d ms, %d puts %d ms, save %d ms, heap %d MB%n",
+        name, loadMillis, numTouched, getMillis, numTouched, putMillis, saveMillis,
+        usedBytes >> 20);
+    // Keep the cache reachable until the heap has been measured.
+    Preconditions.checkNotNull(cache);
+  }
+
+  public static void main(String[] args) throws IOException {
+    String directory = args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir");
+    int numActions = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+    int numInputs = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+    double fraction = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+    Path root = new JavaIoFileSystem().getPath(directory).getRelative("action_cache_benchmark");
+    ActionCacheBenchmark benchmark = new ActionCacheBenchmark(numActions, numInputs, fraction);
+    benchmark.run("CompactPersistentActionCache", COMPACT, root.getChild("compact"));
+    benchmark.run("MappedActionCache", MAPPED, root.getChild("mapped"));
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.Root;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil.NullAction;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link ActionDurationHistory}.
+ */
+@RunWith(JUnit4.class)
+public class ActionDurationHistoryTest {
+
+  private Path cacheRoot;
+  private Root root;
+  private ActionDurationHistory history;
+
+  @Before
+  public void setUp() throws Exception {
+    InMemoryFileSystem fileSystem = new InMemoryFileSystem();
+    cacheRoot = fileSystem.getPath("/cache");
+    cacheRoot.createDirectory();
+    Path outputRoot = fileSystem.getPath("/out");
+    outputRoot.createDirectory();
+    root = Root.asDerivedRoot(fileSystem.getRootDirectory(), outputRoot);
+    history = new ActionDurationHistory(cacheRoot);
+  }
+
+  private Action action(String output) {
+    return new NullAction(new Artifact(root.getPath().getRelative(output), root));
+  }
+
+  @Test
+  public void putAndGet() throws Exception {
+    assertEquals(-1, history.getCriticalPathMillis(action("a")));
+    history.put(action("a"), 1234);
+    // Actions are identified by their primary output.
+    assertEquals(1234, history.getCriticalPathMillis(action("a")));
+    assertEquals(-1, history.getCriticalPathMillis(action("b")));
+  }
+
+  @Test
+  public void durationsSurviveReload() throws Exception {
+    history.put(action("a"), 1234);
+    assertTrue(history.save() > 0);
+    assertTrue(ActionDurationHistory.historyFile(cacheRoot).exists());
+
+    ActionDurationHistory reloaded = new ActionDurationHistory(cacheRoot);
+    assertEquals(1, reloaded.size());
+    assertEquals(1234, reloaded.getCriticalPathMillis(action("a")));
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreEvicted() throws Exception {
+    history = new ActionDurationHistory(cacheRoot, 2);
+    history.put(action("a"), 1);
+    history.put(action("b"), 2);
+    // Makes b the least recently used action.
+    history.getCriticalPathMillis(action("a"));
+    history.put(action("c"), 3);
+    assertEquals(2, history.size());
+    assertEquals(1, history.getCriticalPathMillis(action("a")));
+    assertEquals(-1, history.getCriticalPathMillis(action("b")));
+  }
+
+  @Test
+  public void unreadableHistoryIsIgnored() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(ActionDurationHistory.historyFile(cacheRoot), "garbage");
+    assertEquals(0, new ActionDurationHistory(cacheRoot).size());
+  }
+}
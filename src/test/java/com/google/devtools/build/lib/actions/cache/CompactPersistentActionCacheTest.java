@@ -181,6 +181,28 @@ public class CompactPersistentActionCacheTest {
     assertToStringIsntTooBig(3000);
   }
 
+  @Test
+  public void testEstimateHeapSizeFollowsPutAndRemove() {
+    long empty = cache.estimateHeapSize();
+    putKey("a");
+    long withA = cache.estimateHeapSize();
+    assertThat(withA).isGreaterThan(empty);
+    putKey("a");
+    assertEquals(withA, cache.estimateHeapSize());
+
+    putKey("b");
+    long withB = cache.estimateHeapSize();
+    assertThat(withB).isGreaterThan(withA);
+    cache.remove("b");
+    // The index keeps the key, a 40 byte string of one character.
+    assertEquals(withA + 42, cache.estimateHeapSize());
+    putKey("b");
+    assertEquals(withB, cache.estimateHeapSize());
+
+    cache.remove("unknown");
+    assertEquals(withB, cache.estimateHeapSize());
+  }
+
   private static void assertKeyEquals(ActionCache cache1, ActionCache cache2, String key) {
     Object entry = cache1.get(key);
     assertNotNull(entry);
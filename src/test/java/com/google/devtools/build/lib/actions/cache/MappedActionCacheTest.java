@@ -0,0 +1,247 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Test for the MappedActionCache class. The cache maps its files, so it needs a real file system.
+ */
+@RunWith(JUnit4.class)
+public class MappedActionCacheTest {
+
+  private final Clock clock = BlazeClock.instance();
+  private Path dataRoot;
+  private MappedActionCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    dataRoot = new JavaIoFileSystem().getPath(TestUtils.tmpDir()).getRelative("mapped_cache");
+    if (dataRoot.exists()) {
+      FileSystemUtils.deleteTree(dataRoot);
+    }
+    FileSystemUtils.createDirectoryAndParents(dataRoot);
+    cache = new MappedActionCache(dataRoot, clock);
+  }
+
+  @Test
+  public void testGetInvalidKey() {
+    assertNull(cache.get("key"));
+  }
+
+  @Test
+  public void testPutAndGet() {
+    putKey("key", cache);
+    ActionCache.Entry readentry = cache.get("key");
+    assertNotNull(readentry);
+    assertEquals("actionKey_key", readentry.getActionKey());
+    assertThat(readentry.getPaths()).containsExactly("file_key");
+  }
+
+  @Test
+  public void testPutOverwrites() {
+    putKey("key", cache);
+    ActionCache.Entry entry = cache.createEntry("otherActionKey");
+    entry.getFileDigest();
+    cache.put("key", entry);
+    assertEquals("otherActionKey", cache.get("key").getActionKey());
+  }
+
+  @Test
+  public void testPutAndRemove() {
+    putKey("key", cache);
+    cache.remove("key");
+    assertNull(cache.get("key"));
+  }
+
+  @Test
+  public void testSave() throws IOException {
+    putKey("key", cache);
+    putKey("removed", cache);
+    cache.remove("removed");
+    cache.save();
+
+    MappedActionCache newcache = new MappedActionCache(dataRoot, clock);
+    assertKeyEquals(cache, newcache, "key");
+    assertNull(newcache.get("removed"));
+  }
+
+  @Test
+  public void testUnsavedEntriesAreDropped() throws IOException {
+    putKey("saved", cache);
+    cache.save();
+    putKey("unsaved", cache);
+    cache.remove("saved");
+
+    // Simulates a server that died without saving.
+    MappedActionCache newcache = new MappedActionCache(dataRoot, clock);
+    assertNotNull(newcache.get("saved"));
+    assertNull(newcache.get("unsaved"));
+    putKey("new", newcache);
+    newcache.save();
+
+    MappedActionCache newerCache = new MappedActionCache(dataRoot, clock);
+    assertNotNull(newerCache.get("saved"));
+    assertNotNull(newerCache.get("new"));
+    assertNull(newerCache.get("unsaved"));
+  }
+
+  @Test
+  public void testTableIsRebuiltFromLog() throws IOException {
+    putKey("key", cache);
+    cache.save();
+    MappedActionCache.tableFile(dataRoot).delete();
+
+    MappedActionCache newcache = new MappedActionCache(dataRoot, clock);
+    assertKeyEquals(cache, newcache, "key");
+  }
+
+  @Test
+  public void testFailedWritesAreDroppedAndRecoveredOnSave() throws IOException {
+    putKey("saved", cache);
+    cache.save();
+    putKey("unsaved", cache);
+    cache.closeLogForTesting();
+
+    putKey("lost", cache);
+    cache.remove("saved");
+    assertNull(cache.get("lost"));
+    assertNull(cache.get("saved"));
+
+    cache.save();
+    assertNotNull(cache.get("saved"));
+    assertNotNull(cache.get("unsaved"));
+    assertNull(cache.get("lost"));
+    putKey("new", cache);
+    cache.save();
+
+    MappedActionCache newcache = new MappedActionCache(dataRoot, clock);
+    assertKeyEquals(cache, newcache, "saved");
+    assertKeyEquals(cache, newcache, "unsaved");
+    assertKeyEquals(cache, newcache, "new");
+    assertNull(newcache.get("lost"));
+  }
+
+  @Test
+  public void testTableGrows() throws IOException {
+    for (int i = 0; i < 50000; i++) {
+      putKey(Integer.toString(i), cache);
+    }
+    for (int i = 0; i < 50000; i += 2) {
+      cache.remove(Integer.toString(i));
+    }
+    cache.save();
+
+    MappedActionCache newcache = new MappedActionCache(dataRoot, clock);
+    for (int i = 0; i < 50000; i++) {
+      if (i % 2 == 0) {
+        assertNull(newcache.get(Integer.toString(i)));
+      } else {
+        assertKeyEquals(cache, newcache, Integer.toString(i));
+      }
+    }
+  }
+
+  @Test
+  public void testLogIsCompacted() throws IOException {
+    for (int round = 0; round < 40; round++) {
+      for (int i = 0; i < 1000; i++) {
+        putKey(Integer.toString(i), cache);
+      }
+    }
+    long logLength = cache.getLogLength();
+    cache.save();
+    assertTrue(cache.getLogLength() * 10 < logLength);
+    assertKeyEquals(cache, cache, "999");
+
+    MappedActionCache newcache = new MappedActionCache(dataRoot, clock);
+    for (int i = 0; i < 1000; i++) {
+      assertKeyEquals(cache, newcache, Integer.toString(i));
+    }
+  }
+
+  @Test
+  public void testConcurrentGetsWhileTheTableGrowsAndTheLogIsCompacted() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      putKey(Integer.toString(i), cache);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Void>> readers = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        readers.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            for (int round = 0; round < 20; round++) {
+              for (int i = 0; i < 1000; i++) {
+                assertEquals("actionKey_" + i, cache.get(Integer.toString(i)).getActionKey());
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (int round = 0; round < 40; round++) {
+        for (int i = 1000; i < 2000; i++) {
+          putKey(Integer.toString(i), cache);
+        }
+      }
+      cache.save();
+      for (Future<Void> reader : readers) {
+        reader.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertKeyEquals(cache, cache, "1999");
+  }
+
+  private static void assertKeyEquals(ActionCache cache1, ActionCache cache2, String key) {
+    Object entry = cache1.get(key);
+    assertNotNull(entry);
+    assertEquals(entry.toString(), cache2.get(key).toString());
+  }
+
+  private static void putKey(String key, ActionCache ac) {
+    ActionCache.Entry entry = ac.createEntry("actionKey_" + key);
+    entry.addFile(new PathFragment("file_" + key), Metadata.CONSTANT_METADATA);
+    entry.getFileDigest();
+    ac.put(key, entry);
+  }
+}
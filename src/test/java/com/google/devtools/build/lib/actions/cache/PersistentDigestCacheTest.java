@@ -0,0 +1,127 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link PersistentDigestCache}.
+ */
+@RunWith(JUnit4.class)
+public class PersistentDigestCacheTest {
+
+  private static final byte[] DIGEST = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+  private final ManualClock clock = new ManualClock();
+  private InMemoryFileSystem fileSystem;
+  private Path cacheRoot;
+  private PersistentDigestCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    fileSystem = new InMemoryFileSystem(clock);
+    cacheRoot = fileSystem.getPath("/cache");
+    cacheRoot.createDirectory();
+    cache = new PersistentDigestCache(cacheRoot, clock);
+  }
+
+  private Path createFile(String name, String content) throws Exception {
+    Path path = fileSystem.getPath("/" + name);
+    FileSystemUtils.writeContentAsLatin1(path, content);
+    return path;
+  }
+
+  @Test
+  public void putAndGet() throws Exception {
+    Path path = createFile("file", "content");
+    clock.advanceMillis(10000);
+    assertNull(cache.get(path, path.stat()));
+    cache.put(path, path.stat(), DIGEST);
+    assertArrayEquals(DIGEST, cache.get(path, path.stat()));
+    assertTrue(cache.contains(path, path.stat()));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    cache.resetStatistics();
+    assertEquals(0, cache.getHitCount());
+    assertEquals(0, cache.getMissCount());
+  }
+
+  @Test
+  public void modifiedFileIsNotFound() throws Exception {
+    Path path = createFile("file", "content");
+    clock.advanceMillis(10000);
+    cache.put(path, path.stat(), DIGEST);
+    FileSystemUtils.writeContentAsLatin1(path, "other content");
+    assertNull(cache.get(path, path.stat()));
+  }
+
+  @Test
+  public void recentlyModifiedFileIsNotCached() throws Exception {
+    Path path = createFile("file", "content");
+    clock.advanceMillis(100);
+    cache.put(path, path.stat(), DIGEST);
+    assertFalse(cache.contains(path, path.stat()));
+  }
+
+  @Test
+  public void digestsSurviveReload() throws Exception {
+    Path path = createFile("file", "content");
+    clock.advanceMillis(10000);
+    cache.put(path, path.stat(), DIGEST);
+    assertTrue(cache.save() > 0);
+    assertTrue(PersistentDigestCache.cacheFile(cacheRoot).exists());
+
+    PersistentDigestCache reloaded = new PersistentDigestCache(cacheRoot, clock);
+    assertEquals(1, reloaded.size());
+    assertArrayEquals(DIGEST, reloaded.get(path, path.stat()));
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreEvicted() throws Exception {
+    cache = new PersistentDigestCache(cacheRoot, clock, 2);
+    Path first = createFile("first", "1");
+    Path second = createFile("second", "2");
+    Path third = createFile("third", "3");
+    clock.advanceMillis(10000);
+    cache.put(first, first.stat(), DIGEST);
+    cache.put(second, second.stat(), DIGEST);
+    // Makes the second file the least recently used one.
+    assertTrue(cache.contains(first, first.stat()));
+    cache.put(third, third.stat(), DIGEST);
+    assertEquals(2, cache.size());
+    assertTrue(cache.contains(first, first.stat()));
+    assertFalse(cache.contains(second, second.stat()));
+    assertTrue(cache.contains(third, third.stat()));
+  }
+
+  @Test
+  public void unreadableCacheIsIgnored() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(PersistentDigestCache.cacheFile(cacheRoot), "garbage");
+    assertEquals(0, new PersistentDigestCache(cacheRoot, clock).size());
+  }
+}
@@ -33,8 +33,11 @@ import org.junit.runners.JUnit4;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -71,6 +74,140 @@ public class AbstractQueueVisitorTest {
     assertTrue(executor.awaitTermination(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
   }
 
+  @Test
+  public void forkJoinPoolCounter() throws Exception {
+    ForkJoinPool pool = NamedForkJoinPool.newNamedPool("BlazeTest ForkJoinPool", 5);
+    CountingQueueVisitor counter = new CountingQueueVisitor(pool, /*shutdownOnCompletion=*/true);
+    counter.enqueue();
+    counter.enqueue();
+    counter.work(false);
+    assertSame(10, counter.getCount());
+    assertTrue(pool.isShutdown());
+  }
+
+  @Test
+  public void callerOwnedForkJoinPool() throws Exception {
+    ForkJoinPool pool = new ForkJoinPool(5);
+    for (int i = 0; i < 3; i++) {
+      CountingQueueVisitor counter = new CountingQueueVisitor(pool, /*shutdownOnCompletion=*/false);
+      counter.enqueue();
+      counter.work(false);
+      assertSame(10, counter.getCount());
+    }
+    assertFalse(pool.isShutdown());
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void forkJoinPoolManyTasks() throws Exception {
+    final AtomicLong count = new AtomicLong();
+    final ConcreteQueueVisitor visitor =
+        new ConcreteQueueVisitor(NamedForkJoinPool.newNamedPool("BlazeTest ForkJoinPool", 8));
+    // A tree of tasks, each of which enqueues its children from a worker thread.
+    class TreeNode implements Runnable {
+      private final int depth;
+
+      TreeNode(int depth) {
+        this.depth = depth;
+      }
+
+      @Override
+      public void run() {
+        count.incrementAndGet();
+        if (depth > 0) {
+          for (int i = 0; i < 4; i++) {
+            visitor.enqueue(new TreeNode(depth - 1));
+          }
+        }
+      }
+    }
+    visitor.enqueue(new TreeNode(8));
+    visitor.work(false);
+    // 1 + 4 + ... + 4^8 nodes.
+    assertEquals((long) ((Math.pow(4, 9) - 1) / 3), count.get());
+  }
+
+  @Test
+  public void forkJoinPoolExceptionFromWorkerThread() throws Exception {
+    final RuntimeException myException = new IllegalStateException();
+    ConcreteQueueVisitor visitor =
+        new ConcreteQueueVisitor(NamedForkJoinPool.newNamedPool("BlazeTest ForkJoinPool", 5));
+    visitor.enqueue(new Runnable() {
+      @Override
+      public void run() {
+        throw myException;
+      }
+    });
+    try {
+      visitor.work(false);
+      fail();
+    } catch (Exception e) {
+      assertSame(myException, e);
+    }
+  }
+
+  @Test
+  public void forkJoinPoolInterruptionWithInterruptingWorkers() throws Exception {
+    final CountDownLatch latch1 = new CountDownLatch(1);
+    final CountDownLatch latch2 = new CountDownLatch(1);
+    final boolean[] workerThreadInterrupted = { false };
+    ConcreteQueueVisitor visitor =
+        new ConcreteQueueVisitor(NamedForkJoinPool.newNamedPool("BlazeTest ForkJoinPool", 3));
+
+    visitor.enqueue(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          latch1.countDown();
+          latch2.await();
+        } catch (InterruptedException e) {
+          workerThreadInterrupted[0] = true;
+        }
+      }
+    });
+
+    latch1.await();
+    Thread.currentThread().interrupt();
+
+    try {
+      visitor.work(true);
+      fail();
+    } catch (InterruptedException e) {
+      // Expected.
+    }
+
+    assertTrue(workerThreadInterrupted[0]);
+  }
+
+  @Test
+  public void prioritizedTasks() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<Integer> order = Collections.synchronizedList(Lists.<Integer>newArrayList());
+    PrioritizingQueueVisitor visitor = new PrioritizingQueueVisitor();
+    // Occupies the only thread until all other tasks are queued.
+    visitor.enqueue(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        Uninterruptibles.awaitUninterruptibly(release);
+      }
+    });
+    started.await();
+    for (final int priority : new int[] {1, 3, 2, 3}) {
+      visitor.enqueue(new Runnable() {
+        @Override
+        public void run() {
+          order.add(priority);
+        }
+      }, priority);
+    }
+    release.countDown();
+    visitor.work(false);
+    assertEquals(Arrays.asList(3, 3, 2, 1), order);
+  }
+
   @Test
   public void doubleCounter() throws Exception {
     CountingQueueVisitor counter = new CountingQueueVisitor();
@@ -481,6 +618,10 @@ public class AbstractQueueVisitorTest {
       super(executor, false, true, true);
     }
 
+    public CountingQueueVisitor(ForkJoinPool pool, boolean shutdownOnCompletion) {
+      super(pool, shutdownOnCompletion, true, true);
+    }
+
     public void enqueue() {
       super.enqueue(new Runnable() {
         @Override
@@ -500,6 +641,18 @@ public class AbstractQueueVisitorTest {
     }
   }
 
+  private static class PrioritizingQueueVisitor extends AbstractQueueVisitor {
+
+    public PrioritizingQueueVisitor() {
+      super(1, 1, 3L, TimeUnit.SECONDS, "BlazeTest PrioritizingQueueVisitor");
+    }
+
+    @Override
+    protected BlockingQueue<Runnable> getWorkQueue() {
+      return new PriorityBlockingQueue<>();
+    }
+  }
+
   private static class ConcreteQueueVisitor extends AbstractQueueVisitor {
 
     private final static String THREAD_NAME = "BlazeTest ConcreteQueueVisitor";
@@ -524,6 +677,11 @@ public class AbstractQueueVisitorTest {
     public ConcreteQueueVisitor(ThreadPoolExecutor executor, boolean failFast) {
       super(executor, /*shutdownOnCompletion=*/false, failFast, true);
     }
+
+    public ConcreteQueueVisitor(ForkJoinPool pool) {
+      super(pool, /*shutdownOnCompletion=*/true, /*failFastOnException=*/true,
+          /*failFastOnInterrupt=*/true);
+    }
   }
 
   private static class QueueVisitorWithCriticalError extends AbstractQueueVisitor {
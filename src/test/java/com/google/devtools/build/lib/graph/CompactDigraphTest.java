@@ -0,0 +1,211 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.graph;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Tests for {@link CompactDigraph}, mostly against the results of {@link Digraph}.
+ */
+@RunWith(JUnit4.class)
+public class CompactDigraphTest {
+
+  private static Digraph<String> randomGraph(Random random, int nodes, int edges,
+      boolean acyclic) {
+    Digraph<String> graph = new Digraph<>();
+    for (int i = 0; i < nodes; i++) {
+      graph.createNode("n" + i);
+    }
+    for (int i = 0; i < edges; i++) {
+      int from = random.nextInt(nodes);
+      int to = random.nextInt(nodes);
+      if (acyclic && from >= to) {
+        continue;
+      }
+      graph.addEdge("n" + from, "n" + to);
+    }
+    return graph;
+  }
+
+  private static <T> List<T> labels(List<Node<T>> nodes) {
+    List<T> result = new ArrayList<>();
+    for (Node<T> node : nodes) {
+      result.add(node.getLabel());
+    }
+    return result;
+  }
+
+  @Test
+  public void testFreezeKeepsNodesAndEdges() {
+    Digraph<String> graph = new Digraph<>();
+    graph.addEdge("a", "b");
+    graph.addEdge("a", "c");
+    graph.addEdge("c", "b");
+    graph.createNode("d");
+    CompactDigraph<String> compact = graph.freeze();
+
+    assertEquals(4, compact.getNodeCount());
+    assertEquals(3, compact.getEdgeCount());
+    assertEquals(-1, compact.getIndex("e"));
+    int a = compact.getIndex("a");
+    int b = compact.getIndex("b");
+    int c = compact.getIndex("c");
+    assertEquals("a", compact.getLabel(a));
+    assertThat(asSet(compact.getSuccessors(a))).isEqualTo(ImmutableSet.of(b, c));
+    assertThat(asSet(compact.getPredecessors(b))).isEqualTo(ImmutableSet.of(a, c));
+    assertEquals(0, compact.getPredecessorCount(a));
+    assertEquals(2, compact.getSuccessorCount(a));
+    assertEquals(0, compact.getSuccessorCount(compact.getIndex("d")));
+  }
+
+  @Test
+  public void testTopologicalOrderMatchesDigraph() {
+    Random random = new Random(42);
+    for (int round = 0; round < 20; round++) {
+      Digraph<String> graph = randomGraph(random, 200, 600, /*acyclic=*/true);
+      CompactDigraph<String> compact = graph.freeze();
+      assertEquals(labels(graph.getTopologicalOrder()), compact.getTopologicalOrder());
+      assertEquals(labels(graph.getTopologicalOrder(Ordering.natural())),
+          compact.getTopologicalOrder(Ordering.natural()));
+    }
+  }
+
+  @Test
+  public void testIsCyclic() {
+    Random random = new Random(42);
+    for (int round = 0; round < 20; round++) {
+      Digraph<String> graph = randomGraph(random, 100, 120, /*acyclic=*/round % 2 == 0);
+      assertEquals(graph.isCyclic(), graph.freeze().isCyclic());
+    }
+    Digraph<String> graph = new Digraph<>();
+    graph.addEdge("a", "a");
+    assertTrue(graph.freeze().isCyclic());
+    graph = new Digraph<>();
+    graph.addEdge("a", "b");
+    assertFalse(graph.freeze().isCyclic());
+  }
+
+  @Test
+  public void testStronglyConnectedComponentsMatchDigraph() {
+    Random random = new Random(42);
+    for (int round = 0; round < 20; round++) {
+      Digraph<String> graph = randomGraph(random, 200, 300, /*acyclic=*/false);
+      Set<Set<String>> expected = new HashSet<>();
+      for (Set<Node<String>> component : graph.getStronglyConnectedComponents()) {
+        expected.add(ImmutableSet.copyOf(labels(ImmutableList.copyOf(component))));
+      }
+      CompactDigraph<String> compact = graph.freeze();
+      assertEquals(expected, new HashSet<Set<String>>(compact.getStronglyConnectedComponents()));
+
+      // Components are numbered in reverse topological order, and fused without cycles.
+      int[] component = compact.getStronglyConnectedComponentNumbers();
+      for (int node = 0; node < compact.getNodeCount(); node++) {
+        for (int successor : compact.getSuccessors(node)) {
+          assertTrue(component[node] >= component[successor]);
+        }
+      }
+      assertFalse(compact.getStrongComponentGraph().isCyclic());
+    }
+  }
+
+  @Test
+  public void testRanks() {
+    // a -> b -> c -> d, a -> d, e -> d
+    Digraph<String> graph = new Digraph<>();
+    graph.addEdge("a", "b");
+    graph.addEdge("b", "c");
+    graph.addEdge("c", "d");
+    graph.addEdge("a", "d");
+    graph.addEdge("e", "d");
+    CompactDigraph<String> compact = graph.freeze();
+    int[] minRanks = compact.getMinRanks();
+    int[] maxRanks = compact.getMaxRanks();
+    assertEquals(0, minRanks[compact.getIndex("a")]);
+    assertEquals(0, minRanks[compact.getIndex("e")]);
+    assertEquals(2, minRanks[compact.getIndex("c")]);
+    assertEquals(1, minRanks[compact.getIndex("d")]);
+    assertEquals(3, maxRanks[compact.getIndex("d")]);
+    assertEquals(0, maxRanks[compact.getIndex("e")]);
+  }
+
+  @Test
+  public void testShortestPath() {
+    Random random = new Random(42);
+    for (int round = 0; round < 20; round++) {
+      Digraph<String> graph = randomGraph(random, 100, 200, /*acyclic=*/false);
+      CompactDigraph<String> compact = graph.freeze();
+      for (int i = 0; i < 20; i++) {
+        String from = "n" + random.nextInt(100);
+        String to = "n" + random.nextInt(100);
+        List<Node<String>> expected = graph.getShortestPath(graph.getNode(from), graph.getNode(to));
+        List<String> actual = compact.getShortestPath(from, to);
+        if (expected == null) {
+          assertNull(actual);
+          continue;
+        }
+        assertEquals(expected.size(), actual.size());
+        assertEquals(from, actual.get(0));
+        assertEquals(to, actual.get(actual.size() - 1));
+        for (int step = 1; step < actual.size(); step++) {
+          assertTrue(graph.getNode(actual.get(step - 1)).getSuccessors()
+              .contains(graph.getNode(actual.get(step))));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testImageKeepsSelfEdgesOnRequest() {
+    Digraph<String> graph = new Digraph<>();
+    graph.addEdge("a", "b");
+    graph.addEdge("b", "c");
+    CompactDigraph<String> compact = graph.freeze();
+    int[] image = new int[3];
+    image[compact.getIndex("a")] = 0;
+    image[compact.getIndex("b")] = 0;
+    image[compact.getIndex("c")] = 1;
+    ImmutableList<String> imageLabels = ImmutableList.of("ab", "c");
+    assertEquals(2, compact.getImage(image, imageLabels, /*selfEdges=*/true).getEdgeCount());
+    CompactDigraph<String> withoutSelfEdges =
+        compact.getImage(image, imageLabels, /*selfEdges=*/false);
+    assertEquals(1, withoutSelfEdges.getEdgeCount());
+    assertEquals(ImmutableList.of("ab", "c"), withoutSelfEdges.getTopologicalOrder());
+  }
+
+  private static Set<Integer> asSet(int[] nodes) {
+    Set<Integer> result = new HashSet<>();
+    for (int node : nodes) {
+      result.add(node);
+    }
+    return result;
+  }
+}
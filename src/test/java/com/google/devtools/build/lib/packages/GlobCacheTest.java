@@ -174,6 +174,25 @@ public class GlobCacheTest {
         Pair.of("*.js", false), Pair.of("foo/first.*", false));
   }
 
+  @Test
+  public void testPrefetchGlobs() throws Exception {
+    cache.getGlob("*.txt");
+    cache.prefetchGlobs(Arrays.asList(Pair.of("*.js", false), Pair.of("foo/*.js", false),
+        Pair.of("*.txt", false), Pair.of("**/*.js", true), Pair.of("invalid?", false)));
+    assertThat(cache.getKeySet()).containsExactly(Pair.of("*.txt", false), Pair.of("*.js", false),
+        Pair.of("foo/*.js", false), Pair.of("**/*.js", true));
+
+    assertThat(cache.getGlob("*.js")).containsExactly("first.js", "second.js");
+    assertThat(cache.getGlob("foo/*.js")).containsExactly("foo/first.js", "foo/second.js");
+    assertThat(cache.getGlob("**/*.js", true)).containsExactly("first.js", "second.js",
+        "foo/first.js", "bar/first.js", "foo/second.js", "bar/second.js");
+    try {
+      cache.getGlob("invalid?");
+      fail("Expected an invalid regex exception");
+    } catch (BadGlobException expected) {
+    }
+  }
+
   @Test
   public void testGlob() throws Exception {
     assertEmpty(cache.glob(list("*.java"), NONE, false));
@@ -0,0 +1,160 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.devtools.build.lib.concurrent.NamedForkJoinPool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares computing reverse dependencies one level at a time on a single thread, as rdeps() did,
+ * with {@link ParallelBreadthFirstSearch}, on a synthetic universe in which every target depends
+ * on a few targets declared shortly before it. This is not a test; run it by hand:
+ *
+ * <pre>
+ *   java com.google.devtools.build.lib.query2.ParallelBreadthFirstSearchBenchmark \
+ *       [targets] [threads] [depth bound]
+ * </pre>
+ */
+public class ParallelBreadthFirstSearchBenchmark {
+
+  private static final int DEPS_PER_TARGET = 4;
+  private static final int DEP_WINDOW = 1000;
+  private static final int BATCH_SIZE = 1000;
+
+  public static void main(String[] args) throws Exception {
+    int targets = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int threads = args.length > 1
+        ? Integer.parseInt(args[1])
+        : Runtime.getRuntime().availableProcessors();
+    int depthBound = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    final Universe universe = new Universe(targets, new Random(42));
+    System.out.printf("Created %d targets with %d deps each%n", targets, DEPS_PER_TARGET);
+    Set<Integer> roots = new HashSet<>();
+    roots.add(0);
+    Function<Iterable<Integer>, Collection<Integer>> rdeps =
+        new Function<Iterable<Integer>, Collection<Integer>>() {
+          @Override
+          public Collection<Integer> apply(Iterable<Integer> batch) {
+            return universe.getReverseDeps(batch);
+          }
+        };
+
+    ForkJoinPool pool = NamedForkJoinPool.newNamedPool("benchmark", threads);
+    try {
+      ParallelBreadthFirstSearch<Integer, Integer> search = new ParallelBreadthFirstSearch<>(
+          pool, BATCH_SIZE, Functions.<Integer>identity(), rdeps);
+      for (int round = 0; round < 3; round++) {
+        // The first round warms up the JIT.
+        String label = round == 0 ? "Warm-up:" : "Results:";
+        for (int maxDepth : new int[] {Integer.MAX_VALUE, depthBound}) {
+          String bound = maxDepth == Integer.MAX_VALUE ? "unbounded" : "depth " + maxDepth;
+
+          long start = System.nanoTime();
+          Set<Integer> expected = sequentialSearch(roots, maxDepth, rdeps);
+          long millis = (System.nanoTime() - start) / 1000000;
+          System.out.printf("%s sequential, %s: %d ms, %d targets%n",
+              label, bound, millis, expected.size());
+
+          start = System.nanoTime();
+          Set<Integer> actual = search.visit(roots, maxDepth, Predicates.alwaysTrue());
+          millis = (System.nanoTime() - start) / 1000000;
+          System.out.printf("%s parallel (%d threads), %s: %d ms, %d targets%n",
+              label, threads, bound, millis, actual.size());
+          Preconditions.checkState(expected.equals(actual), "Parallel search gave another result");
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /** The level-at-a-time search that rdeps() used to perform. */
+  private static Set<Integer> sequentialSearch(Set<Integer> roots, int maxDepth,
+      Function<Iterable<Integer>, Collection<Integer>> successors) {
+    Set<Integer> visited = new LinkedHashSet<>();
+    Collection<Integer> current = roots;
+    for (int i = 0; i <= maxDepth; i++) {
+      List<Integer> next = new ArrayList<>();
+      for (Integer node : current) {
+        if (!visited.contains(node)) {
+          next.add(node);
+        }
+      }
+      Collection<Integer> successorsOfNext = successors.apply(next);
+      visited.addAll(current);
+      if (successorsOfNext.isEmpty()) {
+        break;
+      }
+      current = successorsOfNext;
+    }
+    return visited;
+  }
+
+  /**
+   * A dependency graph over targets numbered from 0, in which each target depends on
+   * {@link #DEPS_PER_TARGET} targets among the {@link #DEP_WINDOW} preceding it.
+   */
+  private static final class Universe {
+    // Reverse deps in compressed form: those of target i are at [offsets[i], offsets[i + 1]).
+    private final int[] offsets;
+    private final int[] reverseDeps;
+
+    Universe(int targets, Random random) {
+      int[] deps = new int[targets * DEPS_PER_TARGET];
+      offsets = new int[targets + 1];
+      for (int target = 1; target < targets; target++) {
+        for (int i = 0; i < DEPS_PER_TARGET; i++) {
+          int dep = target - 1 - random.nextInt(Math.min(target, DEP_WINDOW));
+          deps[target * DEPS_PER_TARGET + i] = dep;
+          offsets[dep + 1]++;
+        }
+      }
+      for (int target = 0; target < targets; target++) {
+        offsets[target + 1] += offsets[target];
+      }
+      reverseDeps = new int[offsets[targets]];
+      int[] filled = new int[targets];
+      for (int target = 1; target < targets; target++) {
+        for (int i = 0; i < DEPS_PER_TARGET; i++) {
+          int dep = deps[target * DEPS_PER_TARGET + i];
+          reverseDeps[offsets[dep] + filled[dep]++] = target;
+        }
+      }
+    }
+
+    /** Returns the union of the reverse deps of {@code targets}, like a graph lookup would. */
+    Collection<Integer> getReverseDeps(Iterable<Integer> targets) {
+      Set<Integer> result = new HashSet<>();
+      for (int target : targets) {
+        for (int i = offsets[target]; i < offsets[target + 1]; i++) {
+          result.add(reverseDeps[i]);
+        }
+      }
+      return result;
+    }
+  }
+}
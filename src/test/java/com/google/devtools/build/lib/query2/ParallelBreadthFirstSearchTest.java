@@ -0,0 +1,268 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.devtools.build.lib.query2.engine.Callback;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests for {@link ParallelBreadthFirstSearch}, which must find the same nodes, level by level, as
+ * a sequential breadth-first search.
+ */
+@RunWith(JUnit4.class)
+public class ParallelBreadthFirstSearchTest {
+
+  private static final int UNBOUNDED = Integer.MAX_VALUE;
+
+  private final ForkJoinPool pool = new ForkJoinPool(4);
+  private final ListMultimap<String, String> graph = ArrayListMultimap.create();
+  // The sizes of the batches passed to the successor function.
+  private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  private void edges(String from, String... to) {
+    graph.putAll(from, ImmutableList.copyOf(to));
+  }
+
+  /** Nodes are identified by their name without the "#copy" suffix. */
+  private static final Function<String, String> KEY_FUNCTION = new Function<String, String>() {
+    @Override
+    public String apply(String node) {
+      return node.replace("#copy", "");
+    }
+  };
+
+  private ParallelBreadthFirstSearch<String, String> newSearch(int batchSize) {
+    return new ParallelBreadthFirstSearch<>(pool, batchSize, KEY_FUNCTION,
+        new Function<Iterable<String>, Iterable<String>>() {
+          @Override
+          public Iterable<String> apply(Iterable<String> nodes) {
+            batchSizes.add(Iterables.size(nodes));
+            List<String> successors = new ArrayList<>();
+            for (String node : nodes) {
+              successors.addAll(graph.get(KEY_FUNCTION.apply(node)));
+            }
+            return successors;
+          }
+        });
+  }
+
+  /** The levels of a sequential breadth-first search, by key. */
+  private List<Set<String>> sequentialLevels(
+      Iterable<String> roots, int maxDepth, Predicate<String> filter) {
+    List<Set<String>> levels = new ArrayList<>();
+    Set<String> visited = new HashSet<>();
+    Set<String> level = new LinkedHashSet<>();
+    for (String root : roots) {
+      if (filter.apply(root) && visited.add(KEY_FUNCTION.apply(root))) {
+        level.add(KEY_FUNCTION.apply(root));
+      }
+    }
+    for (int depth = 0; !level.isEmpty(); depth++) {
+      levels.add(level);
+      if (depth == maxDepth) {
+        break;
+      }
+      Set<String> next = new LinkedHashSet<>();
+      for (String node : level) {
+        for (String successor : graph.get(node)) {
+          if (filter.apply(successor) && visited.add(KEY_FUNCTION.apply(successor))) {
+            next.add(KEY_FUNCTION.apply(successor));
+          }
+        }
+      }
+      level = next;
+    }
+    return levels;
+  }
+
+  /** The levels passed to the callback by the parallel search, by key. */
+  private List<Set<String>> parallelLevels(int batchSize, Iterable<String> roots, int maxDepth,
+      Predicate<String> filter) throws Exception {
+    final List<Set<String>> levels = new ArrayList<>();
+    final Set<String> seen = new HashSet<>();
+    newSearch(batchSize).visit(roots, maxDepth, filter, new Callback<String>() {
+      @Override
+      public void process(Iterable<String> partialResult) {
+        Set<String> level = new LinkedHashSet<>();
+        for (String node : partialResult) {
+          String key = KEY_FUNCTION.apply(node);
+          assertThat(seen.add(key)).isTrue();
+          level.add(key);
+        }
+        levels.add(level);
+      }
+    });
+    return levels;
+  }
+
+  /**
+   * Checks that the parallel search finds the same levels as the sequential one, and returns the
+   * nodes it finds.
+   */
+  private Set<String> assertSameAsSequential(int batchSize, Iterable<String> roots, int maxDepth,
+      Predicate<String> filter) throws Exception {
+    List<Set<String>> expected = sequentialLevels(roots, maxDepth, filter);
+    assertThat(parallelLevels(batchSize, roots, maxDepth, filter)).isEqualTo(expected);
+
+    Set<String> nodes = newSearch(batchSize).visit(roots, maxDepth, filter);
+    Set<String> keys = new HashSet<>();
+    for (String node : nodes) {
+      keys.add(KEY_FUNCTION.apply(node));
+    }
+    assertThat(keys).hasSize(nodes.size());
+    Set<String> expectedKeys = new HashSet<>();
+    for (Set<String> level : expected) {
+      expectedKeys.addAll(level);
+    }
+    assertThat(keys).isEqualTo(expectedKeys);
+    return keys;
+  }
+
+  private void chain() {
+    edges("a", "b", "c");
+    edges("b", "d");
+    edges("c", "d", "e");
+    edges("d", "f");
+    edges("e", "f");
+  }
+
+  @Test
+  public void depthZero() throws Exception {
+    chain();
+    assertThat(assertSameAsSequential(2, ImmutableList.of("a", "c"), 0,
+        Predicates.<String>alwaysTrue())).containsExactly("a", "c");
+    assertThat(batchSizes).isEmpty();
+  }
+
+  @Test
+  public void depthOne() throws Exception {
+    chain();
+    assertThat(assertSameAsSequential(2, ImmutableList.of("a"), 1,
+        Predicates.<String>alwaysTrue())).containsExactly("a", "b", "c");
+  }
+
+  @Test
+  public void unbounded() throws Exception {
+    chain();
+    assertThat(assertSameAsSequential(2, ImmutableList.of("a"), UNBOUNDED,
+        Predicates.<String>alwaysTrue())).containsExactly("a", "b", "c", "d", "e", "f");
+  }
+
+  @Test
+  public void filterExcludesNodesAndWhatIsOnlyReachableThroughThem() throws Exception {
+    chain();
+    Predicate<String> notC = Predicates.not(Predicates.equalTo("c"));
+    // e is only reachable through c; d and f also through b.
+    assertThat(assertSameAsSequential(2, ImmutableList.of("a", "c"), UNBOUNDED, notC))
+        .containsExactly("a", "b", "d", "f");
+    Predicate<String> notA = Predicates.not(Predicates.equalTo("a"));
+    assertThat(assertSameAsSequential(2, ImmutableList.of("a"), UNBOUNDED, notA)).isEmpty();
+  }
+
+  @Test
+  public void cycles() throws Exception {
+    edges("a", "b");
+    edges("b", "c", "a");
+    edges("c", "a", "c");
+    assertThat(assertSameAsSequential(1, ImmutableList.of("a"), UNBOUNDED,
+        Predicates.<String>alwaysTrue())).containsExactly("a", "b", "c");
+    assertThat(assertSameAsSequential(1, ImmutableList.of("b", "a"), 1,
+        Predicates.<String>alwaysTrue())).containsExactly("a", "b", "c");
+  }
+
+  @Test
+  public void deduplicatesByKey() throws Exception {
+    edges("a", "b", "b#copy", "c#copy");
+    edges("b", "c");
+    assertThat(assertSameAsSequential(1, ImmutableList.of("a", "a#copy"), UNBOUNDED,
+        Predicates.<String>alwaysTrue())).containsExactly("a", "b", "c");
+  }
+
+  @Test
+  public void frontiersLargerThanBatchSize() throws Exception {
+    int width = 100;
+    int batchSize = 7;
+    for (int i = 0; i < width; i++) {
+      edges("root", "child" + i);
+      edges("child" + i, "grandchild" + i, "grandchild" + ((i + 1) % width), "root");
+    }
+    assertThat(assertSameAsSequential(batchSize, ImmutableList.of("root"), UNBOUNDED,
+        Predicates.<String>alwaysTrue())).hasSize(1 + 2 * width);
+
+    assertThat(Collections.max(batchSizes)).isAtMost(batchSize);
+    int total = 0;
+    for (int size : batchSizes) {
+      total += size;
+    }
+    // Each search expands every node once: the root, then the children, then the grandchildren.
+    assertThat(total).isEqualTo(2 * (1 + 2 * width));
+    // The levels of children and grandchildren take several batches each.
+    int minBatchesPerLevel = (width + batchSize - 1) / batchSize;
+    assertThat(batchSizes.size()).isAtLeast(2 * (1 + 2 * minBatchesPerLevel));
+  }
+
+  @Test
+  public void randomGraphs() throws Exception {
+    Random random = new Random(42);
+    for (int graphIndex = 0; graphIndex < 20; graphIndex++) {
+      graph.clear();
+      int size = 1 + random.nextInt(200);
+      for (int i = 0; i < 3 * size; i++) {
+        edges("n" + random.nextInt(size), "n" + random.nextInt(size));
+      }
+      final int excluded = random.nextInt(size);
+      Predicate<String> filter = new Predicate<String>() {
+        @Override
+        public boolean apply(String node) {
+          return !node.equals("n" + excluded);
+        }
+      };
+      ImmutableSet<String> roots = ImmutableSet.of("n0", "n" + random.nextInt(size));
+      for (int maxDepth : new int[] {0, 1, 2, UNBOUNDED}) {
+        for (int batchSize : new int[] {1, 3, 1000}) {
+          assertSameAsSequential(batchSize, roots, maxDepth, filter);
+          assertSameAsSequential(batchSize, roots, maxDepth, Predicates.<String>alwaysTrue());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,237 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedHashMultiset;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multiset;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.TargetParsingException;
+import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.events.PrintingEventHandler;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.query2.engine.Callback;
+import com.google.devtools.build.lib.query2.engine.QueryEnvironment;
+import com.google.devtools.build.lib.query2.engine.QueryEvalResult;
+import com.google.devtools.build.lib.query2.engine.QueryExpression;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for {@link AbstractBlazeQueryEnvironment#evaluateQuery(QueryExpression, Callback)}, on a
+ * graph of strings whose target patterns are fixed sets of nodes.
+ */
+@RunWith(JUnit4.class)
+public class StreamedQueryEvaluationTest {
+
+  /** A query environment over a fixed graph, which logs the dependency lookups. */
+  private static class FakeQueryEnvironment extends AbstractBlazeQueryEnvironment<String> {
+    private final Map<String, Set<String>> patterns;
+    private final ListMultimap<String, String> deps;
+    private final List<String> log;
+
+    private FakeQueryEnvironment(Map<String, Set<String>> patterns,
+        ListMultimap<String, String> deps, List<String> log) {
+      super(/*keepGoing=*/false, /*strictScope=*/true, Predicates.<Label>alwaysTrue(),
+          new PrintingEventHandler(EventKind.ERRORS_AND_WARNINGS),
+          ImmutableSet.<QueryEnvironment.Setting>of(), ImmutableList.<QueryFunction>of());
+      this.patterns = patterns;
+      this.deps = deps;
+      this.log = log;
+    }
+
+    @Override
+    public Set<String> getTargetsMatchingPattern(QueryExpression owner, String pattern) {
+      return patterns.get(pattern);
+    }
+
+    @Override
+    protected Map<String, Set<Target>> preloadOrThrow(QueryExpression caller,
+        Collection<String> patterns) throws TargetParsingException {
+      return ImmutableMap.of();
+    }
+
+    @Override
+    public Collection<String> getFwdDeps(Iterable<String> targets) {
+      log.add("deps of " + Iterables.size(targets));
+      List<String> result = new ArrayList<>();
+      for (String target : targets) {
+        result.addAll(deps.get(target));
+      }
+      return result;
+    }
+
+    @Override
+    public Collection<String> getReverseDeps(Iterable<String> targets) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<String> getTransitiveClosure(Set<String> targets) throws InterruptedException {
+      return getFwdTransitiveClosure(targets, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void buildTransitiveClosure(QueryExpression caller, Set<String> targetNodes,
+        int maxDepth) {
+    }
+
+    @Override
+    public String getOrCreate(String target) {
+      return target;
+    }
+
+    @Override
+    public Set<String> getNodesOnPath(String from, String to) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<String> getBuildFiles(QueryExpression caller, Set<String> nodes) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TargetAccessor<String> getAccessor() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Target getTarget(Label label) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /** Records the batches it is passed, and logs their sizes. */
+  private static class RecordingCallback implements Callback<String> {
+    private final List<List<String>> batches = new ArrayList<>();
+    private final List<String> log;
+
+    private RecordingCallback(List<String> log) {
+      this.log = log;
+    }
+
+    @Override
+    public void process(Iterable<String> partialResult) {
+      List<String> batch = ImmutableList.copyOf(partialResult);
+      log.add("batch of " + batch.size());
+      batches.add(batch);
+    }
+
+    private Multiset<String> getAll() {
+      Multiset<String> result = LinkedHashMultiset.create();
+      for (List<String> batch : batches) {
+        result.addAll(batch);
+      }
+      return result;
+    }
+  }
+
+  private final List<String> log = new ArrayList<>();
+  private final RecordingCallback callback = new RecordingCallback(log);
+
+  private QueryEvalResult<String> evaluate(String query, Map<String, Set<String>> patterns,
+      ListMultimap<String, String> deps) throws Exception {
+    FakeQueryEnvironment env = new FakeQueryEnvironment(patterns, deps, log);
+    return env.evaluateQuery(QueryExpression.parse(query, env), callback);
+  }
+
+  private static Set<String> nodes(String prefix, int count) {
+    Set<String> result = new LinkedHashSet<>();
+    for (int i = 0; i < count; i++) {
+      result.add(prefix + i);
+    }
+    return result;
+  }
+
+  @Test
+  public void passesTheResultInBatches() throws Exception {
+    int size = 2 * AbstractBlazeQueryEnvironment.STREAMING_BATCH_SIZE + 5;
+    QueryEvalResult<String> result = evaluate("all",
+        ImmutableMap.of("all", nodes("n", size)), ImmutableListMultimap.<String, String>of());
+
+    assertThat(callback.batches).hasSize(3);
+    assertThat(callback.batches.get(0)).hasSize(AbstractBlazeQueryEnvironment.STREAMING_BATCH_SIZE);
+    assertThat(callback.batches.get(1)).hasSize(AbstractBlazeQueryEnvironment.STREAMING_BATCH_SIZE);
+    assertThat(callback.batches.get(2)).hasSize(5);
+    assertThat(callback.getAll().elementSet()).containsExactlyElementsIn(nodes("n", size))
+        .inOrder();
+    assertThat(callback.getAll()).hasSize(size);
+    assertThat(result.getSuccess()).isTrue();
+    assertThat(result.isEmpty()).isFalse();
+  }
+
+  @Test
+  public void removesDuplicatesAcrossUnionOperands() throws Exception {
+    evaluate("a + b + set(c a) + b",
+        ImmutableMap.<String, Set<String>>of(
+            "a", ImmutableSet.of("x", "y"),
+            "b", ImmutableSet.of("y", "z"),
+            "c", ImmutableSet.of("w", "x")),
+        ImmutableListMultimap.<String, String>of());
+
+    assertThat(callback.getAll()).containsExactly("x", "y", "z", "w").inOrder();
+  }
+
+  @Test
+  public void emptyResult() throws Exception {
+    QueryEvalResult<String> result = evaluate("a + b",
+        ImmutableMap.<String, Set<String>>of("a", ImmutableSet.<String>of(),
+            "b", ImmutableSet.<String>of()),
+        ImmutableListMultimap.<String, String>of());
+
+    assertThat(callback.batches).isEmpty();
+    assertThat(result.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void passesOnDepsLevelByLevel() throws Exception {
+    // The root has a full batch of children, each of which has one child of its own.
+    int size = AbstractBlazeQueryEnvironment.STREAMING_BATCH_SIZE;
+    ImmutableListMultimap.Builder<String, String> deps = ImmutableListMultimap.builder();
+    for (int i = 0; i < size; i++) {
+      deps.put("root", "child" + i);
+      deps.put("child" + i, "grandchild" + i);
+    }
+    evaluate("deps(root) + deps(child0)", ImmutableMap.of("root", ImmutableSet.of("root"),
+        "child0", ImmutableSet.of("child0")), deps.build());
+
+    // Each full batch is passed on before the next level is looked up. The second operand only
+    // adds duplicates.
+    assertThat(log).containsExactly(
+        "deps of 1", "batch of " + size,
+        "deps of " + size, "batch of " + size,
+        "deps of " + size,
+        "deps of 1", "deps of 1", "batch of 1").inOrder();
+    assertThat(callback.getAll()).hasSize(2 * size + 1);
+    assertThat(callback.getAll().elementSet()).containsAllIn(deps.build().values());
+  }
+}
@@ -0,0 +1,117 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.output;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.events.PrintingEventHandler;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.packages.util.PackageFactoryApparatus;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.common.options.Options;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the streamed output of {@link ProtoOutputFormatter}.
+ */
+@RunWith(JUnit4.class)
+public class ProtoOutputFormatterTest {
+
+  private List<Target> targets;
+
+  @Before
+  public void setUp() throws Exception {
+    Scratch scratch = new Scratch();
+    PackageFactoryApparatus packages =
+        new PackageFactoryApparatus(new PrintingEventHandler(EventKind.ERRORS_AND_WARNINGS));
+    Package pkg = packages.createPackage("pkg", scratch.file("/workspace/pkg/BUILD",
+        "exports_files(['a.txt', 'b.txt'])",
+        "filegroup(name = 'ab', srcs = ['a.txt', 'b.txt'])",
+        "filegroup(name = 'all', srcs = [':ab', 'c.txt'])"));
+    targets = new ArrayList<>(pkg.getTargets());
+    assertThat(targets.size()).isGreaterThan(4);
+  }
+
+  private static QueryOptions unorderedOptions() {
+    QueryOptions options = Options.getDefaults(QueryOptions.class);
+    options.orderOutput = QueryOptions.OrderOutput.NO;
+    return options;
+  }
+
+  private static AspectResolver aspectResolver() {
+    return AspectResolver.Mode.OFF.createResolver(null, null);
+  }
+
+  private byte[] outputInOneGo() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new ProtoOutputFormatter().outputUnordered(
+        unorderedOptions(), targets, new PrintStream(bytes), aspectResolver());
+    return bytes.toByteArray();
+  }
+
+  private byte[] outputInBatches(int batchSize) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes);
+    OutputFormatterCallback<Target> callback = new ProtoOutputFormatter().createStreamCallback(
+        unorderedOptions(), out, aspectResolver());
+    for (int start = 0; start < targets.size(); start += batchSize) {
+      callback.process(targets.subList(start, Math.min(start + batchSize, targets.size())));
+    }
+    callback.close();
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static List<String> names(Build.QueryResult result) {
+    List<String> names = new ArrayList<>();
+    for (Build.Target target : result.getTargetList()) {
+      names.add(target.hasRule()
+          ? target.getRule().getName()
+          : target.getSourceFile().getName());
+    }
+    return names;
+  }
+
+  @Test
+  public void concatenatedBatchesParseAsOneResult() throws Exception {
+    Build.QueryResult expected = Build.QueryResult.parseFrom(outputInOneGo());
+    assertThat(expected.getTargetCount()).isEqualTo(targets.size());
+
+    for (int batchSize : ImmutableList.of(1, 2, 3, targets.size())) {
+      byte[] streamed = outputInBatches(batchSize);
+      Build.QueryResult result = Build.QueryResult.parseFrom(streamed);
+      assertThat(names(result)).containsExactlyElementsIn(names(expected)).inOrder();
+      assertThat(result).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void emptyResult() throws Exception {
+    targets = ImmutableList.of();
+    assertThat(Build.QueryResult.parseFrom(outputInBatches(1)).getTargetCount()).isEqualTo(0);
+  }
+}
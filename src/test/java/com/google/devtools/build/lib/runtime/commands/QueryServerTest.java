@@ -0,0 +1,183 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.runtime.commands;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.events.EventCollector;
+import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.unix.FilesystemUtils;
+import com.google.devtools.build.lib.unix.LocalClientSocket;
+import com.google.devtools.build.lib.unix.LocalServerSocket;
+import com.google.devtools.build.lib.unix.LocalSocketAddress;
+import com.google.devtools.build.lib.util.ExitCode;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.UnixFileSystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link QueryServer}.
+ */
+@RunWith(JUnit4.class)
+public class QueryServerTest {
+
+  /** Prints one line per query and records the calls. */
+  private static class FakeQueryRunner implements QueryServer.QueryRunner {
+    private final List<String> calls = new ArrayList<>();
+
+    @Override
+    public synchronized void sync() {
+      calls.add("sync");
+    }
+
+    @Override
+    public synchronized ExitCode run(String query, PrintStream output) {
+      calls.add(query);
+      if (query.startsWith("fail")) {
+        output.print("partial");
+        return ExitCode.ANALYSIS_FAILURE;
+      }
+      for (int i = 0; i < 3; i++) {
+        output.println("//" + query + ":" + i);
+      }
+      return ExitCode.SUCCESS;
+    }
+
+    synchronized List<String> getCalls() {
+      return new ArrayList<>(calls);
+    }
+  }
+
+  private final EventCollector events = new EventCollector(EventKind.ALL_EVENTS);
+  private final FakeQueryRunner runner = new FakeQueryRunner();
+  private ExecutorService executor;
+  private Path socketFile;
+
+  @Before
+  public void setUp() throws Exception {
+    Path workingDir = new UnixFileSystem().getPath(new File(TestUtils.tmpDir()).getCanonicalPath());
+    socketFile = workingDir.getRelative("query.sock");
+    socketFile.delete();
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    socketFile.delete();
+  }
+
+  private Future<ExitCode> startServer() {
+    return executor.submit(new Callable<ExitCode>() {
+      @Override
+      public ExitCode call() {
+        return new QueryServer(events, runner).serve(socketFile);
+      }
+    });
+  }
+
+  private String query(String query) throws Exception {
+    LocalClientSocket socket = new LocalClientSocket();
+    try {
+      // The server may not be listening yet.
+      for (int attempt = 0; ; attempt++) {
+        try {
+          socket.connect(new LocalSocketAddress(socketFile.getPathFile()));
+          break;
+        } catch (IOException e) {
+          if (attempt == 100) {
+            throw e;
+          }
+          Thread.sleep(50);
+        }
+      }
+      socket.getOutputStream().write(query.getBytes(StandardCharsets.UTF_8));
+      socket.shutdownOutput();
+      return new String(ByteStreams.toByteArray(socket.getInputStream()), StandardCharsets.UTF_8);
+    } finally {
+      socket.close();
+    }
+  }
+
+  private static void assertResponse(String response, String output, ExitCode exitCode) {
+    int separator = response.lastIndexOf('\n', response.length() - 2);
+    assertThat(response.substring(0, separator)).isEqualTo(output);
+    String[] trailer = response.substring(separator + 1, response.length() - 1).split(" ");
+    assertThat(trailer).hasLength(2);
+    assertThat(Integer.parseInt(trailer[0])).isEqualTo(exitCode.getNumericExitCode());
+    assertThat(Long.parseLong(trailer[1])).isAtLeast(0L);
+    assertThat(response).endsWith("\n");
+  }
+
+  /** Interrupts the server like an interrupt of the query command, and returns its exit code. */
+  private ExitCode stopServer(Future<ExitCode> server) throws Exception {
+    executor.shutdownNow();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    return server.get();
+  }
+
+  @Test
+  public void answersQueriesAndRemovesTheSocket() throws Exception {
+    Future<ExitCode> server = startServer();
+    assertResponse(query("deps(//a)\n"), "//deps(//a):0\n//deps(//a):1\n//deps(//a):2\n",
+        ExitCode.SUCCESS);
+    assertResponse(query("fail"), "partial", ExitCode.ANALYSIS_FAILURE);
+    assertThat(runner.getCalls()).containsExactly("sync", "deps(//a)", "sync", "fail").inOrder();
+
+    assertThat(stopServer(server)).isEqualTo(ExitCode.SUCCESS);
+    assertThat(socketFile.exists()).isFalse();
+  }
+
+  @Test
+  public void replacesTheSocketOfAPreviousServer() throws Exception {
+    LocalServerSocket previous = new LocalServerSocket();
+    previous.bind(new LocalSocketAddress(socketFile.getPathFile()));
+    previous.close();
+    assertThat(FilesystemUtils.lstat(socketFile.getPathString()).isSocket()).isTrue();
+
+    Future<ExitCode> server = startServer();
+    assertResponse(query("//a"), "////a:0\n////a:1\n////a:2\n", ExitCode.SUCCESS);
+    assertThat(stopServer(server)).isEqualTo(ExitCode.SUCCESS);
+  }
+
+  @Test
+  public void refusesToReplaceOtherFiles() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(socketFile, "precious");
+
+    assertThat(startServer().get()).isEqualTo(ExitCode.LOCAL_ENVIRONMENTAL_ERROR);
+    assertThat(FileSystemUtils.readContentAsLatin1(socketFile)).isEqualTo("precious".toCharArray());
+    assertThat(runner.getCalls()).isEmpty();
+    assertThat(events.iterator().next().getMessage()).contains("not a socket");
+  }
+}
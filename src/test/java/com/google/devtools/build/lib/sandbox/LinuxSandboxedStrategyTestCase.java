@@ -103,7 +103,8 @@ public class LinuxSandboxedStrategyTestCase {
                     blazeDirs,
                     MoreExecutors.newDirectExecutorService(),
                     true,
-                    false)),
+                    false,
+                    null)),
             ImmutableList.<ActionContextProvider>of());
   }
 
@@ -0,0 +1,126 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link SandboxDirectoryPool}.
+ */
+@RunWith(JUnit4.class)
+public class SandboxDirectoryPoolTest {
+  private FileSystem fs;
+  private Path sandboxBase;
+
+  @Before
+  public void setUp() throws Exception {
+    fs = new InMemoryFileSystem();
+    sandboxBase = fs.getPath("/execroot/bazel-sandbox");
+    FileSystemUtils.createDirectoryAndParents(sandboxBase);
+    FileSystemUtils.createDirectoryAndParents(fs.getPath("/usr/bin"));
+    FileSystemUtils.createEmptyFile(fs.getPath("/execroot/a.h"));
+    FileSystemUtils.createEmptyFile(fs.getPath("/execroot/b.h"));
+    FileSystemUtils.createEmptyFile(fs.getPath("/execroot/c.h"));
+  }
+
+  private void createMountPoints(Path sandboxPath, String... targets) throws IOException {
+    for (String target : targets) {
+      Path path = sandboxPath.getRelative(new PathFragment(target).relativeTo("/"));
+      if (fs.getPath(target).isDirectory()) {
+        FileSystemUtils.createDirectoryAndParents(path);
+      } else {
+        FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+        FileSystemUtils.createEmptyFile(path);
+      }
+    }
+  }
+
+  private ImmutableMap<Path, Path> mounts(String... targets) {
+    ImmutableMap.Builder<Path, Path> mounts = ImmutableMap.builder();
+    for (String target : targets) {
+      mounts.put(fs.getPath(target), fs.getPath(target));
+    }
+    return mounts.build();
+  }
+
+  @Test
+  public void reusesReleasedDirectory() {
+    SandboxDirectoryPool pool =
+        new SandboxDirectoryPool(sandboxBase, MoreExecutors.newDirectExecutorService());
+    Path first = pool.acquire(mounts());
+    Path second = pool.acquire(mounts());
+    assertThat(second).isNotEqualTo(first);
+
+    pool.release(first);
+    assertThat(pool.acquire(mounts())).isEqualTo(first);
+  }
+
+  @Test
+  public void deletesOnlyEntriesThatAreNotMounted() throws Exception {
+    Path sandboxPath = sandboxBase.getRelative("sandbox");
+    createMountPoints(sandboxPath, "/usr/bin", "/execroot/a.h", "/execroot/b.h", "/dev/null");
+    Path output = sandboxPath.getRelative("execroot/out/lib.o");
+    FileSystemUtils.createDirectoryAndParents(output.getParentDirectory());
+    FileSystemUtils.createEmptyFile(output);
+    FileSystemUtils.createEmptyFile(sandboxPath.getRelative("usr/bin/hidden-by-mount"));
+
+    SandboxDirectoryPool.deleteUnusedEntries(
+        sandboxPath, mounts("/usr/bin", "/execroot/a.h", "/execroot/c.h"));
+
+    assertThat(sandboxPath.getRelative("execroot/a.h").isFile()).isTrue();
+    assertThat(sandboxPath.getRelative("execroot/b.h").exists()).isFalse();
+    assertThat(sandboxPath.getRelative("execroot/out").exists()).isFalse();
+    assertThat(sandboxPath.getRelative("usr/bin/hidden-by-mount").exists()).isTrue();
+    assertThat(sandboxPath.getRelative("dev/null").isFile()).isTrue();
+  }
+
+  @Test
+  public void deletesMountPointOfDifferentType() throws Exception {
+    Path sandboxPath = sandboxBase.getRelative("sandbox");
+    FileSystemUtils.createDirectoryAndParents(sandboxPath.getRelative("execroot/a.h"));
+
+    SandboxDirectoryPool.deleteUnusedEntries(sandboxPath, mounts("/execroot/a.h"));
+
+    assertThat(sandboxPath.getRelative("execroot/a.h").exists()).isFalse();
+  }
+
+  @Test
+  public void discardAllDeletesIdleDirectories() throws Exception {
+    SandboxDirectoryPool pool =
+        new SandboxDirectoryPool(sandboxBase, MoreExecutors.newDirectExecutorService());
+    Path sandboxPath = pool.acquire(mounts());
+    createMountPoints(sandboxPath, "/execroot/a.h");
+    pool.release(sandboxPath);
+
+    pool.discardAll();
+
+    assertThat(sandboxPath.exists()).isFalse();
+    assertThat(pool.acquire(mounts())).isNotEqualTo(sandboxPath);
+  }
+}
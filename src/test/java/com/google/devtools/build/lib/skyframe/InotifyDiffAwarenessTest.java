@@ -0,0 +1,124 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.ModifiedFileSet;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.UnixFileSystem;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link InotifyDiffAwareness}. These need Linux and the native library.
+ */
+@RunWith(JUnit4.class)
+public class InotifyDiffAwarenessTest {
+  private Path root;
+  private DiffAwareness diffAwareness;
+  private DiffAwareness.View view;
+
+  @Before
+  public void setUp() throws Exception {
+    root = new UnixFileSystem().getPath(TestUtils.tmpDir()).getRelative("inotify_root");
+    FileSystemUtils.deleteTree(root);
+    FileSystemUtils.createDirectoryAndParents(root.getRelative("pkg/sub"));
+    FileSystemUtils.writeContentAsLatin1(root.getRelative("pkg/BUILD"), "old");
+    diffAwareness = new InotifyDiffAwareness.Factory(ImmutableList.<String>of()).maybeCreate(root);
+    assertNotNull(diffAwareness);
+    view = diffAwareness.getCurrentView();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    diffAwareness.close();
+    FileSystemUtils.deleteTree(root);
+  }
+
+  private ModifiedFileSet nextDiff() throws Exception {
+    DiffAwareness.View newView = diffAwareness.getCurrentView();
+    ModifiedFileSet diff = diffAwareness.getDiff(view, newView);
+    view = newView;
+    return diff;
+  }
+
+  @Test
+  public void testNoChanges() throws Exception {
+    assertThat(nextDiff().modifiedSourceFiles()).isEmpty();
+  }
+
+  @Test
+  public void testModifiedAndCreatedFiles() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(root.getRelative("pkg/BUILD"), "new");
+    FileSystemUtils.createEmptyFile(root.getRelative("pkg/sub/a.txt"));
+    assertThat(nextDiff().modifiedSourceFiles()).containsExactly(
+        new PathFragment("pkg/BUILD"), new PathFragment("pkg/sub/a.txt"));
+    assertThat(nextDiff().modifiedSourceFiles()).isEmpty();
+  }
+
+  @Test
+  public void testNewDirectoryIsReportedAndWatched() throws Exception {
+    FileSystemUtils.createDirectoryAndParents(root.getRelative("new/deep"));
+    FileSystemUtils.createEmptyFile(root.getRelative("new/deep/file"));
+    assertThat(nextDiff().modifiedSourceFiles()).containsExactly(
+        new PathFragment("new"), new PathFragment("new/deep"), new PathFragment("new/deep/file"));
+
+    FileSystemUtils.writeContentAsLatin1(root.getRelative("new/deep/file"), "changed");
+    assertThat(nextDiff().modifiedSourceFiles()).containsExactly(
+        new PathFragment("new/deep/file"));
+  }
+
+  @Test
+  public void testMovedDirectoryIsWatchedUnderNewName() throws Exception {
+    root.getRelative("pkg").renameTo(root.getRelative("moved"));
+    assertThat(nextDiff().modifiedSourceFiles()).containsAllOf(
+        new PathFragment("pkg"), new PathFragment("moved"), new PathFragment("moved/BUILD"));
+
+    FileSystemUtils.createEmptyFile(root.getRelative("moved/sub/b.txt"));
+    assertThat(nextDiff().modifiedSourceFiles()).containsExactly(
+        new PathFragment("moved/sub/b.txt"));
+  }
+
+  @Test
+  public void testDeletedDirectory() throws Exception {
+    FileSystemUtils.deleteTree(root.getRelative("pkg"));
+    assertThat(nextDiff().modifiedSourceFiles()).containsExactly(
+        new PathFragment("pkg"), new PathFragment("pkg/BUILD"), new PathFragment("pkg/sub"));
+  }
+
+  @Test
+  public void testNonConsecutiveViews() throws Exception {
+    DiffAwareness.View first = view;
+    diffAwareness.getCurrentView();
+    DiffAwareness.View third = diffAwareness.getCurrentView();
+    assertSame(ModifiedFileSet.EVERYTHING_MODIFIED, diffAwareness.getDiff(first, third));
+  }
+
+  @Test
+  public void testName() {
+    assertEquals("inotify", diffAwareness.name());
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.analysis.BlazeDirectories;
+import com.google.devtools.build.lib.analysis.ConfiguredRuleClassProvider;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.packages.Package;
+import com.google.devtools.build.lib.packages.PackageFactory;
+import com.google.devtools.build.lib.packages.Preprocessor;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.pkgcache.PackageCacheOptions;
+import com.google.devtools.build.lib.pkgcache.PackageManager.PackageManagerStatistics;
+import com.google.devtools.build.lib.testutil.FoundationTestCase;
+import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.skyframe.SkyFunction;
+import com.google.devtools.build.skyframe.SkyFunctionName;
+import com.google.devtools.common.options.OptionsParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tests that {@link PackageFunction} only uses a package from the {@link PersistentPackageCache}
+ * if loading the package again would give the same result. Each check starts a new
+ * {@link SkyframeExecutor}, as a new server would.
+ */
+public class PackageFunctionPersistentCacheTest extends FoundationTestCase {
+
+  private static final String INSTALL_MD5 = "0123456789abcdef0123456789abcdef";
+
+  private ConfiguredRuleClassProvider ruleClassProvider;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    ruleClassProvider = TestRuleClassProvider.getRuleClassProvider();
+    scratch.file("pkg/defs.bzl", "SRCS = ['a.txt']");
+    scratch.file("pkg/BUILD",
+        "load('/pkg/defs', 'SRCS')",
+        "filegroup(name = 'listed', srcs = SRCS)",
+        "filegroup(name = 'globbed', srcs = glob(['**/*.txt']))");
+    scratch.file("pkg/a.txt");
+    scratch.file("pkg/sub/b.txt");
+  }
+
+  private SkyframeExecutor startServer(String installMD5) throws Exception {
+    SkyframeExecutor skyframeExecutor = SequencedSkyframeExecutor.create(
+        new PackageFactory(ruleClassProvider),
+        new TimestampGranularityMonitor(BlazeClock.instance()),
+        new BlazeDirectories(outputBase, outputBase, rootDirectory, installMD5),
+        null, /* BinTools */
+        null, /* workspaceStatusActionFactory */
+        ruleClassProvider.getBuildInfoFactories(),
+        ImmutableSet.<Path>of(),
+        ImmutableList.<DiffAwareness.Factory>of(),
+        Predicates.<PathFragment>alwaysFalse(),
+        Preprocessor.Factory.Supplier.NullSupplier.INSTANCE,
+        ImmutableMap.<SkyFunctionName, SkyFunction>of(),
+        ImmutableList.<PrecomputedValue.Injected>of(),
+        ImmutableList.<SkyValueDirtinessChecker>of());
+    OptionsParser parser = OptionsParser.newOptionsParser(PackageCacheOptions.class);
+    parser.parse("--default_visibility=public", "--experimental_persistent_package_cache");
+    skyframeExecutor.sync(reporter, parser.getOptions(PackageCacheOptions.class), outputBase,
+        rootDirectory, ruleClassProvider.getDefaultsPackageContent(), UUID.randomUUID());
+    return skyframeExecutor;
+  }
+
+  private static Package getPackage(SkyframeExecutor skyframeExecutor) throws Exception {
+    return skyframeExecutor.getPackageManager().getPackage(
+        failFastHandler, PackageIdentifier.createInDefaultRepo("pkg"));
+  }
+
+  private static List<String> getTargetNames(Package pkg) {
+    List<String> names = new ArrayList<>();
+    for (Target target : pkg.getTargets()) {
+      names.add(target.getName());
+    }
+    return names;
+  }
+
+  /**
+   * Loads the package on a new server and returns it, checking that it was served from the cache
+   * if and only if {@code expectHit}.
+   */
+  private Package loadOnNewServer(boolean expectHit) throws Exception {
+    SkyframeExecutor skyframeExecutor = startServer(INSTALL_MD5);
+    Package pkg = getPackage(skyframeExecutor);
+    PackageManagerStatistics statistics = skyframeExecutor.getPackageManager().getStatistics();
+    assertThat(statistics.getPersistentCacheHits()).isEqualTo(expectHit ? 1 : 0);
+    assertThat(statistics.getPersistentCacheMisses()).isEqualTo(expectHit ? 0 : 1);
+    return pkg;
+  }
+
+  public void testUnchangedPackageIsHit() throws Exception {
+    Package loaded = loadOnNewServer(false);
+    Package cached = loadOnNewServer(true);
+    assertThat(getTargetNames(cached)).containsExactlyElementsIn(getTargetNames(loaded));
+    assertThat(cached.getTarget("globbed").toString())
+        .isEqualTo(loaded.getTarget("globbed").toString());
+  }
+
+  public void testChangedBzlFileIsMiss() throws Exception {
+    loadOnNewServer(false);
+    scratch.overwriteFile("pkg/defs.bzl", "SRCS = ['a.txt', 'c.txt']");
+    scratch.file("pkg/c.txt");
+    Package pkg = loadOnNewServer(false);
+    assertThat(getTargetNames(pkg)).contains("c.txt");
+    loadOnNewServer(true);
+  }
+
+  public void testNewFileMatchingGlobIsMiss() throws Exception {
+    loadOnNewServer(false);
+    scratch.file("pkg/sub/d.txt");
+    Package pkg = loadOnNewServer(false);
+    assertThat(getTargetNames(pkg)).contains("sub/d.txt");
+    loadOnNewServer(true);
+  }
+
+  public void testNewBuildFileInSubdirectoryIsMiss() throws Exception {
+    loadOnNewServer(false);
+    scratch.file("pkg/sub/BUILD");
+    Package pkg = loadOnNewServer(false);
+    assertThat(getTargetNames(pkg)).doesNotContain("sub/b.txt");
+    loadOnNewServer(true);
+  }
+
+  public void testNewBuildFileCrossedByLabelIsMiss() throws Exception {
+    scratch.overwriteFile("pkg/BUILD", "exports_files(['sub/b.txt'])");
+    loadOnNewServer(false);
+    scratch.file("pkg/sub/BUILD");
+    SkyframeExecutor skyframeExecutor = startServer(INSTALL_MD5);
+    reporter.removeHandler(failFastHandler);
+    Package pkg = skyframeExecutor.getPackageManager().getPackage(
+        reporter, PackageIdentifier.createInDefaultRepo("pkg"));
+    assertThat(pkg.containsErrors()).isTrue();
+    assertContainsEvent("crosses boundary of subpackage 'pkg/sub'");
+    PackageManagerStatistics statistics = skyframeExecutor.getPackageManager().getStatistics();
+    assertThat(statistics.getPersistentCacheHits()).isEqualTo(0);
+    assertThat(statistics.getPersistentCacheMisses()).isEqualTo(1);
+  }
+
+  public void testCacheIsDisabledWithoutInstallMD5() throws Exception {
+    for (int i = 0; i < 2; i++) {
+      SkyframeExecutor skyframeExecutor = startServer(null);
+      getPackage(skyframeExecutor);
+      PackageManagerStatistics statistics = skyframeExecutor.getPackageManager().getStatistics();
+      assertThat(statistics.getPersistentCacheHits()).isEqualTo(0);
+      assertThat(statistics.getPersistentCacheMisses()).isEqualTo(0);
+    }
+    assertThat(outputBase.getChild("package_cache").exists()).isFalse();
+  }
+}
@@ -0,0 +1,137 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.cmdline.Label;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.packages.PackageDeserializer.PackageDeserializationEnvironment;
+import com.google.devtools.build.lib.packages.RuleClass;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.Pair;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PersistentPackageCache}. */
+@RunWith(JUnit4.class)
+public class PersistentPackageCacheTest {
+
+  private static final PackageDeserializationEnvironment UNUSED_ENVIRONMENT =
+      new PackageDeserializationEnvironment() {
+        @Override
+        public Path getPath(String buildFilePath) {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public RuleClass getRuleClass(Build.Rule rulePb, Location ruleLocation) {
+          throw new UnsupportedOperationException();
+        }
+      };
+
+  private Path cacheDirectory;
+  private Path buildFile;
+  private PackageIdentifier packageId;
+  private PersistentPackageCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    InMemoryFileSystem fs = new InMemoryFileSystem(BlazeClock.instance());
+    cacheDirectory = fs.getPath("/output_base/package_cache");
+    buildFile = fs.getPath("/workspace/pkg/BUILD");
+    packageId = PackageIdentifier.createInDefaultRepo("pkg");
+    cache = new PersistentPackageCache(cacheDirectory, "identity", UNUSED_ENVIRONMENT);
+  }
+
+  private String getKey(PersistentPackageCache cache, byte[] buildFileDigest) throws Exception {
+    return cache.getKey(packageId, buildFile, buildFileDigest,
+        ImmutableList.of(Label.parseAbsolute("//visibility:public")), "prelude", "workspace");
+  }
+
+  private static PersistentPackageCache.Entry newEntry(String globMatch) throws Exception {
+    return new PersistentPackageCache.Entry(
+        ImmutableMap.of(PackageIdentifier.createInDefaultRepo("tools/defs.bzl"), "bzl-hash"),
+        ImmutableMap.of(
+            Pair.of("*.java", false), ImmutableList.of(globMatch),
+            Pair.of("**", true), ImmutableList.<String>of()),
+        new byte[] {1, 2, 3});
+  }
+
+  @Test
+  public void testReadWithoutEntry() throws Exception {
+    assertNull(cache.read(packageId, getKey(cache, new byte[] {1})));
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    String key = getKey(cache, new byte[] {1});
+    cache.write(packageId, key, newEntry("A.java"));
+
+    // A new server reads what the previous one wrote.
+    PersistentPackageCache newCache =
+        new PersistentPackageCache(cacheDirectory, "identity", UNUSED_ENVIRONMENT);
+    PersistentPackageCache.Entry entry = newCache.read(packageId, key);
+    assertThat(entry.getImports()).isEqualTo(ImmutableMap.of(
+        PackageIdentifier.createInDefaultRepo("tools/defs.bzl"), "bzl-hash"));
+    assertThat(entry.getGlobs()).isEqualTo(ImmutableMap.of(
+        Pair.of("*.java", false), ImmutableList.of("A.java"),
+        Pair.of("**", true), ImmutableList.<String>of()));
+  }
+
+  @Test
+  public void testNewEntryReplacesOldOne() throws Exception {
+    String oldKey = getKey(cache, new byte[] {1});
+    String newKey = getKey(cache, new byte[] {2});
+    cache.write(packageId, oldKey, newEntry("A.java"));
+    cache.write(packageId, newKey, newEntry("B.java"));
+
+    assertNull(cache.read(packageId, oldKey));
+    assertThat(cache.read(packageId, newKey).getGlobs())
+        .containsEntry(Pair.of("*.java", false), ImmutableList.of("B.java"));
+  }
+
+  @Test
+  public void testKeyDependsOnBuildFileAndIdentity() throws Exception {
+    String key = getKey(cache, new byte[] {1});
+    assertThat(getKey(cache, new byte[] {1})).isEqualTo(key);
+    assertThat(getKey(cache, new byte[] {2})).isNotEqualTo(key);
+    PersistentPackageCache otherBinary =
+        new PersistentPackageCache(cacheDirectory, "other identity", UNUSED_ENVIRONMENT);
+    assertThat(getKey(otherBinary, new byte[] {1})).isNotEqualTo(key);
+  }
+
+  @Test
+  public void testStatistics() {
+    cache.recordHit();
+    cache.recordHit();
+    cache.recordMiss();
+    assertThat(cache.getHitCount()).isEqualTo(2);
+    assertThat(cache.getMissCount()).isEqualTo(1);
+
+    cache.resetStatistics();
+    assertThat(cache.getHitCount()).isEqualTo(0);
+    assertThat(cache.getMissCount()).isEqualTo(0);
+  }
+}
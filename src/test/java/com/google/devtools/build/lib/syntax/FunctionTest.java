@@ -131,6 +131,33 @@ public class FunctionTest extends EvaluationTestCase {
     assertEquals(2, lookup("c"));
   }
 
+  @Test
+  public void testFunctionDefLocalVariableReadInLaterIteration() throws Exception {
+    eval("def func():",
+        "  s = 0",
+        "  prev = 0",
+        "  for i in [1, 2, 3]:",
+        "    s = s + prev",
+        "    prev = i",
+        "  return s",
+        "c = func()\n");
+    assertEquals(3, lookup("c"));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFunctionLocalVariablesAreNotSharedWithCallee() throws Exception {
+    eval("def inner(x):",
+        "  y = x * 2",
+        "  return y",
+        "def outer(x):",
+        "  y = x + 1",
+        "  z = inner(y)",
+        "  return [x, y, z]",
+        "c = outer(1)\n");
+    assertThat((Iterable<Object>) lookup("c")).containsExactly(1, 2, 4).inOrder();
+  }
+
   @SuppressWarnings("unchecked")
   @Test
   public void testSkylarkGlobalComprehensionIsAllowed() throws Exception {
@@ -0,0 +1,114 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import java.util.List;
+
+/**
+ * Measures the evaluation of macro-heavy synthetic packages: every package calls Skylark macros
+ * that spend their time reading and writing local variables and calling helper functions, the way
+ * rule-generating macros in .bzl files do. The .bzl file and the package are parsed once, as
+ * Skyframe would; only their evaluation is timed. This is not a test; run it by hand:
+ *
+ * <pre>
+ *   java com.google.devtools.build.lib.syntax.SkylarkMacroBenchmark [packages] [targets]
+ * </pre>
+ */
+public class SkylarkMacroBenchmark {
+
+  private static final String[] MACROS = {
+      "def _label(pkg, name):",
+      "  if name.startswith(':'):",
+      "    return pkg + name",
+      "  return name",
+      "",
+      "def _expand_srcs(name, srcs, suffixes):",
+      "  result = []",
+      "  for src in srcs:",
+      "    for suffix in suffixes:",
+      "      result += [name + '_' + src + suffix]",
+      "  return result",
+      "",
+      "def library(name, srcs = [], deps = [], visibility = None):",
+      "  pkg = '//pkg'",
+      "  all_srcs = _expand_srcs(name, srcs, ['.cc', '.h'])",
+      "  labels = [_label(pkg, dep) for dep in deps]",
+      "  count = 0",
+      "  for label in labels:",
+      "    if label.startswith(pkg):",
+      "      count += 1",
+      "  shard = 0",
+      "  for src in all_srcs:",
+      "    for c in [1, 2, 3, 4]:",
+      "      shard = (shard * 31 + c + len(src)) % 1024",
+      "  if visibility == None:",
+      "    visibility = ['//visibility:private']",
+      "  return {'name': name, 'srcs': all_srcs, 'deps': labels, 'local_deps': count,",
+      "          'visibility': visibility, 'shard': shard}",
+      "",
+      "def test_suite(name, count):",
+      "  tests = []",
+      "  for i in range(count):",
+      "    test_name = '%s_%d' % (name, i)",
+      "    tests += [library(test_name, srcs = [test_name], deps = [':' + name])]",
+      "  return tests",
+  };
+
+  public static void main(String[] args) throws Exception {
+    int packages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int targets = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+    Environment.Frame macros;
+    try (Mutability mutability = Mutability.create("macros")) {
+      Environment env = newEnvironment(mutability, Environment.SKYLARK);
+      for (Statement statement : env.parseFile(MACROS)) {
+        statement.exec(env);
+      }
+      macros = env.getGlobals();
+    }
+
+    List<Statement> pkg;
+    try (Mutability mutability = Mutability.create("parse")) {
+      pkg = newEnvironment(mutability, macros).parseFile(
+          "libs = [library('lib%d' % i, srcs = ['a%d' % i, 'b%d' % i],",
+          "                deps = [':lib%d' % (i - 1), '//base']) for i in range(" + targets + ")]",
+          "tests = test_suite('tests', " + targets + ")");
+    }
+
+    for (int round = 0; round < 5; round++) {
+      // The first rounds warm up the JIT.
+      String label = round < 2 ? "Warm-up:" : "Results:";
+      long start = System.nanoTime();
+      for (int i = 0; i < packages; i++) {
+        try (Mutability mutability = Mutability.create("package")) {
+          Environment env = newEnvironment(mutability, macros);
+          for (Statement statement : pkg) {
+            statement.exec(env);
+          }
+        }
+      }
+      long micros = (System.nanoTime() - start) / 1000;
+      System.out.printf("%s %d packages in %d ms, %d us per package%n",
+          label, packages, micros / 1000, micros / packages);
+    }
+  }
+
+  private static Environment newEnvironment(Mutability mutability, Environment.Frame globals) {
+    return Environment.builder(mutability)
+        .setSkylark()
+        .setGlobals(globals)
+        .setEventHandler(Environment.FAIL_FAST_HANDLER)
+        .build();
+  }
+}
@@ -0,0 +1,74 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util;
+
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the cost of the available {@link DigestHashFunction}s for action keys and file
+ * contents. This is not a test; run it by hand:
+ *
+ * <pre>
+ *   java com.google.devtools.build.lib.util.FingerprintBenchmark [iterations]
+ * </pre>
+ */
+public class FingerprintBenchmark {
+
+  private static final int ARGUMENTS = 200;
+  private static final int FILE_SIZE = 1 << 20;
+
+  public static void main(String[] args) {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    Random random = new Random(0);
+    List<String> arguments = new ArrayList<>();
+    for (int i = 0; i < ARGUMENTS; i++) {
+      arguments.add("-Ibazel-out/local-fastbuild/genfiles/external/package" + random.nextInt());
+    }
+    PathFragment executable = new PathFragment("external/local_config_cc/bin/gcc");
+    byte[] content = new byte[FILE_SIZE];
+    random.nextBytes(content);
+
+    for (int round = 0; round < 2; round++) {
+      // The first round warms up the JIT.
+      System.out.println(round == 0 ? "Warm-up:" : "Results:");
+      for (DigestHashFunction function : DigestHashFunction.values()) {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+          new Fingerprint(function)
+              .addPath(executable)
+              .addStrings(arguments)
+              .addInt(i)
+              .digestAndReset();
+        }
+        long keyNanos = (System.nanoTime() - start) / iterations;
+
+        int fileIterations = Math.max(1, iterations / 100);
+        start = System.nanoTime();
+        for (int i = 0; i < fileIterations; i++) {
+          new Fingerprint(function).addBytes(content).digestAndReset();
+        }
+        long fileNanos = System.nanoTime() - start;
+        double megabytesPerSecond = (double) fileIterations * FILE_SIZE / fileNanos * 1e9 / (1 << 20);
+
+        System.out.printf("  %-12s %8d ns/action key %10.1f MB/s file contents%n",
+            function, keyNanos, megabytesPerSecond);
+      }
+    }
+  }
+}
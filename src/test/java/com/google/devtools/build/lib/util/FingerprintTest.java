@@ -17,6 +17,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
@@ -134,4 +135,25 @@ public class FingerprintTest {
     assertThat("01cc3eeea3a2f58e447e824f9f62d3d1").isEqualTo(
         new Fingerprint().addPath(p).hexDigestAndReset());
   }
+
+  @Test
+  public void otherDigestFunctions() throws Exception {
+    // echo -n 'Hello World!' | sha256sum
+    assertThat(new Fingerprint(DigestHashFunction.SHA256)
+        .addBytes("Hello World!".getBytes(UTF_8)).hexDigestAndReset())
+        .isEqualTo("7f83b1657ff1fc53b92dc18148a1d65dfc2d4b1fa3d677284addd200126d9069");
+    for (DigestHashFunction function : DigestHashFunction.values()) {
+      Fingerprint f1 = new Fingerprint(function).addString("Hello ");
+      String intermediate = f1.toString();
+      f1.addString("World!");
+      byte[] digest = f1.digestAndReset();
+      assertThat(digest).hasLength(function.getDigestLength());
+      assertThat(digest)
+          .isEqualTo(new Fingerprint(function).addString("Hello ").addString("World!")
+              .digestAndReset());
+      assertThat(new Fingerprint(function).addString("Hello ").hexDigestAndReset())
+          .isNotEqualTo(Fingerprint.hexDigest(digest));
+      assertThat(intermediate).isNotEmpty();
+    }
+  }
 }
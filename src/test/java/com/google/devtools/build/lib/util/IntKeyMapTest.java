@@ -0,0 +1,114 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Tests for {@link IntKeyMap}.
+ */
+@RunWith(JUnit4.class)
+public class IntKeyMapTest {
+
+  private final IntKeyMap<String> map = new IntKeyMap<>();
+
+  @Test
+  public void putAndGet() {
+    assertNull(map.put(1, "one"));
+    assertNull(map.put(-10, "minus ten"));
+    assertEquals("one", map.get(1));
+    assertEquals("minus ten", map.get(-10));
+    assertNull(map.get(2));
+    assertEquals("one", map.get((Object) 1));
+    assertNull(map.get("1"));
+    assertTrue(map.containsKey(-10));
+    assertFalse(map.containsKey(0));
+    assertEquals(2, map.size());
+  }
+
+  @Test
+  public void putOverwrites() {
+    map.put(1, "one");
+    assertEquals("one", map.put(1, "uno"));
+    assertEquals("uno", map.get(1));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void remove() {
+    map.put(1, "one");
+    map.put(2, "two");
+    assertEquals("one", map.remove(1));
+    assertNull(map.remove(1));
+    assertNull(map.get(1));
+    assertEquals("two", map.get(2));
+    assertEquals(1, map.size());
+    map.put(1, "uno");
+    assertEquals("uno", map.get(1));
+    assertEquals(2, map.size());
+  }
+
+  @Test
+  public void growsAndMatchesHashMap() {
+    Map<Integer, String> expected = new HashMap<>();
+    for (int i = 0; i < 100000; i++) {
+      map.put(i * 31, Integer.toString(i));
+      expected.put(i * 31, Integer.toString(i));
+    }
+    for (int i = 0; i < 100000; i += 3) {
+      map.remove(i * 31);
+      expected.remove(i * 31);
+    }
+    assertEquals(expected, map);
+    assertEquals(expected.size(), map.size());
+    assertTrue(map.getTableHeapSize() >= 12L * map.size());
+  }
+
+  @Test
+  public void iteratorRemove() {
+    for (int i = 0; i < 100; i++) {
+      map.put(i, Integer.toString(i));
+    }
+    Iterator<Map.Entry<Integer, String>> it = map.entrySet().iterator();
+    while (it.hasNext()) {
+      if (it.next().getKey() % 2 == 0) {
+        it.remove();
+      }
+    }
+    assertEquals(50, map.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i % 2 == 0 ? null : Integer.toString(i), map.get(i));
+    }
+  }
+
+  @Test
+  public void clear() {
+    map.put(1, "one");
+    map.clear();
+    assertThat(map).isEmpty();
+    assertNull(map.get(1));
+  }
+}
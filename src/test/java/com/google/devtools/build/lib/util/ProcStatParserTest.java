@@ -0,0 +1,89 @@
+// Copyright 2014 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.vfs.util.FsApparatus;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for ProcStatParser.
+ */
+@RunWith(JUnit4.class)
+public class ProcStatParserTest {
+
+  private FsApparatus scratch = FsApparatus.newNative();
+
+  @Test
+  public void stat() throws IOException {
+    String statContent = StringUtilities.joinLines(
+        "cpu  1000 20 300 5000 400 6 7 8 90 10",
+        "cpu0 500 10 150 2500 200 3 3 4 45 5",
+        "cpu1 500 10 150 2500 200 3 4 4 45 5",
+        "intr 114930548 113199788 3 0 5 263 0 4 [... lots more numbers ...]",
+        "ctxt 1990473",
+        "btime 1062191376",
+        "processes 2915",
+        "procs_running 1",
+        "procs_blocked 0");
+
+    String statFile = scratch.file("test_stat", statContent).getPathString();
+    ProcStatParser stat = new ProcStatParser(statFile);
+
+    // Guest times are not added to the total, as they are included in the user times.
+    assertEquals(1000 + 20 + 300 + 5000 + 400 + 6 + 7 + 8, stat.getTotalJiffies());
+    assertEquals(5000 + 400, stat.getIdleJiffies());
+  }
+
+  @Test
+  public void oldKernelsWithFewerFields() throws IOException {
+    String statFile = scratch.file("test_stat", "cpu  1000 20 300 5000").getPathString();
+    ProcStatParser stat = new ProcStatParser(statFile);
+
+    assertEquals(6320, stat.getTotalJiffies());
+    assertEquals(5000, stat.getIdleJiffies());
+  }
+
+  @Test
+  public void missingAggregateLine() throws IOException {
+    assertUnparseable("cpu0 500 10 150 2500 200 3 3 4 45 5");
+  }
+
+  @Test
+  public void emptyFile() throws IOException {
+    assertUnparseable("");
+  }
+
+  @Test
+  public void malformedNumber() throws IOException {
+    assertUnparseable("cpu  1000 20 bogus 5000 400 6 7 8 90 10");
+  }
+
+  private void assertUnparseable(String content) throws IOException {
+    String statFile = scratch.file("test_stat", content).getPathString();
+    try {
+      new ProcStatParser(statFile);
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+}
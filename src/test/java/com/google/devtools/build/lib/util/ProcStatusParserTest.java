@@ -0,0 +1,62 @@
+// Copyright 2014 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.vfs.util.FsApparatus;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for ProcStatusParser.
+ */
+@RunWith(JUnit4.class)
+public class ProcStatusParserTest {
+
+  private FsApparatus scratch = FsApparatus.newNative();
+
+  @Test
+  public void status() throws IOException {
+    String statusContent = StringUtilities.joinLines(
+        "Name:   java",
+        "State:  S (sleeping)",
+        "Pid:    4242",
+        "VmPeak:  4423904 kB",
+        "VmSize:  4358368 kB",
+        "VmHWM:    312512 kB",
+        "VmRSS:    287444 kB",
+        "Threads:        27");
+
+    String statusFile = scratch.file("test_status", statusContent).getPathString();
+    assertEquals(287444, new ProcStatusParser(statusFile).getResidentKb());
+  }
+
+  @Test
+  public void kernelThreadWithoutMemory() throws IOException {
+    String statusFile =
+        scratch.file("test_status", "Name:   kthreadd", "State:  S (sleeping)").getPathString();
+    try {
+      new ProcStatusParser(statusFile);
+      fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Tests for {@link StringKeyIntMap}.
+ */
+@RunWith(JUnit4.class)
+public class StringKeyIntMapTest {
+
+  private final StringKeyIntMap map = new StringKeyIntMap();
+
+  @Test
+  public void putAndGet() {
+    assertEquals(StringKeyIntMap.NOT_FOUND, map.putInt("one", 1));
+    assertEquals(StringKeyIntMap.NOT_FOUND, map.putInt("zero", 0));
+    assertEquals(1, map.getInt("one"));
+    assertEquals(0, map.getInt("zero"));
+    assertEquals(StringKeyIntMap.NOT_FOUND, map.getInt("two"));
+    assertEquals(Integer.valueOf(1), map.get("one"));
+    assertNull(map.get(1));
+    assertTrue(map.containsKey("zero"));
+    assertFalse(map.containsKey("two"));
+    assertEquals(2, map.size());
+  }
+
+  @Test
+  public void putOverwrites() {
+    map.putInt("one", 1);
+    assertEquals(1, map.putInt("one", 11));
+    assertEquals(11, map.getInt("one"));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  public void negativeValuesAreRejected() {
+    try {
+      map.putInt("minus one", -1);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void remove() {
+    map.putInt("one", 1);
+    map.putInt("two", 2);
+    assertEquals(1, map.removeInt("one"));
+    assertNull(map.remove("one"));
+    assertEquals(StringKeyIntMap.NOT_FOUND, map.getInt("one"));
+    assertEquals(2, map.getInt("two"));
+    assertEquals(1, map.size());
+    map.putInt("one", 3);
+    assertEquals(3, map.getInt("one"));
+  }
+
+  @Test
+  public void growsAndMatchesHashMap() {
+    Map<String, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 100000; i++) {
+      map.putInt("key" + i, i);
+      expected.put("key" + i, i);
+    }
+    for (int i = 0; i < 100000; i += 3) {
+      map.remove("key" + i);
+      expected.remove("key" + i);
+    }
+    assertEquals(expected, map);
+    assertEquals(expected.size(), map.size());
+  }
+
+  @Test
+  public void iteratorRemove() {
+    for (int i = 0; i < 100; i++) {
+      map.putInt(Integer.toString(i), i);
+    }
+    Iterator<Map.Entry<String, Integer>> it = map.entrySet().iterator();
+    while (it.hasNext()) {
+      if (it.next().getValue() % 2 == 0) {
+        it.remove();
+      }
+    }
+    assertEquals(50, map.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i % 2 == 0 ? StringKeyIntMap.NOT_FOUND : i, map.getInt(Integer.toString(i)));
+    }
+  }
+
+  @Test
+  public void clear() {
+    map.putInt("one", 1);
+    map.clear();
+    assertThat(map).isEmpty();
+    assertEquals(StringKeyIntMap.NOT_FOUND, map.getInt("one"));
+  }
+}
@@ -1315,6 +1315,21 @@ public abstract class FileSystemTest {
         fp.hexDigestAndReset());
   }
 
+  @Test
+  public void testGetDigest() throws Exception {
+    byte[] buffer = new byte[500000];
+    for (int i = 0; i < buffer.length; ++i) {
+      buffer[i] = (byte) i;
+    }
+    FileSystemUtils.writeContent(xFile, buffer);
+    for (DigestHashFunction function : DigestHashFunction.values()) {
+      Fingerprint fp = new Fingerprint(function);
+      fp.addBytes(buffer);
+      assertEquals(function.toString(), fp.hexDigestAndReset(),
+          BaseEncoding.base16().lowerCase().encode(xFile.getDigest(function)));
+    }
+  }
+
   @Test
   public void testStatFailsFastOnNonExistingFiles() throws Exception {
     try {
@@ -0,0 +1,143 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compares globbing the patterns of a package one directory walk at a time with matching all of
+ * them in a single walk ({@link UnixGlob.Builder#globAsyncPerPattern}), on a synthetic in-memory
+ * tree. This is not a test; run it by hand:
+ *
+ * <pre>
+ *   java com.google.devtools.build.lib.vfs.GlobBenchmark [files] [threads]
+ * </pre>
+ */
+public class GlobBenchmark {
+
+  private static final int FILES_PER_DIRECTORY = 50;
+  private static final int SUBDIRECTORIES = 10;
+  private static final String[] EXTENSIONS = {".java", ".cc", ".h", ".txt", ".proto"};
+  private static final ImmutableList<String> PATTERNS = ImmutableList.of(
+      "**/*.java", "**/*.cc", "**/*.h", "*.txt", "src/**/*.proto", "**/BUILD");
+
+  public static void main(String[] args) throws Exception {
+    int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+    Path root = new InMemoryFileSystem(BlazeClock.instance()).getPath("/workspace");
+    int created = createTree(root, files);
+    System.out.printf("Created %d files%n", created);
+
+    CountingSyscalls syscalls = new CountingSyscalls();
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads);
+    try {
+      for (int round = 0; round < 3; round++) {
+        // The first round warms up the JIT.
+        String label = round == 0 ? "Warm-up:" : "Results:";
+        for (boolean shared : new boolean[] {false, true}) {
+          syscalls.reset();
+          long start = System.nanoTime();
+          List<Future<List<Path>>> results = shared
+              ? sharedWalk(root, syscalls, executor)
+              : separateWalks(root, syscalls, executor);
+          long matches = 0;
+          for (Future<List<Path>> result : results) {
+            matches += result.get().size();
+          }
+          long millis = (System.nanoTime() - start) / 1000000;
+          System.out.printf("%s %s: %d ms, %d readdirs, %d stats, %d matches%n", label,
+              shared ? "one walk for all patterns" : "one walk per pattern", millis,
+              syscalls.readdirs.get(), syscalls.stats.get(), matches);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Creates {@code files} files below {@code root}, spread over a two-level tree of directories,
+   * and returns the number of files created.
+   */
+  private static int createTree(Path root, int files) throws IOException {
+    int created = 0;
+    for (int dir = 0; created < files; dir++) {
+      Path directory = root.getRelative("src/pkg" + (dir / SUBDIRECTORIES))
+          .getChild("sub" + (dir % SUBDIRECTORIES));
+      FileSystemUtils.createDirectoryAndParents(directory);
+      for (int i = 0; i < FILES_PER_DIRECTORY && created < files; i++, created++) {
+        FileSystemUtils.createEmptyFile(
+            directory.getChild("file" + i + EXTENSIONS[i % EXTENSIONS.length]));
+      }
+    }
+    return created;
+  }
+
+  private static List<Future<List<Path>>> separateWalks(
+      Path root, CountingSyscalls syscalls, ThreadPoolExecutor executor) {
+    // This is what GlobCache used to do: start all patterns in parallel, each with its own walk.
+    List<Future<List<Path>>> results = new ArrayList<>();
+    for (String pattern : PATTERNS) {
+      results.add(newBuilder(root, syscalls, executor).addPattern(pattern).globAsync(false));
+    }
+    return results;
+  }
+
+  private static List<Future<List<Path>>> sharedWalk(
+      Path root, CountingSyscalls syscalls, ThreadPoolExecutor executor) {
+    return newBuilder(root, syscalls, executor).addPatterns(PATTERNS).globAsyncPerPattern(false);
+  }
+
+  private static UnixGlob.Builder newBuilder(
+      Path root, CountingSyscalls syscalls, ThreadPoolExecutor executor) {
+    return UnixGlob.forPath(root)
+        .setFilesystemCalls(new AtomicReference<UnixGlob.FilesystemCalls>(syscalls))
+        .setThreadPool(executor);
+  }
+
+  private static class CountingSyscalls implements UnixGlob.FilesystemCalls {
+    private final AtomicLong readdirs = new AtomicLong();
+    private final AtomicLong stats = new AtomicLong();
+
+    void reset() {
+      readdirs.set(0);
+      stats.set(0);
+    }
+
+    @Override
+    public Collection<Dirent> readdir(Path path, Symlinks symlinks) throws IOException {
+      readdirs.incrementAndGet();
+      return UnixGlob.DEFAULT_SYSCALLS.readdir(path, symlinks);
+    }
+
+    @Override
+    public FileStatus statNullable(Path path, Symlinks symlinks) {
+      stats.incrementAndGet();
+      return UnixGlob.DEFAULT_SYSCALLS.statNullable(path, symlinks);
+    }
+  }
+}
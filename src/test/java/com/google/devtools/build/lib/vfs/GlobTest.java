@@ -19,8 +19,10 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.common.base.Predicate;
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Ordering;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.build.lib.testutil.MoreAsserts;
@@ -463,4 +465,44 @@ public class GlobTest {
     executor.shutdown();
     assertTrue(executor.awaitTermination(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
   }
+
+  @Test
+  public void testGlobAsyncPerPatternReadsEachDirectoryOnce() throws Exception {
+    final Multiset<Path> readdirs = ConcurrentHashMultiset.create();
+    UnixGlob.FilesystemCalls syscalls = new UnixGlob.FilesystemCalls() {
+      @Override
+      public FileStatus statNullable(Path path, Symlinks symlinks) {
+        return UnixGlob.DEFAULT_SYSCALLS.statNullable(path, symlinks);
+      }
+
+      @Override
+      public Collection<Dirent> readdir(Path path, Symlinks symlinks) throws IOException {
+        readdirs.add(path);
+        return UnixGlob.DEFAULT_SYSCALLS.readdir(path, symlinks);
+      }
+    };
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(10);
+
+    List<Future<List<Path>>> results = new UnixGlob.Builder(tmpPath)
+        .addPatterns("foo*", "**/wiz", "*/barnacle/*", "foo/bar")
+        .addExcludes("food", "food/*/wiz")
+        .setFilesystemCalls(new AtomicReference<>(syscalls))
+        .setThreadPool(executor)
+        .globAsyncPerPattern(true);
+
+    assertThat(results).hasSize(4);
+    MoreAsserts.assertSameContents(resolvePaths("foo", "fool"), results.get(0).get());
+    MoreAsserts.assertSameContents(
+        resolvePaths("foo/bar/wiz", "foo/barnacle/wiz", "fool/barnacle/wiz"),
+        results.get(1).get());
+    MoreAsserts.assertSameContents(
+        resolvePaths("foo/barnacle/wiz", "fool/barnacle/wiz"), results.get(2).get());
+    MoreAsserts.assertSameContents(resolvePaths("foo/bar"), results.get(3).get());
+    for (Multiset.Entry<Path> entry : readdirs.entrySet()) {
+      assertThat(entry.getCount()).isEqualTo(1);
+    }
+
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
 }
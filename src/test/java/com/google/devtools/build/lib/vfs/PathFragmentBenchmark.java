@@ -0,0 +1,122 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Measures the retained heap and the cost of the most common operations of {@link PathFragment}
+ * for a set of paths that looks like the outputs of a large build. This is not a test; run it by
+ * hand, with and without a change to PathFragment:
+ *
+ * <pre>
+ *   java -Xmx2g com.google.devtools.build.lib.vfs.PathFragmentBenchmark [paths]
+ * </pre>
+ */
+public class PathFragmentBenchmark {
+
+  private static final int PACKAGES = 5000;
+
+  public static void main(String[] args) throws Exception {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    String[] strings = new String[count];
+    for (int i = 0; i < count; i++) {
+      int pkg = i % PACKAGES;
+      strings[i] = "bazel-out/local-fastbuild/bin/third_party/project" + (pkg % 50)
+          + "/src/pkg" + pkg + "/_objs/lib" + (i % 7) + "/file" + (i / PACKAGES) + ".o";
+    }
+
+    // Measured before anything else, as the interned parts of the path fragments of earlier runs
+    // are only cleaned up lazily.
+    measureHeap(strings);
+    for (int round = 0; round < 2; round++) {
+      // The first round warms up the JIT.
+      System.out.println(round == 0 ? "Warm-up:" : "Results:");
+      // In a method of its own, so nothing of the previous round is reachable anymore.
+      runRound(strings);
+    }
+  }
+
+  private static void measureHeap(String[] strings) throws InterruptedException {
+    long heapBefore = usedHeap();
+    PathFragment[] fragments = new PathFragment[strings.length];
+    for (int i = 0; i < strings.length; i++) {
+      fragments[i] = new PathFragment(strings[i]);
+    }
+    long heapAfter = usedHeap();
+    System.out.printf("%.1f bytes/fragment retained%n",
+        (double) (heapAfter - heapBefore) / fragments.length);
+  }
+
+  private static void runRound(String[] strings) {
+    int count = strings.length;
+    long start = System.nanoTime();
+    PathFragment[] fragments = new PathFragment[count];
+    for (int i = 0; i < count; i++) {
+      fragments[i] = new PathFragment(strings[i]);
+    }
+    long createNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    int depth = 0;
+    for (PathFragment fragment : fragments) {
+      for (PathFragment p = fragment; p != null; p = p.getParentDirectory()) {
+        depth++;
+      }
+    }
+    long parentNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    PathFragment[] siblings = new PathFragment[count];
+    for (int i = 0; i < count; i++) {
+      siblings[i] = fragments[i].getParentDirectory().getRelative("file.d");
+    }
+    long relativeNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    Set<PathFragment> set = new HashSet<>();
+    for (int i = 0; i < count; i++) {
+      set.add(fragments[i]);
+      set.add(siblings[i]);
+    }
+    long setNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    PathFragment[] sorted = Arrays.copyOf(fragments, count);
+    Arrays.sort(sorted);
+    long sortNanos = System.nanoTime() - start;
+
+    System.out.printf("  %6d ns/new PathFragment(String)%n", createNanos / count);
+    System.out.printf("  %6d ns/getParentDirectory()%n", parentNanos / depth);
+    System.out.printf("  %6d ns/getParentDirectory().getRelative(String)%n",
+        relativeNanos / count);
+    System.out.printf("  %6d ns/HashSet.add()%n", setNanos / (2 * count));
+    System.out.printf("  %6d ns/Arrays.sort()%n", sortNanos / count);
+    if (set.size() == 0) {
+      // Keep the fragments alive until here.
+      System.out.println(fragments.length + siblings.length);
+    }
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -498,6 +498,71 @@ public class PathFragmentTest {
     assertEquals(expectedOrder, paths);
   }
 
+  @Test
+  public void testEqualsAndHashCodeAcrossConstructions() {
+    // Parsed path fragments share interned nodes, the children of a path fragment share its node.
+    PathFragment parent = new PathFragment("a/b");
+    new EqualsTester()
+        .addEqualityGroup(new PathFragment("a/b/c/d"),
+                          parent.getRelative("c/d"),
+                          parent.getRelative(new PathFragment("c/d")),
+                          parent.getChild("c").getChild("d"),
+                          new PathFragment("a").getRelative("b/c").getChild("d"),
+                          new PathFragment("a/b/c/d/e").getParentDirectory(),
+                          new PathFragment(new PathFragment("a"), new PathFragment("b/c/d")))
+        .addEqualityGroup(new PathFragment("a/b/c"),
+                          parent.getChild("c"),
+                          parent.getRelative("c/d").getParentDirectory())
+        .addEqualityGroup(new PathFragment("a/b/d/c"), parent.getRelative("d/c"))
+        .addEqualityGroup(new PathFragment("a/x/c/d"), new PathFragment("a/x").getRelative("c/d"))
+        .addEqualityGroup(new PathFragment("/a/b/c/d"), new PathFragment("/a").getRelative("b/c/d"))
+        .testEquals();
+  }
+
+  @Test
+  public void testStartsWithAndEndsWithAcrossConstructions() {
+    PathFragment foo = new PathFragment("foo");
+    PathFragment fooBarWiz = foo.getRelative("bar").getChild("wiz");
+    assertTrue(fooBarWiz.startsWith(new PathFragment("foo/bar")));
+    assertTrue(new PathFragment("foo/bar/wiz").startsWith(foo.getChild("bar")));
+    assertTrue(fooBarWiz.startsWith(fooBarWiz.getParentDirectory()));
+    assertTrue(fooBarWiz.startsWith(new PathFragment("foo/bar/wiz")));
+    assertFalse(fooBarWiz.startsWith(new PathFragment("foo/baz")));
+    assertFalse(fooBarWiz.startsWith(new PathFragment("/foo/bar")));
+    assertTrue(fooBarWiz.endsWith(new PathFragment("bar/wiz")));
+    assertTrue(new PathFragment("foo/bar/wiz").endsWith(new PathFragment("bar").getChild("wiz")));
+    assertFalse(fooBarWiz.endsWith(new PathFragment("foo/wiz")));
+    assertEquals(new PathFragment("foo/bar"), fooBarWiz.subFragment(0, 2));
+    assertEquals(new PathFragment("bar/wiz"), fooBarWiz.subFragment(1, 3));
+  }
+
+  @Test
+  public void testCompareToAcrossConstructions() throws Exception {
+    List<PathFragment> paths = ImmutableList.of(
+        new PathFragment("/a/b/c"),
+        new PathFragment("/a").getRelative("b/d"),
+        new PathFragment("/a/b").getChild("c").getChild("a"),
+        new PathFragment("a"),
+        new PathFragment("a/b/c"),
+        new PathFragment("a").getRelative("b/c"),
+        new PathFragment("a/b/c/d").getParentDirectory().getParentDirectory(),
+        new PathFragment("a/c").getRelative("a"),
+        new PathFragment("a/B/z"),
+        new PathFragment("b").getChild("a"),
+        new PathFragment("b/a/a/a"));
+    // Compares with the order of the path strings, which is the lexicographic order of the
+    // segments for the segments above.
+    for (PathFragment x : paths) {
+      for (PathFragment y : paths) {
+        assertEquals(x + " vs " + y,
+            Integer.signum((x.isAbsolute() ? "0" : "1").concat(x.getPathString())
+                .compareTo((y.isAbsolute() ? "0" : "1").concat(y.getPathString()))),
+            Integer.signum(x.compareTo(y)));
+        assertEquals(x + " vs " + y, x.compareTo(y) == 0, x.equals(y));
+      }
+    }
+  }
+
   @Test
   public void testGetSafePathString() {
     assertEquals("/", new PathFragment("/").getSafePathString());
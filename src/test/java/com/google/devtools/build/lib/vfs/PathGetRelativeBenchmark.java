@@ -0,0 +1,91 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Measures the throughput of {@link Path#getRelative} when several threads resolve siblings in the
+ * same few directories, as happens for the output tree and external repositories during a build.
+ * This is not a test; run it by hand:
+ *
+ * <pre>
+ *   java com.google.devtools.build.lib.vfs.PathGetRelativeBenchmark [threads] [lookups per thread]
+ * </pre>
+ */
+public class PathGetRelativeBenchmark {
+
+  private static final int PACKAGES = 1000;
+  private static final int FILES_PER_PACKAGE = 20;
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+
+    Path root = new InMemoryFileSystem(BlazeClock.instance()).getRootDirectory();
+    String[] names = new String[PACKAGES * FILES_PER_PACKAGE];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = "bazel-out/k8-fastbuild/bin/pkg" + (i % PACKAGES) + "/file" + (i / PACKAGES);
+    }
+    // Keep all paths reachable so that the benchmark measures lookups, not the creation of paths
+    // that were collected in the meantime.
+    List<Path> live = new ArrayList<>(names.length);
+    for (String name : names) {
+      live.add(root.getRelative(name));
+    }
+
+    for (int round = 0; round < 2; round++) {
+      // The first round warms up the JIT.
+      long nanos = runRound(root, names, threads, lookups);
+      System.out.printf("%s %d threads: %.1f ns/lookup (wall time / all lookups)%n",
+          round == 0 ? "Warm-up:" : "Results:", threads, (double) nanos / threads / lookups);
+    }
+    System.out.println(live.size() + " paths");
+  }
+
+  private static long runRound(final Path root, final String[] names, int threads,
+      final int lookups) throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      final int offset = t * 7919;
+      Thread worker = new Thread() {
+        @Override
+        public void run() {
+          try {
+            barrier.await();
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+          for (int i = 0; i < lookups; i++) {
+            root.getRelative(names[(offset + i) % names.length]);
+          }
+        }
+      };
+      worker.start();
+      workers.add(worker);
+    }
+    barrier.await();
+    long start = System.nanoTime();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    return System.nanoTime() - start;
+  }
+}
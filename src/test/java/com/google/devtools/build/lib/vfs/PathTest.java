@@ -20,6 +20,7 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.Lists;
 import com.google.common.testing.EqualsTester;
 import com.google.common.testing.GcFinalization;
@@ -38,6 +39,8 @@ import java.io.ObjectOutputStream;
 import java.lang.ref.WeakReference;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
 
 /**
  * A test for {@link Path}.
@@ -258,6 +261,76 @@ public class PathTest {
     assertEquals(childHashCode1, childHashCode2);
   }
 
+  @Test
+  public void testChildrenAreCanonicalForLargeFanout() {
+    Path parent = filesystem.getPath("/a");
+    List<Path> children = Lists.newArrayList();
+    for (int i = 0; i < 100; i++) {
+      children.add(parent.getChild("child" + i));
+    }
+    for (int i = 0; i < 100; i++) {
+      assertSame(children.get(i), parent.getChild("child" + i));
+    }
+    final List<Path> visited = Lists.newArrayList();
+    parent.applyToChildren(new Predicate<Path>() {
+      @Override
+      public boolean apply(Path child) {
+        visited.add(child);
+        return true;
+      }
+    });
+    assertThat(visited).containsExactlyElementsIn(children);
+  }
+
+  @Test
+  public void testCollectedChildIsRecreatedForLargeFanout() {
+    Path parent = filesystem.getPath("/a");
+    List<Path> children = Lists.newArrayList();
+    for (int i = 0; i < 20; i++) {
+      children.add(parent.getChild("child" + i));
+    }
+    WeakReference<Path> childRef = new WeakReference<>(children.remove(3));
+    GcFinalization.awaitClear(childRef);
+    Path recreated = parent.getChild("child3");
+    assertEquals("/a/child3", recreated.getPathString());
+    assertSame(recreated, parent.getChild("child3"));
+  }
+
+  @Test
+  public void testConcurrentLookupsReturnSameChild() throws Exception {
+    final Path parent = filesystem.getPath("/a");
+    final int threads = 4;
+    final Path[][] results = new Path[threads][50];
+    final CyclicBarrier barrier = new CyclicBarrier(threads);
+    List<Thread> workers = Lists.newArrayList();
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      Thread worker = new Thread() {
+        @Override
+        public void run() {
+          try {
+            barrier.await();
+          } catch (InterruptedException | BrokenBarrierException e) {
+            throw new IllegalStateException(e);
+          }
+          for (int i = 0; i < 50; i++) {
+            results[thread][i] = parent.getRelative("child" + i);
+          }
+        }
+      };
+      worker.start();
+      workers.add(worker);
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    for (int t = 1; t < threads; t++) {
+      for (int i = 0; i < 50; i++) {
+        assertSame(results[0][i], results[t][i]);
+      }
+    }
+  }
+
   @Test
   public void testSerialization() throws Exception {
     FileSystem oldFileSystem = Path.getFileSystemForSerialization();
@@ -13,15 +13,20 @@
 // limitations under the License.
 package com.google.devtools.build.lib.vfs;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.common.collect.ImmutableList;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Tests for the {@link UnixFileSystem} class.
@@ -60,4 +65,30 @@ public class UnixFileSystemTest extends SymlinkAwareFileSystemTest {
       // Expected.
     }
   }
+
+  @Test
+  public void testBatchStat() throws Exception {
+    xLink.createSymbolicLink(xNonEmptyDirectory);
+    BatchStat batchStat = ((UnixFileSystem) testFS).getBatchStatter(workingDir);
+    List<FileStatusWithDigest> stats = batchStat.batchStat(/*includeDigest=*/false,
+        /*includeLinks=*/true,
+        ImmutableList.of(
+            xFile.relativeTo(workingDir),
+            xNonEmptyDirectory.relativeTo(workingDir),
+            xLink.relativeTo(workingDir),
+            xNothing.relativeTo(workingDir),
+            xNonEmptyDirectoryFoo.relativeTo(workingDir)));
+    assertEquals(5, stats.size());
+    assertTrue(stats.get(0).isFile());
+    assertEquals(xFile.stat().getNodeId(), stats.get(0).getNodeId());
+    assertTrue(stats.get(1).isDirectory());
+    assertTrue(stats.get(2).isSymbolicLink());
+    assertNull(stats.get(3));
+    assertTrue(stats.get(4).isFile());
+    assertNull(stats.get(4).getDigest());
+
+    stats = batchStat.batchStat(/*includeDigest=*/false, /*includeLinks=*/false,
+        ImmutableList.of(xLink.relativeTo(workingDir)));
+    assertTrue(stats.get(0).isDirectory());
+  }
 }
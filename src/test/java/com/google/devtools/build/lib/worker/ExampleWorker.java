@@ -32,6 +32,9 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An example implementation of a worker process that is used for integration tests.
@@ -42,7 +45,10 @@ public class ExampleWorker {
   static final UUID workerUuid = UUID.randomUUID();
 
   // A counter that increases with each work unit processed.
-  static int workUnitCounter = 1;
+  static final AtomicInteger workUnitCounter = new AtomicInteger(1);
+
+  // Processes the requests that carry a request id concurrently.
+  static final ExecutorService multiplexExecutor = Executors.newCachedThreadPool();
 
   // If true, returns corrupt responses instead of correct protobufs.
   static boolean poisoned = false;
@@ -58,21 +64,32 @@ public class ExampleWorker {
       runPersistentWorker(workerOptions);
     } else {
       // This is a single invocation of the example that exits after it processed the request.
-      processRequest(ImmutableList.copyOf(args));
+      processRequest(ImmutableList.copyOf(args), System.out);
     }
   }
 
   private static void runPersistentWorker(ExampleWorkerOptions workerOptions) throws IOException {
-    PrintStream originalStdOut = System.out;
+    final PrintStream originalStdOut = System.out;
     PrintStream originalStdErr = System.err;
 
     while (true) {
       try {
-        WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
+        final WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
         if (request == null) {
           break;
         }
 
+        if (request.getRequestId() != 0) {
+          multiplexExecutor.execute(
+              new Runnable() {
+                @Override
+                public void run() {
+                  processMultiplexedRequest(request, originalStdOut);
+                }
+              });
+          continue;
+        }
+
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         int exitCode = 0;
 
@@ -81,7 +98,7 @@ public class ExampleWorker {
           System.setErr(ps);
 
           try {
-            processRequest(request.getArgumentsList());
+            processRequest(request.getArgumentsList(), System.out);
           } catch (Exception e) {
             e.printStackTrace();
             exitCode = 1;
@@ -102,11 +119,11 @@ public class ExampleWorker {
         }
         System.out.flush();
 
-        if (workerOptions.exitAfter > 0 && workUnitCounter > workerOptions.exitAfter) {
+        if (workerOptions.exitAfter > 0 && workUnitCounter.get() > workerOptions.exitAfter) {
           return;
         }
 
-        if (workerOptions.poisonAfter > 0 && workUnitCounter > workerOptions.poisonAfter) {
+        if (workerOptions.poisonAfter > 0 && workUnitCounter.get() > workerOptions.poisonAfter) {
           poisoned = true;
         }
       } finally {
@@ -116,7 +133,35 @@ public class ExampleWorker {
     }
   }
 
-  private static void processRequest(List<String> args) throws Exception {
+  private static void processMultiplexedRequest(WorkRequest request, PrintStream stdout) {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    int exitCode = 0;
+    try (PrintStream ps = new PrintStream(baos)) {
+      try {
+        processRequest(request.getArgumentsList(), ps);
+      } catch (Exception e) {
+        e.printStackTrace(ps);
+        exitCode = 1;
+      }
+    }
+
+    WorkResponse response =
+        WorkResponse.newBuilder()
+            .setOutput(baos.toString())
+            .setExitCode(exitCode)
+            .setRequestId(request.getRequestId())
+            .build();
+    synchronized (stdout) {
+      try {
+        response.writeDelimitedTo(stdout);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      stdout.flush();
+    }
+  }
+
+  private static void processRequest(List<String> args, PrintStream out) throws Exception {
     if (args.size() == 1 && args.get(0).startsWith("@")) {
       args = Files.readAllLines(Paths.get(args.get(0).substring(1)), UTF_8);
     }
@@ -133,7 +178,7 @@ public class ExampleWorker {
     }
 
     if (options.writeCounter) {
-      outputs.add("COUNTER " + workUnitCounter++);
+      outputs.add("COUNTER " + workUnitCounter.getAndIncrement());
     }
 
     String residueStr = Joiner.on(' ').join(parser.getResidue());
@@ -144,7 +189,7 @@ public class ExampleWorker {
 
     String outputStr = Joiner.on('\n').join(outputs);
     if (options.outputFile.isEmpty()) {
-      System.out.println(outputStr);
+      out.println(outputStr);
     } else {
       try (PrintStream outputFile = new PrintStream(options.outputFile)) {
         outputFile.println(outputStr);
@@ -0,0 +1,235 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** Tests for {@link WorkerMultiplexer}. */
+@RunWith(JUnit4.class)
+public class WorkerMultiplexerTest {
+
+  /**
+   * A worker without a process. The requests sent to it are queued, and its responses are written
+   * by the test.
+   */
+  private static final class FakeWorker extends Worker {
+    private final BlockingQueue<WorkRequest> requests = new LinkedBlockingQueue<>();
+    private final PipedInputStream responsesIn = new PipedInputStream();
+    private final PipedOutputStream responsesOut;
+
+    // The multiplexer flushes the stream after every request.
+    private final OutputStream requestsOut =
+        new ByteArrayOutputStream() {
+          @Override
+          public synchronized void flush() throws IOException {
+            InputStream in = new ByteArrayInputStream(toByteArray());
+            reset();
+            WorkRequest request;
+            while ((request = WorkRequest.parseDelimitedFrom(in)) != null) {
+              requests.add(request);
+            }
+          }
+        };
+
+    private FakeWorker() throws IOException {
+      super(null, null, 1, -1);
+      responsesOut = new PipedOutputStream(responsesIn);
+    }
+
+    @Override
+    boolean isAlive() {
+      return true;
+    }
+
+    @Override
+    InputStream getInputStream() {
+      return responsesIn;
+    }
+
+    @Override
+    OutputStream getOutputStream() {
+      return requestsOut;
+    }
+
+    WorkRequest takeRequest() throws InterruptedException {
+      WorkRequest request = requests.poll(10, TimeUnit.SECONDS);
+      assertThat(request).isNotNull();
+      return request;
+    }
+
+    void respond(WorkRequest request) throws IOException {
+      WorkResponse.newBuilder()
+          .setRequestId(request.getRequestId())
+          .setOutput(request.getArguments(0))
+          .build()
+          .writeDelimitedTo(responsesOut);
+      responsesOut.flush();
+    }
+
+    void exit() throws IOException {
+      responsesOut.close();
+    }
+  }
+
+  private FakeWorker worker;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() throws IOException {
+    worker = new FakeWorker();
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private Future<WorkResponse> execute(final WorkerMultiplexer multiplexer, final String argument) {
+    return executor.submit(
+        new Callable<WorkResponse>() {
+          @Override
+          public WorkResponse call() throws Exception {
+            return multiplexer.execute(WorkRequest.newBuilder().addArguments(argument).build());
+          }
+        });
+  }
+
+  private static void awaitAvailableRequestSlots(WorkerMultiplexer multiplexer, int slots)
+      throws InterruptedException {
+    for (int i = 0; i < 1000 && multiplexer.getAvailableRequestSlots() != slots; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(multiplexer.getAvailableRequestSlots()).isEqualTo(slots);
+  }
+
+  @Test
+  public void testResponsesOutOfOrder() throws Exception {
+    WorkerMultiplexer multiplexer = new WorkerMultiplexer(worker, 2);
+    Future<WorkResponse> a = execute(multiplexer, "a");
+    WorkRequest requestA = worker.takeRequest();
+    Future<WorkResponse> b = execute(multiplexer, "b");
+    WorkRequest requestB = worker.takeRequest();
+    assertThat(requestA.getRequestId()).isNotEqualTo(requestB.getRequestId());
+
+    worker.respond(requestB);
+    assertThat(b.get(10, TimeUnit.SECONDS).getOutput()).isEqualTo("b");
+    assertThat(a.isDone()).isFalse();
+    worker.respond(requestA);
+    assertThat(a.get(10, TimeUnit.SECONDS).getOutput()).isEqualTo("a");
+    assertThat(multiplexer.getAvailableRequestSlots()).isEqualTo(2);
+    assertThat(multiplexer.isAlive()).isTrue();
+  }
+
+  @Test
+  public void testBlocksWhileMaxRequestsArePending() throws Exception {
+    WorkerMultiplexer multiplexer = new WorkerMultiplexer(worker, 1);
+    Future<WorkResponse> a = execute(multiplexer, "a");
+    WorkRequest requestA = worker.takeRequest();
+    Future<WorkResponse> b = execute(multiplexer, "b");
+    assertThat(worker.requests.poll(100, TimeUnit.MILLISECONDS)).isNull();
+
+    worker.respond(requestA);
+    assertThat(a.get(10, TimeUnit.SECONDS).getOutput()).isEqualTo("a");
+    worker.respond(worker.takeRequest());
+    assertThat(b.get(10, TimeUnit.SECONDS).getOutput()).isEqualTo("b");
+  }
+
+  @Test
+  public void testWorkerExitFailsPendingRequests() throws Exception {
+    WorkerMultiplexer multiplexer = new WorkerMultiplexer(worker, 2);
+    Future<WorkResponse> a = execute(multiplexer, "a");
+    Future<WorkResponse> b = execute(multiplexer, "b");
+    worker.takeRequest();
+    worker.takeRequest();
+
+    worker.exit();
+    for (Future<WorkResponse> response : Arrays.asList(a, b)) {
+      try {
+        response.get(10, TimeUnit.SECONDS);
+        fail();
+      } catch (ExecutionException e) {
+        assertThat(e.getCause()).isInstanceOf(IOException.class);
+      }
+    }
+    assertThat(multiplexer.isAlive()).isFalse();
+    assertThat(multiplexer.getAvailableRequestSlots()).isEqualTo(2);
+
+    try {
+      multiplexer.execute(WorkRequest.newBuilder().addArguments("c").build());
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Multiplexed worker failed");
+    }
+    assertThat(multiplexer.getAvailableRequestSlots()).isEqualTo(2);
+  }
+
+  @Test
+  public void testInterruptedCallerKeepsSlotUntilResponse() throws Exception {
+    WorkerMultiplexer multiplexer = new WorkerMultiplexer(worker, 1);
+    Future<WorkResponse> a = execute(multiplexer, "a");
+    WorkRequest requestA = worker.takeRequest();
+
+    a.cancel(true);
+    // The worker still handles the request, so no other request may be sent.
+    Future<WorkResponse> b = execute(multiplexer, "b");
+    assertThat(worker.requests.poll(100, TimeUnit.MILLISECONDS)).isNull();
+    assertThat(multiplexer.getAvailableRequestSlots()).isEqualTo(0);
+
+    worker.respond(requestA);
+    worker.respond(worker.takeRequest());
+    assertThat(b.get(10, TimeUnit.SECONDS).getOutput()).isEqualTo("b");
+    awaitAvailableRequestSlots(multiplexer, 1);
+    assertThat(multiplexer.isAlive()).isTrue();
+  }
+
+  @Test
+  public void testInterruptedCallerReleasesSlotWhenWorkerExits() throws Exception {
+    WorkerMultiplexer multiplexer = new WorkerMultiplexer(worker, 1);
+    Future<WorkResponse> a = execute(multiplexer, "a");
+    worker.takeRequest();
+
+    a.cancel(true);
+    worker.exit();
+    awaitAvailableRequestSlots(multiplexer, 1);
+    assertThat(multiplexer.isAlive()).isFalse();
+  }
+}
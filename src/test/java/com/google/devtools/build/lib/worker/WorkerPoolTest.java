@@ -0,0 +1,236 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/** Tests for {@link WorkerPool}. */
+@RunWith(JUnit4.class)
+public class WorkerPoolTest {
+
+  /** A worker without a process, with a fixed resident memory. */
+  private static final class FakeWorker extends Worker {
+    private final long residentKb;
+    private volatile boolean destroyed;
+
+    private FakeWorker(int id, long residentKb) {
+      super(null, null, id, -1);
+      this.residentKb = residentKb;
+    }
+
+    @Override
+    long getResidentMemoryKb() {
+      return residentKb;
+    }
+
+    @Override
+    boolean isAlive() {
+      return !destroyed;
+    }
+
+    @Override
+    void destroy() {
+      destroyed = true;
+    }
+
+    @Override
+    InputStream getInputStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public String toString() {
+      return residentKb + " KB";
+    }
+  }
+
+  /**
+   * Creates {@link FakeWorker}s with the given resident memory sizes, in order, and records which
+   * workers it destroys.
+   */
+  private static final class FakeWorkerFactory extends WorkerFactory {
+    private final Deque<Long> residentKbs = new ArrayDeque<>();
+    private final List<Worker> destroyed = Collections.synchronizedList(new ArrayList<Worker>());
+    private int created;
+
+    private void willCreate(Long... residentKbs) {
+      this.residentKbs.addAll(Arrays.asList(residentKbs));
+    }
+
+    @Override
+    synchronized Worker startWorker(WorkerKey key) {
+      Long residentKb = residentKbs.poll();
+      return new FakeWorker(created++, residentKb == null ? -1 : residentKb);
+    }
+
+    @Override
+    void destroyWorker(WorkerKey key, Worker worker) {
+      destroyed.add(worker);
+      super.destroyWorker(key, worker);
+    }
+  }
+
+  private FakeWorkerFactory factory;
+  private WorkerPool pool;
+  private WorkerKey keyA;
+  private WorkerKey keyB;
+  private WorkerKey keyC;
+
+  @Before
+  public void setUp() {
+    Path workDir = new InMemoryFileSystem(BlazeClock.instance()).getPath("/execroot");
+    keyA = newKey(workDir, "A");
+    keyB = newKey(workDir, "B");
+    keyC = newKey(workDir, "C");
+    factory = new FakeWorkerFactory();
+    pool = newPool(factory);
+  }
+
+  @After
+  public void tearDown() {
+    pool.close();
+  }
+
+  private static WorkerKey newKey(Path workDir, String mnemonic) {
+    return new WorkerKey(
+        ImmutableList.of(mnemonic), ImmutableMap.<String, String>of(), workDir, mnemonic);
+  }
+
+  private static WorkerPool newPool(WorkerFactory factory) {
+    GenericKeyedObjectPoolConfig config = new GenericKeyedObjectPoolConfig();
+    config.setMaxTotalPerKey(3);
+    return new WorkerPool(factory, config);
+  }
+
+  @Test
+  public void evictsLargestWorkersFirst() throws Exception {
+    factory.willCreate(100L, 300L, 200L);
+    pool.addObject(keyA);
+    pool.addObject(keyA);
+    pool.addObject(keyB);
+
+    assertThat(pool.evictLargestWorkers(600)).isEqualTo(0);
+    assertThat(factory.destroyed).isEmpty();
+
+    assertThat(pool.evictLargestWorkers(350)).isEqualTo(1);
+    assertThat(factory.destroyed.toString()).isEqualTo("[300 KB]");
+    assertThat(pool.getNumIdle(keyA)).isEqualTo(1);
+    assertThat(pool.getNumIdle(keyB)).isEqualTo(1);
+
+    assertThat(pool.evictLargestWorkers(100)).isEqualTo(1);
+    assertThat(factory.destroyed.toString()).isEqualTo("[300 KB, 200 KB]");
+    assertThat(pool.getNumIdle(keyA)).isEqualTo(1);
+    assertThat(pool.getNumIdle(keyB)).isEqualTo(0);
+  }
+
+  @Test
+  public void neverEvictsWorkersWithUnknownMemory() throws Exception {
+    factory.willCreate(-1L, 50L);
+    pool.addObject(keyA);
+    pool.addObject(keyA);
+
+    assertThat(pool.evictLargestWorkers(0)).isEqualTo(1);
+    assertThat(factory.destroyed.toString()).isEqualTo("[50 KB]");
+    assertThat(pool.getNumIdle(keyA)).isEqualTo(1);
+  }
+
+  @Test
+  public void evictsIdleWorkersWithoutBorrowingThem() throws Exception {
+    factory.willCreate(100L, 200L, 300L);
+    pool.addObject(keyA);
+    pool.addObject(keyA);
+    pool.addObject(keyA);
+    Worker active = pool.borrowObject(keyA);
+    long borrowedCount = pool.getBorrowedCount();
+
+    assertThat(pool.evictLargestWorkers(0)).isEqualTo(2);
+    assertThat(factory.destroyed).doesNotContain(active);
+    assertThat(pool.getBorrowedCount()).isEqualTo(borrowedCount);
+    assertThat(pool.getNumIdle(keyA)).isEqualTo(0);
+    assertThat(pool.getNumActive(keyA)).isEqualTo(1);
+
+    pool.returnObject(keyA, active);
+    assertThat(pool.getNumIdle(keyA)).isEqualTo(1);
+    assertThat(pool.evictLargestWorkers(0)).isEqualTo(1);
+    assertThat(factory.destroyed).contains(active);
+  }
+
+  @Test
+  public void evictsWorkerOfMultiplexer() throws Exception {
+    factory.willCreate(500L, 100L);
+    WorkerMultiplexer multiplexer = pool.getMultiplexer(keyB, 2);
+    pool.addObject(keyA);
+
+    assertThat(pool.evictLargestWorkers(200)).isEqualTo(1);
+    assertThat(factory.destroyed).containsExactly(multiplexer.getWorker());
+    assertThat(pool.getNumIdle(keyA)).isEqualTo(1);
+    assertThat(pool.getMultiplexer(keyB, 2)).isNotSameAs(multiplexer);
+  }
+
+  @Test
+  public void prewarmStartsTheWorkersUsedBefore() throws Exception {
+    Worker first = pool.borrowObject(keyA);
+    Worker second = pool.borrowObject(keyA);
+    pool.returnObject(keyA, first);
+    pool.returnObject(keyA, second);
+    pool.getMultiplexer(keyB, 4);
+    WorkerPool.Usage usage = pool.takeUsage();
+    assertThat(usage.getWorkers()).isEqualTo(ImmutableMap.of(keyA, 2));
+    assertThat(usage.getMultiplexers()).isEqualTo(ImmutableMap.of(keyB, 4));
+    assertThat(pool.takeUsage().isEmpty()).isTrue();
+
+    // A new server starts what the previous one used, minus what is already running, and no more
+    // than the pool allows per key.
+    pool.close();
+    factory = new FakeWorkerFactory();
+    pool = newPool(factory);
+    pool.addObject(keyA);
+    usage = new WorkerPool.Usage(ImmutableMap.of(keyA, 2, keyC, 10), usage.getMultiplexers());
+    pool.prewarm(usage);
+
+    // 1 more for A, 3 for C and the multiplexer of B.
+    long deadline = System.currentTimeMillis() + 10000;
+    while (factory.getLiveWorkers().size() < 6 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(factory.getLiveWorkers().size()).isEqualTo(6);
+    assertThat(pool.getNumIdle(keyA)).isEqualTo(2);
+    assertThat(pool.getNumIdle(keyC)).isEqualTo(3);
+    assertThat(factory.getLiveWorkers().values()).contains(keyB);
+    // Prewarmed workers don't count as used.
+    assertThat(pool.takeUsage().isEmpty()).isTrue();
+  }
+}
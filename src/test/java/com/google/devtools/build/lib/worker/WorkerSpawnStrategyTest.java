@@ -0,0 +1,121 @@
+// Copyright 2016 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputFileCache;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.worker.WorkerProtocol.Input;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.protobuf.ByteString;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+/** Tests for {@link WorkerSpawnStrategy}. */
+@RunWith(JUnit4.class)
+public class WorkerSpawnStrategyTest {
+
+  /** A cache that knows the digests in a map, and fails for the input "broken". */
+  private static final class FakeActionInputFileCache implements ActionInputFileCache {
+    private final Map<String, ByteString> digests;
+
+    private FakeActionInputFileCache(Map<String, ByteString> digests) {
+      this.digests = digests;
+    }
+
+    @Override
+    public ByteString getDigest(ActionInput input) throws IOException {
+      if (input.getExecPathString().equals("broken")) {
+        throw new IOException("cannot digest");
+      }
+      return digests.get(input.getExecPathString());
+    }
+
+    @Override
+    public boolean isFile(Artifact input) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getSizeInBytes(ActionInput input) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean contentsAvailableLocally(ByteString digest) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ActionInput getInputFromDigest(ByteString digest) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Path getInputPath(ActionInput input) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static Input input(String path, ByteString digest) {
+    return Input.newBuilder().setPath(path).setDigest(digest).build();
+  }
+
+  @Test
+  public void workRequestCarriesInputDigests() throws Exception {
+    ByteString digestA = ByteString.copyFromUtf8("digest of a");
+    ByteString digestB = ByteString.copyFromUtf8("digest of b");
+    ActionInputFileCache cache = new FakeActionInputFileCache(
+        ImmutableMap.of("lib/a.jar", digestA, "src/B.java", digestB));
+
+    WorkRequest request = WorkRequest.newBuilder()
+        .addArguments("@flagfile")
+        .addAllInputs(WorkerSpawnStrategy.getInputDigests(
+            ActionInputHelper.fromPaths(ImmutableList.of("lib/a.jar", "src/B.java")), cache))
+        .build();
+
+    // The worker reads the request as it is written to its stdin.
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    request.writeDelimitedTo(out);
+    WorkRequest received =
+        WorkRequest.parseDelimitedFrom(new ByteArrayInputStream(out.toByteArray()));
+    assertThat(received.getArgumentsList()).containsExactly("@flagfile");
+    assertThat(received.getInputsList())
+        .containsExactly(input("lib/a.jar", digestA), input("src/B.java", digestB))
+        .inOrder();
+  }
+
+  @Test
+  public void leavesOutInputsWithoutDigest() throws Exception {
+    ByteString digest = ByteString.copyFromUtf8("digest");
+    ActionInputFileCache cache = new FakeActionInputFileCache(ImmutableMap.of("a.jar", digest));
+
+    assertThat(WorkerSpawnStrategy.getInputDigests(
+            ActionInputHelper.fromPaths(ImmutableList.of("directory", "a.jar", "broken")), cache))
+        .containsExactly(input("a.jar", digest));
+  }
+}
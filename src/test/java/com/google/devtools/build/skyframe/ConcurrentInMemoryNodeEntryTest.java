@@ -0,0 +1,87 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+import com.google.devtools.build.skyframe.NodeEntry.DependencyState;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link ConcurrentInMemoryNodeEntry}. Runs all of the {@link InMemoryNodeEntryTest}
+ * tests, plus some specific to reverse deps buffered on done nodes.
+ */
+@RunWith(JUnit4.class)
+public class ConcurrentInMemoryNodeEntryTest extends InMemoryNodeEntryTest {
+
+  private static final SkyFunctionName NODE_TYPE = SkyFunctionName.create("Type");
+
+  private static SkyKey key(String name) {
+    return new SkyKey(NODE_TYPE, name);
+  }
+
+  @Override
+  protected InMemoryNodeEntry makeEntry() {
+    return new ConcurrentInMemoryNodeEntry(/*keepEdges=*/true);
+  }
+
+  private static NodeEntry makeDone(NodeEntry entry) {
+    entry.addReverseDepAndCheckIfDone(null);
+    entry.setValue(new StringValue("value"), new IntVersion(0L));
+    return entry;
+  }
+
+  @Test
+  public void bufferedReverseDepsAreVisible() {
+    NodeEntry entry = makeDone(makeEntry());
+    assertEquals(DependencyState.DONE, entry.addReverseDepAndCheckIfDone(key("parent1")));
+    assertEquals(DependencyState.DONE, entry.addReverseDepAndCheckIfDone(key("parent2")));
+    assertThat(entry.getReverseDeps()).containsExactly(key("parent1"), key("parent2"));
+  }
+
+  @Test
+  public void removeBufferedReverseDep() {
+    NodeEntry entry = makeDone(makeEntry());
+    entry.addReverseDepAndCheckIfDone(key("parent1"));
+    entry.addReverseDepAndCheckIfDone(key("parent2"));
+    entry.removeReverseDep(key("parent1"));
+    assertThat(entry.getReverseDeps()).containsExactly(key("parent2"));
+  }
+
+  @Test
+  public void bufferedReverseDepsSurviveMarkDirty() {
+    NodeEntry entry = makeDone(makeEntry());
+    entry.addReverseDepAndCheckIfDone(key("parent"));
+    entry.markDirty(/*isChanged=*/true);
+    assertThat(entry.getReverseDeps()).containsExactly(key("parent"));
+    assertEquals(
+        DependencyState.NEEDS_SCHEDULING, entry.checkIfDoneForDirtyReverseDep(key("parent")));
+    entry.markRebuildingAndGetAllRemainingDirtyDirectDeps();
+    assertThat(entry.setValue(new StringValue("new value"), new IntVersion(1L)))
+        .containsExactly(key("parent"));
+    assertThat(entry.getReverseDeps()).containsExactly(key("parent"));
+  }
+
+  @Test
+  public void edgelessEntryDropsReverseDeps() {
+    NodeEntry entry = makeDone(new ConcurrentInMemoryNodeEntry(/*keepEdges=*/false));
+    assertEquals(DependencyState.DONE, entry.addReverseDepAndCheckIfDone(key("parent")));
+    assertEquals(new StringValue("value"), entry.getValue());
+  }
+}
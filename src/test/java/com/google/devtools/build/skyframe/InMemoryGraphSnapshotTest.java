@@ -0,0 +1,135 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+import com.google.devtools.build.skyframe.GraphTester.ValueComputer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Tests for {@link InMemoryGraphSnapshot}. */
+@RunWith(JUnit4.class)
+public class InMemoryGraphSnapshotTest {
+
+  private static final String IDENTITY = "identity";
+
+  private final GraphTester tester = new GraphTester();
+  private final AtomicInteger topComputations = new AtomicInteger();
+  private RecordingDifferencer differencer;
+  private MemoizingEvaluator evaluator;
+  private BuildDriver driver;
+
+  @Before
+  public void setUp() {
+    tester.getOrCreate("top").addDependency("leaf1").addDependency("leaf2")
+        .setComputedValue(new ValueComputer() {
+          @Override
+          public SkyValue compute(Map<SkyKey, SkyValue> deps, SkyFunction.Environment env)
+              throws InterruptedException {
+            topComputations.incrementAndGet();
+            return GraphTester.CONCATENATE.compute(deps, env);
+          }
+        });
+    tester.set("leaf1", new StringValue("a"));
+    tester.set("leaf2", new StringValue("b"));
+    startServer();
+  }
+
+  private void startServer() {
+    differencer = new RecordingDifferencer();
+    evaluator = new InMemoryMemoizingEvaluator(
+        ImmutableMap.of(GraphTester.NODE_TYPE, tester.getFunction()), differencer);
+    driver = new SequentialBuildDriver(evaluator);
+  }
+
+  private StringValue evalTop() throws Exception {
+    EvaluationResult<StringValue> result = driver.evaluate(
+        ImmutableList.of(GraphTester.skyKey("top")), /*keepGoing=*/false, 1,
+        NullEventHandler.INSTANCE);
+    return result.get(GraphTester.skyKey("top"));
+  }
+
+  private byte[] save(Predicate<SkyKey> pred) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    evaluator.saveSnapshot(pred, IDENTITY, out);
+    return out.toByteArray();
+  }
+
+  private int load(byte[] snapshot, String identity) throws Exception {
+    return evaluator.loadSnapshot(identity, new ByteArrayInputStream(snapshot));
+  }
+
+  @Test
+  public void restoredValuesAreNotRecomputed() throws Exception {
+    assertEquals(new StringValue("ab"), evalTop());
+    byte[] snapshot = save(Predicates.<SkyKey>alwaysTrue());
+
+    startServer();
+    assertEquals(3, load(snapshot, IDENTITY));
+    assertEquals(new StringValue("ab"), evalTop());
+    assertEquals(1, topComputations.get());
+  }
+
+  @Test
+  public void invalidatingRestoredValueRecomputesParents() throws Exception {
+    evalTop();
+    byte[] snapshot = save(Predicates.<SkyKey>alwaysTrue());
+
+    startServer();
+    load(snapshot, IDENTITY);
+    tester.set("leaf1", new StringValue("c"));
+    differencer.invalidate(tester.getModifiedValues());
+    assertEquals(new StringValue("cb"), evalTop());
+    assertEquals(2, topComputations.get());
+  }
+
+  @Test
+  public void valuesWithUnsavedDepsAreNotSaved() throws Exception {
+    evalTop();
+    byte[] snapshot =
+        save(Predicates.not(Predicates.equalTo(GraphTester.skyKey("leaf2"))));
+
+    startServer();
+    assertEquals(1, load(snapshot, IDENTITY));
+    assertThat(evaluator.getValues().keySet()).containsExactly(GraphTester.skyKey("leaf1"));
+    assertEquals(new StringValue("ab"), evalTop());
+    assertEquals(2, topComputations.get());
+  }
+
+  @Test
+  public void snapshotWithOtherIdentityIsIgnored() throws Exception {
+    evalTop();
+    byte[] snapshot = save(Predicates.<SkyKey>alwaysTrue());
+
+    startServer();
+    assertEquals(0, load(snapshot, "other identity"));
+    assertThat(evaluator.getValues()).isEmpty();
+  }
+}
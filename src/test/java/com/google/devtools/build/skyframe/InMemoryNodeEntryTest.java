@@ -55,9 +55,13 @@ public class InMemoryNodeEntryTest {
     return new SkyKey(NODE_TYPE, name);
   }
 
+  protected InMemoryNodeEntry makeEntry() {
+    return new InMemoryNodeEntry();
+  }
+
   @Test
   public void createEntry() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     assertFalse(entry.isDone());
     assertTrue(entry.isReady());
@@ -68,7 +72,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void signalEntry() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep1 = key("dep1");
     addTemporaryDirectDep(entry, dep1);
@@ -94,7 +98,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void reverseDeps() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     SkyKey mother = key("mother");
     SkyKey father = key("father");
     assertEquals(DependencyState.NEEDS_SCHEDULING, entry.addReverseDepAndCheckIfDone(mother));
@@ -110,7 +114,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void errorValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     ReifiedSkyFunctionException exception = new ReifiedSkyFunctionException(
         new GenericFunctionException(new SomeErrorException("oops"), Transience.PERSISTENT),
@@ -124,7 +128,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void errorAndValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     ReifiedSkyFunctionException exception = new ReifiedSkyFunctionException(
         new GenericFunctionException(new SomeErrorException("oops"), Transience.PERSISTENT),
@@ -137,7 +141,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnNullErrorAndValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     try {
       setValue(entry, /*value=*/null, /*errorInfo=*/null, /*graphVersion=*/0L);
@@ -149,7 +153,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnTooManySignals() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     try {
       entry.signalDep();
@@ -161,7 +165,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnDifferentValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
     try {
@@ -175,7 +179,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void dirtyLifecycle() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -204,7 +208,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void changedLifecycle() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -230,7 +234,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void markDirtyThenChanged() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     addTemporaryDirectDep(entry, key("dep"));
     entry.signalDep();
@@ -252,7 +256,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void markChangedThenDirty() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     addTemporaryDirectDep(entry, key("dep"));
     entry.signalDep();
@@ -273,7 +277,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnTwiceMarkedChanged() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
     assertFalse(entry.isDirty());
@@ -289,7 +293,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnTwiceMarkedDirty() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     addTemporaryDirectDep(entry, key("dep"));
     entry.signalDep();
@@ -305,7 +309,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnAddReverseDepTwice() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     SkyKey parent = key("parent");
     assertEquals(DependencyState.NEEDS_SCHEDULING, entry.addReverseDepAndCheckIfDone(parent));
     try {
@@ -320,7 +324,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnAddReverseDepTwiceAfterDone() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
     SkyKey parent = key("parent");
@@ -337,7 +341,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void crashOnAddReverseDepBeforeAfterDone() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     SkyKey parent = key("parent");
     assertEquals(DependencyState.NEEDS_SCHEDULING, entry.addReverseDepAndCheckIfDone(parent));
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
@@ -353,7 +357,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void pruneBeforeBuild() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     SkyKey dep = key("dep");
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     addTemporaryDirectDep(entry, dep);
@@ -398,7 +402,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void pruneAfterBuild() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -422,7 +426,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void noPruneWhenDetailsChange() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -455,7 +459,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void pruneErrorValue() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -481,7 +485,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void getDependencyGroup() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     SkyKey dep2 = key("dep2");
@@ -505,7 +509,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void maintainDependencyGroupAfterRemoval() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     SkyKey dep2 = key("dep2");
@@ -535,7 +539,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void noPruneWhenDepsChange() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     SkyKey dep = key("dep");
     addTemporaryDirectDep(entry, dep);
@@ -559,7 +563,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void checkDepsOneByOne() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
     List<SkyKey> deps = new ArrayList<>();
     for (int ii = 0; ii < 10; ii++) {
@@ -586,7 +590,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void signalOnlyNewParents() {
-    NodeEntry entry = new InMemoryNodeEntry();
+    NodeEntry entry = makeEntry();
     entry.addReverseDepAndCheckIfDone(key("parent"));
     setValue(entry, new SkyValue() {}, /*errorInfo=*/null, /*graphVersion=*/0L);
     entry.markDirty(/*isChanged=*/true);
@@ -600,7 +604,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void testClone() {
-    InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    InMemoryNodeEntry entry = makeEntry();
     IntVersion version = new IntVersion(0);
     IntegerValue originalValue = new IntegerValue(42);
     SkyKey originalChild = key("child");
@@ -642,7 +646,7 @@ public class InMemoryNodeEntryTest {
 
   @Test
   public void getGroupedDirectDeps() {
-    InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    InMemoryNodeEntry entry = makeEntry();
     ImmutableList<ImmutableSet<SkyKey>> groupedDirectDeps = ImmutableList.of(
         ImmutableSet.of(key("1A")),
         ImmutableSet.of(key("2A"), key("2B")),
@@ -0,0 +1,120 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.concurrent.ExecutorUtil;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures monitor contention on done nodes with a large fan-in, comparing {@link InMemoryGraph}
+ * with and without {@link ConcurrentInMemoryNodeEntry} nodes.
+ *
+ * <p>The synthetic graph has a few "hot" done nodes (think toolchains or precomputed values) and a
+ * large number of parents, each of which registers itself as a reverse dep of every hot node and
+ * then reads its value, the way {@link ParallelEvaluator} workers do.
+ *
+ * <p>This is not a test; run it by hand, e.g. with arguments
+ * {@code <threads> <parents> <hot nodes> <rounds>}. Defaults to {@code 32 200000 4 5}.
+ */
+public class NodeEntryContentionBenchmark {
+
+  private static final SkyFunctionName PARENT = SkyFunctionName.create("Parent");
+  private static final SkyFunctionName HOT = SkyFunctionName.create("Hot");
+
+  private final int numThreads;
+  private final int numParents;
+  private final int numHotNodes;
+
+  private NodeEntryContentionBenchmark(int numThreads, int numParents, int numHotNodes) {
+    this.numThreads = numThreads;
+    this.numParents = numParents;
+    this.numHotNodes = numHotNodes;
+  }
+
+  /** Runs one fan-in round on a fresh graph and returns the elapsed wall time in nanoseconds. */
+  private long runOnce(boolean concurrentNodeEntries) throws InterruptedException {
+    final InMemoryGraph graph =
+        new InMemoryGraph(/*keepEdges=*/true, concurrentNodeEntries);
+    final SkyKey[] hotKeys = new SkyKey[numHotNodes];
+    for (int i = 0; i < numHotNodes; i++) {
+      hotKeys[i] = new SkyKey(HOT, "hot" + i);
+      NodeEntry entry = graph.createIfAbsent(hotKeys[i]);
+      entry.addReverseDepAndCheckIfDone(null);
+      entry.setValue(new StringValue("hot" + i), new IntVersion(0L));
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch finished = new CountDownLatch(numThreads);
+    for (int t = 0; t < numThreads; t++) {
+      final int thread = t;
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int p = thread; p < numParents; p += numThreads) {
+              SkyKey parent = new SkyKey(PARENT, "parent" + p);
+              for (SkyKey hotKey : hotKeys) {
+                NodeEntry hot = graph.get(hotKey);
+                Preconditions.checkState(
+                    hot.addReverseDepAndCheckIfDone(parent) == NodeEntry.DependencyState.DONE);
+                Preconditions.checkNotNull(hot.getValue());
+              }
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          } finally {
+            finished.countDown();
+          }
+        }
+      });
+    }
+    long startNanos = System.nanoTime();
+    start.countDown();
+    finished.await();
+    long elapsed = System.nanoTime() - startNanos;
+    ExecutorUtil.interruptibleShutdown(pool);
+
+    for (SkyKey hotKey : hotKeys) {
+      int reverseDeps = Iterables.size(graph.get(hotKey).getReverseDeps());
+      Preconditions.checkState(reverseDeps == numParents, "%s %s", hotKey, reverseDeps);
+    }
+    return elapsed;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+    int numParents = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+    int numHotNodes = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+    int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+    NodeEntryContentionBenchmark benchmark =
+        new NodeEntryContentionBenchmark(numThreads, numParents, numHotNodes);
+    for (int round = 0; round < rounds; round++) {
+      long synchronizedNanos = benchmark.runOnce(/*concurrentNodeEntries=*/false);
+      long concurrentNodeEntriesNanos = benchmark.runOnce(/*concurrentNodeEntries=*/true);
+      System.out.printf("round %d: InMemoryNodeEntry %d ms, ConcurrentInMemoryNodeEntry %d ms%n",
+          round,
+          TimeUnit.NANOSECONDS.toMillis(synchronizedNanos),
+          TimeUnit.NANOSECONDS.toMillis(concurrentNodeEntriesNanos));
+    }
+  }
+}
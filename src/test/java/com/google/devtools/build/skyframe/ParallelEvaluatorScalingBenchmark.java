@@ -0,0 +1,130 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Compares the scaling of {@link ParallelEvaluator} with a shared-queue thread pool and with a
+ * work-stealing pool, by evaluating a synthetic tree of nodes from scratch at several thread
+ * counts.
+ *
+ * <p>Each interior node requests all of its children at once, and each leaf does a small amount
+ * of work, so that most of the time is spent scheduling nodes.
+ *
+ * <p>This is not a test; run it by hand, e.g. with arguments
+ * {@code <fan-out> <depth> <rounds> <threads>...}. Defaults to {@code 10 5 5 8 32 64}.
+ */
+public class ParallelEvaluatorScalingBenchmark {
+
+  private static final SkyFunctionName NODE = SkyFunctionName.create("Node");
+
+  private static final class NodeFunction implements SkyFunction {
+    private final int fanOut;
+
+    private NodeFunction(int fanOut) {
+      this.fanOut = fanOut;
+    }
+
+    @Nullable
+    @Override
+    public SkyValue compute(SkyKey skyKey, Environment env) {
+      String name = (String) skyKey.argument();
+      int depth = Integer.parseInt(name.substring(0, name.indexOf('/')));
+      if (depth == 0) {
+        int hash = name.hashCode();
+        for (int i = 0; i < 2000; i++) {
+          hash = hash * 31 + i;
+        }
+        return new StringValue(Integer.toString(hash));
+      }
+      List<SkyKey> children = new ArrayList<>(fanOut);
+      for (int i = 0; i < fanOut; i++) {
+        children.add(key(depth - 1, name + "." + i));
+      }
+      Map<SkyKey, SkyValue> values = env.getValues(children);
+      if (env.valuesMissing()) {
+        return null;
+      }
+      return new StringValue(Integer.toString(values.size()));
+    }
+
+    @Nullable
+    @Override
+    public String extractTag(SkyKey skyKey) {
+      return null;
+    }
+  }
+
+  private static SkyKey key(int depth, String path) {
+    return new SkyKey(NODE, depth + "/" + path);
+  }
+
+  /** Evaluates the tree on a fresh graph and returns the elapsed wall time in nanoseconds. */
+  private static long runOnce(int fanOut, int depth, int threads, boolean workStealing)
+      throws InterruptedException {
+    InMemoryMemoizingEvaluator evaluator = new InMemoryMemoizingEvaluator(
+        ImmutableMap.of(NODE, new NodeFunction(fanOut)), new RecordingDifferencer());
+    long start = System.nanoTime();
+    EvaluationResult<SkyValue> result = evaluator.evaluate(
+        ImmutableList.of(key(depth, "root")), new IntVersion(0), /*keepGoing=*/false, threads,
+        workStealing, NullEventHandler.INSTANCE);
+    long elapsed = System.nanoTime() - start;
+    Preconditions.checkState(!result.hasError(), result);
+    return elapsed;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int fanOut = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    int depth = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    List<Integer> threadCounts = new ArrayList<>();
+    for (int i = 3; i < args.length; i++) {
+      threadCounts.add(Integer.parseInt(args[i]));
+    }
+    if (threadCounts.isEmpty()) {
+      threadCounts = ImmutableList.of(8, 32, 64);
+    }
+    long nodes = 0;
+    for (int d = 0; d <= depth; d++) {
+      nodes += (long) Math.pow(fanOut, d);
+    }
+    System.out.printf("%d nodes, %d available processors%n",
+        nodes, Runtime.getRuntime().availableProcessors());
+
+    for (int threads : threadCounts) {
+      long bestQueue = Long.MAX_VALUE;
+      long bestStealing = Long.MAX_VALUE;
+      for (int round = 0; round < rounds; round++) {
+        bestQueue = Math.min(bestQueue, runOnce(fanOut, depth, threads, false));
+        bestStealing = Math.min(bestStealing, runOnce(fanOut, depth, threads, true));
+      }
+      System.out.printf("%3d threads: shared queue %5d ms, work stealing %5d ms%n",
+          threads,
+          TimeUnit.NANOSECONDS.toMillis(bestQueue),
+          TimeUnit.NANOSECONDS.toMillis(bestStealing));
+    }
+  }
+}
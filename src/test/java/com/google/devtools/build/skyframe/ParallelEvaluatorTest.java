@@ -101,6 +101,17 @@ public class ParallelEvaluatorTest {
     }
   }
 
+  /** Whether the evaluators under test use a work-stealing thread pool. */
+  protected boolean useWorkStealing() {
+    return false;
+  }
+
+  /** The prioritizer of the evaluators under test, or null to evaluate nodes in FIFO order. */
+  @Nullable
+  protected EvaluationPrioritizer getPrioritizer() {
+    return null;
+  }
+
   private ParallelEvaluator makeEvaluator(ProcessableGraph graph,
       ImmutableMap<SkyFunctionName, ? extends SkyFunction> builders, boolean keepGoing,
       Predicate<Event> storedEventFilter) {
@@ -114,6 +125,8 @@ public class ParallelEvaluatorTest {
         storedEventFilter,
         keepGoing,
         150,
+        useWorkStealing(),
+        getPrioritizer(),
         revalidationReceiver,
         new DirtyKeyTrackerImpl(),
         new ParallelEvaluator.Receiver<Collection<SkyKey>>() {
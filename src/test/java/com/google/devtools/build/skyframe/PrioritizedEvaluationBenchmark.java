@@ -0,0 +1,138 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Measures the effect of an {@link EvaluationPrioritizer} on the wall time of a clean evaluation
+ * whose critical path is queued behind many cheap nodes.
+ *
+ * <p>The root depends on many independent cheap nodes, and on the end of a chain of expensive
+ * nodes. Nodes simulate work by sleeping, so the results do not depend on the number of
+ * processors. The prioritizer gives each node of the chain the length of the chain below it, as a
+ * history of previous builds would.
+ *
+ * <p>This is not a test; run it by hand, e.g. with arguments
+ * {@code <cheap nodes> <cheap millis> <chain length> <chain millis> <threads>}. Defaults to
+ * {@code 400 5 20 20 4}.
+ */
+public class PrioritizedEvaluationBenchmark {
+
+  private static final SkyFunctionName NODE = SkyFunctionName.create("Node");
+
+  private static final class NodeFunction implements SkyFunction {
+    private final int cheapNodes;
+    private final int cheapMillis;
+    private final int chainLength;
+    private final int chainMillis;
+
+    private NodeFunction(int cheapNodes, int cheapMillis, int chainLength, int chainMillis) {
+      this.cheapNodes = cheapNodes;
+      this.cheapMillis = cheapMillis;
+      this.chainLength = chainLength;
+      this.chainMillis = chainMillis;
+    }
+
+    @Nullable
+    @Override
+    public SkyValue compute(SkyKey skyKey, Environment env) {
+      String name = (String) skyKey.argument();
+      List<SkyKey> deps = new ArrayList<>();
+      if (name.equals("root")) {
+        for (int i = 0; i < cheapNodes; i++) {
+          deps.add(new SkyKey(NODE, "cheap" + i));
+        }
+        deps.add(chainKey(chainLength - 1));
+      } else if (name.startsWith("chain") && !name.equals("chain0")) {
+        deps.add(chainKey(Integer.parseInt(name.substring("chain".length())) - 1));
+      }
+      env.getValues(deps);
+      if (env.valuesMissing()) {
+        return null;
+      }
+      if (!name.equals("root")) {
+        Uninterruptibles.sleepUninterruptibly(
+            name.startsWith("chain") ? chainMillis : cheapMillis, TimeUnit.MILLISECONDS);
+      }
+      return new StringValue(name);
+    }
+
+    @Nullable
+    @Override
+    public String extractTag(SkyKey skyKey) {
+      return null;
+    }
+  }
+
+  private static SkyKey chainKey(int index) {
+    return new SkyKey(NODE, "chain" + index);
+  }
+
+  private static final EvaluationPrioritizer CHAIN_FIRST = new EvaluationPrioritizer() {
+    @Override
+    public int getPriority(SkyKey key) {
+      String name = (String) key.argument();
+      if (name.equals("root")) {
+        return Integer.MAX_VALUE;
+      }
+      return name.startsWith("chain") ? Integer.parseInt(name.substring("chain".length())) + 1 : 0;
+    }
+  };
+
+  /** Evaluates the graph on a fresh evaluator and returns the elapsed wall time in nanoseconds. */
+  private static long runOnce(NodeFunction function, int threads,
+      @Nullable EvaluationPrioritizer prioritizer) throws InterruptedException {
+    InMemoryMemoizingEvaluator evaluator = new InMemoryMemoizingEvaluator(
+        ImmutableMap.of(NODE, function), new RecordingDifferencer());
+    evaluator.setPrioritizer(prioritizer);
+    long start = System.nanoTime();
+    EvaluationResult<SkyValue> result = evaluator.evaluate(
+        ImmutableList.of(new SkyKey(NODE, "root")), new IntVersion(0), /*keepGoing=*/false,
+        threads, NullEventHandler.INSTANCE);
+    long elapsed = System.nanoTime() - start;
+    Preconditions.checkState(!result.hasError(), result);
+    return elapsed;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int cheapNodes = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+    int cheapMillis = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int chainLength = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    int chainMillis = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+    int threads = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+    NodeFunction function = new NodeFunction(cheapNodes, cheapMillis, chainLength, chainMillis);
+    System.out.printf("Critical path %d ms, total work %d ms on %d threads%n",
+        chainLength * chainMillis, cheapNodes * cheapMillis + chainLength * chainMillis, threads);
+    long bestFifo = Long.MAX_VALUE;
+    long bestPrioritized = Long.MAX_VALUE;
+    for (int round = 0; round < 3; round++) {
+      bestFifo = Math.min(bestFifo, runOnce(function, threads, null));
+      bestPrioritized = Math.min(bestPrioritized, runOnce(function, threads, CHAIN_FIRST));
+    }
+    System.out.printf("FIFO %5d ms, prioritized %5d ms%n",
+        TimeUnit.NANOSECONDS.toMillis(bestFifo), TimeUnit.NANOSECONDS.toMillis(bestPrioritized));
+  }
+}
@@ -0,0 +1,117 @@
+// Copyright 2015 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.skyframe.GraphTester.StringValue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Runs the tests of {@link ParallelEvaluatorTest} with an {@link EvaluationPrioritizer}, and tests
+ * the order in which prioritized nodes are evaluated.
+ */
+@RunWith(JUnit4.class)
+public class PrioritizedParallelEvaluatorTest extends ParallelEvaluatorTest {
+
+  @Override
+  protected EvaluationPrioritizer getPrioritizer() {
+    return new EvaluationPrioritizer() {
+      @Override
+      public int getPriority(SkyKey key) {
+        // Any order must give the same results.
+        return key.hashCode() % 100;
+      }
+    };
+  }
+
+  private static final SkyFunctionName NODE = SkyFunctionName.create("Node");
+  private static final ImmutableList<String> CHILDREN = ImmutableList.of("low", "high", "middle");
+  private static final ImmutableMap<String, Integer> PRIORITIES =
+      ImmutableMap.of("top", Integer.MAX_VALUE, "low", 1, "middle", 2, "high", 3);
+
+  @Test
+  public void readyNodesAreEvaluatedByPriority() throws Exception {
+    final List<String> evaluated = Collections.synchronizedList(new ArrayList<String>());
+    SkyFunction function = new SkyFunction() {
+      @Nullable
+      @Override
+      public SkyValue compute(SkyKey skyKey, Environment env) {
+        String name = (String) skyKey.argument();
+        if (!name.equals("top")) {
+          evaluated.add(name);
+          return new StringValue(name);
+        }
+        List<SkyKey> children = new ArrayList<>();
+        for (String child : CHILDREN) {
+          children.add(new SkyKey(NODE, child));
+        }
+        env.getValues(children);
+        return env.valuesMissing() ? null : new StringValue(name);
+      }
+
+      @Nullable
+      @Override
+      public String extractTag(SkyKey skyKey) {
+        return null;
+      }
+    };
+    EvaluationPrioritizer prioritizer = new EvaluationPrioritizer() {
+      @Override
+      public int getPriority(SkyKey key) {
+        return PRIORITIES.get(key.argument());
+      }
+    };
+    // With a single thread, all children are queued while the parent is evaluated.
+    ParallelEvaluator evaluator = new ParallelEvaluator(
+        new InMemoryGraph(),
+        new IntVersion(0),
+        ImmutableMap.of(NODE, function),
+        NullEventHandler.INSTANCE,
+        new MemoizingEvaluator.EmittedEventState(),
+        Predicates.<Event>alwaysTrue(),
+        /*keepGoing=*/false,
+        /*threadCount=*/1,
+        /*workStealing=*/false,
+        prioritizer,
+        /*progressReceiver=*/null,
+        new DirtyKeyTrackerImpl(),
+        new ParallelEvaluator.Receiver<Collection<SkyKey>>() {
+          @Override
+          public void accept(Collection<SkyKey> object) {
+            // ignore
+          }
+        });
+    EvaluationResult<StringValue> result =
+        evaluator.eval(ImmutableList.of(new SkyKey(NODE, "top")));
+    assertFalse(result.hasError());
+    assertEquals(ImmutableList.of("high", "middle", "low"), evaluated);
+  }
+}
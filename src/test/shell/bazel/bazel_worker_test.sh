@@ -269,6 +269,31 @@ EOF
   assert_not_equals "$worker_uuid_2" "$worker_uuid_3"
 }
 
+function test_multiplexed_worker() {
+  prepare_example_worker
+
+  cat >>BUILD <<'EOF'
+[work(
+  name = "hello_world_%s" % idx,
+  worker = ":worker",
+  args = ["--write_uuid", "hello world %s" % idx],
+) for idx in range(10)]
+EOF
+
+  bazel --batch clean
+  assert_workers_not_running
+
+  bazel build --strategy=Work=worker --worker_max_multiplex_requests=Work=4 \
+    $(for i in $(seq 0 9); do echo ":hello_world_$i"; done) \
+    || fail "build failed"
+  assert_workers_running
+
+  # Check that all requests were handled by the same worker process.
+  worker_uuids=$(cat bazel-bin/hello_world_*.out | grep UUID | cut -d' ' -f2 | sort -u)
+  assert_equals "1" "$(echo "$worker_uuids" | wc -l | tr -d ' ')"
+  assert_equals "hello world 7" "$(cat bazel-bin/hello_world_7.out | grep -v UUID)"
+}
+
 # When a worker does not conform to the protocol and returns a response that is not a parseable
 # protobuf, it must be killed, the output thrown away, a new worker restarted and Bazel has to retry
 # the action without struggling.